@@ -0,0 +1,110 @@
+package lambda;
+
+import org.crac.Resource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * Compares how long each handler takes to become ready on a plain cold start against a start restored from a
+ * snapshot, each measured in a fresh JVM.
+ * <p>
+ * A real snapshot needs a CRaC enabled JVM, so a restore is approximated. Both modes finish with
+ * {@code beforeCheckpoint}, which loads the hot path classes and closes the SDK clients, so they end with the same
+ * work. A cold start times everything from the constructor on. A restore runs the constructor and
+ * {@code beforeCheckpoint} before the clock starts, as a snapshot would already hold their result, and times
+ * {@code afterRestore} onwards.
+ * <p>
+ * The restored figure leaves out restoring the snapshot itself, which SnapStart reports separately as the restore
+ * duration and which is often the larger part. It is a lower bound on a real restore, and the difference between
+ * the two figures only a rough upper bound on what SnapStart can save. Run with {@code ./gradlew coldStartHarness}.
+ */
+public class ColdStartHarness {
+
+    private static final String CHILD_ARG = "--child";
+    private static final String COLD = "cold";
+    private static final String RESTORED = "restored";
+    private static final int RUNS = 5;
+
+    private static final List<String> HANDLERS = List.of(
+            "uk.gov.justice.digital.lambda.RedShiftTableExpiryLambda",
+            "uk.gov.justice.digital.lambda.StepFunctionDMSNotificationLambda"
+    );
+
+    private static final Map<String, String> DUMMY_ENVIRONMENT = Map.of(
+            "AWS_REGION", "eu-west-2",
+            "AWS_ACCESS_KEY_ID", "harness",
+            "AWS_SECRET_ACCESS_KEY", "harness",
+            "CLUSTER_ID", "harness",
+            "DB_NAME", "harness",
+            "CREDENTIAL_SECRET_ARN", "harness",
+            "EXPIRY_SECONDS", "86400"
+    );
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && CHILD_ARG.equals(args[0])) {
+            System.out.println(measure(args[1], args[2]));
+            return;
+        }
+
+        for (String handler : HANDLERS) {
+            long cold = median(handler, COLD);
+            long restored = median(handler, RESTORED);
+            System.out.println(format("%s: cold %d ms, restored %d ms excluding the snapshot restore", handler, cold, restored));
+        }
+    }
+
+    private static long measure(String handlerClass, String mode) throws Exception {
+        long start = System.nanoTime();
+        var handler = (Resource) Class.forName(handlerClass).getDeclaredConstructor().newInstance();
+
+        if (RESTORED.equals(mode)) {
+            handler.beforeCheckpoint(null);
+            start = System.nanoTime();
+            handler.afterRestore(null);
+        }
+        handler.beforeCheckpoint(null);
+
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static long median(String handlerClass, String mode) throws IOException, InterruptedException {
+        List<Long> timings = new ArrayList<>();
+        for (int run = 0; run < RUNS; run++) {
+            timings.add(runChild(handlerClass, mode));
+        }
+        Collections.sort(timings);
+        return timings.get(RUNS / 2);
+    }
+
+    private static long runChild(String handlerClass, String mode) throws IOException, InterruptedException {
+        var java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        var processBuilder = new ProcessBuilder(
+                java, "-cp", System.getProperty("java.class.path"), ColdStartHarness.class.getName(),
+                CHILD_ARG, handlerClass, mode
+        ).redirectErrorStream(true);
+        DUMMY_ENVIRONMENT.forEach(processBuilder.environment()::putIfAbsent);
+
+        var process = processBuilder.start();
+        String lastLine = null;
+        try (var reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lastLine = line;
+            }
+        }
+
+        if (process.waitFor() != 0 || lastLine == null) {
+            throw new IllegalStateException(format("Measuring %s (%s) failed: %s", handlerClass, mode, lastLine));
+        }
+        return Long.parseLong(lastLine.trim());
+    }
+}
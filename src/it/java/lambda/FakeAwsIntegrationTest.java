@@ -0,0 +1,140 @@
+package lambda;
+
+import lambda.fake.FakeContext;
+import lambda.fake.FakeDynamoDb;
+import lambda.fake.FakeRedshiftData;
+import lambda.fake.FakeS3;
+import lambda.fake.FakeStepFunctions;
+import lambda.fake.Faults;
+import org.junit.jupiter.api.Test;
+import uk.gov.justice.digital.clients.dynamo.DynamoDbClient;
+import uk.gov.justice.digital.clients.redshift.ExternalTableQueryExecutor;
+import uk.gov.justice.digital.clients.redshift.StatementStatusPoller;
+import uk.gov.justice.digital.clients.s3.S3Client;
+import uk.gov.justice.digital.clients.s3.S3MetadataScanner;
+import uk.gov.justice.digital.clients.stepfunctions.StepFunctionsClient;
+import uk.gov.justice.digital.common.Backoff;
+import uk.gov.justice.digital.lambda.RedShiftTableExpiryLambda;
+import uk.gov.justice.digital.lambda.StepFunctionDMSNotificationLambda;
+import uk.gov.justice.digital.services.RedShiftTableExpiryService;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static lambda.fake.FakeStepFunctions.Outcome.FAILED;
+import static lambda.fake.FakeStepFunctions.Outcome.SUCCEEDED;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static uk.gov.justice.digital.clients.dynamo.DynamoDbClient.CLAIMED_AT_KEY;
+import static uk.gov.justice.digital.common.Utils.REPLICATION_TASK_ARN_KEY;
+import static uk.gov.justice.digital.common.Utils.TASK_TOKEN_KEY;
+import static uk.gov.justice.digital.services.StepFunctionDMSNotificationService.DMS_TASK_FAILURE_EVENT_ID;
+import static uk.gov.justice.digital.services.StepFunctionDMSNotificationService.DMS_TASK_SUCCESS_EVENT_ID;
+
+/**
+ * Runs both lambdas end to end against the in-process fakes used by {@link LoadDriver}, checking the fakes behave
+ * as the real services would for the calls the lambdas make.
+ */
+public class FakeAwsIntegrationTest {
+
+    private static final String TOKEN_TABLE = "dpr-step-function-tokens";
+    private static final String TASK_ARN = "test-task-arn";
+
+    private final FakeContext context = new FakeContext(false);
+
+    @Test
+    public void shouldNotifyEachRegisteredTaskOnceAndIgnoreDuplicateStopEvents() {
+        var dynamoDb = new FakeDynamoDb(REPLICATION_TASK_ARN_KEY, Faults.none());
+        var stepFunctions = new FakeStepFunctions(Faults.none());
+        var lambda = new StepFunctionDMSNotificationLambda(
+                new DynamoDbClient(dynamoDb),
+                new StepFunctionsClient(stepFunctions),
+                Clock.systemUTC()
+        );
+
+        lambda.handleRequest(Map.of("token", "token-1", "replicationTaskArn", TASK_ARN + 1), context);
+        lambda.handleRequest(Map.of("token", "token-2", "replicationTaskArn", TASK_ARN + 2), context);
+        lambda.handleRequest(stopEvent(TASK_ARN + 1, DMS_TASK_SUCCESS_EVENT_ID), context);
+        lambda.handleRequest(stopEvent(TASK_ARN + 2, DMS_TASK_FAILURE_EVENT_ID), context);
+        lambda.handleRequest(stopEvent(TASK_ARN + 1, DMS_TASK_SUCCESS_EVENT_ID), context);
+
+        assertThat(stepFunctions.outcomes(), equalTo(Map.of("token-1", SUCCEEDED, "token-2", FAILED)));
+        dynamoDb.table(TOKEN_TABLE).values().forEach(item -> {
+            assertThat(item.containsKey(TASK_TOKEN_KEY), equalTo(false));
+            assertThat(item.containsKey(CLAIMED_AT_KEY), equalTo(true));
+        });
+    }
+
+    @Test
+    public void shouldFailStopEventOfTaskNeverRegistered() {
+        var lambda = new StepFunctionDMSNotificationLambda(
+                new DynamoDbClient(new FakeDynamoDb(REPLICATION_TASK_ARN_KEY, Faults.none())),
+                new StepFunctionsClient(new FakeStepFunctions(Faults.none())),
+                Clock.systemUTC()
+        );
+
+        assertThrows(RuntimeException.class, () -> lambda.handleRequest(stopEvent(TASK_ARN, DMS_TASK_SUCCESS_EVENT_ID), context));
+    }
+
+    @Test
+    public void shouldDropExpiredTablesAndInvalidTablesWithExpiredData() {
+        var redshiftData = new FakeRedshiftData(Faults.none(), 20, Clock.systemUTC());
+        var s3 = new FakeS3(Faults.none());
+        LoadDriver.createTables(redshiftData, s3, 8);
+
+        var lambda = expiryLambda(redshiftData, s3);
+
+        var result = lambda.handleRequest(Map.of(), context);
+
+        assertThat(result.get("complete"), equalTo(true));
+        assertThat(redshiftData.catalogue().keySet(), equalTo(Set.of("table_2", "table_3", "table_6", "table_7")));
+    }
+
+    @Test
+    public void shouldKeepTheExpiryServiceItWasGivenAcrossASnapshot() {
+        var redshiftData = new FakeRedshiftData(Faults.none(), 20, Clock.systemUTC());
+        var s3 = new FakeS3(Faults.none());
+        LoadDriver.createTables(redshiftData, s3, 8);
+        var lambda = expiryLambda(redshiftData, s3);
+
+        lambda.beforeCheckpoint(null);
+        lambda.afterRestore(null);
+        var result = lambda.handleRequest(Map.of(), context);
+
+        assertThat(result.get("complete"), equalTo(true));
+        assertThat(redshiftData.catalogue().keySet(), equalTo(Set.of("table_2", "table_3", "table_6", "table_7")));
+    }
+
+    @Test
+    public void loadDriverShouldReplayEveryEvent() throws InterruptedException {
+        var options = LoadDriver.Options.parse(new String[]{"--events=40", "--concurrency=4", "--latencyMillis=0", "--jitterMillis=1"});
+
+        List<LoadDriver.Latencies> latencies = LoadDriver.replayDmsEvents(options);
+
+        for (LoadDriver.Latencies latency : latencies) {
+            assertThat(latency.count(), equalTo(40));
+            assertThat(latency.failures(), equalTo(0));
+        }
+    }
+
+    private static Map<String, Object> stopEvent(String taskArn, String eventId) {
+        return Map.of("resources", List.of(taskArn), "detail", Map.of("eventId", eventId));
+    }
+
+    private static RedShiftTableExpiryLambda expiryLambda(FakeRedshiftData redshiftData, FakeS3 s3) {
+        var asyncDataClient = redshiftData.asyncClient();
+        var queryExecutor = new ExternalTableQueryExecutor(
+                redshiftData.syncClient(),
+                asyncDataClient,
+                new StatementStatusPoller(asyncDataClient, new Backoff(5, 5, 1, 0)),
+                "cluster",
+                "database",
+                "secret"
+        );
+        var scanner = new S3MetadataScanner(new S3Client(s3, 2), 4, new Backoff(0, 0, 1, 0), 0);
+        return new RedShiftTableExpiryLambda(new RedShiftTableExpiryService(scanner, queryExecutor, 86400));
+    }
+}
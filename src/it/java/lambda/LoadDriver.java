@@ -0,0 +1,263 @@
+package lambda;
+
+import lambda.fake.Faults;
+import lambda.fake.FakeContext;
+import lambda.fake.FakeDynamoDb;
+import lambda.fake.FakeRedshiftData;
+import lambda.fake.FakeS3;
+import lambda.fake.FakeStepFunctions;
+import uk.gov.justice.digital.clients.dynamo.DynamoDbClient;
+import uk.gov.justice.digital.clients.redshift.ExternalTableQueryExecutor;
+import uk.gov.justice.digital.clients.redshift.StatementStatusPoller;
+import uk.gov.justice.digital.clients.s3.S3Client;
+import uk.gov.justice.digital.clients.s3.S3MetadataScanner;
+import uk.gov.justice.digital.clients.stepfunctions.StepFunctionsClient;
+import uk.gov.justice.digital.common.Backoff;
+import uk.gov.justice.digital.lambda.RedShiftTableExpiryLambda;
+import uk.gov.justice.digital.lambda.StepFunctionDMSNotificationLambda;
+import uk.gov.justice.digital.services.RedShiftTableExpiryService;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+import static uk.gov.justice.digital.common.Utils.REPLICATION_TASK_ARN_KEY;
+import static uk.gov.justice.digital.services.StepFunctionDMSNotificationService.DMS_TASK_FAILURE_EVENT_ID;
+import static uk.gov.justice.digital.services.StepFunctionDMSNotificationService.DMS_TASK_SUCCESS_EVENT_ID;
+
+/**
+ * Replays DMS notification events and table expiry runs through the real handlers against the in-process fakes in
+ * {@code lambda.fake}, and reports the p50, p90 and p99 handler latency of each.
+ * <p>
+ * Every DMS task is registered and then stopped, {@code concurrency} tasks at a time. Every tenth task stops with a
+ * failure. Each expiry run starts from a fresh catalogue of {@code tables} external tables: a quarter expired, a
+ * quarter invalid with expired data, a quarter invalid with recent data and the rest recent.
+ * <p>
+ * Run with {@code ./gradlew loadDriver -Pload.args="--events=5000 --latencyMillis=10 --throttleRate=0.01"}.
+ * Options not given keep the defaults in {@link Options}.
+ */
+public class LoadDriver {
+
+    private static final String BUCKET = "load";
+    private static final int EXPIRY_SECONDS = 86400;
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        System.out.println("Running with " + options);
+
+        for (Latencies latencies : replayDmsEvents(options)) {
+            System.out.println(latencies.summary());
+        }
+        System.out.println(runTableExpiry(options).summary());
+    }
+
+    static List<Latencies> replayDmsEvents(Options options) throws InterruptedException {
+        Faults faults = options.faults();
+        var lambda = new StepFunctionDMSNotificationLambda(
+                new DynamoDbClient(new FakeDynamoDb(REPLICATION_TASK_ARN_KEY, faults)),
+                new StepFunctionsClient(new FakeStepFunctions(faults)),
+                Clock.systemUTC()
+        );
+        var context = new FakeContext(options.verbose);
+        var register = new Latencies("RegisterTaskToken");
+        var stop = new Latencies("ProcessDMSStoppage");
+
+        ExecutorService pool = Executors.newFixedThreadPool(options.concurrency);
+        try {
+            List<CompletableFuture<Void>> tasks = new ArrayList<>();
+            for (int task = 0; task < options.events; task++) {
+                String taskArn = "arn:aws:dms:eu-west-2:000000000000:task:LOAD" + task;
+                String eventId = task % 10 == 0 ? DMS_TASK_FAILURE_EVENT_ID : DMS_TASK_SUCCESS_EVENT_ID;
+                Map<String, Object> registerEvent = Map.of(
+                        "token", "token-" + task,
+                        "replicationTaskArn", taskArn,
+                        "ignoreDmsTaskFailure", false
+                );
+                Map<String, Object> stopEvent = Map.of(
+                        "resources", List.of(taskArn),
+                        "detail", Map.of("eventId", eventId)
+                );
+
+                tasks.add(CompletableFuture.runAsync(() -> {
+                    if (register.time(() -> lambda.handleRequest(registerEvent, context))) {
+                        stop.time(() -> lambda.handleRequest(stopEvent, context));
+                    }
+                }, pool));
+            }
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).join();
+        } finally {
+            pool.shutdown();
+        }
+        return List.of(register, stop);
+    }
+
+    static Latencies runTableExpiry(Options options) {
+        var runs = new Latencies("RedShiftTableExpiry");
+        var context = new FakeContext(options.verbose);
+
+        for (int run = 0; run < options.runs; run++) {
+            var redshiftData = new FakeRedshiftData(options.faults(), options.statementRunMillis, Clock.systemUTC());
+            var s3 = new FakeS3(options.faults());
+            createTables(redshiftData, s3, options.tables);
+
+            var asyncDataClient = redshiftData.asyncClient();
+            var queryExecutor = new ExternalTableQueryExecutor(
+                    redshiftData.syncClient(),
+                    asyncDataClient,
+                    new StatementStatusPoller(asyncDataClient, new Backoff(10, 500, 2.0, 0.5)),
+                    "load",
+                    "load",
+                    "load"
+            );
+            var scanner = new S3MetadataScanner(new S3Client(s3), 16, new Backoff(50, 1000, 2.0, 0.5), 5);
+            var lambda = new RedShiftTableExpiryLambda(new RedShiftTableExpiryService(scanner, queryExecutor, EXPIRY_SECONDS));
+
+            runs.time(() -> lambda.handleRequest(Map.of(), context));
+        }
+        return runs;
+    }
+
+    /**
+     * Fills the catalogue with tables named {@code table_<n>}, every fourth one in each of the four states described
+     * in the class comment.
+     */
+    static void createTables(FakeRedshiftData redshiftData, FakeS3 s3, int tables) {
+        Instant now = Instant.now();
+        Instant expired = now.minusSeconds(2L * EXPIRY_SECONDS);
+
+        for (int table = 0; table < tables; table++) {
+            String name = "table_" + table;
+            String location = format("s3://%s/reports/%s", BUCKET, name);
+
+            switch (table % 4) {
+                case 0:
+                    redshiftData.createTable(name, location, expired.getEpochSecond());
+                    break;
+                case 1:
+                case 2:
+                    redshiftData.createTable(name, location, null);
+                    Instant created = table % 4 == 1 ? expired : now;
+                    for (int part = 0; part < 3; part++) {
+                        s3.putObject(BUCKET, format("reports/%s/part-%d", name, part), created.plusSeconds(part));
+                    }
+                    break;
+                default:
+                    redshiftData.createTable(name, location, now.getEpochSecond());
+            }
+        }
+    }
+
+    static class Options {
+        int events = 2000;
+        int concurrency = 16;
+        int runs = 10;
+        int tables = 2000;
+        long latencyMillis = 5;
+        long jitterMillis = 5;
+        double throttleRate = 0;
+        double failureRate = 0;
+        long statementRunMillis = 50;
+        boolean verbose = false;
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new HashMap<>();
+            for (String arg : args) {
+                if (!arg.startsWith("--")) throw new IllegalArgumentException("Expected --name=value but got " + arg);
+                String[] parts = arg.substring(2).split("=", 2);
+                values.put(parts[0], parts.length > 1 ? parts[1] : "true");
+            }
+
+            Options options = new Options();
+            options.events = Integer.parseInt(values.getOrDefault("events", String.valueOf(options.events)));
+            options.concurrency = Integer.parseInt(values.getOrDefault("concurrency", String.valueOf(options.concurrency)));
+            options.runs = Integer.parseInt(values.getOrDefault("runs", String.valueOf(options.runs)));
+            options.tables = Integer.parseInt(values.getOrDefault("tables", String.valueOf(options.tables)));
+            options.latencyMillis = Long.parseLong(values.getOrDefault("latencyMillis", String.valueOf(options.latencyMillis)));
+            options.jitterMillis = Long.parseLong(values.getOrDefault("jitterMillis", String.valueOf(options.jitterMillis)));
+            options.throttleRate = Double.parseDouble(values.getOrDefault("throttleRate", String.valueOf(options.throttleRate)));
+            options.failureRate = Double.parseDouble(values.getOrDefault("failureRate", String.valueOf(options.failureRate)));
+            options.statementRunMillis = Long.parseLong(values.getOrDefault("statementRunMillis", String.valueOf(options.statementRunMillis)));
+            options.verbose = Boolean.parseBoolean(values.getOrDefault("verbose", String.valueOf(options.verbose)));
+            return options;
+        }
+
+        Faults faults() {
+            return new Faults(latencyMillis, jitterMillis, throttleRate, failureRate);
+        }
+
+        @Override
+        public String toString() {
+            return format(
+                    "events=%d concurrency=%d runs=%d tables=%d latencyMillis=%d jitterMillis=%d " +
+                            "throttleRate=%s failureRate=%s statementRunMillis=%d",
+                    events, concurrency, runs, tables, latencyMillis, jitterMillis,
+                    throttleRate, failureRate, statementRunMillis
+            );
+        }
+    }
+
+    /**
+     * Handler latencies of one kind of invocation, and how many of them threw.
+     */
+    static class Latencies {
+        private final String name;
+        private final List<Long> nanos = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger failures = new AtomicInteger();
+
+        Latencies(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return true if the invocation completed without throwing.
+         */
+        boolean time(Runnable invocation) {
+            long start = System.nanoTime();
+            try {
+                invocation.run();
+                return true;
+            } catch (RuntimeException e) {
+                failures.incrementAndGet();
+                return false;
+            } finally {
+                nanos.add(System.nanoTime() - start);
+            }
+        }
+
+        int count() {
+            return nanos.size();
+        }
+
+        int failures() {
+            return failures.get();
+        }
+
+        double percentileMillis(double percentile) {
+            List<Long> sorted;
+            synchronized (nanos) {
+                sorted = new ArrayList<>(nanos);
+            }
+            if (sorted.isEmpty()) return 0;
+
+            Collections.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100 * sorted.size());
+            return sorted.get(Math.max(0, rank - 1)) / 1_000_000.0;
+        }
+
+        String summary() {
+            return format(
+                    "%s: %d invocations, %d failed, p50 %.1f ms, p90 %.1f ms, p99 %.1f ms",
+                    name, count(), failures(), percentileMillis(50), percentileMillis(90), percentileMillis(99)
+            );
+        }
+    }
+}
@@ -1,15 +1,7 @@
 package lambda;
 
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.model.AttributeValue;
-import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
-import com.amazonaws.services.dynamodbv2.model.GetItemResult;
-import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
-import com.amazonaws.services.stepfunctions.AWSStepFunctions;
-import com.amazonaws.services.stepfunctions.model.SendTaskFailureRequest;
-import com.amazonaws.services.stepfunctions.model.SendTaskSuccessRequest;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -17,6 +9,21 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+import software.amazon.awssdk.services.sfn.SfnAsyncClient;
+import software.amazon.awssdk.services.sfn.model.SfnException;
+import software.amazon.awssdk.services.sfn.model.SendTaskFailureRequest;
+import software.amazon.awssdk.services.sfn.model.SendTaskFailureResponse;
+import software.amazon.awssdk.services.sfn.model.SendTaskSuccessRequest;
+import software.amazon.awssdk.services.sfn.model.SendTaskSuccessResponse;
 import uk.gov.justice.digital.clients.dynamo.DynamoDbClient;
 import uk.gov.justice.digital.clients.dynamo.DynamoDbProvider;
 import uk.gov.justice.digital.clients.stepfunctions.StepFunctionsClient;
@@ -27,11 +34,13 @@ import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.containsString;
@@ -41,15 +50,18 @@ import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.reset;
+import static uk.gov.justice.digital.clients.dynamo.DynamoDbClient.CLAIMED_AT_KEY;
 import static uk.gov.justice.digital.clients.dynamo.DynamoDbClient.CREATED_AT_KEY;
 import static uk.gov.justice.digital.clients.dynamo.DynamoDbClient.EXPIRE_AT_KEY;
 import static lambda.test.Fixture.TEST_TOKEN;
 import static lambda.test.Fixture.fixedClock;
 import static uk.gov.justice.digital.common.Utils.REPLICATION_TASK_ARN_KEY;
 import static uk.gov.justice.digital.common.Utils.TASK_TOKEN_KEY;
+import static uk.gov.justice.digital.common.Utils.TASKS_KEY;
 import static uk.gov.justice.digital.common.Utils.IGNORE_DMS_TASK_FAILURE_KEY;
 import static uk.gov.justice.digital.common.Utils.TOKEN_EXPIRY_DAYS_KEY;
 import static uk.gov.justice.digital.lambda.StepFunctionDMSNotificationLambda.CLOUDWATCH_EVENT_RESOURCES_KEY;
@@ -70,14 +82,14 @@ public class StepFunctionDMSNotificationLambdaIntegrationTest {
     @Mock
     private StepFunctionsProvider mockStepFunctionsProvider;
     @Mock
-    private AmazonDynamoDB mockDynamoDb;
+    private DynamoDbAsyncClient mockDynamoDb;
     @Mock
-    private AWSStepFunctions mockStepFunctions;
+    private SfnAsyncClient mockStepFunctions;
 
     @Captor
     ArgumentCaptor<PutItemRequest> putItemRequestCapture;
     @Captor
-    ArgumentCaptor<GetItemRequest> getItemRequestCapture;
+    ArgumentCaptor<BatchWriteItemRequest> batchWriteItemRequestCapture;
     @Captor
     ArgumentCaptor<SendTaskSuccessRequest> sendStepFunctionsSuccessRequestCapture;
     @Captor
@@ -110,81 +122,120 @@ public class StepFunctionDMSNotificationLambdaIntegrationTest {
         Map<String, Object> registerTokenEvent = createRegisterTaskTokenEvent();
         long expectedExpiry = fixedDateTime.plusDays(TEST_TOKEN_EXPIRY_DAYS).toEpochSecond(ZoneOffset.UTC);
 
+        when(mockDynamoDb.putItem(putItemRequestCapture.capture()))
+                .thenReturn(completedFuture(PutItemResponse.builder().build()));
+
         underTest.handleRequest(registerTokenEvent, contextMock);
 
-        verify(mockDynamoDb, times(1)).putItem(putItemRequestCapture.capture());
+        verify(mockDynamoDb, times(1)).putItem(any(PutItemRequest.class));
+
+        Map<String, AttributeValue> actualItem = putItemRequestCapture.getValue().item();
+        assertThat(actualItem.get(REPLICATION_TASK_ARN_KEY).s(), equalTo(TEST_TASK_ARN));
+        assertThat(actualItem.get(TASK_TOKEN_KEY).s(), equalTo(TEST_TOKEN));
+        assertThat(actualItem.get(CREATED_AT_KEY).s(), equalTo(fixedDateTime.format(DateTimeFormatter.ISO_DATE_TIME)));
+        assertThat(actualItem.get(EXPIRE_AT_KEY).n(), equalTo(String.valueOf(expectedExpiry)));
+    }
+
+    @Test
+    public void shouldSaveTaskTokensOfManyTasksToDynamoDbInOneBatch() {
+        Map<String, Object> registerTokensEvent = new HashMap<>();
+        registerTokensEvent.put(TASKS_KEY, List.of(
+                Map.of(TASK_TOKEN_KEY, TEST_TOKEN, REPLICATION_TASK_ARN_KEY, TEST_TASK_ARN),
+                Map.of(TASK_TOKEN_KEY, "other-token", REPLICATION_TASK_ARN_KEY, "other-task-arn", IGNORE_DMS_TASK_FAILURE_KEY, true)
+        ));
+        registerTokensEvent.put(TOKEN_EXPIRY_DAYS_KEY, TEST_TOKEN_EXPIRY_DAYS.toString());
+
+        when(mockDynamoDb.batchWriteItem(batchWriteItemRequestCapture.capture()))
+                .thenReturn(completedFuture(BatchWriteItemResponse.builder().build()));
+
+        underTest.handleRequest(registerTokensEvent, contextMock);
+
+        verify(mockDynamoDb, times(1)).batchWriteItem(any(BatchWriteItemRequest.class));
 
-        Map<String, AttributeValue> actualItem = putItemRequestCapture.getValue().getItem();
-        assertThat(actualItem.get(REPLICATION_TASK_ARN_KEY).getS(), equalTo(TEST_TASK_ARN));
-        assertThat(actualItem.get(TASK_TOKEN_KEY).getS(), equalTo(TEST_TOKEN));
-        assertThat(actualItem.get(CREATED_AT_KEY).getS(), equalTo(fixedDateTime.format(DateTimeFormatter.ISO_DATE_TIME)));
-        assertThat(actualItem.get(EXPIRE_AT_KEY).getN(), equalTo(String.valueOf(expectedExpiry)));
+        List<WriteRequest> writes = batchWriteItemRequestCapture.getValue().requestItems().get("dpr-step-function-tokens");
+        assertThat(writes.size(), equalTo(2));
+        assertThat(writes.get(1).putRequest().item().get(REPLICATION_TASK_ARN_KEY).s(), equalTo("other-task-arn"));
+        assertThat(writes.get(1).putRequest().item().get(IGNORE_DMS_TASK_FAILURE_KEY).bool(), equalTo(true));
     }
 
     @Test
     public void shouldSendSuccessRequestToStepFunctionsUsingTaskTokenRetrievedFromDynamoDb() {
         Map<String, Object> taskSuccessfulStoppedEvent = createDMSTaskSuccessfulStoppageEvent();
-        GetItemResult getItemResult = new GetItemResult()
-                .withItem(Map.of(TASK_TOKEN_KEY, new AttributeValue(TEST_TOKEN)));
+        PutItemResponse claimResult = PutItemResponse.builder()
+                .attributes(Map.of(TASK_TOKEN_KEY, AttributeValue.builder().s(TEST_TOKEN).build()))
+                .build();
 
-        when(mockDynamoDb.getItem(getItemRequestCapture.capture())).thenReturn(getItemResult);
+        when(mockDynamoDb.putItem(putItemRequestCapture.capture())).thenReturn(completedFuture(claimResult));
+
+        when(mockStepFunctions.sendTaskSuccess(any(SendTaskSuccessRequest.class)))
+                .thenReturn(completedFuture(SendTaskSuccessResponse.builder().build()));
 
         underTest.handleRequest(taskSuccessfulStoppedEvent, contextMock);
 
-        Map<String, AttributeValue> itemKey = getItemRequestCapture.getValue().getKey();
-        assertThat(itemKey.get(REPLICATION_TASK_ARN_KEY).getS(), equalTo(TEST_TASK_ARN));
+        PutItemRequest claimRequest = putItemRequestCapture.getValue();
+        assertThat(claimRequest.item().get(REPLICATION_TASK_ARN_KEY).s(), equalTo(TEST_TASK_ARN));
+        assertThat(claimRequest.returnValues(), equalTo(ReturnValue.ALL_OLD));
 
         verify(mockStepFunctions, times(1))
                 .sendTaskSuccess(sendStepFunctionsSuccessRequestCapture.capture());
 
         SendTaskSuccessRequest actualSendTaskSuccessRequest = sendStepFunctionsSuccessRequestCapture.getValue();
-        assertThat(actualSendTaskSuccessRequest.getTaskToken(), equalTo(TEST_TOKEN));
-        assertThat(actualSendTaskSuccessRequest.getOutput(), equalTo("{}"));
+        assertThat(actualSendTaskSuccessRequest.taskToken(), equalTo(TEST_TOKEN));
+        assertThat(actualSendTaskSuccessRequest.output(), equalTo("{}"));
     }
 
     @Test
     public void shouldSendFailureRequestToStepFunctionsUsingTaskTokenRetrievedFromDynamoDbWhenDmsTaskFailureEventIsReceived() {
         Map<String, Object> taskFailedEvent = createDMSTaskFailedStoppageEvent();
-        GetItemResult getItemResult = new GetItemResult()
-                .withItem(Map.of(TASK_TOKEN_KEY, new AttributeValue(TEST_TOKEN)));
+        PutItemResponse claimResult = PutItemResponse.builder()
+                .attributes(Map.of(TASK_TOKEN_KEY, AttributeValue.builder().s(TEST_TOKEN).build()))
+                .build();
+
+        when(mockDynamoDb.putItem(putItemRequestCapture.capture())).thenReturn(completedFuture(claimResult));
 
-        when(mockDynamoDb.getItem(getItemRequestCapture.capture())).thenReturn(getItemResult);
+        when(mockStepFunctions.sendTaskFailure(any(SendTaskFailureRequest.class)))
+                .thenReturn(completedFuture(SendTaskFailureResponse.builder().build()));
 
         underTest.handleRequest(taskFailedEvent, contextMock);
 
-        Map<String, AttributeValue> itemKey = getItemRequestCapture.getValue().getKey();
-        assertThat(itemKey.get(REPLICATION_TASK_ARN_KEY).getS(), equalTo(TEST_TASK_ARN));
+        PutItemRequest claimRequest = putItemRequestCapture.getValue();
+        assertThat(claimRequest.item().get(REPLICATION_TASK_ARN_KEY).s(), equalTo(TEST_TASK_ARN));
+        assertThat(claimRequest.returnValues(), equalTo(ReturnValue.ALL_OLD));
 
         verify(mockStepFunctions, times(1))
                 .sendTaskFailure(sendStepFunctionsFailureRequestCapture.capture());
 
         SendTaskFailureRequest actualSendTaskFailureRequest = sendStepFunctionsFailureRequestCapture.getValue();
-        assertThat(actualSendTaskFailureRequest.getTaskToken(), equalTo(TEST_TOKEN));
-        assertThat(actualSendTaskFailureRequest.getError(), containsString(TEST_TASK_ARN));
+        assertThat(actualSendTaskFailureRequest.taskToken(), equalTo(TEST_TOKEN));
+        assertThat(actualSendTaskFailureRequest.error(), containsString(TEST_TASK_ARN));
     }
 
     @Test
     public void shouldSendFailureRequestToStepFunctionsUsingTaskTokenRetrievedFromDynamoDbWhenDmsTaskFailureEventIsReceivedAndTheIgnoreDmsTaskFailureFlagIsNotSet() {
         Map<String, Object> taskFailedEvent = createDMSTaskFailedStoppageEvent();
         Map<String, AttributeValue> attributes = Map.of(
-                TASK_TOKEN_KEY, new AttributeValue(TEST_TOKEN),
-                IGNORE_DMS_TASK_FAILURE_KEY, new AttributeValue().withBOOL(false)
+                TASK_TOKEN_KEY, AttributeValue.builder().s(TEST_TOKEN).build(),
+                IGNORE_DMS_TASK_FAILURE_KEY, AttributeValue.builder().bool(false).build()
         );
-        GetItemResult getItemResult = new GetItemResult().withItem(attributes);
+        PutItemResponse claimResult = PutItemResponse.builder().attributes(attributes).build();
 
-        when(mockDynamoDb.getItem(getItemRequestCapture.capture())).thenReturn(getItemResult);
+        when(mockDynamoDb.putItem(putItemRequestCapture.capture())).thenReturn(completedFuture(claimResult));
+
+        when(mockStepFunctions.sendTaskFailure(any(SendTaskFailureRequest.class)))
+                .thenReturn(completedFuture(SendTaskFailureResponse.builder().build()));
 
         underTest.handleRequest(taskFailedEvent, contextMock);
 
-        Map<String, AttributeValue> itemKey = getItemRequestCapture.getValue().getKey();
-        assertThat(itemKey.get(REPLICATION_TASK_ARN_KEY).getS(), equalTo(TEST_TASK_ARN));
+        PutItemRequest claimRequest = putItemRequestCapture.getValue();
+        assertThat(claimRequest.item().get(REPLICATION_TASK_ARN_KEY).s(), equalTo(TEST_TASK_ARN));
+        assertThat(claimRequest.returnValues(), equalTo(ReturnValue.ALL_OLD));
 
         verify(mockStepFunctions, times(1))
                 .sendTaskFailure(sendStepFunctionsFailureRequestCapture.capture());
 
         SendTaskFailureRequest actualSendTaskFailureRequest = sendStepFunctionsFailureRequestCapture.getValue();
-        assertThat(actualSendTaskFailureRequest.getTaskToken(), equalTo(TEST_TOKEN));
-        assertThat(actualSendTaskFailureRequest.getError(), containsString(TEST_TASK_ARN));
+        assertThat(actualSendTaskFailureRequest.taskToken(), equalTo(TEST_TOKEN));
+        assertThat(actualSendTaskFailureRequest.error(), containsString(TEST_TASK_ARN));
     }
 
     @Test
@@ -192,37 +243,78 @@ public class StepFunctionDMSNotificationLambdaIntegrationTest {
         Map<String, Object> taskFailedEvent = createDMSTaskFailedStoppageEvent();
 
         Map<String, AttributeValue> attributes = Map.of(
-                TASK_TOKEN_KEY, new AttributeValue(TEST_TOKEN),
-                IGNORE_DMS_TASK_FAILURE_KEY, new AttributeValue().withBOOL(true)
+                TASK_TOKEN_KEY, AttributeValue.builder().s(TEST_TOKEN).build(),
+                IGNORE_DMS_TASK_FAILURE_KEY, AttributeValue.builder().bool(true).build()
         );
 
-        GetItemResult getItemResult = new GetItemResult().withItem(attributes);
+        PutItemResponse claimResult = PutItemResponse.builder().attributes(attributes).build();
+
+        when(mockDynamoDb.putItem(putItemRequestCapture.capture())).thenReturn(completedFuture(claimResult));
 
-        when(mockDynamoDb.getItem(getItemRequestCapture.capture())).thenReturn(getItemResult);
+        when(mockStepFunctions.sendTaskSuccess(any(SendTaskSuccessRequest.class)))
+                .thenReturn(completedFuture(SendTaskSuccessResponse.builder().build()));
 
         underTest.handleRequest(taskFailedEvent, contextMock);
 
-        Map<String, AttributeValue> itemKey = getItemRequestCapture.getValue().getKey();
-        assertThat(itemKey.get(REPLICATION_TASK_ARN_KEY).getS(), equalTo(TEST_TASK_ARN));
+        PutItemRequest claimRequest = putItemRequestCapture.getValue();
+        assertThat(claimRequest.item().get(REPLICATION_TASK_ARN_KEY).s(), equalTo(TEST_TASK_ARN));
+        assertThat(claimRequest.returnValues(), equalTo(ReturnValue.ALL_OLD));
 
         verify(mockStepFunctions, times(1))
                 .sendTaskSuccess(sendStepFunctionsSuccessRequestCapture.capture());
 
         SendTaskSuccessRequest actualSendTaskSuccessRequest = sendStepFunctionsSuccessRequestCapture.getValue();
-        assertThat(actualSendTaskSuccessRequest.getTaskToken(), equalTo(TEST_TOKEN));
-        assertThat(actualSendTaskSuccessRequest.getOutput(), equalTo("{}"));
+        assertThat(actualSendTaskSuccessRequest.taskToken(), equalTo(TEST_TOKEN));
+        assertThat(actualSendTaskSuccessRequest.output(), equalTo("{}"));
 
         verifyNoMoreInteractions(mockStepFunctions);
     }
 
+    @Test
+    public void shouldIgnoreDuplicateStoppageEventWhenTokenHasAlreadyBeenClaimed() {
+        Map<String, Object> taskStoppedEvent = createDMSTaskSuccessfulStoppageEvent();
+
+        Map<String, AttributeValue> claimedMarker = Map.of(
+                REPLICATION_TASK_ARN_KEY, AttributeValue.builder().s(TEST_TASK_ARN).build(),
+                CLAIMED_AT_KEY, AttributeValue.builder().s(fixedDateTime.format(DateTimeFormatter.ISO_DATE_TIME)).build()
+        );
+
+        when(mockDynamoDb.putItem(any(PutItemRequest.class))).thenReturn(failedFuture(
+                ConditionalCheckFailedException.builder().message("already claimed").item(claimedMarker).build()
+        ));
+
+        underTest.handleRequest(taskStoppedEvent, contextMock);
+
+        verifyNoInteractions(mockStepFunctions);
+    }
+
     @Test
     public void shouldFailWhenThereIsNoTaskTokenInDynamoDb() {
         Map<String, Object> taskStoppedEvent = createDMSTaskSuccessfulStoppageEvent();
-        GetItemResult emptyResult = new GetItemResult().withItem(Collections.emptyMap());
 
-        when(mockDynamoDb.getItem(any())).thenReturn(emptyResult);
+        when(mockDynamoDb.putItem(any(PutItemRequest.class)))
+                .thenReturn(failedFuture(ConditionalCheckFailedException.builder().message("no token").build()));
 
         assertThrows(Exception.class, () -> underTest.handleRequest(taskStoppedEvent, contextMock));
+
+        verifyNoInteractions(mockStepFunctions);
+    }
+
+    @Test
+    public void shouldRestoreTaskTokenWhenStepFunctionsCannotBeNotified() {
+        Map<String, Object> taskStoppedEvent = createDMSTaskSuccessfulStoppageEvent();
+        Map<String, AttributeValue> attributes = Map.of(TASK_TOKEN_KEY, AttributeValue.builder().s(TEST_TOKEN).build());
+
+        when(mockDynamoDb.putItem(putItemRequestCapture.capture())).thenReturn(
+                completedFuture(PutItemResponse.builder().attributes(attributes).build()),
+                completedFuture(PutItemResponse.builder().build())
+        );
+        when(mockStepFunctions.sendTaskSuccess(any(SendTaskSuccessRequest.class)))
+                .thenReturn(failedFuture(SfnException.builder().message("access denied").statusCode(403).build()));
+
+        assertThrows(Exception.class, () -> underTest.handleRequest(taskStoppedEvent, contextMock));
+
+        assertThat(putItemRequestCapture.getAllValues().get(1).item(), equalTo(attributes));
     }
 
     private Map<String, Object> createRegisterTaskTokenEvent() {
@@ -0,0 +1,144 @@
+package lambda;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.sfn.SfnAsyncClient;
+import software.amazon.awssdk.services.sfn.model.SendTaskSuccessRequest;
+import software.amazon.awssdk.services.sfn.model.SendTaskSuccessResponse;
+import uk.gov.justice.digital.clients.dynamo.DynamoDbClient;
+import uk.gov.justice.digital.clients.dynamo.DynamoDbProvider;
+import uk.gov.justice.digital.clients.stepfunctions.StepFunctionsClient;
+import uk.gov.justice.digital.clients.stepfunctions.StepFunctionsProvider;
+import uk.gov.justice.digital.lambda.DMSNotificationEventHandler;
+import uk.gov.justice.digital.lambda.StepFunctionDMSNotificationSqsLambda;
+import uk.gov.justice.digital.services.StepFunctionDMSNotificationService;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static lambda.test.Fixture.TEST_TOKEN;
+import static lambda.test.Fixture.fixedClock;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static uk.gov.justice.digital.common.Utils.REPLICATION_TASK_ARN_KEY;
+import static uk.gov.justice.digital.common.Utils.TASK_TOKEN_KEY;
+
+@ExtendWith(MockitoExtension.class)
+public class StepFunctionDMSNotificationSqsLambdaIntegrationTest {
+
+    private static final String KNOWN_TASK_ARN = "known-task-arn";
+    private static final String UNKNOWN_TASK_ARN = "unknown-task-arn";
+
+    @Mock
+    private Context contextMock;
+    @Mock
+    private LambdaLogger mockLogger;
+    @Mock
+    private DynamoDbProvider mockDynamoDbProvider;
+    @Mock
+    private StepFunctionsProvider mockStepFunctionsProvider;
+    @Mock
+    private DynamoDbAsyncClient mockDynamoDb;
+    @Mock
+    private SfnAsyncClient mockStepFunctions;
+
+    private StepFunctionDMSNotificationSqsLambda underTest;
+
+    @BeforeEach
+    public void setup() {
+        when(contextMock.getLogger()).thenReturn(mockLogger);
+        doNothing().when(mockLogger).log(anyString(), any());
+        when(mockDynamoDbProvider.buildClient()).thenReturn(mockDynamoDb);
+        when(mockStepFunctionsProvider.buildClient()).thenReturn(mockStepFunctions);
+
+        var service = new StepFunctionDMSNotificationService(
+                new DynamoDbClient(mockDynamoDbProvider),
+                new StepFunctionsClient(mockStepFunctionsProvider),
+                fixedClock
+        );
+        underTest = new StepFunctionDMSNotificationSqsLambda(new DMSNotificationEventHandler(service), 4);
+    }
+
+    @Test
+    public void shouldNotifyStepFunctionsForEveryMessageInBatch() {
+        when(mockDynamoDb.putItem(any(PutItemRequest.class))).thenReturn(completedFuture(tokenItem()));
+        when(mockStepFunctions.sendTaskSuccess(any(SendTaskSuccessRequest.class)))
+                .thenReturn(completedFuture(SendTaskSuccessResponse.builder().build()));
+
+        SQSBatchResponse response = underTest.handleRequest(
+                sqsEvent(message("1", KNOWN_TASK_ARN), message("2", KNOWN_TASK_ARN), message("3", KNOWN_TASK_ARN)),
+                contextMock
+        );
+
+        assertThat(response.getBatchItemFailures(), empty());
+        verify(mockStepFunctions, times(3)).sendTaskSuccess(any(SendTaskSuccessRequest.class));
+    }
+
+    @Test
+    public void shouldReportOnlyFailedMessagesAsBatchItemFailures() {
+        when(mockDynamoDb.putItem(any(PutItemRequest.class))).thenAnswer(invocation -> {
+            PutItemRequest request = invocation.getArgument(0);
+            boolean known = KNOWN_TASK_ARN.equals(request.item().get(REPLICATION_TASK_ARN_KEY).s());
+            return known
+                    ? completedFuture(tokenItem())
+                    : failedFuture(ConditionalCheckFailedException.builder().message("no token").build());
+        });
+        when(mockStepFunctions.sendTaskSuccess(any(SendTaskSuccessRequest.class)))
+                .thenReturn(completedFuture(SendTaskSuccessResponse.builder().build()));
+
+        SQSBatchResponse response = underTest.handleRequest(
+                sqsEvent(message("1", KNOWN_TASK_ARN), message("2", UNKNOWN_TASK_ARN), message("3", "{not json")),
+                contextMock
+        );
+
+        List<String> failedIds = response.getBatchItemFailures().stream()
+                .map(SQSBatchResponse.BatchItemFailure::getItemIdentifier)
+                .collect(Collectors.toList());
+        // A stoppage event for a task with no token registered is retried in case the registration is late
+        assertThat(failedIds, equalTo(List.of("2", "3")));
+        verify(mockStepFunctions, times(1)).sendTaskSuccess(any(SendTaskSuccessRequest.class));
+    }
+
+    private static PutItemResponse tokenItem() {
+        return PutItemResponse.builder()
+                .attributes(Map.of(TASK_TOKEN_KEY, AttributeValue.builder().s(TEST_TOKEN).build()))
+                .build();
+    }
+
+    private static SQSEvent.SQSMessage message(String messageId, String taskArnOrBody) {
+        var message = new SQSEvent.SQSMessage();
+        message.setMessageId(messageId);
+        message.setBody(taskArnOrBody.startsWith("{")
+                ? taskArnOrBody
+                : "{\"resources\": [\"" + taskArnOrBody + "\"], \"detail\": {\"eventId\": \"DMS-EVENT-0079\"}}");
+        return message;
+    }
+
+    private static SQSEvent sqsEvent(SQSEvent.SQSMessage... messages) {
+        var event = new SQSEvent();
+        event.setRecords(List.of(messages));
+        return event;
+    }
+}
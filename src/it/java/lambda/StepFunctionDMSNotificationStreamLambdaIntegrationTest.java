@@ -0,0 +1,110 @@
+package lambda;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.sfn.SfnAsyncClient;
+import uk.gov.justice.digital.clients.dynamo.DynamoDbClient;
+import uk.gov.justice.digital.clients.dynamo.DynamoDbProvider;
+import uk.gov.justice.digital.clients.stepfunctions.StepFunctionsClient;
+import uk.gov.justice.digital.clients.stepfunctions.StepFunctionsProvider;
+import uk.gov.justice.digital.lambda.DMSNotificationEventHandler;
+import uk.gov.justice.digital.lambda.StepFunctionDMSNotificationStreamLambda;
+import uk.gov.justice.digital.services.StepFunctionDMSNotificationService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static lambda.test.Fixture.TEST_TOKEN;
+import static lambda.test.Fixture.fixedClock;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static uk.gov.justice.digital.common.Utils.REPLICATION_TASK_ARN_KEY;
+import static uk.gov.justice.digital.common.Utils.TASK_TOKEN_KEY;
+
+@ExtendWith(MockitoExtension.class)
+public class StepFunctionDMSNotificationStreamLambdaIntegrationTest {
+
+    private static final String TEST_TASK_ARN = "test-task-arn";
+
+    @Mock
+    private Context contextMock;
+    @Mock
+    private LambdaLogger mockLogger;
+    @Mock
+    private DynamoDbProvider mockDynamoDbProvider;
+    @Mock
+    private StepFunctionsProvider mockStepFunctionsProvider;
+    @Mock
+    private DynamoDbAsyncClient mockDynamoDb;
+    @Mock
+    private SfnAsyncClient mockStepFunctions;
+
+    @Captor
+    ArgumentCaptor<PutItemRequest> putItemRequestCapture;
+
+    private StepFunctionDMSNotificationStreamLambda underTest;
+
+    @BeforeEach
+    public void setup() {
+        when(contextMock.getLogger()).thenReturn(mockLogger);
+        lenient().doNothing().when(mockLogger).log(anyString(), any());
+        when(mockDynamoDbProvider.buildClient()).thenReturn(mockDynamoDb);
+        when(mockStepFunctionsProvider.buildClient()).thenReturn(mockStepFunctions);
+
+        var service = new StepFunctionDMSNotificationService(
+                new DynamoDbClient(mockDynamoDbProvider),
+                new StepFunctionsClient(mockStepFunctionsProvider),
+                fixedClock
+        );
+        underTest = new StepFunctionDMSNotificationStreamLambda(new DMSNotificationEventHandler(service));
+    }
+
+    @Test
+    public void shouldSaveTaskTokenFromStreamedEvent() throws Exception {
+        when(mockDynamoDb.putItem(putItemRequestCapture.capture()))
+                .thenReturn(completedFuture(PutItemResponse.builder().build()));
+
+        underTest.handleRequest(
+                json("{\"token\": \"" + TEST_TOKEN + "\", \"replicationTaskArn\": \"" + TEST_TASK_ARN + "\"}"),
+                new ByteArrayOutputStream(),
+                contextMock
+        );
+
+        var item = putItemRequestCapture.getValue().item();
+        assertThat(item.get(TASK_TOKEN_KEY).s(), equalTo(TEST_TOKEN));
+        assertThat(item.get(REPLICATION_TASK_ARN_KEY).s(), equalTo(TEST_TASK_ARN));
+    }
+
+    @Test
+    public void shouldRejectMalformedEventBeforeCallingAws() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> underTest.handleRequest(json("{\"detail\": {\"eventId\": \"DMS-EVENT-0079\"}}"), new ByteArrayOutputStream(), contextMock)
+        );
+
+        verifyNoInteractions(mockDynamoDb, mockStepFunctions);
+    }
+
+    private static InputStream json(String json) {
+        return new ByteArrayInputStream(json.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,90 @@
+package lambda.fake;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.logging.LogLevel;
+
+/**
+ * A Lambda context for driving handlers outside of Lambda. Log lines are dropped unless {@code verbose}, so that
+ * writing them does not dominate the latencies measured.
+ */
+public class FakeContext implements Context {
+
+    private final LambdaLogger logger;
+
+    public FakeContext(boolean verbose) {
+        this.logger = new LambdaLogger() {
+            @Override
+            public void log(String message) {
+                if (verbose) System.out.println(message);
+            }
+
+            @Override
+            public void log(byte[] message) {
+                if (verbose) System.out.println(new String(message));
+            }
+
+            @Override
+            public void log(String message, LogLevel logLevel) {
+                log(message);
+            }
+        };
+    }
+
+    @Override
+    public String getAwsRequestId() {
+        return "fake";
+    }
+
+    @Override
+    public String getLogGroupName() {
+        return "fake";
+    }
+
+    @Override
+    public String getLogStreamName() {
+        return "fake";
+    }
+
+    @Override
+    public String getFunctionName() {
+        return "fake";
+    }
+
+    @Override
+    public String getFunctionVersion() {
+        return "$LATEST";
+    }
+
+    @Override
+    public String getInvokedFunctionArn() {
+        return "arn:aws:lambda:eu-west-2:000000000000:function:fake";
+    }
+
+    @Override
+    public CognitoIdentity getIdentity() {
+        return null;
+    }
+
+    @Override
+    public ClientContext getClientContext() {
+        return null;
+    }
+
+    @Override
+    public int getRemainingTimeInMillis() {
+        return 900_000;
+    }
+
+    @Override
+    public int getMemoryLimitInMB() {
+        return 512;
+    }
+
+    @Override
+    public LambdaLogger getLogger() {
+        return logger;
+    }
+}
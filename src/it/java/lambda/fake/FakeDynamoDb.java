@@ -0,0 +1,205 @@
+package lambda.fake;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValuesOnConditionCheckFailure;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+import uk.gov.justice.digital.clients.dynamo.DynamoDbProvider;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory DynamoDB holding tables keyed by a single string attribute.
+ * <p>
+ * Items are replaced atomically per key, and the {@code attribute_exists} and {@code attribute_not_exists}
+ * conditions used by the clients are honoured, returning the existing item on failure when asked to, so concurrent
+ * claims of the same token behave as they would against the real service. Batch requests are always processed in full.
+ */
+public class FakeDynamoDb implements DynamoDbAsyncClient, DynamoDbProvider {
+
+    private static final Pattern CONDITION = Pattern.compile("(attribute_exists|attribute_not_exists)\\((#?\\w+)\\)");
+
+    private final String keyAttribute;
+    private final Faults faults;
+    private final Map<String, Map<String, Map<String, AttributeValue>>> tables = new ConcurrentHashMap<>();
+
+    public FakeDynamoDb(String keyAttribute, Faults faults) {
+        this.keyAttribute = keyAttribute;
+        this.faults = faults;
+    }
+
+    @Override
+    public DynamoDbAsyncClient buildClient() {
+        return this;
+    }
+
+    public Map<String, Map<String, AttributeValue>> table(String name) {
+        return tables.computeIfAbsent(name, ignored -> new ConcurrentHashMap<>());
+    }
+
+    @Override
+    public CompletableFuture<PutItemResponse> putItem(PutItemRequest request) {
+        return respond(() -> {
+            String key = keyOf(request.item());
+            List<Map<String, AttributeValue>> replaced = new ArrayList<>(1);
+            table(request.tableName()).compute(key, (ignored, existing) -> {
+                check(
+                        request.conditionExpression(),
+                        request.expressionAttributeNames(),
+                        existing,
+                        request.returnValuesOnConditionCheckFailure() == ReturnValuesOnConditionCheckFailure.ALL_OLD
+                );
+                if (existing != null) replaced.add(existing);
+                return new HashMap<>(request.item());
+            });
+
+            var response = PutItemResponse.builder();
+            if (request.returnValues() == ReturnValue.ALL_OLD && !replaced.isEmpty()) {
+                response.attributes(replaced.get(0));
+            }
+            return response.build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<DeleteItemResponse> deleteItem(DeleteItemRequest request) {
+        return respond(() -> {
+            List<Map<String, AttributeValue>> deleted = new ArrayList<>(1);
+            table(request.tableName()).computeIfPresent(keyOf(request.key()), (ignored, existing) -> {
+                check(request.conditionExpression(), request.expressionAttributeNames(), existing, false);
+                deleted.add(existing);
+                return null;
+            });
+            if (deleted.isEmpty()) check(request.conditionExpression(), request.expressionAttributeNames(), null, false);
+
+            var response = DeleteItemResponse.builder();
+            if (request.returnValues() == ReturnValue.ALL_OLD && !deleted.isEmpty()) {
+                response.attributes(deleted.get(0));
+            }
+            return response.build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<GetItemResponse> getItem(GetItemRequest request) {
+        return respond(() -> {
+            var item = table(request.tableName()).get(keyOf(request.key()));
+            return item == null ? GetItemResponse.builder().build() : GetItemResponse.builder().item(item).build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<BatchWriteItemResponse> batchWriteItem(BatchWriteItemRequest request) {
+        return respond(() -> {
+            request.requestItems().forEach((tableName, writes) -> {
+                var table = table(tableName);
+                for (WriteRequest write : writes) {
+                    if (write.putRequest() != null) {
+                        table.put(keyOf(write.putRequest().item()), new HashMap<>(write.putRequest().item()));
+                    } else if (write.deleteRequest() != null) {
+                        table.remove(keyOf(write.deleteRequest().key()));
+                    }
+                }
+            });
+            return BatchWriteItemResponse.builder().unprocessedItems(Map.of()).build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<BatchGetItemResponse> batchGetItem(BatchGetItemRequest request) {
+        return respond(() -> {
+            Map<String, List<Map<String, AttributeValue>>> responses = new HashMap<>();
+            request.requestItems().forEach((tableName, keysAndAttributes) -> {
+                var table = table(tableName);
+                List<Map<String, AttributeValue>> found = new ArrayList<>();
+                for (Map<String, AttributeValue> key : keysAndAttributes.keys()) {
+                    var item = table.get(keyOf(key));
+                    if (item != null) found.add(item);
+                }
+                responses.put(tableName, found);
+            });
+            return BatchGetItemResponse.builder()
+                    .responses(responses)
+                    .unprocessedKeys(Map.<String, KeysAndAttributes>of())
+                    .build();
+        });
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private <T> CompletableFuture<T> respond(Supplier<T> response) {
+        return faults.async(
+                response,
+                () -> ProvisionedThroughputExceededException.builder()
+                        .statusCode(400)
+                        .awsErrorDetails(AwsErrorDetails.builder().errorCode("ProvisionedThroughputExceededException").build())
+                        .message("Injected throttle")
+                        .build(),
+                () -> DynamoDbException.builder()
+                        .statusCode(500)
+                        .awsErrorDetails(AwsErrorDetails.builder().errorCode("InternalServerError").build())
+                        .message("Injected failure")
+                        .build()
+        );
+    }
+
+    private String keyOf(Map<String, AttributeValue> item) {
+        AttributeValue key = item.get(keyAttribute);
+        if (key == null || key.s() == null) {
+            throw DynamoDbException.builder().statusCode(400).message("Missing key attribute " + keyAttribute).build();
+        }
+        return key.s();
+    }
+
+    private static void check(
+            String condition,
+            Map<String, String> names,
+            Map<String, AttributeValue> existing,
+            boolean returnExistingOnFailure
+    ) {
+        if (condition == null) return;
+
+        Matcher matcher = CONDITION.matcher(condition);
+        if (!matcher.matches()) throw new UnsupportedOperationException("Unsupported condition: " + condition);
+
+        String attribute = names.getOrDefault(matcher.group(2), matcher.group(2));
+        boolean exists = existing != null && existing.containsKey(attribute);
+        boolean required = matcher.group(1).equals("attribute_exists");
+        if (exists != required) {
+            var failure = ConditionalCheckFailedException.builder().statusCode(400).message("The conditional request failed");
+            if (returnExistingOnFailure && existing != null) failure.item(existing);
+            throw failure.build();
+        }
+    }
+}
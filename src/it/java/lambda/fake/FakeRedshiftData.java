@@ -0,0 +1,240 @@
+package lambda.fake;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.redshiftdata.RedshiftDataAsyncClient;
+import software.amazon.awssdk.services.redshiftdata.RedshiftDataClient;
+import software.amazon.awssdk.services.redshiftdata.model.BatchExecuteStatementRequest;
+import software.amazon.awssdk.services.redshiftdata.model.BatchExecuteStatementResponse;
+import software.amazon.awssdk.services.redshiftdata.model.DescribeStatementRequest;
+import software.amazon.awssdk.services.redshiftdata.model.DescribeStatementResponse;
+import software.amazon.awssdk.services.redshiftdata.model.ExecuteStatementRequest;
+import software.amazon.awssdk.services.redshiftdata.model.ExecuteStatementResponse;
+import software.amazon.awssdk.services.redshiftdata.model.Field;
+import software.amazon.awssdk.services.redshiftdata.model.GetStatementResultRequest;
+import software.amazon.awssdk.services.redshiftdata.model.GetStatementResultResponse;
+import software.amazon.awssdk.services.redshiftdata.model.RedshiftDataException;
+import software.amazon.awssdk.services.redshiftdata.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.redshiftdata.model.StatementStatusString;
+import software.amazon.awssdk.services.redshiftdata.model.StatusString;
+import software.amazon.awssdk.services.redshiftdata.model.SubStatementData;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * An in-memory Redshift Data API over a catalogue of external tables in the reports schema.
+ * <p>
+ * Only the statements run by the table expiry lambda are understood: the external tables query is answered from the
+ * catalogue, honouring its changed-since condition, and DROP TABLE statements remove from it. Every statement reports STARTED until
+ * {@code statementRunMillis} after it was submitted, so polling is exercised, and results are paged as the real
+ * service pages them.
+ */
+public class FakeRedshiftData {
+
+    private static final int RECORDS_PER_PAGE = 1000;
+    private static final Pattern CHANGED_SINCE = Pattern.compile(">=\\s*(\\d+)\\)\\s*$");
+    private static final Pattern DROPPED_TABLE = Pattern.compile("DROP TABLE IF EXISTS reports\\.(\\w+);");
+
+    private final Faults faults;
+    private final long statementRunMillis;
+    private final Clock clock;
+    private final Map<String, ExternalTable> catalogue = new ConcurrentHashMap<>();
+    private final Map<String, Statement> statements = new ConcurrentHashMap<>();
+
+    public FakeRedshiftData(Faults faults, long statementRunMillis, Clock clock) {
+        this.faults = faults;
+        this.statementRunMillis = statementRunMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * @param lastDdlTime epoch seconds the table was last defined, or null for a table missing the property.
+     */
+    public void createTable(String name, String location, Long lastDdlTime) {
+        catalogue.put(name, new ExternalTable(location, lastDdlTime));
+    }
+
+    public Map<String, ExternalTable> catalogue() {
+        return catalogue;
+    }
+
+    public RedshiftDataClient syncClient() {
+        return new RedshiftDataClient() {
+            @Override
+            public ExecuteStatementResponse executeStatement(ExecuteStatementRequest request) {
+                return faults.sync(() -> execute(request.sql()), FakeRedshiftData::throttled, FakeRedshiftData::failed);
+            }
+
+            @Override
+            public GetStatementResultResponse getStatementResult(GetStatementResultRequest request) {
+                return faults.sync(() -> result(request), FakeRedshiftData::throttled, FakeRedshiftData::failed);
+            }
+
+            @Override
+            public String serviceName() {
+                return SERVICE_NAME;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    public RedshiftDataAsyncClient asyncClient() {
+        return new RedshiftDataAsyncClient() {
+            @Override
+            public CompletableFuture<BatchExecuteStatementResponse> batchExecuteStatement(BatchExecuteStatementRequest request) {
+                return respond(() -> executeBatch(request.sqls()));
+            }
+
+            @Override
+            public CompletableFuture<DescribeStatementResponse> describeStatement(DescribeStatementRequest request) {
+                return respond(() -> describe(request.id()));
+            }
+
+            @Override
+            public String serviceName() {
+                return SERVICE_NAME;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private ExecuteStatementResponse execute(String sql) {
+        Matcher changedSince = CHANGED_SINCE.matcher(sql);
+        long since = changedSince.find() ? Long.parseLong(changedSince.group(1)) : 0;
+        List<List<Field>> records = catalogue.entrySet().stream()
+                .filter(table -> table.getValue().lastDdlTime == null || table.getValue().lastDdlTime >= since)
+                .map(table -> List.of(
+                        field(table.getKey()),
+                        field(table.getValue().location),
+                        table.getValue().lastDdlTime == null
+                                ? Field.builder().isNull(true).build()
+                                : Field.builder().longValue(table.getValue().lastDdlTime).build()
+                ))
+                .collect(Collectors.toList());
+
+        String id = submit(records, List.of());
+        return ExecuteStatementResponse.builder().id(id).build();
+    }
+
+    private BatchExecuteStatementResponse executeBatch(List<String> sqls) {
+        for (String sql : sqls) {
+            Matcher dropped = DROPPED_TABLE.matcher(sql);
+            if (dropped.find()) catalogue.remove(dropped.group(1));
+        }
+        return BatchExecuteStatementResponse.builder().id(submit(List.of(), sqls)).build();
+    }
+
+    private DescribeStatementResponse describe(String id) {
+        Statement statement = statement(id);
+        Instant now = clock.instant();
+        boolean finished = !now.isBefore(statement.finishesAt);
+
+        var response = DescribeStatementResponse.builder()
+                .id(id)
+                .status(finished ? StatusString.FINISHED : StatusString.STARTED)
+                .createdAt(statement.createdAt)
+                .updatedAt(finished ? statement.finishesAt : now)
+                .hasResultSet(!statement.records.isEmpty());
+
+        if (!statement.sqls.isEmpty()) {
+            response.subStatements(statement.sqls.stream()
+                    .map(sql -> SubStatementData.builder()
+                            .queryString(sql)
+                            .status(finished ? StatementStatusString.FINISHED : StatementStatusString.STARTED)
+                            .build())
+                    .collect(Collectors.toList()));
+        }
+        return response.build();
+    }
+
+    private GetStatementResultResponse result(GetStatementResultRequest request) {
+        List<List<Field>> records = statement(request.id()).records;
+        int from = request.nextToken() == null ? 0 : Integer.parseInt(request.nextToken());
+        int to = Math.min(records.size(), from + RECORDS_PER_PAGE);
+
+        return GetStatementResultResponse.builder()
+                .records(new ArrayList<>(records.subList(from, to)))
+                .totalNumRows((long) records.size())
+                .nextToken(to < records.size() ? String.valueOf(to) : null)
+                .build();
+    }
+
+    private String submit(List<List<Field>> records, List<String> sqls) {
+        String id = UUID.randomUUID().toString();
+        Instant createdAt = clock.instant();
+        statements.put(id, new Statement(createdAt, createdAt.plusMillis(statementRunMillis), records, sqls));
+        return id;
+    }
+
+    private Statement statement(String id) {
+        Statement statement = statements.get(id);
+        if (statement == null) {
+            throw ResourceNotFoundException.builder().statusCode(400).message("Query does not exist: " + id).build();
+        }
+        return statement;
+    }
+
+    private <T> CompletableFuture<T> respond(Supplier<T> response) {
+        return faults.async(response, FakeRedshiftData::throttled, FakeRedshiftData::failed);
+    }
+
+    private static Field field(String value) {
+        return Field.builder().stringValue(value).build();
+    }
+
+    private static RedshiftDataException throttled() {
+        return RedshiftDataException.builder()
+                .statusCode(400)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode("ThrottlingException").build())
+                .message("Injected throttle")
+                .build();
+    }
+
+    private static RedshiftDataException failed() {
+        return RedshiftDataException.builder()
+                .statusCode(500)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode("InternalServerException").build())
+                .message("Injected failure")
+                .build();
+    }
+
+    public static class ExternalTable {
+        public final String location;
+        public final Long lastDdlTime;
+
+        ExternalTable(String location, Long lastDdlTime) {
+            this.location = location;
+            this.lastDdlTime = lastDdlTime;
+        }
+    }
+
+    private static class Statement {
+        final Instant createdAt;
+        final Instant finishesAt;
+        final List<List<Field>> records;
+        final List<String> sqls;
+
+        Statement(Instant createdAt, Instant finishesAt, List<List<Field>> records, List<String> sqls) {
+            this.createdAt = createdAt;
+            this.finishesAt = finishesAt;
+            this.records = records;
+            this.sqls = sqls;
+        }
+    }
+}
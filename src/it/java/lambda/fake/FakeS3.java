@@ -0,0 +1,101 @@
+package lambda.fake;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * An in-memory S3 serving ListObjectsV2 and HeadObject. Objects are listed in key order a page of
+ * {@code maxKeys} at a time, the continuation token being the last key of the previous page.
+ */
+public class FakeS3 implements S3AsyncClient {
+
+    private final Faults faults;
+    private final Map<String, NavigableMap<String, S3Object>> buckets = new ConcurrentHashMap<>();
+
+    public FakeS3(Faults faults) {
+        this.faults = faults;
+    }
+
+    public void putObject(String bucket, String key, Instant lastModified) {
+        buckets.computeIfAbsent(bucket, ignored -> new ConcurrentSkipListMap<>()).put(
+                key,
+                S3Object.builder().key(key).eTag(Integer.toHexString(key.hashCode())).lastModified(lastModified).build()
+        );
+    }
+
+    @Override
+    public CompletableFuture<ListObjectsV2Response> listObjectsV2(ListObjectsV2Request request) {
+        return respond(() -> {
+            var bucket = buckets.getOrDefault(request.bucket(), new ConcurrentSkipListMap<>());
+            var prefix = request.prefix() == null ? "" : request.prefix();
+            var from = request.continuationToken() == null
+                    ? bucket.tailMap(prefix, true)
+                    : bucket.tailMap(request.continuationToken(), false);
+            int maxKeys = request.maxKeys() == null ? 1000 : request.maxKeys();
+
+            List<S3Object> page = from.values().stream()
+                    .takeWhile(object -> object.key().startsWith(prefix))
+                    .limit(maxKeys + 1L)
+                    .collect(Collectors.toList());
+            boolean truncated = page.size() > maxKeys;
+            if (truncated) page = page.subList(0, maxKeys);
+
+            return ListObjectsV2Response.builder()
+                    .contents(page)
+                    .isTruncated(truncated)
+                    .nextContinuationToken(truncated ? page.get(page.size() - 1).key() : null)
+                    .build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<HeadObjectResponse> headObject(HeadObjectRequest request) {
+        return respond(() -> {
+            var object = buckets.getOrDefault(request.bucket(), new ConcurrentSkipListMap<>()).get(request.key());
+            if (object == null) throw NoSuchKeyException.builder().statusCode(404).build();
+            return HeadObjectResponse.builder().eTag(object.eTag()).lastModified(object.lastModified()).build();
+        });
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private <T> CompletableFuture<T> respond(Supplier<T> response) {
+        return faults.async(
+                response,
+                () -> S3Exception.builder()
+                        .statusCode(503)
+                        .awsErrorDetails(AwsErrorDetails.builder().errorCode("SlowDown").build())
+                        .message("Injected throttle")
+                        .build(),
+                () -> S3Exception.builder()
+                        .statusCode(500)
+                        .awsErrorDetails(AwsErrorDetails.builder().errorCode("InternalError").build())
+                        .message("Injected failure")
+                        .build()
+        );
+    }
+}
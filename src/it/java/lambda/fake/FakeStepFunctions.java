@@ -0,0 +1,90 @@
+package lambda.fake;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.sfn.SfnAsyncClient;
+import software.amazon.awssdk.services.sfn.model.SendTaskFailureRequest;
+import software.amazon.awssdk.services.sfn.model.SendTaskFailureResponse;
+import software.amazon.awssdk.services.sfn.model.SendTaskSuccessRequest;
+import software.amazon.awssdk.services.sfn.model.SendTaskSuccessResponse;
+import software.amazon.awssdk.services.sfn.model.SfnException;
+import software.amazon.awssdk.services.sfn.model.TaskTimedOutException;
+import uk.gov.justice.digital.clients.stepfunctions.StepFunctionsProvider;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * An in-memory Step Functions service that remembers the outcome sent for each task token.
+ * <p>
+ * As with the real service, a token can only be completed once and any later notification of it fails with
+ * TaskTimedOut.
+ */
+public class FakeStepFunctions implements SfnAsyncClient, StepFunctionsProvider {
+
+    public enum Outcome { SUCCEEDED, FAILED }
+
+    private final Faults faults;
+    private final Map<String, Outcome> outcomes = new ConcurrentHashMap<>();
+
+    public FakeStepFunctions(Faults faults) {
+        this.faults = faults;
+    }
+
+    @Override
+    public SfnAsyncClient buildClient() {
+        return this;
+    }
+
+    public Map<String, Outcome> outcomes() {
+        return outcomes;
+    }
+
+    @Override
+    public CompletableFuture<SendTaskSuccessResponse> sendTaskSuccess(SendTaskSuccessRequest request) {
+        return respond(() -> {
+            complete(request.taskToken(), Outcome.SUCCEEDED);
+            return SendTaskSuccessResponse.builder().build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<SendTaskFailureResponse> sendTaskFailure(SendTaskFailureRequest request) {
+        return respond(() -> {
+            complete(request.taskToken(), Outcome.FAILED);
+            return SendTaskFailureResponse.builder().build();
+        });
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void complete(String taskToken, Outcome outcome) {
+        if (outcomes.putIfAbsent(taskToken, outcome) != null) {
+            throw TaskTimedOutException.builder().statusCode(400).message("Provided task does not exist anymore").build();
+        }
+    }
+
+    private <T> CompletableFuture<T> respond(Supplier<T> response) {
+        return faults.async(
+                response,
+                () -> SfnException.builder()
+                        .statusCode(400)
+                        .awsErrorDetails(AwsErrorDetails.builder().errorCode("ThrottlingException").build())
+                        .message("Injected throttle")
+                        .build(),
+                () -> SfnException.builder()
+                        .statusCode(500)
+                        .awsErrorDetails(AwsErrorDetails.builder().errorCode("InternalServerError").build())
+                        .message("Injected failure")
+                        .build()
+        );
+    }
+}
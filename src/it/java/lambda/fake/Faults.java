@@ -0,0 +1,94 @@
+package lambda.fake;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Latency, throttling and failure injected into every call on a fake AWS client.
+ * <p>
+ * Each call waits {@code latencyMillis} plus up to {@code jitterMillis} before it completes, then is throttled with
+ * probability {@code throttleRate} or fails with probability {@code failureRate}. Async calls wait on a shared
+ * delayed executor rather than a thread of their own, as the real async clients do.
+ */
+public class Faults {
+
+    public final long latencyMillis;
+    public final long jitterMillis;
+    public final double throttleRate;
+    public final double failureRate;
+
+    public Faults(long latencyMillis, long jitterMillis, double throttleRate, double failureRate) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.throttleRate = throttleRate;
+        this.failureRate = failureRate;
+    }
+
+    public static Faults none() {
+        return new Faults(0, 0, 0, 0);
+    }
+
+    /**
+     * @return a future completed with the response, or one of the injected errors, once the latency has passed.
+     */
+    public <T> CompletableFuture<T> async(
+            Supplier<T> response,
+            Supplier<? extends RuntimeException> throttled,
+            Supplier<? extends RuntimeException> failed
+    ) {
+        long delay = nextDelayMillis();
+        Executor executor = delay == 0 ? Runnable::run : delayedExecutor(delay, MILLISECONDS);
+
+        // Completed with the error itself rather than a CompletionException, as the SDK does
+        CompletableFuture<T> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                result.complete(outcome(response, throttled, failed));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Blocking form of {@link #async}, as used by the synchronous clients.
+     */
+    public <T> T sync(
+            Supplier<T> response,
+            Supplier<? extends RuntimeException> throttled,
+            Supplier<? extends RuntimeException> failed
+    ) {
+        long delay = nextDelayMillis();
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        }
+        return outcome(response, throttled, failed);
+    }
+
+    private <T> T outcome(
+            Supplier<T> response,
+            Supplier<? extends RuntimeException> throttled,
+            Supplier<? extends RuntimeException> failed
+    ) {
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if (roll < throttleRate) throw throttled.get();
+        if (roll < throttleRate + failureRate) throw failed.get();
+        return response.get();
+    }
+
+    private long nextDelayMillis() {
+        return latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+    }
+}
@@ -0,0 +1,79 @@
+package uk.gov.justice.digital.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.services.redshiftdata.model.BatchExecuteStatementResponse;
+import software.amazon.awssdk.services.redshiftdata.model.ExecuteStatementResponse;
+import uk.gov.justice.digital.benchmarks.stubs.DiscardingContext;
+import uk.gov.justice.digital.benchmarks.stubs.InMemoryRedshiftData;
+import uk.gov.justice.digital.clients.redshift.ExternalTableQueryExecutor;
+import uk.gov.justice.digital.clients.redshift.StatementStatusPoller;
+import uk.gov.justice.digital.common.Backoff;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Batching of DROP statements and mapping of query records to tables, for 1k to 100k tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExternalTableQueryExecutorBenchmark {
+
+    // The Data API returns at most 1000 records per page of results
+    private static final int RECORDS_PER_PAGE = 1000;
+
+    @Param({"1000", "10000", "100000"})
+    public int tables;
+
+    private List<String> tableNames;
+    private ExternalTableQueryExecutor executor;
+    private ExecuteStatementResponse tablesQuery;
+
+    @Setup
+    public void setUp() {
+        var redshiftData = new InMemoryRedshiftData(tables, RECORDS_PER_PAGE);
+        var asyncClient = redshiftData.asyncClient();
+        executor = new ExternalTableQueryExecutor(
+                redshiftData.syncClient(),
+                asyncClient,
+                new StatementStatusPoller(asyncClient, new Backoff(0, 0, 1, 0)),
+                "cluster",
+                "database",
+                "secret"
+        );
+        tableNames = IntStream.range(0, tables).mapToObj(i -> "table_" + i).collect(Collectors.toList());
+        tablesQuery = executor.startExternalTablesQuery(0);
+    }
+
+    /**
+     * Batches are awaited as the expiry service does, which also measures tracking their completion.
+     */
+    @Benchmark
+    public boolean removeExternalTables() {
+        var batchIds = executor.removeExternalTables(tableNames.stream(), DiscardingContext.LOGGER).stream()
+                .map(BatchExecuteStatementResponse::id)
+                .collect(Collectors.toList());
+        return executor.requestsCompleteSuccessfully(batchIds, DiscardingContext.LOGGER);
+    }
+
+    @Benchmark
+    public long getExternalTables() {
+        return executor.getExternalTables(tablesQuery, DiscardingContext.LOGGER).count();
+    }
+}
@@ -0,0 +1,55 @@
+package uk.gov.justice.digital.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.justice.digital.benchmarks.stubs.InMemoryS3;
+import uk.gov.justice.digital.clients.s3.ObjectAgeCheck;
+import uk.gov.justice.digital.clients.s3.S3Client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selection of the earliest object over large folder listings, both in full and stopping at a cutoff.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class S3ClientBenchmark {
+
+    private static final String FOLDER = "s3://bucket/reports/table";
+    private static final long FIRST_CREATED_SECOND = 1_700_000_000L;
+
+    @Param({"1000", "10000", "100000"})
+    public int objects;
+
+    private S3Client s3Client;
+    private long midpointCutoffMillis;
+
+    @Setup
+    public void setUp() {
+        s3Client = new S3Client(new InMemoryS3(objects, S3Client.DEFAULT_MAX_KEYS, FIRST_CREATED_SECOND));
+        midpointCutoffMillis = (FIRST_CREATED_SECOND + objects / 2) * 1000;
+    }
+
+    @Benchmark
+    public Long getEarliestObjectCreatedDate() {
+        return s3Client.getEarliestObjectCreatedDate(FOLDER);
+    }
+
+    @Benchmark
+    public ObjectAgeCheck hasObjectOlderThanMidpoint() {
+        return s3Client.hasObjectOlderThan(FOLDER, midpointCutoffMillis);
+    }
+}
@@ -0,0 +1,81 @@
+package uk.gov.justice.digital.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import uk.gov.justice.digital.benchmarks.stubs.DiscardingContext;
+import uk.gov.justice.digital.benchmarks.stubs.InMemoryDynamoDb;
+import uk.gov.justice.digital.benchmarks.stubs.InMemoryStepFunctions;
+import uk.gov.justice.digital.clients.dynamo.DynamoDbClient;
+import uk.gov.justice.digital.clients.stepfunctions.StepFunctionsClient;
+import uk.gov.justice.digital.lambda.StepFunctionDMSNotificationLambda;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static uk.gov.justice.digital.common.Utils.IGNORE_DMS_TASK_FAILURE_KEY;
+import static uk.gov.justice.digital.common.Utils.TASK_TOKEN_KEY;
+
+/**
+ * A whole invocation of the notification lambda, from the event map through parsing and validation to the calls
+ * on in-memory DynamoDB and Step Functions clients.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StepFunctionDMSNotificationLambdaBenchmark {
+
+    private static final String TASK_ARN = "arn:aws:dms:eu-west-2:000000000000:task:BENCHMARK";
+    // Task tokens are several hundred characters long
+    private static final String TOKEN = "A".repeat(700);
+
+    private static final Map<String, Object> REGISTER_EVENT = Map.of(
+            "token", TOKEN,
+            "replicationTaskArn", TASK_ARN,
+            "ignoreDmsTaskFailure", false
+    );
+
+    private static final Map<String, Object> STOPPAGE_EVENT = Map.of(
+            "resources", List.of(TASK_ARN),
+            "detail", Map.of("eventId", "DMS-EVENT-0079")
+    );
+
+    private final DiscardingContext context = new DiscardingContext();
+    private StepFunctionDMSNotificationLambda lambda;
+
+    @Setup
+    public void setUp() {
+        var claimedItem = Map.of(
+                TASK_TOKEN_KEY, AttributeValue.builder().s(TOKEN).build(),
+                IGNORE_DMS_TASK_FAILURE_KEY, AttributeValue.builder().bool(false).build()
+        );
+        lambda = new StepFunctionDMSNotificationLambda(
+                new DynamoDbClient(new InMemoryDynamoDb(claimedItem)),
+                new StepFunctionsClient(new InMemoryStepFunctions()),
+                Clock.systemUTC()
+        );
+    }
+
+    @Benchmark
+    public Void registerTaskToken() {
+        return lambda.handleRequest(REGISTER_EVENT, context);
+    }
+
+    @Benchmark
+    public Void processDmsStoppage() {
+        return lambda.handleRequest(STOPPAGE_EVENT, context);
+    }
+}
@@ -0,0 +1,83 @@
+package uk.gov.justice.digital.benchmarks.stubs;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.logging.LogLevel;
+
+/**
+ * A Lambda context whose logger throws every line away, so benchmarks measure the work of building log lines but
+ * not the cost of writing them.
+ */
+public class DiscardingContext implements Context {
+
+    public static final LambdaLogger LOGGER = new LambdaLogger() {
+        @Override
+        public void log(String message) {
+        }
+
+        @Override
+        public void log(byte[] message) {
+        }
+
+        @Override
+        public void log(String message, LogLevel logLevel) {
+        }
+    };
+
+    @Override
+    public String getAwsRequestId() {
+        return "benchmark";
+    }
+
+    @Override
+    public String getLogGroupName() {
+        return "benchmark";
+    }
+
+    @Override
+    public String getLogStreamName() {
+        return "benchmark";
+    }
+
+    @Override
+    public String getFunctionName() {
+        return "benchmark";
+    }
+
+    @Override
+    public String getFunctionVersion() {
+        return "$LATEST";
+    }
+
+    @Override
+    public String getInvokedFunctionArn() {
+        return "arn:aws:lambda:eu-west-2:000000000000:function:benchmark";
+    }
+
+    @Override
+    public CognitoIdentity getIdentity() {
+        return null;
+    }
+
+    @Override
+    public ClientContext getClientContext() {
+        return null;
+    }
+
+    @Override
+    public int getRemainingTimeInMillis() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int getMemoryLimitInMB() {
+        return 512;
+    }
+
+    @Override
+    public LambdaLogger getLogger() {
+        return LOGGER;
+    }
+}
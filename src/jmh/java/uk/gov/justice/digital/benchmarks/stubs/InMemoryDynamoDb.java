@@ -0,0 +1,45 @@
+package uk.gov.justice.digital.benchmarks.stubs;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import uk.gov.justice.digital.clients.dynamo.DynamoDbProvider;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * A DynamoDB client that accepts every put and answers every claim with the same claimed item, so a stop event can
+ * be processed any number of times.
+ */
+public class InMemoryDynamoDb implements DynamoDbAsyncClient, DynamoDbProvider {
+
+    private final PutItemResponse claimedItem;
+
+    public InMemoryDynamoDb(Map<String, AttributeValue> claimedItem) {
+        this.claimedItem = PutItemResponse.builder().attributes(claimedItem).build();
+    }
+
+    @Override
+    public DynamoDbAsyncClient buildClient() {
+        return this;
+    }
+
+    @Override
+    public CompletableFuture<PutItemResponse> putItem(PutItemRequest request) {
+        return completedFuture(request.returnValues() == ReturnValue.ALL_OLD ? claimedItem : PutItemResponse.builder().build());
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,109 @@
+package uk.gov.justice.digital.benchmarks.stubs;
+
+import software.amazon.awssdk.services.redshiftdata.RedshiftDataAsyncClient;
+import software.amazon.awssdk.services.redshiftdata.RedshiftDataClient;
+import software.amazon.awssdk.services.redshiftdata.model.BatchExecuteStatementRequest;
+import software.amazon.awssdk.services.redshiftdata.model.BatchExecuteStatementResponse;
+import software.amazon.awssdk.services.redshiftdata.model.DescribeStatementRequest;
+import software.amazon.awssdk.services.redshiftdata.model.DescribeStatementResponse;
+import software.amazon.awssdk.services.redshiftdata.model.ExecuteStatementRequest;
+import software.amazon.awssdk.services.redshiftdata.model.ExecuteStatementResponse;
+import software.amazon.awssdk.services.redshiftdata.model.Field;
+import software.amazon.awssdk.services.redshiftdata.model.GetStatementResultRequest;
+import software.amazon.awssdk.services.redshiftdata.model.GetStatementResultResponse;
+import software.amazon.awssdk.services.redshiftdata.model.StatusString;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * Redshift Data API clients that answer from memory. Every statement has already FINISHED, and statement results
+ * are pages of {@code tablename, location, lastDdlTime} records prepared up front so that only the code under test
+ * is measured. Every tenth table has no last DDL time, as an invalid table would.
+ */
+public class InMemoryRedshiftData {
+
+    private final List<GetStatementResultResponse> resultPages;
+    private final AtomicLong statementIds = new AtomicLong();
+
+    public InMemoryRedshiftData(int records, int recordsPerPage) {
+        this.resultPages = resultPages(records, recordsPerPage);
+    }
+
+    public RedshiftDataClient syncClient() {
+        return new RedshiftDataClient() {
+            @Override
+            public ExecuteStatementResponse executeStatement(ExecuteStatementRequest request) {
+                return ExecuteStatementResponse.builder().id(nextId()).build();
+            }
+
+            @Override
+            public GetStatementResultResponse getStatementResult(GetStatementResultRequest request) {
+                int page = request.nextToken() == null ? 0 : Integer.parseInt(request.nextToken());
+                return resultPages.get(page);
+            }
+
+            @Override
+            public String serviceName() {
+                return SERVICE_NAME;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    public RedshiftDataAsyncClient asyncClient() {
+        return new RedshiftDataAsyncClient() {
+            @Override
+            public CompletableFuture<BatchExecuteStatementResponse> batchExecuteStatement(BatchExecuteStatementRequest request) {
+                return completedFuture(BatchExecuteStatementResponse.builder().id(nextId()).build());
+            }
+
+            @Override
+            public CompletableFuture<DescribeStatementResponse> describeStatement(DescribeStatementRequest request) {
+                return completedFuture(DescribeStatementResponse.builder().id(request.id()).status(StatusString.FINISHED).build());
+            }
+
+            @Override
+            public String serviceName() {
+                return SERVICE_NAME;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private String nextId() {
+        return "statement-" + statementIds.incrementAndGet();
+    }
+
+    private static List<GetStatementResultResponse> resultPages(int records, int recordsPerPage) {
+        List<GetStatementResultResponse> pages = new ArrayList<>();
+        for (int first = 0; first < records || pages.isEmpty(); first += recordsPerPage) {
+            List<List<Field>> page = new ArrayList<>();
+            for (int record = first; record < Math.min(records, first + recordsPerPage); record++) {
+                page.add(List.of(
+                        Field.builder().stringValue("table_" + record).build(),
+                        Field.builder().stringValue("s3://bucket/reports/table_" + record).build(),
+                        record % 10 == 0
+                                ? Field.builder().isNull(true).build()
+                                : Field.builder().longValue(1_700_000_000L + record).build()
+                ));
+            }
+            boolean last = first + recordsPerPage >= records;
+            pages.add(GetStatementResultResponse.builder()
+                    .records(page)
+                    .nextToken(last ? null : String.valueOf(pages.size() + 1))
+                    .build());
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,64 @@
+package uk.gov.justice.digital.benchmarks.stubs;
+
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * An S3 client listing a single folder from memory. Objects are created one second apart starting at epoch second
+ * {@code firstCreatedSecond}, in a shuffled order so the earliest is not simply the first listed.
+ */
+public class InMemoryS3 implements S3AsyncClient {
+
+    private final List<ListObjectsV2Response> pages;
+
+    public InMemoryS3(int objects, int objectsPerPage, long firstCreatedSecond) {
+        this.pages = listing(objects, objectsPerPage, firstCreatedSecond);
+    }
+
+    @Override
+    public CompletableFuture<ListObjectsV2Response> listObjectsV2(ListObjectsV2Request request) {
+        int page = request.continuationToken() == null ? 0 : Integer.parseInt(request.continuationToken());
+        return completedFuture(pages.get(page));
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static List<ListObjectsV2Response> listing(int objects, int objectsPerPage, long firstCreatedSecond) {
+        List<ListObjectsV2Response> pages = new ArrayList<>();
+        for (int first = 0; first < objects || pages.isEmpty(); first += objectsPerPage) {
+            List<S3Object> contents = new ArrayList<>();
+            for (int index = first; index < Math.min(objects, first + objectsPerPage); index++) {
+                // A prime stride visits every creation time once, out of order, unless the count is a multiple of it
+                long created = firstCreatedSecond + ((index * 7919L) % objects);
+                contents.add(S3Object.builder()
+                        .key("reports/table/part-" + index)
+                        .eTag("etag-" + index)
+                        .lastModified(Instant.ofEpochSecond(created))
+                        .build());
+            }
+            boolean last = first + objectsPerPage >= objects;
+            pages.add(ListObjectsV2Response.builder()
+                    .contents(contents)
+                    .isTruncated(!last)
+                    .nextContinuationToken(last ? null : String.valueOf(pages.size() + 1))
+                    .build());
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,42 @@
+package uk.gov.justice.digital.benchmarks.stubs;
+
+import software.amazon.awssdk.services.sfn.SfnAsyncClient;
+import software.amazon.awssdk.services.sfn.model.SendTaskFailureRequest;
+import software.amazon.awssdk.services.sfn.model.SendTaskFailureResponse;
+import software.amazon.awssdk.services.sfn.model.SendTaskSuccessRequest;
+import software.amazon.awssdk.services.sfn.model.SendTaskSuccessResponse;
+import uk.gov.justice.digital.clients.stepfunctions.StepFunctionsProvider;
+
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * A Step Functions client that accepts every task notification.
+ */
+public class InMemoryStepFunctions implements SfnAsyncClient, StepFunctionsProvider {
+
+    @Override
+    public SfnAsyncClient buildClient() {
+        return this;
+    }
+
+    @Override
+    public CompletableFuture<SendTaskSuccessResponse> sendTaskSuccess(SendTaskSuccessRequest request) {
+        return completedFuture(SendTaskSuccessResponse.builder().build());
+    }
+
+    @Override
+    public CompletableFuture<SendTaskFailureResponse> sendTaskFailure(SendTaskFailureRequest request) {
+        return completedFuture(SendTaskFailureResponse.builder().build());
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
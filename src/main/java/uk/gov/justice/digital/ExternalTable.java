@@ -0,0 +1,32 @@
+package uk.gov.justice.digital;
+
+import java.util.Objects;
+
+/**
+ * An external table as defined in the catalogue, with the epoch seconds of its {@code transient_lastDdlTime}, or
+ * null for an invalid table missing it.
+ */
+public class ExternalTable extends TableS3Location {
+    public final Long lastDdlTime;
+
+    public ExternalTable(String tableName, String s3Location, Long lastDdlTime) {
+        super(tableName, s3Location);
+        this.lastDdlTime = lastDdlTime;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ExternalTable that = (ExternalTable) o;
+
+        return Objects.equals(lastDdlTime, that.lastDdlTime)
+                && super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + (lastDdlTime != null ? lastDdlTime.hashCode() : 0);
+    }
+}
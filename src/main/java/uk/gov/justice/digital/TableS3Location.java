@@ -1,5 +1,7 @@
 package uk.gov.justice.digital;
 
+import java.util.Objects;
+
 public class TableS3Location {
     public final String tableName;
     public final String s3Location;
@@ -17,13 +19,13 @@ public class TableS3Location {
         TableS3Location that = (TableS3Location) o;
 
         if (!tableName.equals(that.tableName)) return false;
-        return s3Location.equals(that.s3Location);
+        return Objects.equals(s3Location, that.s3Location);
     }
 
     @Override
     public int hashCode() {
         int result = tableName.hashCode();
-        result = 31 * result + s3Location.hashCode();
+        result = 31 * result + Objects.hashCode(s3Location);
         return result;
     }
 }
@@ -0,0 +1,153 @@
+package uk.gov.justice.digital.clients;
+
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static uk.gov.justice.digital.common.Utils.getEnvOrDefault;
+
+/**
+ * Single place that decides how every AWS SDK client talks HTTP.
+ * <p>
+ * Sync clients use the lightweight JDK {@link UrlConnectionHttpClient} instead of Apache, and async clients a tuned
+ * Netty client. One HTTP client of each kind is created per factory and shared by every client built from it.
+ * <p>
+ * Only the Netty client has a connection pool of its own, sized by {@code AWS_HTTP_MAX_CONNECTIONS} and recycling
+ * connections after {@code AWS_HTTP_CONNECTION_TTL_MILLIS}. The sync client takes the connection and socket timeouts
+ * and nothing else: it reuses connections through the JDK's keep-alive cache, which is tuned with the
+ * {@code http.keepAlive} and {@code http.maxConnections} system properties rather than by this factory. The sync
+ * clients only make a few calls per invocation, so they are kept off Apache for its smaller footprint.
+ * <p>
+ * SDK clients never close an HTTP client they were given, so the factory owns them. Clients and other resources built
+ * on top of it are registered with {@link #manage(SdkAutoCloseable)}, and closing the factory closes them all followed
+ * by the HTTP clients, leaving no connection or thread behind.
+ */
+public class AwsClientFactory implements SdkAutoCloseable {
+
+    private static final String MAX_CONNECTIONS_VAR_NAME = "AWS_HTTP_MAX_CONNECTIONS";
+    private static final String CONNECTION_TIMEOUT_MILLIS_VAR_NAME = "AWS_HTTP_CONNECTION_TIMEOUT_MILLIS";
+    private static final String SOCKET_TIMEOUT_MILLIS_VAR_NAME = "AWS_HTTP_SOCKET_TIMEOUT_MILLIS";
+    private static final String CONNECTION_TTL_MILLIS_VAR_NAME = "AWS_HTTP_CONNECTION_TTL_MILLIS";
+    private static final String API_CALL_TIMEOUT_MILLIS_VAR_NAME = "AWS_API_CALL_TIMEOUT_MILLIS";
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 50;
+    private static final long DEFAULT_CONNECTION_TIMEOUT_MILLIS = 2000;
+    private static final long DEFAULT_SOCKET_TIMEOUT_MILLIS = 30000;
+    private static final long DEFAULT_CONNECTION_TTL_MILLIS = 60000;
+    private static final long DEFAULT_API_CALL_TIMEOUT_MILLIS = 60000;
+
+    private final int maxConnections;
+    private final Duration connectionTimeout;
+    private final Duration socketTimeout;
+    private final Duration connectionTtl;
+    private final Duration apiCallTimeout;
+
+    private SdkHttpClient syncHttpClient;
+    private SdkAsyncHttpClient asyncHttpClient;
+    private final Deque<SdkAutoCloseable> managed = new ArrayDeque<>();
+
+    public AwsClientFactory(
+            int maxConnections,
+            Duration connectionTimeout,
+            Duration socketTimeout,
+            Duration connectionTtl,
+            Duration apiCallTimeout
+    ) {
+        this.maxConnections = maxConnections;
+        this.connectionTimeout = connectionTimeout;
+        this.socketTimeout = socketTimeout;
+        this.connectionTtl = connectionTtl;
+        this.apiCallTimeout = apiCallTimeout;
+    }
+
+    public static AwsClientFactory fromEnvironment() {
+        return new AwsClientFactory(
+                getEnvOrDefault(MAX_CONNECTIONS_VAR_NAME, DEFAULT_MAX_CONNECTIONS),
+                Duration.ofMillis(getEnvOrDefault(CONNECTION_TIMEOUT_MILLIS_VAR_NAME, DEFAULT_CONNECTION_TIMEOUT_MILLIS)),
+                Duration.ofMillis(getEnvOrDefault(SOCKET_TIMEOUT_MILLIS_VAR_NAME, DEFAULT_SOCKET_TIMEOUT_MILLIS)),
+                Duration.ofMillis(getEnvOrDefault(CONNECTION_TTL_MILLIS_VAR_NAME, DEFAULT_CONNECTION_TTL_MILLIS)),
+                Duration.ofMillis(getEnvOrDefault(API_CALL_TIMEOUT_MILLIS_VAR_NAME, DEFAULT_API_CALL_TIMEOUT_MILLIS))
+        );
+    }
+
+    /**
+     * @return the shared sync HTTP client, which applies the connection and socket timeouts only.
+     */
+    public synchronized SdkHttpClient syncHttpClient() {
+        if (syncHttpClient == null) {
+            syncHttpClient = UrlConnectionHttpClient.builder()
+                    .connectionTimeout(connectionTimeout)
+                    .socketTimeout(socketTimeout)
+                    .build();
+        }
+        return syncHttpClient;
+    }
+
+    public synchronized SdkAsyncHttpClient asyncHttpClient() {
+        if (asyncHttpClient == null) {
+            asyncHttpClient = NettyNioAsyncHttpClient.builder()
+                    .maxConcurrency(maxConnections)
+                    .tcpKeepAlive(true)
+                    .connectionTimeToLive(connectionTtl)
+                    .connectionTimeout(connectionTimeout)
+                    .readTimeout(socketTimeout)
+                    .writeTimeout(socketTimeout)
+                    .build();
+        }
+        return asyncHttpClient;
+    }
+
+    public ClientOverrideConfiguration overrideConfiguration() {
+        return ClientOverrideConfiguration.builder()
+                .apiCallTimeout(apiCallTimeout)
+                .build();
+    }
+
+    /**
+     * Registers a resource to be closed with the factory.
+     *
+     * @return the resource, so a client can be registered as it is built.
+     */
+    public synchronized <T extends SdkAutoCloseable> T manage(T resource) {
+        managed.push(resource);
+        return resource;
+    }
+
+    /**
+     * Closes every registered resource, most recently registered first, and then the HTTP clients. A resource that
+     * fails to close does not stop the others from being closed, and its failure is rethrown once they have been.
+     */
+    @Override
+    public synchronized void close() {
+        RuntimeException failure = null;
+        while (!managed.isEmpty()) {
+            failure = closeQuietly(managed.pop(), failure);
+        }
+        if (asyncHttpClient != null) {
+            failure = closeQuietly(asyncHttpClient, failure);
+            asyncHttpClient = null;
+        }
+        if (syncHttpClient != null) {
+            failure = closeQuietly(syncHttpClient, failure);
+            syncHttpClient = null;
+        }
+        if (failure != null) throw failure;
+    }
+
+    private static RuntimeException closeQuietly(SdkAutoCloseable resource, RuntimeException failure) {
+        try {
+            resource.close();
+        } catch (RuntimeException e) {
+            if (failure == null) return e;
+            failure.addSuppressed(e);
+        }
+        return failure;
+    }
+}
@@ -0,0 +1,66 @@
+package uk.gov.justice.digital.clients;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+
+/**
+ * Remembers what earlier expiry runs learnt, so later runs only evaluate the tables that changed since.
+ * <p>
+ * The watermark is the time the last completed run started. Every table seen with a last DDL time that has yet
+ * to expire is held with the time it expires at, so it can be dropped when due without being discovered again.
+ * <p>
+ * Invalid tables, which have no last DDL time, are not held: every run lists them and checks their data in S3 again,
+ * relying on the S3 metadata cache to keep those checks cheap. Holding them too is left as a follow-up.
+ */
+public interface ExpiryStateStore {
+
+    OptionalLong watermark();
+
+    void saveWatermark(long epochSeconds);
+
+    /**
+     * @return the tables that expire at or before the given time.
+     */
+    List<String> dueTables(long nowEpochSeconds);
+
+    /**
+     * Holds the given expiry times, replacing any held for the same tables, and forgets the removed tables.
+     *
+     * @param removedTables held tables that have since been removed.
+     */
+    void update(Map<String, Long> expiresAt, Collection<String> removedTables);
+
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * @return a store that never holds anything, so every run evaluates every table.
+     */
+    static ExpiryStateStore disabled() {
+        return new ExpiryStateStore() {
+            @Override
+            public OptionalLong watermark() {
+                return OptionalLong.empty();
+            }
+
+            @Override
+            public void saveWatermark(long epochSeconds) { }
+
+            @Override
+            public List<String> dueTables(long nowEpochSeconds) {
+                return List.of();
+            }
+
+            @Override
+            public void update(Map<String, Long> expiresAt, Collection<String> removedTables) { }
+
+            @Override
+            public boolean isEnabled() {
+                return false;
+            }
+        };
+    }
+}
@@ -0,0 +1,22 @@
+package uk.gov.justice.digital.clients;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import uk.gov.justice.digital.ExternalTable;
+
+import java.util.stream.Stream;
+
+/**
+ * Lists the external tables in the reports schema with their {@code transient_lastDdlTime}, for the expiry run to
+ * classify.
+ * <p>
+ * A table is expired when its last DDL time is older than the expiry time, and invalid when it has no last DDL time
+ * at all, in which case only the age of its data in S3 can tell whether it has expired.
+ */
+public interface ExternalTableDiscovery {
+
+    /**
+     * Lists the tables defined or redefined at or after the given time, or every table for zero, along with every
+     * invalid table, as those carry no time to compare. Tables are fetched as the stream is consumed.
+     */
+    Stream<ExternalTable> tablesChangedSince(long changedSinceEpochSeconds, LambdaLogger logger);
+}
@@ -0,0 +1,22 @@
+package uk.gov.justice.digital.clients;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+public class SdkFutures {
+
+    /**
+     * Waits for an async SDK call, rethrowing its failure as is rather than wrapped in a
+     * {@link CompletionException} so callers can handle service exceptions the same as a blocking call.
+     */
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    private SdkFutures() { }
+}
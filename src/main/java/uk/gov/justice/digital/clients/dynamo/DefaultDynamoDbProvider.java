@@ -1,13 +1,29 @@
 package uk.gov.justice.digital.clients.dynamo;
 
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import uk.gov.justice.digital.clients.AwsClientFactory;
 
 import static uk.gov.justice.digital.common.Utils.DEFAULT_DPR_REGION;
 
 public class DefaultDynamoDbProvider implements DynamoDbProvider {
+
+    private final AwsClientFactory clientFactory;
+
+    public DefaultDynamoDbProvider() {
+        this(AwsClientFactory.fromEnvironment());
+    }
+
+    public DefaultDynamoDbProvider(AwsClientFactory clientFactory) {
+        this.clientFactory = clientFactory;
+    }
+
     @Override
-    public AmazonDynamoDB buildClient() {
-        return AmazonDynamoDBClientBuilder.standard().withRegion(DEFAULT_DPR_REGION).build();
+    public DynamoDbAsyncClient buildClient() {
+        return clientFactory.manage(DynamoDbAsyncClient.builder()
+                .region(Region.of(DEFAULT_DPR_REGION))
+                .httpClient(clientFactory.asyncHttpClient())
+                .overrideConfiguration(clientFactory.overrideConfiguration())
+                .build());
     }
 }
@@ -1,16 +1,38 @@
 package uk.gov.justice.digital.clients.dynamo;
 
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
-import com.amazonaws.services.dynamodbv2.model.AttributeValue;
-import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
-import com.amazonaws.services.dynamodbv2.model.GetItemResult;
-import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DeleteRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValuesOnConditionCheckFailure;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+import uk.gov.justice.digital.clients.SdkFutures;
+import uk.gov.justice.digital.common.Backoff;
 import uk.gov.justice.digital.common.TaskDetail;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
+import static java.lang.String.format;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static uk.gov.justice.digital.clients.SdkFutures.await;
 import static uk.gov.justice.digital.common.Utils.REPLICATION_TASK_ARN_KEY;
 import static uk.gov.justice.digital.common.Utils.TASK_TOKEN_KEY;
 import static uk.gov.justice.digital.common.Utils.IGNORE_DMS_TASK_FAILURE_KEY;
@@ -19,41 +41,242 @@ public class DynamoDbClient {
 
     public final static String CREATED_AT_KEY = "createdAt";
     public final static String EXPIRE_AT_KEY = "expireAt";
+    public final static String CLAIMED_AT_KEY = "claimedAt";
 
-    private final AmazonDynamoDB dynamoDbClient;
+    // Limit on a single BatchWriteItem call
+    static final int MAX_BATCH_WRITE_ITEMS = 25;
+
+    private static final Backoff DEFAULT_UNPROCESSED_BACKOFF = new Backoff(50, 2000, 2.0, 0.5);
+    private static final int DEFAULT_MAX_UNPROCESSED_RETRIES = 8;
+
+    private final DynamoDbAsyncClient dynamoDbClient;
+    private final Backoff unprocessedBackoff;
+    private final int maxUnprocessedRetries;
 
     public DynamoDbClient(DynamoDbProvider dynamoDbProvider) {
+        this(dynamoDbProvider, DEFAULT_UNPROCESSED_BACKOFF, DEFAULT_MAX_UNPROCESSED_RETRIES);
+    }
+
+    /**
+     * @param unprocessedBackoff delay before resubmitting items a batch call left unprocessed.
+     * @param maxUnprocessedRetries resubmissions made before a batch call is failed.
+     */
+    public DynamoDbClient(DynamoDbProvider dynamoDbProvider, Backoff unprocessedBackoff, int maxUnprocessedRetries) {
         this.dynamoDbClient = dynamoDbProvider.buildClient();
+        this.unprocessedBackoff = unprocessedBackoff;
+        this.maxUnprocessedRetries = maxUnprocessedRetries;
     }
 
-    public void deleteToken(String table, Map<String, AttributeValue> itemKey) {
-        DeleteItemRequest deleteItemRequest = new DeleteItemRequest(table, itemKey);
-        dynamoDbClient.deleteItem(deleteItemRequest);
+    /**
+     * Atomically replaces the task token under the given key with a claimed marker and returns the item it was saved
+     * in, so only one of any concurrent callers can claim it. The marker is kept until {@code retainUntilEpochSeconds}
+     * so a later caller can tell a token already claimed from one never registered.
+     *
+     * @param claimedAt when the token was claimed, recorded in the marker.
+     */
+    public TokenClaim claimTaskToken(
+            String table,
+            Map<String, AttributeValue> itemKey,
+            String claimedAt,
+            long retainUntilEpochSeconds
+    ) {
+        Map<String, AttributeValue> marker = new HashMap<>(itemKey);
+        marker.put(CLAIMED_AT_KEY, AttributeValue.builder().s(claimedAt).build());
+        marker.put(EXPIRE_AT_KEY, AttributeValue.builder().n(String.valueOf(retainUntilEpochSeconds)).build());
+
+        PutItemRequest claimRequest = PutItemRequest.builder()
+                .tableName(table)
+                .item(marker)
+                .conditionExpression("attribute_exists(#token)")
+                .expressionAttributeNames(Map.of("#token", TASK_TOKEN_KEY))
+                .returnValues(ReturnValue.ALL_OLD)
+                .returnValuesOnConditionCheckFailure(ReturnValuesOnConditionCheckFailure.ALL_OLD)
+                .build();
+
+        try {
+            return TokenClaim.claimed(await(dynamoDbClient.putItem(claimRequest)).attributes());
+        } catch (ConditionalCheckFailedException e) {
+            boolean claimedBefore = e.hasItem() && e.item().containsKey(CLAIMED_AT_KEY);
+            return claimedBefore ? TokenClaim.ALREADY_CLAIMED : TokenClaim.NOT_REGISTERED;
+        }
     }
 
-    public Optional<TaskDetail> retrieveTaskDetail(String table, Map<String, AttributeValue> itemKey) {
-        GetItemRequest getTokenRequest = new GetItemRequest(table, itemKey);
-        GetItemResult getTokenResult = dynamoDbClient.getItem(getTokenRequest);
+    /**
+     * Puts back an item previously claimed with {@link #claimTaskToken}, replacing its claimed marker, unless a new
+     * token has been saved under its key since.
+     */
+    public void restoreTaskToken(String table, Map<String, AttributeValue> claimedItem) {
+        PutItemRequest restoreRequest = PutItemRequest.builder()
+                .tableName(table)
+                .item(claimedItem)
+                .conditionExpression("attribute_not_exists(#token)")
+                .expressionAttributeNames(Map.of("#token", TASK_TOKEN_KEY))
+                .build();
 
-        Map<String, AttributeValue> item = getTokenResult.getItem();
-        Optional<String> optionalTaskKey = Optional.ofNullable(item.get(TASK_TOKEN_KEY)).map(AttributeValue::getS);
-        boolean ignoreTaskFailure = item.getOrDefault(IGNORE_DMS_TASK_FAILURE_KEY, new AttributeValue().withBOOL(false)).getBOOL();
+        try {
+            await(dynamoDbClient.putItem(restoreRequest));
+        } catch (ConditionalCheckFailedException e) {
+            // A newer token has been registered for the task, which takes precedence
+        }
+    }
 
-        return optionalTaskKey.map(taskKey -> new TaskDetail(taskKey, ignoreTaskFailure));
+    /**
+     * Saves the task details of many replication tasks, keyed by replication task ARN, with as few BatchWriteItem
+     * calls as possible.
+     */
+    public void saveTaskDetails(String table, Map<String, TaskDetail> taskDetails, long expireAt, String createdAt) {
+        List<WriteRequest> writes = taskDetails.entrySet().stream()
+                .map(entry -> WriteRequest.builder()
+                        .putRequest(PutRequest.builder()
+                                .item(taskDetailsItem(
+                                        entry.getKey(),
+                                        entry.getValue().getToken(),
+                                        entry.getValue().ignoreFailure(),
+                                        expireAt,
+                                        createdAt
+                                ))
+                                .build())
+                        .build())
+                .collect(Collectors.toList());
+
+        writeAll(table, writes);
     }
 
     public void saveTaskDetails(String table, String taskArn, String inputToken, boolean ignoreDmsTaskFailure, long expireAt, String createdAt) {
-        AttributeValue expiryAttribute = new AttributeValue().withN(String.valueOf(expireAt));
-        AttributeValue ignoreDmsTaskFailureAttribute = new AttributeValue().withBOOL(ignoreDmsTaskFailure);
-        Map<String, AttributeValue> item = Map
+        Map<String, AttributeValue> item = taskDetailsItem(taskArn, inputToken, ignoreDmsTaskFailure, expireAt, createdAt);
+        PutItemRequest putTokenRequest = PutItemRequest.builder().tableName(table).item(item).build();
+        await(dynamoDbClient.putItem(putTokenRequest));
+    }
+
+    public Optional<Map<String, AttributeValue>> getItem(String table, Map<String, AttributeValue> itemKey) {
+        GetItemResponse response = await(dynamoDbClient.getItem(GetItemRequest.builder().tableName(table).key(itemKey).build()));
+        return response.hasItem() && !response.item().isEmpty() ? Optional.of(response.item()) : Optional.empty();
+    }
+
+    public void putItem(String table, Map<String, AttributeValue> item) {
+        await(dynamoDbClient.putItem(PutItemRequest.builder().tableName(table).item(item).build()));
+    }
+
+    /**
+     * Puts and deletes many items with as few BatchWriteItem calls as possible.
+     */
+    public void writeItems(String table, Collection<Map<String, AttributeValue>> items, Collection<Map<String, AttributeValue>> deletedKeys) {
+        List<WriteRequest> writes = new ArrayList<>(items.size() + deletedKeys.size());
+        items.forEach(item -> writes.add(WriteRequest.builder().putRequest(PutRequest.builder().item(item).build()).build()));
+        deletedKeys.forEach(key -> writes.add(WriteRequest.builder().deleteRequest(DeleteRequest.builder().key(key).build()).build()));
+
+        writeAll(table, writes);
+    }
+
+    /**
+     * @return every item the query matches, following each page on to the next.
+     */
+    public List<Map<String, AttributeValue>> queryItems(QueryRequest request) {
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        QueryResponse page = await(dynamoDbClient.query(request));
+        items.addAll(page.items());
+
+        while (page.hasLastEvaluatedKey() && !page.lastEvaluatedKey().isEmpty()) {
+            page = await(dynamoDbClient.query(request.toBuilder().exclusiveStartKey(page.lastEvaluatedKey()).build()));
+            items.addAll(page.items());
+        }
+        return items;
+    }
+
+    private void writeAll(String table, List<WriteRequest> writes) {
+        List<CompletableFuture<Void>> batches = chunk(writes, MAX_BATCH_WRITE_ITEMS).stream()
+                .map(batch -> writeBatch(table, batch, 0))
+                .collect(Collectors.toList());
+
+        batches.forEach(SdkFutures::await);
+    }
+
+    private CompletableFuture<Void> writeBatch(String table, List<WriteRequest> writes, int attempt) {
+        var request = BatchWriteItemRequest.builder().requestItems(Map.of(table, writes)).build();
+
+        return dynamoDbClient.batchWriteItem(request).thenCompose(response -> {
+            List<WriteRequest> unprocessed = response.unprocessedItems().getOrDefault(table, List.of());
+            if (unprocessed.isEmpty()) return completedFuture(null);
+
+            return afterBackoff(attempt, unprocessed.size(), table)
+                    .thenCompose(ignored -> writeBatch(table, unprocessed, attempt + 1));
+        });
+    }
+
+    private CompletableFuture<Void> afterBackoff(int attempt, int unprocessedCount, String table) {
+        if (attempt >= maxUnprocessedRetries) {
+            return failedFuture(new RuntimeException(format(
+                    "%d items for %s were still unprocessed after %d retries", unprocessedCount, table, attempt
+            )));
+        }
+        return CompletableFuture.runAsync(() -> { }, delayedExecutor(unprocessedBackoff.delayMillis(attempt), MILLISECONDS));
+    }
+
+    public static Optional<TaskDetail> toTaskDetail(Map<String, AttributeValue> item) {
+        Optional<String> optionalTaskKey = Optional.ofNullable(item.get(TASK_TOKEN_KEY)).map(AttributeValue::s);
+        boolean ignoreTaskFailure = Optional.ofNullable(item.get(IGNORE_DMS_TASK_FAILURE_KEY))
+                .map(AttributeValue::bool)
+                .orElse(false);
+
+        return optionalTaskKey.map(taskKey -> new TaskDetail(taskKey, ignoreTaskFailure));
+    }
+
+    private static Map<String, AttributeValue> taskDetailsItem(
+            String taskArn,
+            String inputToken,
+            boolean ignoreDmsTaskFailure,
+            long expireAt,
+            String createdAt
+    ) {
+        AttributeValue expiryAttribute = AttributeValue.builder().n(String.valueOf(expireAt)).build();
+        AttributeValue ignoreDmsTaskFailureAttribute = AttributeValue.builder().bool(ignoreDmsTaskFailure).build();
+        return Map
                 .of(
-                        REPLICATION_TASK_ARN_KEY, new AttributeValue(taskArn),
+                        REPLICATION_TASK_ARN_KEY, AttributeValue.builder().s(taskArn).build(),
                         IGNORE_DMS_TASK_FAILURE_KEY, ignoreDmsTaskFailureAttribute,
-                        TASK_TOKEN_KEY, new AttributeValue(inputToken),
-                        CREATED_AT_KEY, new AttributeValue(createdAt),
+                        TASK_TOKEN_KEY, AttributeValue.builder().s(inputToken).build(),
+                        CREATED_AT_KEY, AttributeValue.builder().s(createdAt).build(),
                         EXPIRE_AT_KEY, expiryAttribute
                 );
-        PutItemRequest putTokenRequest = new PutItemRequest(table, item);
-        dynamoDbClient.putItem(putTokenRequest);
+    }
+
+    private static <T> List<List<T>> chunk(List<T> items, int size) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int start = 0; start < items.size(); start += size) {
+            chunks.add(items.subList(start, Math.min(items.size(), start + size)));
+        }
+        return chunks;
+    }
+
+    /**
+     * The outcome of {@link #claimTaskToken}: the item claimed, or why there was nothing to claim.
+     */
+    public static class TokenClaim {
+
+        public static final TokenClaim ALREADY_CLAIMED = new TokenClaim(null, true);
+        public static final TokenClaim NOT_REGISTERED = new TokenClaim(null, false);
+
+        private final Map<String, AttributeValue> claimedItem;
+        private final boolean alreadyClaimed;
+
+        private TokenClaim(Map<String, AttributeValue> claimedItem, boolean alreadyClaimed) {
+            this.claimedItem = claimedItem;
+            this.alreadyClaimed = alreadyClaimed;
+        }
+
+        public static TokenClaim claimed(Map<String, AttributeValue> claimedItem) {
+            return new TokenClaim(claimedItem, false);
+        }
+
+        public Optional<Map<String, AttributeValue>> claimedItem() {
+            return Optional.ofNullable(claimedItem);
+        }
+
+        /**
+         * @return true if the token was claimed by an earlier caller, false if claimed now or never registered.
+         */
+        public boolean alreadyClaimed() {
+            return alreadyClaimed;
+        }
     }
 }
@@ -0,0 +1,104 @@
+package uk.gov.justice.digital.clients.dynamo;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import uk.gov.justice.digital.clients.ExpiryStateStore;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Holds the expiry state in a DynamoDB table keyed on {@value #TABLE_NAME_KEY}, with one item per table giving the
+ * epoch seconds it is due to be dropped at in {@value #DROP_AT_KEY}.
+ * <p>
+ * The watermark is held in the same DynamoDB table under {@value #WATERMARK_TABLE_NAME}, which can never clash with
+ * an external table name.
+ * <p>
+ * Due tables are found through the global secondary index {@value #DUE_INDEX_NAME}, with {@value #DUE_SHARD_KEY} as
+ * its partition key and {@value #DROP_AT_KEY} as its sort key, both numbers, projecting the keys only. Each held table
+ * is put in one of {@value #DUE_SHARDS} shards by its name, so writes are spread across the index, and a run queries
+ * each shard for the items due by now alone, rather than reading every held table. The watermark has no shard and so
+ * stays out of the index. Tables held before the shard was recorded are not in the index either, so a store written
+ * by an earlier version needs its watermark deleted once, which has the next run evaluate and hold every table again.
+ */
+public class DynamoDbExpiryStateStore implements ExpiryStateStore {
+
+    public static final String TABLE_NAME_KEY = "tableName";
+    public static final String DROP_AT_KEY = "dropAt";
+    public static final String WATERMARK_KEY = "watermark";
+    public static final String DUE_SHARD_KEY = "dueShard";
+    public static final String DUE_INDEX_NAME = "dueShard-dropAt-index";
+    static final String WATERMARK_TABLE_NAME = "#watermark";
+    static final int DUE_SHARDS = 8;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String stateTable;
+
+    public DynamoDbExpiryStateStore(DynamoDbClient dynamoDbClient, String stateTable) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.stateTable = stateTable;
+    }
+
+    @Override
+    public OptionalLong watermark() {
+        return dynamoDbClient.getItem(stateTable, itemKey(WATERMARK_TABLE_NAME))
+                .map(item -> item.get(WATERMARK_KEY))
+                .map(watermark -> OptionalLong.of(Long.parseLong(watermark.n())))
+                .orElse(OptionalLong.empty());
+    }
+
+    @Override
+    public void saveWatermark(long epochSeconds) {
+        dynamoDbClient.putItem(stateTable, Map.of(
+                TABLE_NAME_KEY, AttributeValue.builder().s(WATERMARK_TABLE_NAME).build(),
+                WATERMARK_KEY, AttributeValue.builder().n(String.valueOf(epochSeconds)).build()
+        ));
+    }
+
+    @Override
+    public List<String> dueTables(long nowEpochSeconds) {
+        return IntStream.range(0, DUE_SHARDS)
+                .mapToObj(shard -> QueryRequest.builder()
+                        .tableName(stateTable)
+                        .indexName(DUE_INDEX_NAME)
+                        .keyConditionExpression("#dueShard = :shard AND #dropAt <= :now")
+                        .expressionAttributeNames(Map.of("#dueShard", DUE_SHARD_KEY, "#dropAt", DROP_AT_KEY))
+                        .expressionAttributeValues(Map.of(
+                                ":shard", AttributeValue.builder().n(String.valueOf(shard)).build(),
+                                ":now", AttributeValue.builder().n(String.valueOf(nowEpochSeconds)).build()
+                        ))
+                        .build())
+                .flatMap(request -> dynamoDbClient.queryItems(request).stream())
+                .map(item -> item.get(TABLE_NAME_KEY).s())
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void update(Map<String, Long> expiresAt, Collection<String> removedTables) {
+        var items = expiresAt.entrySet().stream()
+                .map(entry -> Map.of(
+                        TABLE_NAME_KEY, AttributeValue.builder().s(entry.getKey()).build(),
+                        DROP_AT_KEY, AttributeValue.builder().n(String.valueOf(entry.getValue())).build(),
+                        DUE_SHARD_KEY, AttributeValue.builder().n(String.valueOf(dueShard(entry.getKey()))).build()
+                ))
+                .collect(Collectors.toList());
+        var deletedKeys = removedTables.stream()
+                .filter(tableName -> !expiresAt.containsKey(tableName))
+                .map(DynamoDbExpiryStateStore::itemKey)
+                .collect(Collectors.toList());
+
+        dynamoDbClient.writeItems(stateTable, items, deletedKeys);
+    }
+
+    static int dueShard(String tableName) {
+        return Math.floorMod(tableName.hashCode(), DUE_SHARDS);
+    }
+
+    private static Map<String, AttributeValue> itemKey(String tableName) {
+        return Map.of(TABLE_NAME_KEY, AttributeValue.builder().s(tableName).build());
+    }
+}
@@ -1,7 +1,7 @@
 package uk.gov.justice.digital.clients.dynamo;
 
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 
 public interface DynamoDbProvider {
-    AmazonDynamoDB buildClient();
+    DynamoDbAsyncClient buildClient();
 }
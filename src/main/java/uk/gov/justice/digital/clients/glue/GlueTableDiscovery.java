@@ -0,0 +1,83 @@
+package uk.gov.justice.digital.clients.glue;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import software.amazon.awssdk.services.glue.GlueClient;
+import software.amazon.awssdk.services.glue.model.GetTablesRequest;
+import software.amazon.awssdk.services.glue.model.GetTablesResponse;
+import software.amazon.awssdk.services.glue.model.Table;
+import uk.gov.justice.digital.ExternalTable;
+import uk.gov.justice.digital.clients.ExternalTableDiscovery;
+import uk.gov.justice.digital.common.StructuredLogger;
+
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import static java.lang.String.format;
+
+/**
+ * Lists tables by paging through {@code GetTables} on the Glue database behind the reports external
+ * schema, reading {@code transient_lastDdlTime} and the location from each table directly.
+ * <p>
+ * This needs no Redshift statement, so discovery never waits for a query queue slot, and each page of tables is
+ * fetched only once the previous one has been consumed. Glue has no filter on DDL time, so every page is read even
+ * when only changed tables are wanted.
+ */
+public class GlueTableDiscovery implements ExternalTableDiscovery {
+
+    static final String LAST_DDL_TIME_PARAMETER = "transient_lastDdlTime";
+    // Largest page GetTables returns
+    static final int PAGE_SIZE = 100;
+
+    private final GlueClient glueClient;
+    private final String databaseName;
+
+    public GlueTableDiscovery(GlueClient glueClient, String databaseName) {
+        this.glueClient = glueClient;
+        this.databaseName = databaseName;
+    }
+
+    @Override
+    public Stream<ExternalTable> tablesChangedSince(long changedSinceEpochSeconds, LambdaLogger logger) {
+        var log = StructuredLogger.of(logger);
+        log.info(() -> format("Requesting tables from Glue database %s", databaseName));
+
+        var request = GetTablesRequest.builder()
+                .databaseName(databaseName)
+                .maxResults(PAGE_SIZE)
+                .build();
+
+        return Stream.iterate(
+                        glueClient.getTables(request),
+                        Objects::nonNull,
+                        page -> page.nextToken() == null
+                                ? null
+                                : glueClient.getTables(request.toBuilder().nextToken(page.nextToken()).build())
+                )
+                .filter(GetTablesResponse::hasTableList)
+                .flatMap(page -> page.tableList().stream())
+                .map(table -> toExternalTable(table, log))
+                .filter(table -> table != null && (table.lastDdlTime == null || table.lastDdlTime >= changedSinceEpochSeconds));
+    }
+
+    /**
+     * @return the table, or null if it can be neither expired by its last DDL time nor by the age of its data.
+     */
+    private static ExternalTable toExternalTable(Table table, StructuredLogger log) {
+        String lastDdlTime = table.parameters().get(LAST_DDL_TIME_PARAMETER);
+        String location = table.storageDescriptor() == null ? null : table.storageDescriptor().location();
+
+        if (lastDdlTime == null) {
+            if (location != null) return new ExternalTable(table.name(), location, null);
+
+            log.warn(() -> format("Ignoring table %s with no %s and no location", table.name(), LAST_DDL_TIME_PARAMETER));
+            return null;
+        }
+
+        try {
+            return new ExternalTable(table.name(), location, Long.parseLong(lastDdlTime.trim()));
+        } catch (NumberFormatException e) {
+            log.warn(() -> format("Ignoring table %s with unreadable %s: %s", table.name(), LAST_DDL_TIME_PARAMETER, lastDdlTime));
+            return null;
+        }
+    }
+}
@@ -2,142 +2,301 @@ package uk.gov.justice.digital.clients.redshift;
 
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.lambda.runtime.logging.LogLevel;
+import software.amazon.awssdk.services.redshiftdata.RedshiftDataAsyncClient;
 import software.amazon.awssdk.services.redshiftdata.RedshiftDataClient;
 import software.amazon.awssdk.services.redshiftdata.model.*;
-import uk.gov.justice.digital.TableS3Location;
-
+import uk.gov.justice.digital.ExternalTable;
+import uk.gov.justice.digital.common.EmfMetrics;
+import uk.gov.justice.digital.common.StructuredLogger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.IntStream;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 
 import static java.lang.String.format;
-import static java.util.Collections.emptyList;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.toList;
 
 public class ExternalTableQueryExecutor {
     private static final String DROP_STATEMENT = "DROP TABLE IF EXISTS reports.%s;";
-    private static final String GET_EXPIRED_TABLES_STATEMENT =
-            "SELECT tablename " +
-                    "FROM SVV_EXTERNAL_TABLES " +
-                    "WHERE schemaname = 'reports' " +
-                    "AND json_extract_path_text(parameters, 'transient_lastDdlTime', TRUE)::bigint < (EXTRACT(EPOCH FROM GETDATE()) - %d)";
-    private static final String GET_INVALID_TABLES_STATEMENT =
-            "SELECT tablename, location " +
+    // Every table with its last DDL time, or NULL for an invalid table, so they can be classified in one pass
+    private static final String GET_EXTERNAL_TABLES_STATEMENT =
+            "SELECT tablename, location, json_extract_path_text(parameters, 'transient_lastDdlTime', TRUE)::bigint " +
                     "FROM SVV_EXTERNAL_TABLES " +
-                    "WHERE schemaname = 'reports' " +
-                    "AND json_extract_path_text(parameters, 'transient_lastDdlTime', TRUE) IS NULL";
+                    "WHERE schemaname = 'reports'";
+    private static final String CHANGED_SINCE_CONDITION =
+            " AND (json_extract_path_text(parameters, 'transient_lastDdlTime', TRUE) IS NULL " +
+                    "OR json_extract_path_text(parameters, 'transient_lastDdlTime', TRUE)::bigint >= %d)";
+
+    // Limits imposed by the Redshift Data API on a single BatchExecuteStatement request
+    static final int MAX_BATCH_STATEMENTS = 40;
+    static final int MAX_BATCH_SQL_BYTES = 100 * 1024;
 
-    private static final int BATCH_SIZE = 500;
-    public static final int STATEMENT_STATUS_CHECK_DELAY_MILLIS = 1000;
+    // Statements of each batch written to the log, the rest are only counted
+    private static final int LOGGED_STATEMENTS = 3;
+
+    static final String TABLES_QUERY_LATENCY_METRIC = "ExternalTablesQueryLatency";
+    static final String DROP_BATCHES_METRIC = "DropBatches";
+    static final String DROP_BATCH_LATENCY_METRIC = "DropBatchLatency";
 
     private final RedshiftDataClient dataClient;
+    private final RedshiftDataAsyncClient asyncDataClient;
+    private final StatementStatusPoller statusPoller;
     private final String clusterId;
     private final String databaseName;
     private final String secretArn;
+    private final EmfMetrics metrics;
+    // Latency metric to record once each statement has run, keyed by statement id
+    private final Map<String, String> latencyMetrics = new ConcurrentHashMap<>();
+
+    public ExternalTableQueryExecutor(
+            RedshiftDataClient dataClient,
+            RedshiftDataAsyncClient asyncDataClient,
+            StatementStatusPoller statusPoller,
+            String clusterId,
+            String databaseName,
+            String secretArn
+    ) {
+        this(dataClient, asyncDataClient, statusPoller, clusterId, databaseName, secretArn, EmfMetrics.disabled());
+    }
 
-    public ExternalTableQueryExecutor(RedshiftDataClient dataClient, String clusterId, String databaseName, String secretArn) {
+    /**
+     * @param metrics records the number of drop batches submitted and how long each batch and table query ran for.
+     *                Run times are taken from the statement's own created and updated times, so they do not depend on
+     *                how soon the statement is polled.
+     */
+    public ExternalTableQueryExecutor(
+            RedshiftDataClient dataClient,
+            RedshiftDataAsyncClient asyncDataClient,
+            StatementStatusPoller statusPoller,
+            String clusterId,
+            String databaseName,
+            String secretArn,
+            EmfMetrics metrics
+    ) {
+        this.metrics = metrics;
         this.dataClient = dataClient;
+        this.asyncDataClient = asyncDataClient;
+        this.statusPoller = statusPoller;
         this.clusterId = clusterId;
         this.databaseName = databaseName;
         this.secretArn = secretArn;
     }
 
-    public List<ExecuteStatementResponse> removeExternalTables(List<String> tableNames, LambdaLogger logger) {
-        List<String> dropStatements =  tableNames.stream()
+    /**
+     * Drops the given tables using BatchExecuteStatement requests sized to the Data API limits.
+     * <p>
+     * The table names are consumed lazily and each batch is submitted as soon as it is full, so dropping starts
+     * while later table names are still being fetched and only one batch of statements is held in memory.
+     * The returned responses can be awaited with {@link #requestsCompleteSuccessfully(Collection, LambdaLogger)},
+     * which reports their progress per sub-statement.
+     */
+    public List<BatchExecuteStatementResponse> removeExternalTables(Stream<String> tableNames, LambdaLogger logger) {
+        Iterator<String> dropStatements = tableNames
                 .map(tableName -> format(DROP_STATEMENT, tableName))
-                .collect(toList());
-
-        return startQueries(logger, dropStatements);
-    }
+                .iterator();
+
+        List<CompletableFuture<BatchExecuteStatementResponse>> submissions = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        int batchBytes = 0;
+
+        while (dropStatements.hasNext()) {
+            String statement = dropStatements.next();
+            int statementBytes = statement.getBytes(UTF_8).length;
+            if (batch.size() == MAX_BATCH_STATEMENTS || (!batch.isEmpty() && batchBytes + statementBytes > MAX_BATCH_SQL_BYTES)) {
+                submissions.add(startBatch(batch, logger));
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+            batch.add(statement);
+            batchBytes += statementBytes;
+        }
 
-    public List<TableS3Location> getInvalidTables(ExecuteStatementResponse invalidTablesResponse, LambdaLogger logger) {
-        if (requestCompletesSuccessfully(invalidTablesResponse.id(), logger)) {
-            var resultRequest = GetStatementResultRequest.builder().id(invalidTablesResponse.id()).build();
+        if (!batch.isEmpty()) submissions.add(startBatch(batch, logger));
 
-            var resultResponse = dataClient.getStatementResult(resultRequest);
+        return submissions.stream().map(CompletableFuture::join).collect(toList());
+    }
 
-            if (resultResponse.hasRecords()) {
-                return resultResponse
-                        .records().stream()
-                        .map(row -> new TableS3Location(row.get(0).stringValue(), row.get(1).stringValue()))
-                        .collect(toList());
-            }
+    /**
+     * Fails if the query did, rather than returning no tables, as callers rely on it returning every table the
+     * query matches.
+     *
+     * @return the tables with their last DDL time, fetched a page at a time as the stream is consumed.
+     */
+    public Stream<ExternalTable> getExternalTables(ExecuteStatementResponse tablesResponse, LambdaLogger logger) {
+        if (!requestCompletesSuccessfully(tablesResponse.id(), logger)) {
+            throw new IllegalStateException(format("Query %s did not complete successfully", tablesResponse.id()));
         }
 
-        return emptyList();
+        return fetchResultRecords(tablesResponse)
+                .map(row -> new ExternalTable(
+                        row.get(0).stringValue(),
+                        row.get(1).stringValue(),
+                        Boolean.TRUE.equals(row.get(2).isNull()) ? null : row.get(2).longValue()
+                ));
     }
 
-    public List<String> getExpiredExternalTableNames(ExecuteStatementResponse expiredTablesResponse, LambdaLogger logger) {
-        if (requestCompletesSuccessfully(expiredTablesResponse.id(), logger)) {
-            var resultRequest = GetStatementResultRequest.builder().id(expiredTablesResponse.id()).build();
+    public boolean requestCompletesSuccessfully(String responseId, LambdaLogger logger) {
+        return requestCompletes(responseId, logger).join();
+    }
 
-            var resultResponse = dataClient.getStatementResult(resultRequest);
+    /**
+     * Waits for all the given statements concurrently.
+     *
+     * @return true only if every statement finished successfully.
+     */
+    public boolean requestsCompleteSuccessfully(Collection<String> responseIds, LambdaLogger logger) {
+        var completions = responseIds.stream()
+                .map(id -> requestCompletes(id, logger))
+                .collect(toList());
 
-            if (resultResponse.hasRecords()) {
-                return resultResponse
-                        .records().stream()
-                        .map(row -> row.get(0).stringValue())
-                        .collect(toList());
-            }
-        }
+        CompletableFuture.allOf(completions.toArray(new CompletableFuture[0])).join();
 
-        return emptyList();
+        return completions.stream().allMatch(CompletableFuture::join);
     }
 
-    public boolean requestCompletesSuccessfully(String responseId, LambdaLogger logger) {
-        var describeRequest = DescribeStatementRequest.builder().id(responseId).build();
+    public CompletableFuture<Boolean> requestCompletes(String responseId, LambdaLogger logger) {
+        return requestCompletes(responseId, logger, (failedId, resubmittedId) -> { });
+    }
 
-        var describeResult = dataClient.describeStatement(describeRequest);
+    /**
+     * @param onResubmitted told the id of a failed batch and of the batch resubmitted in its place, before the
+     *                      resubmitted batch is awaited, so a caller that stops waiting can hand that batch on instead.
+     */
+    public CompletableFuture<Boolean> requestCompletes(
+            String responseId,
+            LambdaLogger logger,
+            BiConsumer<String, String> onResubmitted
+    ) {
+        return statusPoller.awaitCompletion(responseId).thenCompose(describeResult -> {
+            Optional.ofNullable(latencyMetrics.remove(responseId)).ifPresent(metric -> recordLatency(metric, describeResult));
+
+            if (describeResult.hasSubStatements()) {
+                return batchCompletes(describeResult, logger, onResubmitted);
+            }
 
-        while(!isFinished(describeResult)) {
-            logger.log(format("Query status: %s", describeResult.status()), LogLevel.INFO);
-            try {
-                //noinspection BusyWait
-                Thread.sleep(STATEMENT_STATUS_CHECK_DELAY_MILLIS);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+            boolean success = describeResult.status().equals(StatusString.FINISHED);
+
+            var log = StructuredLogger.of(logger);
+            if (success) {
+                log.info(() -> format("Query %s completed successfully", responseId));
+            } else {
+                log.error(() -> format("Query %s failed with status: %s - %s", responseId, describeResult.status(), describeResult.error()));
             }
 
-            describeResult = dataClient.describeStatement(describeRequest);
+            return CompletableFuture.completedFuture(success);
+        });
+    }
+
+    /**
+     * Starts a query for the tables defined or redefined at or after the given time, along with every invalid
+     * table. Tables defined at any time are returned for zero.
+     */
+    public ExecuteStatementResponse startExternalTablesQuery(long changedSinceEpochSeconds) {
+        String sql = changedSinceEpochSeconds > 0
+                ? GET_EXTERNAL_TABLES_STATEMENT + format(CHANGED_SINCE_CONDITION, changedSinceEpochSeconds)
+                : GET_EXTERNAL_TABLES_STATEMENT;
+        return startQuery(sql, TABLES_QUERY_LATENCY_METRIC);
+    }
+
+    /**
+     * A batch runs as a single transaction, so one failing statement rolls back the rest of the batch.
+     * When that happens the failing statements are reported and the remainder is resubmitted without them.
+     */
+    private CompletableFuture<Boolean> batchCompletes(
+            DescribeStatementResponse describeResult,
+            LambdaLogger logger,
+            BiConsumer<String, String> onResubmitted
+    ) {
+        var subStatements = describeResult.subStatements();
+        long finished = subStatements.stream().filter(s -> s.status() == StatementStatusString.FINISHED).count();
+        var log = StructuredLogger.of(logger);
+
+        log.log(
+                describeResult.status() == StatusString.FINISHED ? LogLevel.INFO : LogLevel.ERROR,
+                () -> format("Batch %s %s: %d of %d statements finished", describeResult.id(), describeResult.status(), finished, subStatements.size())
+        );
+
+        if (describeResult.status() == StatusString.FINISHED) {
+            return CompletableFuture.completedFuture(true);
         }
 
-        boolean success = describeResult.status().equals(StatusString.FINISHED);
+        List<String> remaining = new ArrayList<>();
+        subStatements.forEach(subStatement -> {
+            if (subStatement.status() == StatementStatusString.FAILED) {
+                log.error(() -> format("Statement failed: %s - %s", subStatement.queryString(), subStatement.error()));
+            } else {
+                remaining.add(subStatement.queryString());
+            }
+        });
 
-        if (success) {
-            logger.log("Query completed successfully", LogLevel.INFO);
-        } else {
-            logger.log(format("Query failed with status: %s - %s", describeResult.status(), describeResult.error()), LogLevel.ERROR);
+        if (remaining.isEmpty() || remaining.size() == subStatements.size()) {
+            // Either nothing left to run or the failure cannot be attributed to a statement
+            return CompletableFuture.completedFuture(false);
         }
 
-        return success;
-    }
+        log.info(() -> format("Resubmitting %d statements from failed batch %s", remaining.size(), describeResult.id()));
 
-    public ExecuteStatementResponse startExpiredTablesQuery(int expirySeconds) {
-        return startQuery(format(GET_EXPIRED_TABLES_STATEMENT, expirySeconds));
+        return startBatch(remaining, logger)
+                .thenCompose(response -> {
+                    onResubmitted.accept(describeResult.id(), response.id());
+                    return requestCompletes(response.id(), logger, onResubmitted);
+                })
+                .thenApply(ignored -> false);
     }
 
-    public ExecuteStatementResponse startInvalidTablesQuery() {
-        return startQuery(GET_INVALID_TABLES_STATEMENT);
+    private Stream<List<Field>> fetchResultRecords(ExecuteStatementResponse statementResponse) {
+        var resultRequest = GetStatementResultRequest.builder().id(statementResponse.id()).build();
+
+        return Stream.iterate(
+                        dataClient.getStatementResult(resultRequest),
+                        Objects::nonNull,
+                        page -> page.nextToken() == null
+                                ? null
+                                : dataClient.getStatementResult(resultRequest.toBuilder().nextToken(page.nextToken()).build())
+                )
+                .filter(GetStatementResultResponse::hasRecords)
+                .flatMap(page -> page.records().stream());
     }
 
-    private List<ExecuteStatementResponse> startQueries(LambdaLogger logger, List<String> statements) {
-        int totalToDrop = statements.size();
+    private CompletableFuture<BatchExecuteStatementResponse> startBatch(List<String> statements, LambdaLogger logger) {
+        StructuredLogger.of(logger).log(
+                LogLevel.INFO,
+                () -> format("Executing batch of %d statements", statements.size()),
+                () -> Map.of("statements", StructuredLogger.summarise(statements, LOGGED_STATEMENTS))
+        );
 
-        return IntStream.range(0, (totalToDrop + ExternalTableQueryExecutor.BATCH_SIZE - 1) / ExternalTableQueryExecutor.BATCH_SIZE)
-                .mapToObj(batchNum -> statements.subList(batchNum * ExternalTableQueryExecutor.BATCH_SIZE, Math.min(totalToDrop, (batchNum + 1) * ExternalTableQueryExecutor.BATCH_SIZE)))
-                .parallel()
-                .map(batch -> startQueryBatch(batch, logger))
-                .collect(toList());
-    }
+        var request = BatchExecuteStatementRequest.builder()
+                .clusterIdentifier(clusterId)
+                .database(databaseName)
+                .secretArn(secretArn)
+                .sqls(statements)
+                .build();
 
-    private ExecuteStatementResponse startQueryBatch(List<String> statements, LambdaLogger logger) {
-        String singleStatement = String.join("\n", statements);
+        metrics.increment(DROP_BATCHES_METRIC);
 
-        logger.log(format("Executing query batch:\n%s", singleStatement), LogLevel.INFO);
+        return asyncDataClient.batchExecuteStatement(request).thenApply(response -> {
+            latencyMetrics.put(response.id(), DROP_BATCH_LATENCY_METRIC);
+            return response;
+        });
+    }
 
-        return startQuery(singleStatement);
+    private void recordLatency(String metric, DescribeStatementResponse describeResult) {
+        if (describeResult.createdAt() != null && describeResult.updatedAt() != null) {
+            metrics.recordMillis(metric, Duration.between(describeResult.createdAt(), describeResult.updatedAt()).toMillis());
+        }
     }
 
-    private ExecuteStatementResponse startQuery(String sql) {
+    private ExecuteStatementResponse startQuery(String sql, String latencyMetric) {
         var request = ExecuteStatementRequest.builder()
                 .clusterIdentifier(clusterId)
                 .database(databaseName)
@@ -145,18 +304,8 @@ public class ExternalTableQueryExecutor {
                 .sql(sql)
                 .build();
 
-        return dataClient.executeStatement(request);
-    }
-
-    private boolean isFinished(DescribeStatementResponse describeResult) {
-        switch (describeResult.status()) {
-            case FAILED:
-            case FINISHED:
-            case ABORTED:
-                return true;
-
-            default:
-                return false;
-        }
+        var response = dataClient.executeStatement(request);
+        latencyMetrics.put(response.id(), latencyMetric);
+        return response;
     }
 }
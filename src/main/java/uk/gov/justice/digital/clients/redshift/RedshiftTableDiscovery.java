@@ -0,0 +1,33 @@
+package uk.gov.justice.digital.clients.redshift;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import uk.gov.justice.digital.ExternalTable;
+import uk.gov.justice.digital.clients.ExternalTableDiscovery;
+import uk.gov.justice.digital.common.StructuredLogger;
+
+import java.util.stream.Stream;
+
+import static java.lang.String.format;
+
+/**
+ * Lists tables with a single query of {@code SVV_EXTERNAL_TABLES} through the Redshift Data API, which takes one
+ * queue slot, one polling loop and one result fetch per run.
+ */
+public class RedshiftTableDiscovery implements ExternalTableDiscovery {
+
+    private final ExternalTableQueryExecutor queryExecutor;
+
+    public RedshiftTableDiscovery(ExternalTableQueryExecutor queryExecutor) {
+        this.queryExecutor = queryExecutor;
+    }
+
+    @Override
+    public Stream<ExternalTable> tablesChangedSince(long changedSinceEpochSeconds, LambdaLogger logger) {
+        StructuredLogger.of(logger).info(() -> changedSinceEpochSeconds > 0
+                ? format("Requesting tables changed since %d", changedSinceEpochSeconds)
+                : "Requesting tables");
+
+        var tablesResponse = queryExecutor.startExternalTablesQuery(changedSinceEpochSeconds);
+        return queryExecutor.getExternalTables(tablesResponse, logger);
+    }
+}
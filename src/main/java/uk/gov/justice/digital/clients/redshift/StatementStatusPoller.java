@@ -0,0 +1,104 @@
+package uk.gov.justice.digital.clients.redshift;
+
+import software.amazon.awssdk.services.redshiftdata.RedshiftDataAsyncClient;
+import software.amazon.awssdk.services.redshiftdata.model.DescribeStatementRequest;
+import software.amazon.awssdk.services.redshiftdata.model.DescribeStatementResponse;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+import uk.gov.justice.digital.common.Backoff;
+import uk.gov.justice.digital.common.EmfMetrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Polls the Redshift Data API for the completion of any number of statements at once.
+ * <p>
+ * Each statement is described asynchronously and, while still running, re-checked after a backoff delay
+ * on a shared scheduler. No thread is blocked while a statement runs, so waiting on many statements takes
+ * as long as the slowest of them rather than the sum of them all. The number of describe calls each statement took
+ * is recorded as the {@value #POLLS_METRIC} metric.
+ */
+public class StatementStatusPoller implements SdkAutoCloseable {
+
+    static final String POLLS_METRIC = "StatementPolls";
+
+    private final RedshiftDataAsyncClient dataClient;
+    private final Backoff backoff;
+    private final ScheduledExecutorService scheduler;
+    private final EmfMetrics metrics;
+
+    public StatementStatusPoller(RedshiftDataAsyncClient dataClient, Backoff backoff) {
+        this(dataClient, backoff, EmfMetrics.disabled());
+    }
+
+    public StatementStatusPoller(RedshiftDataAsyncClient dataClient, Backoff backoff, EmfMetrics metrics) {
+        this(dataClient, backoff, Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "redshift-statement-poller");
+            thread.setDaemon(true);
+            return thread;
+        }), metrics);
+    }
+
+    public StatementStatusPoller(RedshiftDataAsyncClient dataClient, Backoff backoff, ScheduledExecutorService scheduler) {
+        this(dataClient, backoff, scheduler, EmfMetrics.disabled());
+    }
+
+    public StatementStatusPoller(
+            RedshiftDataAsyncClient dataClient,
+            Backoff backoff,
+            ScheduledExecutorService scheduler,
+            EmfMetrics metrics
+    ) {
+        this.dataClient = dataClient;
+        this.backoff = backoff;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Stops the scheduler, abandoning any statement still being polled.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * @return a future completed with the final description of the statement once it has FINISHED, FAILED or
+     * been ABORTED, or completed exceptionally if the statement could not be described.
+     */
+    public CompletableFuture<DescribeStatementResponse> awaitCompletion(String statementId) {
+        CompletableFuture<DescribeStatementResponse> result = new CompletableFuture<>();
+        poll(DescribeStatementRequest.builder().id(statementId).build(), 0, result);
+        return result;
+    }
+
+    private void poll(DescribeStatementRequest request, int attempt, CompletableFuture<DescribeStatementResponse> result) {
+        dataClient.describeStatement(request).whenComplete((response, error) -> {
+            if (error != null) {
+                metrics.record(POLLS_METRIC, attempt + 1, EmfMetrics.Unit.COUNT);
+                result.completeExceptionally(error);
+            } else if (isFinished(response)) {
+                metrics.record(POLLS_METRIC, attempt + 1, EmfMetrics.Unit.COUNT);
+                result.complete(response);
+            } else {
+                scheduler.schedule(() -> poll(request, attempt + 1, result), backoff.delayMillis(attempt), MILLISECONDS);
+            }
+        });
+    }
+
+    static boolean isFinished(DescribeStatementResponse describeResult) {
+        switch (describeResult.status()) {
+            case FAILED:
+            case FINISHED:
+            case ABORTED:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package uk.gov.justice.digital.clients.s3;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import uk.gov.justice.digital.TableS3Location;
+import uk.gov.justice.digital.clients.dynamo.DynamoDbProvider;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+
+import static uk.gov.justice.digital.clients.SdkFutures.await;
+import static uk.gov.justice.digital.clients.dynamo.DynamoDbClient.EXPIRE_AT_KEY;
+
+/**
+ * Stores the earliest object of each table location in a DynamoDB table keyed on {@value #S3_LOCATION_KEY}.
+ * <p>
+ * Items carry an {@value uk.gov.justice.digital.clients.dynamo.DynamoDbClient#EXPIRE_AT_KEY} attribute in epoch
+ * seconds for DynamoDB TTL to evict them. Since TTL deletion can lag by hours, expired items are also ignored on read.
+ */
+public class DynamoDbS3MetadataCache implements S3MetadataCache {
+
+    public static final String S3_LOCATION_KEY = "s3Location";
+    public static final String TABLE_NAME_KEY = "tableName";
+    public static final String EARLIEST_OBJECT_KEY_KEY = "earliestObjectKey";
+    public static final String EARLIEST_OBJECT_ETAG_KEY = "earliestObjectETag";
+    public static final String EARLIEST_OBJECT_CREATED_KEY = "earliestObjectCreated";
+    public static final String CACHED_AT_KEY = "cachedAt";
+
+    private final DynamoDbAsyncClient dynamoDbClient;
+    private final String cacheTable;
+    private final Duration ttl;
+    private final Clock clock;
+
+    public DynamoDbS3MetadataCache(DynamoDbProvider dynamoDbProvider, String cacheTable, Duration ttl) {
+        this(dynamoDbProvider, cacheTable, ttl, Clock.systemUTC());
+    }
+
+    public DynamoDbS3MetadataCache(DynamoDbProvider dynamoDbProvider, String cacheTable, Duration ttl, Clock clock) {
+        this.dynamoDbClient = dynamoDbProvider.buildClient();
+        this.cacheTable = cacheTable;
+        this.ttl = ttl;
+        this.clock = clock;
+    }
+
+    @Override
+    public Optional<EarliestObject> get(TableS3Location table) {
+        var getRequest = GetItemRequest.builder().tableName(cacheTable).key(itemKey(table)).build();
+        GetItemResponse getResponse = await(dynamoDbClient.getItem(getRequest));
+
+        if (!getResponse.hasItem() || getResponse.item().isEmpty()) return Optional.empty();
+
+        Map<String, AttributeValue> item = getResponse.item();
+        long expireAt = Long.parseLong(item.get(EXPIRE_AT_KEY).n());
+        if (expireAt <= clock.instant().getEpochSecond()) return Optional.empty();
+
+        // Items cached before the time was recorded are treated as due to be confirmed again
+        var cachedAt = item.get(CACHED_AT_KEY);
+        return Optional.of(new EarliestObject(
+                item.get(EARLIEST_OBJECT_KEY_KEY).s(),
+                item.get(EARLIEST_OBJECT_ETAG_KEY).s(),
+                Long.parseLong(item.get(EARLIEST_OBJECT_CREATED_KEY).n()),
+                cachedAt == null ? 0 : Long.parseLong(cachedAt.n())
+        ));
+    }
+
+    @Override
+    public void put(TableS3Location table, EarliestObject earliestObject) {
+        var now = clock.instant();
+        long expireAt = now.plus(ttl).getEpochSecond();
+        Map<String, AttributeValue> item = Map.of(
+                S3_LOCATION_KEY, AttributeValue.builder().s(table.s3Location).build(),
+                TABLE_NAME_KEY, AttributeValue.builder().s(table.tableName).build(),
+                EARLIEST_OBJECT_KEY_KEY, AttributeValue.builder().s(earliestObject.key).build(),
+                EARLIEST_OBJECT_ETAG_KEY, AttributeValue.builder().s(earliestObject.eTag).build(),
+                EARLIEST_OBJECT_CREATED_KEY, AttributeValue.builder().n(String.valueOf(earliestObject.createdEpochMillis)).build(),
+                CACHED_AT_KEY, AttributeValue.builder().n(String.valueOf(now.toEpochMilli())).build(),
+                EXPIRE_AT_KEY, AttributeValue.builder().n(String.valueOf(expireAt)).build()
+        );
+        await(dynamoDbClient.putItem(PutItemRequest.builder().tableName(cacheTable).item(item).build()));
+    }
+
+    @Override
+    public void invalidate(TableS3Location table) {
+        await(dynamoDbClient.deleteItem(DeleteItemRequest.builder().tableName(cacheTable).key(itemKey(table)).build()));
+    }
+
+    private static Map<String, AttributeValue> itemKey(TableS3Location table) {
+        return Map.of(S3_LOCATION_KEY, AttributeValue.builder().s(table.s3Location).build());
+    }
+}
@@ -0,0 +1,43 @@
+package uk.gov.justice.digital.clients.s3;
+
+import java.util.Objects;
+
+/**
+ * The earliest object found under a table's S3 location, as remembered between expiry runs.
+ */
+public class EarliestObject {
+    public final String key;
+    public final String eTag;
+    public final long createdEpochMillis;
+    // When S3 last confirmed the object, which is when it was cached, or zero if that is not known
+    public final long cachedEpochMillis;
+
+    public EarliestObject(String key, String eTag, long createdEpochMillis) {
+        this(key, eTag, createdEpochMillis, 0);
+    }
+
+    public EarliestObject(String key, String eTag, long createdEpochMillis, long cachedEpochMillis) {
+        this.key = key;
+        this.eTag = eTag;
+        this.createdEpochMillis = createdEpochMillis;
+        this.cachedEpochMillis = cachedEpochMillis;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        EarliestObject that = (EarliestObject) o;
+
+        return createdEpochMillis == that.createdEpochMillis
+                && cachedEpochMillis == that.cachedEpochMillis
+                && Objects.equals(key, that.key)
+                && Objects.equals(eTag, that.eTag);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(key, eTag, createdEpochMillis, cachedEpochMillis);
+    }
+}
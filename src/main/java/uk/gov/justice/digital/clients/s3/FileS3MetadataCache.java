@@ -0,0 +1,97 @@
+package uk.gov.justice.digital.clients.s3;
+
+import uk.gov.justice.digital.TableS3Location;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Keeps the cache in a local properties file, for running the expiry pipeline locally and in tests.
+ * <p>
+ * The file is rewritten on every change, which is fine for the handful of tables a local run deals with.
+ */
+public class FileS3MetadataCache implements S3MetadataCache {
+
+    private static final String KEY_SUFFIX = ".key";
+    private static final String ETAG_SUFFIX = ".eTag";
+    private static final String CREATED_SUFFIX = ".created";
+    private static final String EXPIRE_AT_SUFFIX = ".expireAt";
+    private static final String CACHED_AT_SUFFIX = ".cachedAt";
+
+    private final Path file;
+    private final Duration ttl;
+    private final Clock clock;
+    private final Properties entries = new Properties();
+
+    public FileS3MetadataCache(Path file, Duration ttl) {
+        this(file, ttl, Clock.systemUTC());
+    }
+
+    public FileS3MetadataCache(Path file, Duration ttl, Clock clock) {
+        this.file = file;
+        this.ttl = ttl;
+        this.clock = clock;
+
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                entries.load(reader);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized Optional<EarliestObject> get(TableS3Location table) {
+        var prefix = table.s3Location;
+        var expireAt = entries.getProperty(prefix + EXPIRE_AT_SUFFIX);
+
+        if (expireAt == null || Long.parseLong(expireAt) <= clock.millis()) return Optional.empty();
+
+        return Optional.of(new EarliestObject(
+                entries.getProperty(prefix + KEY_SUFFIX),
+                entries.getProperty(prefix + ETAG_SUFFIX),
+                Long.parseLong(entries.getProperty(prefix + CREATED_SUFFIX)),
+                Long.parseLong(entries.getProperty(prefix + CACHED_AT_SUFFIX, "0"))
+        ));
+    }
+
+    @Override
+    public synchronized void put(TableS3Location table, EarliestObject earliestObject) {
+        var prefix = table.s3Location;
+        entries.setProperty(prefix + KEY_SUFFIX, earliestObject.key);
+        entries.setProperty(prefix + ETAG_SUFFIX, earliestObject.eTag);
+        entries.setProperty(prefix + CREATED_SUFFIX, String.valueOf(earliestObject.createdEpochMillis));
+        entries.setProperty(prefix + CACHED_AT_SUFFIX, String.valueOf(clock.millis()));
+        entries.setProperty(prefix + EXPIRE_AT_SUFFIX, String.valueOf(clock.instant().plus(ttl).toEpochMilli()));
+        save();
+    }
+
+    @Override
+    public synchronized void invalidate(TableS3Location table) {
+        var prefix = table.s3Location;
+        entries.remove(prefix + KEY_SUFFIX);
+        entries.remove(prefix + ETAG_SUFFIX);
+        entries.remove(prefix + CREATED_SUFFIX);
+        entries.remove(prefix + EXPIRE_AT_SUFFIX);
+        entries.remove(prefix + CACHED_AT_SUFFIX);
+        save();
+    }
+
+    private void save() {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            entries.store(writer, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package uk.gov.justice.digital.clients.s3;
+
+import java.util.Objects;
+
+/**
+ * Outcome of checking whether a folder in S3 holds an object older than a cutoff.
+ */
+public class ObjectAgeCheck {
+    /**
+     * Creation date of the earliest object seen before listing stopped, or null if the folder is empty.
+     */
+    public final Long earliestObjectMillis;
+    public final String earliestObjectKey;
+    public final String earliestObjectETag;
+    public final boolean olderThanCutoff;
+    public final int listCalls;
+
+    public ObjectAgeCheck(Long earliestObjectMillis, boolean olderThanCutoff, int listCalls) {
+        this(earliestObjectMillis, null, null, olderThanCutoff, listCalls);
+    }
+
+    public ObjectAgeCheck(
+            Long earliestObjectMillis,
+            String earliestObjectKey,
+            String earliestObjectETag,
+            boolean olderThanCutoff,
+            int listCalls
+    ) {
+        this.earliestObjectMillis = earliestObjectMillis;
+        this.earliestObjectKey = earliestObjectKey;
+        this.earliestObjectETag = earliestObjectETag;
+        this.olderThanCutoff = olderThanCutoff;
+        this.listCalls = listCalls;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ObjectAgeCheck that = (ObjectAgeCheck) o;
+
+        return olderThanCutoff == that.olderThanCutoff
+                && listCalls == that.listCalls
+                && Objects.equals(earliestObjectMillis, that.earliestObjectMillis)
+                && Objects.equals(earliestObjectKey, that.earliestObjectKey)
+                && Objects.equals(earliestObjectETag, that.earliestObjectETag);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(earliestObjectMillis, earliestObjectKey, earliestObjectETag, olderThanCutoff, listCalls);
+    }
+}
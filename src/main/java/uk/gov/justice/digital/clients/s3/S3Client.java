@@ -1,39 +1,179 @@
 package uk.gov.justice.digital.clients.s3;
 
-import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3ClientBuilder;
-import com.amazonaws.services.s3.AmazonS3URI;
-import com.amazonaws.services.s3.model.ListObjectsRequest;
-import com.amazonaws.services.s3.model.S3ObjectSummary;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Uri;
+import software.amazon.awssdk.services.s3.S3Utilities;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import uk.gov.justice.digital.clients.AwsClientFactory;
 
-
-import java.util.Date;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static java.lang.String.format;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static uk.gov.justice.digital.clients.SdkFutures.await;
 import static uk.gov.justice.digital.common.Utils.DEFAULT_DPR_REGION;
 
 public class S3Client {
 
-    private final AmazonS3 client;
+    public static final int DEFAULT_MAX_KEYS = 1000;
+
+    private static final int NOT_FOUND_STATUS_CODE = 404;
+    private static final String SCHEME_SEPARATOR = "://";
+    private static final Set<String> HADOOP_SCHEMES = Set.of("s3a", "s3n");
+    private static final S3Utilities S3_UTILITIES = S3Utilities.builder().region(Region.of(DEFAULT_DPR_REGION)).build();
+
+    private final S3AsyncClient client;
+    private final int maxKeys;
 
     public S3Client() {
-        this.client = AmazonS3ClientBuilder.standard().withRegion(DEFAULT_DPR_REGION).build();
+        this(AwsClientFactory.fromEnvironment(), DEFAULT_MAX_KEYS);
+    }
+
+    public S3Client(AwsClientFactory clientFactory, int maxKeys) {
+        this(
+                clientFactory.manage(S3AsyncClient.builder()
+                        .region(Region.of(DEFAULT_DPR_REGION))
+                        .httpClient(clientFactory.asyncHttpClient())
+                        .overrideConfiguration(clientFactory.overrideConfiguration())
+                        .build()),
+                maxKeys
+        );
+    }
+
+    public S3Client(S3AsyncClient client) {
+        this(client, DEFAULT_MAX_KEYS);
     }
 
+    public S3Client(S3AsyncClient client, int maxKeys) {
+        this.client = client;
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * @return the epoch millis of the earliest object under the folder, or null if the folder is empty.
+     */
     public Long getEarliestObjectCreatedDate(String folderLocation) {
-        var uri = new AmazonS3URI(folderLocation);
-
-        var listRequest = new ListObjectsRequest()
-                .withBucketName(uri.getBucket())
-                .withPrefix(format("%s/", uri.getKey()));
-
-        return client.listObjects(listRequest)
-                .getObjectSummaries()
-                .stream()
-                .map(S3ObjectSummary::getLastModified)
-                .sorted()
-                .findFirst()
-                .map(Date::getTime)
-                .orElse(null);
+        return hasObjectOlderThan(folderLocation, Long.MIN_VALUE).earliestObjectMillis;
+    }
+
+    /**
+     * Blocking form of {@link #hasObjectOlderThanAsync(String, long)}.
+     */
+    public ObjectAgeCheck hasObjectOlderThan(String folderLocation, long cutoffMillis) {
+        return await(hasObjectOlderThanAsync(folderLocation, cutoffMillis));
+    }
+
+    /**
+     * Lists the folder a page of {@code maxKeys} objects at a time keeping a running minimum, and stops on the
+     * first object created at or before {@code cutoffMillis}. The folder is only listed in full when it holds no
+     * such object.
+     */
+    public CompletableFuture<ObjectAgeCheck> hasObjectOlderThanAsync(String folderLocation, long cutoffMillis) {
+        var location = parse(folderLocation);
+        var folder = location.key().map(key -> key.endsWith("/") ? key : format("%s/", key)).orElse("");
+
+        var listRequest = ListObjectsV2Request.builder()
+                .bucket(bucketOf(location, folderLocation))
+                .prefix(folder)
+                .maxKeys(maxKeys)
+                .build();
+
+        return listFrom(listRequest, cutoffMillis, null, 0);
+    }
+
+    /**
+     * @return the ETag of the object with the given key in the folder's bucket, or empty if it no longer exists.
+     */
+    public Optional<String> getETag(String folderLocation, String key) {
+        var headRequest = HeadObjectRequest.builder()
+                .bucket(bucketOf(parse(folderLocation), folderLocation))
+                .key(key)
+                .build();
+
+        try {
+            return Optional.ofNullable(await(client.headObject(headRequest))).map(HeadObjectResponse::eTag);
+        } catch (S3Exception e) {
+            if (e.statusCode() == NOT_FOUND_STATUS_CODE) return Optional.empty();
+            throw e;
+        }
+    }
+
+    private CompletableFuture<ObjectAgeCheck> listFrom(
+            ListObjectsV2Request listRequest,
+            long cutoffMillis,
+            S3Object earliestSoFar,
+            int listCallsSoFar
+    ) {
+        return client.listObjectsV2(listRequest).thenCompose(listResponse -> {
+            S3Object earliest = earliestSoFar;
+            int listCalls = listCallsSoFar + 1;
+
+            for (S3Object object : listResponse.contents()) {
+                if (earliest == null || object.lastModified().isBefore(earliest.lastModified())) {
+                    earliest = object;
+                    if (earliest.lastModified().toEpochMilli() <= cutoffMillis) {
+                        return completedFuture(ageCheck(earliest, true, listCalls));
+                    }
+                }
+            }
+
+            if (Boolean.TRUE.equals(listResponse.isTruncated())) {
+                var nextRequest = listRequest.toBuilder().continuationToken(listResponse.nextContinuationToken()).build();
+                return listFrom(nextRequest, cutoffMillis, earliest, listCalls);
+            }
+
+            return completedFuture(
+                    earliest == null ? new ObjectAgeCheck(null, false, listCalls) : ageCheck(earliest, false, listCalls)
+            );
+        });
+    }
+
+    /**
+     * Parses an s3:// (or Hadoop s3a:// and s3n://) location, or a virtual-hosted or path-style https one, whose key
+     * is not URL encoded as the Glue and Redshift catalogs hold it. Characters not allowed in a URI path are encoded
+     * before it is parsed, so the key comes back exactly as written.
+     */
+    static S3Uri parse(String location) {
+        int authorityStart = location.indexOf(SCHEME_SEPARATOR);
+        if (authorityStart < 0) throw new IllegalArgumentException(format("Not an S3 location: %s", location));
+        authorityStart += SCHEME_SEPARATOR.length();
+
+        int pathStart = location.indexOf('/', authorityStart);
+        try {
+            var scheme = location.substring(0, authorityStart - SCHEME_SEPARATOR.length());
+            var uri = new URI(
+                    HADOOP_SCHEMES.contains(scheme.toLowerCase()) ? "s3" : scheme,
+                    pathStart < 0 ? location.substring(authorityStart) : location.substring(authorityStart, pathStart),
+                    pathStart < 0 ? null : location.substring(pathStart),
+                    null,
+                    null
+            );
+            return S3_UTILITIES.parseUri(uri);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(format("Not an S3 location: %s", location), e);
+        }
+    }
+
+    private static String bucketOf(S3Uri location, String folderLocation) {
+        return location.bucket().orElseThrow(() -> new IllegalArgumentException(format("No bucket in S3 location: %s", folderLocation)));
+    }
+
+    private static ObjectAgeCheck ageCheck(S3Object earliest, boolean olderThanCutoff, int listCalls) {
+        return new ObjectAgeCheck(
+                earliest.lastModified().toEpochMilli(),
+                earliest.key(),
+                earliest.eTag(),
+                olderThanCutoff,
+                listCalls
+        );
     }
 }
@@ -0,0 +1,38 @@
+package uk.gov.justice.digital.clients.s3;
+
+import uk.gov.justice.digital.TableS3Location;
+
+import java.util.Optional;
+
+/**
+ * Remembers the earliest object under each table's S3 location so that later expiry runs can skip listing it.
+ * <p>
+ * Entries are evicted once their time to live has passed. Implementations must not return evicted entries even
+ * if the underlying store has yet to remove them.
+ */
+public interface S3MetadataCache {
+
+    Optional<EarliestObject> get(TableS3Location table);
+
+    void put(TableS3Location table, EarliestObject earliestObject);
+
+    void invalidate(TableS3Location table);
+
+    /**
+     * @return a cache that never holds anything, so every lookup goes to S3.
+     */
+    static S3MetadataCache disabled() {
+        return new S3MetadataCache() {
+            @Override
+            public Optional<EarliestObject> get(TableS3Location table) {
+                return Optional.empty();
+            }
+
+            @Override
+            public void put(TableS3Location table, EarliestObject earliestObject) { }
+
+            @Override
+            public void invalidate(TableS3Location table) { }
+        };
+    }
+}
@@ -0,0 +1,284 @@
+package uk.gov.justice.digital.clients.s3;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import uk.gov.justice.digital.TableS3Location;
+import uk.gov.justice.digital.TableS3MetaData;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+import uk.gov.justice.digital.common.Backoff;
+import uk.gov.justice.digital.common.EmfMetrics;
+import uk.gov.justice.digital.common.StructuredLogger;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.lang.String.format;
+
+/**
+ * Looks up the S3 creation date of many tables concurrently.
+ * <p>
+ * At most {@code concurrency} lookups are in flight at any time and tables are only taken from the source as
+ * capacity frees up, so memory stays bounded however many tables are scanned. Requests throttled by S3 with a
+ * 503 SlowDown are retried after a backoff delay.
+ * <p>
+ * The earliest object of each location is remembered in a {@link S3MetadataCache}. New objects are always created
+ * after it, so while it is younger than the cutoff the table cannot have expired and no S3 call is made at all, for
+ * up to {@code cacheRevalidateAfter} since S3 last confirmed it. After that, or once it passes the cutoff, a single
+ * HEAD request confirms it still exists with the same ETag before it is trusted, and the location is listed again
+ * otherwise, so a location emptied since is found within that time. A cache that cannot be read or written is
+ * treated as a miss.
+ * <p>
+ * The time taken to look up each table, retries included, is recorded as the {@value #SCAN_LATENCY_METRIC} metric.
+ */
+public class S3MetadataScanner implements SdkAutoCloseable {
+
+    private static final int SLOW_DOWN_STATUS_CODE = 503;
+    private static final String SLOW_DOWN_ERROR_CODE = "SlowDown";
+
+    static final String SCAN_LATENCY_METRIC = "S3ScanLatency";
+    public static final Duration DEFAULT_CACHE_REVALIDATE_AFTER = Duration.ofDays(1);
+
+    private final S3Client s3Client;
+    private final int concurrency;
+    private final Backoff slowDownBackoff;
+    private final int maxSlowDownRetries;
+    private final S3MetadataCache cache;
+    private final EmfMetrics metrics;
+    private final long cacheRevalidateAfterMillis;
+    private final Clock clock;
+    private final ExecutorService executor;
+
+    public S3MetadataScanner(S3Client s3Client, int concurrency, Backoff slowDownBackoff, int maxSlowDownRetries) {
+        this(s3Client, concurrency, slowDownBackoff, maxSlowDownRetries, S3MetadataCache.disabled());
+    }
+
+    public S3MetadataScanner(
+            S3Client s3Client,
+            int concurrency,
+            Backoff slowDownBackoff,
+            int maxSlowDownRetries,
+            S3MetadataCache cache
+    ) {
+        this(s3Client, concurrency, slowDownBackoff, maxSlowDownRetries, cache, EmfMetrics.disabled());
+    }
+
+    public S3MetadataScanner(
+            S3Client s3Client,
+            int concurrency,
+            Backoff slowDownBackoff,
+            int maxSlowDownRetries,
+            S3MetadataCache cache,
+            EmfMetrics metrics
+    ) {
+        this(s3Client, concurrency, slowDownBackoff, maxSlowDownRetries, cache, metrics, DEFAULT_CACHE_REVALIDATE_AFTER, Clock.systemUTC());
+    }
+
+    /**
+     * @param cacheRevalidateAfter how long a cached earliest object younger than the cutoff is trusted without
+     *                             confirming it is still in S3.
+     */
+    public S3MetadataScanner(
+            S3Client s3Client,
+            int concurrency,
+            Backoff slowDownBackoff,
+            int maxSlowDownRetries,
+            S3MetadataCache cache,
+            EmfMetrics metrics,
+            Duration cacheRevalidateAfter,
+            Clock clock
+    ) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("S3 scan concurrency must be at least 1");
+        }
+        this.s3Client = s3Client;
+        this.concurrency = concurrency;
+        this.slowDownBackoff = slowDownBackoff;
+        this.maxSlowDownRetries = maxSlowDownRetries;
+        this.cache = cache;
+        this.metrics = metrics;
+        this.cacheRevalidateAfterMillis = cacheRevalidateAfter.toMillis();
+        this.clock = clock;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "s3-metadata-scanner-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param cutoffMillis listing of a table's location stops as soon as an object created at or before this is found.
+     * @return the metadata of each table in the order the lookups complete. Lookups are started as the returned
+     * stream is consumed.
+     */
+    public Stream<TableS3MetaData> scan(Stream<TableS3Location> tables, long cutoffMillis, LambdaLogger logger) {
+        return scan(tables, table -> Optional.empty(), cutoffMillis, logger);
+    }
+
+    /**
+     * Scans the tables as {@link #scan(Stream, long, LambdaLogger)} does, except those whose metadata is already
+     * known, which are passed on as soon as they are read without waiting on the lookups in flight. The tables are
+     * read once, and at most one known table is held besides the lookups in flight.
+     *
+     * @param knownMetaData the metadata of a table that needs no lookup, or empty to look it up.
+     */
+    public <T extends TableS3Location> Stream<TableS3MetaData> scan(
+            Stream<T> tables,
+            Function<T, Optional<TableS3MetaData>> knownMetaData,
+            long cutoffMillis,
+            LambdaLogger logger
+    ) {
+        Iterator<T> source = tables.iterator();
+        StructuredLogger log = StructuredLogger.of(logger);
+        CompletionService<TableS3MetaData> completionService = new ExecutorCompletionService<>(executor);
+
+        Iterator<TableS3MetaData> results = new Iterator<>() {
+            private int inFlight = 0;
+            private TableS3MetaData known = null;
+
+            @Override
+            public boolean hasNext() {
+                while (known == null && inFlight < concurrency && source.hasNext()) {
+                    T table = source.next();
+                    Optional<TableS3MetaData> metaData = knownMetaData.apply(table);
+                    if (metaData.isPresent()) {
+                        known = metaData.get();
+                    } else {
+                        completionService.submit(() -> timedLookup(table, cutoffMillis, log));
+                        inFlight++;
+                    }
+                }
+                return known != null || inFlight > 0;
+            }
+
+            @Override
+            public TableS3MetaData next() {
+                if (!hasNext()) throw new NoSuchElementException();
+
+                try {
+                    // A completed lookup is taken first so its slot is freed for the next table
+                    Future<TableS3MetaData> result = completionService.poll();
+                    if (result == null && known != null) {
+                        TableS3MetaData next = known;
+                        known = null;
+                        return next;
+                    }
+                    if (result == null) result = completionService.take();
+                    inFlight--;
+                    return result.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        };
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results, Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Stops the lookup threads, abandoning any lookup still in flight.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private TableS3MetaData timedLookup(TableS3Location table, long cutoffMillis, StructuredLogger log) throws InterruptedException {
+        var timer = metrics.startTimer(SCAN_LATENCY_METRIC);
+        try {
+            return lookup(table, cutoffMillis, log);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private TableS3MetaData lookup(TableS3Location table, long cutoffMillis, StructuredLogger log) throws InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                var cached = readCache(table, log).filter(earliest -> isStillValid(table, earliest, cutoffMillis, log));
+                if (cached.isPresent()) {
+                    log.debug(() -> format("Using cached earliest object for %s", table.s3Location));
+                    return new TableS3MetaData(table.tableName, table.s3Location, cached.get().createdEpochMillis);
+                }
+
+                var ageCheck = s3Client.hasObjectOlderThan(table.s3Location, cutoffMillis);
+                log.debug(() -> format("Checked %s for expired objects with %d LIST calls", table.s3Location, ageCheck.listCalls));
+                updateCache(table, ageCheck, log);
+                return new TableS3MetaData(table.tableName, table.s3Location, ageCheck.earliestObjectMillis);
+            } catch (S3Exception e) {
+                if (!isSlowDown(e) || attempt >= maxSlowDownRetries) throw e;
+
+                Thread.sleep(slowDownBackoff.delayMillis(attempt));
+            }
+        }
+    }
+
+    private boolean isStillValid(TableS3Location table, EarliestObject earliest, long cutoffMillis, StructuredLogger log) {
+        boolean young = earliest.createdEpochMillis > cutoffMillis;
+        if (young && earliest.cachedEpochMillis > clock.millis() - cacheRevalidateAfterMillis) return true;
+
+        boolean unchanged = s3Client.getETag(table.s3Location, earliest.key).filter(earliest.eTag::equals).isPresent();
+        if (unchanged && young) {
+            writeCache(table, new EarliestObject(earliest.key, earliest.eTag, earliest.createdEpochMillis), log);
+        }
+        return unchanged;
+    }
+
+    private Optional<EarliestObject> readCache(TableS3Location table, StructuredLogger log) {
+        try {
+            return cache.get(table);
+        } catch (RuntimeException e) {
+            log.warn(() -> format("Could not read cached earliest object for %s, listing instead: %s", table.s3Location, e.getMessage()));
+            return Optional.empty();
+        }
+    }
+
+    private void updateCache(TableS3Location table, ObjectAgeCheck ageCheck, StructuredLogger log) {
+        if (ageCheck.earliestObjectMillis != null && ageCheck.earliestObjectKey != null && ageCheck.earliestObjectETag != null) {
+            writeCache(
+                    table,
+                    new EarliestObject(ageCheck.earliestObjectKey, ageCheck.earliestObjectETag, ageCheck.earliestObjectMillis),
+                    log
+            );
+        } else {
+            try {
+                cache.invalidate(table);
+            } catch (RuntimeException e) {
+                log.warn(() -> format("Could not invalidate cached earliest object for %s: %s", table.s3Location, e.getMessage()));
+            }
+        }
+    }
+
+    private void writeCache(TableS3Location table, EarliestObject earliestObject, StructuredLogger log) {
+        try {
+            cache.put(table, earliestObject);
+        } catch (RuntimeException e) {
+            log.warn(() -> format("Could not cache earliest object for %s: %s", table.s3Location, e.getMessage()));
+        }
+    }
+
+    private static boolean isSlowDown(S3Exception e) {
+        return e.statusCode() == SLOW_DOWN_STATUS_CODE
+                || (e.awsErrorDetails() != null && SLOW_DOWN_ERROR_CODE.equals(e.awsErrorDetails().errorCode()));
+    }
+}
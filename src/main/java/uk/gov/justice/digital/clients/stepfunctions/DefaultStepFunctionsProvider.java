@@ -1,13 +1,33 @@
 package uk.gov.justice.digital.clients.stepfunctions;
 
-import com.amazonaws.services.stepfunctions.AWSStepFunctions;
-import com.amazonaws.services.stepfunctions.AWSStepFunctionsClientBuilder;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sfn.SfnAsyncClient;
+import uk.gov.justice.digital.clients.AwsClientFactory;
 
 import static uk.gov.justice.digital.common.Utils.DEFAULT_DPR_REGION;
 
 public class DefaultStepFunctionsProvider implements StepFunctionsProvider {
+
+    private final AwsClientFactory clientFactory;
+
+    public DefaultStepFunctionsProvider() {
+        this(AwsClientFactory.fromEnvironment());
+    }
+
+    public DefaultStepFunctionsProvider(AwsClientFactory clientFactory) {
+        this.clientFactory = clientFactory;
+    }
+
+    /**
+     * SDK retries are turned off as {@link StepFunctionsClient} retries within its own retry budget.
+     */
     @Override
-    public AWSStepFunctions buildClient() {
-        return AWSStepFunctionsClientBuilder.standard().withRegion(DEFAULT_DPR_REGION).build();
+    public SfnAsyncClient buildClient() {
+        return clientFactory.manage(SfnAsyncClient.builder()
+                .region(Region.of(DEFAULT_DPR_REGION))
+                .httpClient(clientFactory.asyncHttpClient())
+                .overrideConfiguration(clientFactory.overrideConfiguration().toBuilder().retryPolicy(RetryPolicy.none()).build())
+                .build());
     }
 }
@@ -1,28 +1,116 @@
 package uk.gov.justice.digital.clients.stepfunctions;
 
-import com.amazonaws.services.stepfunctions.AWSStepFunctions;
-import com.amazonaws.services.stepfunctions.model.SendTaskFailureRequest;
-import com.amazonaws.services.stepfunctions.model.SendTaskSuccessRequest;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.sfn.SfnAsyncClient;
+import software.amazon.awssdk.services.sfn.model.InvalidTokenException;
+import software.amazon.awssdk.services.sfn.model.SendTaskFailureRequest;
+import software.amazon.awssdk.services.sfn.model.SendTaskSuccessRequest;
+import software.amazon.awssdk.services.sfn.model.TaskDoesNotExistException;
+import software.amazon.awssdk.services.sfn.model.TaskTimedOutException;
+import uk.gov.justice.digital.common.Backoff;
+import uk.gov.justice.digital.common.RetryBudget;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static uk.gov.justice.digital.clients.SdkFutures.await;
+
+/**
+ * Notifies step functions of the outcome of a task.
+ * <p>
+ * Throttled, server side and connection errors are retried after a backoff delay while the shared
+ * {@link RetryBudget} allows it. Errors no retry can fix are failed with a {@link TerminalNotificationException}.
+ */
 public class StepFunctionsClient {
 
-    private final AWSStepFunctions stepFunctions;
+    private static final Backoff DEFAULT_BACKOFF = new Backoff(100, 5000, 2.0, 0.5);
+    private static final int DEFAULT_MAX_RETRIES = 3;
+
+    private final SfnAsyncClient stepFunctions;
+    private final Backoff backoff;
+    private final int maxRetries;
+    private final RetryBudget retryBudget;
 
     public StepFunctionsClient(StepFunctionsProvider stepFunctionsProvider) {
+        this(stepFunctionsProvider, DEFAULT_BACKOFF, DEFAULT_MAX_RETRIES, new RetryBudget(100, 5, 1));
+    }
+
+    public StepFunctionsClient(
+            StepFunctionsProvider stepFunctionsProvider,
+            Backoff backoff,
+            int maxRetries,
+            RetryBudget retryBudget
+    ) {
         this.stepFunctions = stepFunctionsProvider.buildClient();
+        this.backoff = backoff;
+        this.maxRetries = maxRetries;
+        this.retryBudget = retryBudget;
     }
 
     public void notifyStepFunctionSuccess(String retrievedToken) {
-        SendTaskSuccessRequest taskSuccessRequest = new SendTaskSuccessRequest()
-                .withTaskToken(retrievedToken)
-                .withOutput("{}");
-        stepFunctions.sendTaskSuccess(taskSuccessRequest);
+        await(notifyStepFunctionSuccessAsync(retrievedToken));
     }
 
     public void notifyStepFunctionFailure(String retrievedToken, String error) {
-        SendTaskFailureRequest taskFailureRequest = new SendTaskFailureRequest()
-                .withTaskToken(retrievedToken)
-                .withError(error);
-        stepFunctions.sendTaskFailure(taskFailureRequest);
+        await(notifyStepFunctionFailureAsync(retrievedToken, error));
+    }
+
+    public CompletableFuture<Void> notifyStepFunctionSuccessAsync(String retrievedToken) {
+        SendTaskSuccessRequest taskSuccessRequest = SendTaskSuccessRequest.builder()
+                .taskToken(retrievedToken)
+                .output("{}")
+                .build();
+        return withRetries(() -> stepFunctions.sendTaskSuccess(taskSuccessRequest), 0);
+    }
+
+    public CompletableFuture<Void> notifyStepFunctionFailureAsync(String retrievedToken, String error) {
+        SendTaskFailureRequest taskFailureRequest = SendTaskFailureRequest.builder()
+                .taskToken(retrievedToken)
+                .error(error)
+                .build();
+        return withRetries(() -> stepFunctions.sendTaskFailure(taskFailureRequest), 0);
+    }
+
+    private CompletableFuture<Void> withRetries(Supplier<CompletableFuture<?>> call, int attempt) {
+        return call.get().handle((response, throwable) -> {
+            if (throwable == null) {
+                retryBudget.recordSuccess();
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+
+            Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                    ? throwable.getCause()
+                    : throwable;
+
+            if (isTerminal(cause)) {
+                return CompletableFuture.<Void>failedFuture(
+                        new TerminalNotificationException("Step function task can no longer be notified", cause)
+                );
+            }
+            if (!isRetryable(cause) || attempt >= maxRetries || !retryBudget.tryAcquireRetry()) {
+                return CompletableFuture.<Void>failedFuture(cause);
+            }
+
+            return CompletableFuture.runAsync(() -> { }, delayedExecutor(backoff.delayMillis(attempt), MILLISECONDS))
+                    .thenCompose(ignored -> withRetries(call, attempt + 1));
+        }).thenCompose(future -> future);
+    }
+
+    static boolean isTerminal(Throwable e) {
+        return e instanceof TaskDoesNotExistException
+                || e instanceof InvalidTokenException
+                || e instanceof TaskTimedOutException;
+    }
+
+    static boolean isRetryable(Throwable e) {
+        if (e instanceof SdkServiceException) {
+            SdkServiceException serviceException = (SdkServiceException) e;
+            return serviceException.isThrottlingException() || serviceException.statusCode() >= 500;
+        }
+        return e instanceof SdkClientException;
     }
 }
@@ -1,7 +1,7 @@
 package uk.gov.justice.digital.clients.stepfunctions;
 
-import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+import software.amazon.awssdk.services.sfn.SfnAsyncClient;
 
 public interface StepFunctionsProvider {
-    AWSStepFunctions buildClient();
+    SfnAsyncClient buildClient();
 }
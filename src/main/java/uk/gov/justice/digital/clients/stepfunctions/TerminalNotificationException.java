@@ -0,0 +1,12 @@
+package uk.gov.justice.digital.clients.stepfunctions;
+
+/**
+ * Thrown when Step Functions rejects a notification in a way retrying cannot fix, such as the task having already
+ * timed out or its token being unknown.
+ */
+public class TerminalNotificationException extends RuntimeException {
+
+    public TerminalNotificationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,48 @@
+package uk.gov.justice.digital.common;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter.
+ * <p>
+ * The delay for a given attempt grows by {@code multiplier} from {@code initialDelayMillis} up to
+ * {@code maxDelayMillis}. A {@code jitter} fraction of that delay is then randomised so that callers
+ * retrying at the same time spread out instead of hitting the service in lockstep.
+ */
+public class Backoff {
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final double multiplier;
+    private final double jitter;
+
+    public Backoff(long initialDelayMillis, long maxDelayMillis, double multiplier, double jitter) {
+        if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("Backoff delays must satisfy 0 <= initial <= max");
+        }
+        if (multiplier < 1) {
+            throw new IllegalArgumentException("Backoff multiplier must be at least 1");
+        }
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Backoff jitter must be between 0 and 1");
+        }
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+    }
+
+    /**
+     * @param attempt zero based number of attempts already made
+     * @return the delay to wait before the next attempt, in the range [(1 - jitter) * d, d]
+     * where d is the capped exponential delay.
+     */
+    public long delayMillis(int attempt) {
+        long capped = (long) Math.min(maxDelayMillis, initialDelayMillis * Math.pow(multiplier, attempt));
+        long jitterRange = (long) (capped * jitter);
+
+        if (jitterRange == 0) return capped;
+
+        return capped - jitterRange + ThreadLocalRandom.current().nextLong(jitterRange + 1);
+    }
+}
@@ -0,0 +1,257 @@
+package uk.gov.justice.digital.common;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Collects metrics in memory over an invocation and writes them as a single CloudWatch embedded metric format
+ * (EMF) record when flushed.
+ * <p>
+ * Counters are summed into one value. Samples, such as latencies, are kept as a histogram of each distinct value and
+ * how often it was seen, written as EMF {@code Values} and {@code Counts} so CloudWatch can compute percentiles from
+ * them while the sample count and sum stay exact. EMF accepts at most {@value #MAX_VALUES} values per metric in a
+ * record, so a histogram with more distinct values is written across as many records as it takes. Recording is
+ * thread safe as lookups and polls complete on pool threads.
+ */
+public class EmfMetrics {
+
+    static final int MAX_VALUES = 100;
+
+    private static final String NAMESPACE_VAR_NAME = "METRICS_NAMESPACE";
+    private static final String FUNCTION_NAME_VAR_NAME = "AWS_LAMBDA_FUNCTION_NAME";
+    private static final String FUNCTION_NAME_DIMENSION = "FunctionName";
+
+    public enum Unit {
+        COUNT("Count"),
+        MILLISECONDS("Milliseconds");
+
+        final String emfName;
+
+        Unit(String emfName) {
+            this.emfName = emfName;
+        }
+    }
+
+    private final String namespace;
+    private final Map<String, String> dimensions;
+    private final Clock clock;
+    private final boolean enabled;
+    private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+    public EmfMetrics(String namespace, Map<String, String> dimensions, Clock clock) {
+        this(namespace, dimensions, clock, true);
+    }
+
+    private EmfMetrics(String namespace, Map<String, String> dimensions, Clock clock, boolean enabled) {
+        this.namespace = namespace;
+        this.dimensions = new LinkedHashMap<>(dimensions);
+        this.clock = clock;
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return metrics for the running function, in the namespace set by {@code METRICS_NAMESPACE} or the given
+     * default, with the function name as their only dimension.
+     */
+    public static EmfMetrics forFunction(String defaultNamespace, Clock clock) {
+        return new EmfMetrics(
+                Optional.ofNullable(System.getenv(NAMESPACE_VAR_NAME)).orElse(defaultNamespace),
+                Optional.ofNullable(System.getenv(FUNCTION_NAME_VAR_NAME))
+                        .map(functionName -> Map.of(FUNCTION_NAME_DIMENSION, functionName))
+                        .orElse(Map.of()),
+                clock
+        );
+    }
+
+    /**
+     * @return metrics that record nothing and never write a record.
+     */
+    public static EmfMetrics disabled() {
+        return new EmfMetrics("", Map.of(), Clock.systemUTC(), false);
+    }
+
+    public void increment(String name) {
+        increment(name, 1);
+    }
+
+    public synchronized void increment(String name, long amount) {
+        if (!enabled) return;
+
+        metrics.computeIfAbsent(name, ignored -> new Metric(Unit.COUNT, true)).add(amount);
+    }
+
+    public synchronized void record(String name, double value, Unit unit) {
+        if (!enabled) return;
+
+        metrics.computeIfAbsent(name, ignored -> new Metric(unit, false)).add(value);
+    }
+
+    public void recordMillis(String name, long millis) {
+        record(name, millis, Unit.MILLISECONDS);
+    }
+
+    /**
+     * @return a timer that records the milliseconds elapsed from now under the given name when stopped.
+     */
+    public Timer startTimer(String name) {
+        return new Timer(name, clock.millis());
+    }
+
+    /**
+     * Writes everything recorded since the last flush as one EMF record, or more for samples with too many distinct
+     * values for one, and starts afresh. Nothing is written if nothing was recorded.
+     * <p>
+     * The records are written to the log as is rather than through {@link StructuredLogger}, as CloudWatch only
+     * extracts metrics from lines that are themselves an EMF document.
+     */
+    public void flush(LambdaLogger logger) {
+        drain().forEach(logger::log);
+    }
+
+    synchronized List<String> drain() {
+        int recordCount = metrics.values().stream().mapToInt(Metric::recordCount).max().orElse(0);
+
+        List<String> records = new ArrayList<>(recordCount);
+        for (int part = 0; part < recordCount; part++) {
+            Map<String, Metric> inRecord = new LinkedHashMap<>();
+            for (Map.Entry<String, Metric> metric : metrics.entrySet()) {
+                if (metric.getValue().recordCount() > part) inRecord.put(metric.getKey(), metric.getValue());
+            }
+            records.add(record(inRecord, part));
+        }
+
+        metrics.clear();
+        return records;
+    }
+
+    private String record(Map<String, Metric> metrics, int part) {
+        StringBuilder record = new StringBuilder(256)
+                .append("{\"_aws\":{\"Timestamp\":").append(clock.millis())
+                .append(",\"CloudWatchMetrics\":[{\"Namespace\":");
+        StructuredLogger.appendJsonString(record, namespace);
+
+        record.append(",\"Dimensions\":[[");
+        appendNames(record, dimensions.keySet());
+        record.append("]],\"Metrics\":[");
+
+        boolean first = true;
+        for (Map.Entry<String, Metric> metric : metrics.entrySet()) {
+            if (!first) record.append(',');
+            first = false;
+            record.append("{\"Name\":");
+            StructuredLogger.appendJsonString(record, metric.getKey());
+            record.append(",\"Unit\":\"").append(metric.getValue().unit.emfName).append("\"}");
+        }
+        record.append("]}]}");
+
+        for (Map.Entry<String, String> dimension : dimensions.entrySet()) {
+            record.append(',');
+            StructuredLogger.appendJsonString(record, dimension.getKey());
+            record.append(':');
+            StructuredLogger.appendJsonString(record, dimension.getValue());
+        }
+
+        for (Map.Entry<String, Metric> metric : metrics.entrySet()) {
+            record.append(',');
+            StructuredLogger.appendJsonString(record, metric.getKey());
+            record.append(':');
+            metric.getValue().appendValue(record, part);
+        }
+
+        return record.append('}').toString();
+    }
+
+    private static void appendNames(StringBuilder record, Iterable<String> names) {
+        boolean first = true;
+        for (String name : names) {
+            if (!first) record.append(',');
+            first = false;
+            StructuredLogger.appendJsonString(record, name);
+        }
+    }
+
+    private static void appendNumber(StringBuilder record, double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            record.append((long) value);
+        } else {
+            record.append(value);
+        }
+    }
+
+    public class Timer {
+        private final String name;
+        private final long startMillis;
+
+        private Timer(String name, long startMillis) {
+            this.name = name;
+            this.startMillis = startMillis;
+        }
+
+        /**
+         * @return the milliseconds elapsed since the timer was started, which are also recorded.
+         */
+        public long stop() {
+            long elapsed = clock.millis() - startMillis;
+            recordMillis(name, elapsed);
+            return elapsed;
+        }
+    }
+
+    private static class Metric {
+        private final Unit unit;
+        private final boolean counter;
+        private final Map<Double, Long> counts = new LinkedHashMap<>();
+        private double total;
+
+        Metric(Unit unit, boolean counter) {
+            this.unit = unit;
+            this.counter = counter;
+        }
+
+        void add(double value) {
+            if (counter) {
+                total += value;
+            } else {
+                counts.merge(value, 1L, Long::sum);
+            }
+        }
+
+        /**
+         * @return the number of records needed to write every distinct value.
+         */
+        int recordCount() {
+            return counter ? 1 : (counts.size() + MAX_VALUES - 1) / MAX_VALUES;
+        }
+
+        /**
+         * Appends the total of a counter, or the given part of a histogram of samples.
+         */
+        void appendValue(StringBuilder record, int part) {
+            if (counter) {
+                appendNumber(record, total);
+                return;
+            }
+
+            List<Map.Entry<Double, Long>> entries = new ArrayList<>(counts.entrySet())
+                    .subList(part * MAX_VALUES, Math.min(counts.size(), (part + 1) * MAX_VALUES));
+
+            record.append("{\"Values\":[");
+            for (int i = 0; i < entries.size(); i++) {
+                if (i > 0) record.append(',');
+                appendNumber(record, entries.get(i).getKey());
+            }
+            record.append("],\"Counts\":[");
+            for (int i = 0; i < entries.size(); i++) {
+                if (i > 0) record.append(',');
+                record.append(entries.get(i).getValue());
+            }
+            record.append("]}");
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package uk.gov.justice.digital.common;
+
+/**
+ * Token bucket limiting how many retries a client makes across all of its calls.
+ * <p>
+ * Each retry withdraws {@code retryCost} tokens and is refused once the bucket cannot cover it, while each successful
+ * call puts {@code successRefill} tokens back up to {@code capacity}. Occasional failures are retried freely, but
+ * when a service is failing most calls the budget drains and callers fail fast rather than multiplying the load.
+ */
+public class RetryBudget {
+
+    private final int capacity;
+    private final int retryCost;
+    private final int successRefill;
+
+    private int tokens;
+
+    public RetryBudget(int capacity, int retryCost, int successRefill) {
+        if (capacity < 0 || retryCost < 1 || successRefill < 0) {
+            throw new IllegalArgumentException("Retry budget must satisfy capacity >= 0, retryCost >= 1 and successRefill >= 0");
+        }
+        this.capacity = capacity;
+        this.retryCost = retryCost;
+        this.successRefill = successRefill;
+        this.tokens = capacity;
+    }
+
+    /**
+     * @return true, withdrawing the cost of a retry, if the budget allows another retry.
+     */
+    public synchronized boolean tryAcquireRetry() {
+        if (tokens < retryCost) return false;
+
+        tokens -= retryCost;
+        return true;
+    }
+
+    public synchronized void recordSuccess() {
+        tokens = Math.min(capacity, tokens + successRefill);
+    }
+
+    synchronized int availableTokens() {
+        return tokens;
+    }
+}
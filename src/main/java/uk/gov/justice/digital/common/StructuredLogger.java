@@ -0,0 +1,164 @@
+package uk.gov.justice.digital.common;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.logging.LogLevel;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static uk.gov.justice.digital.common.Utils.getEnvOrDefault;
+
+/**
+ * Writes log lines to a {@link LambdaLogger} as single line JSON objects.
+ * <p>
+ * Messages and fields are passed as suppliers and only built once the level has been checked against the
+ * function's {@code AWS_LAMBDA_LOG_LEVEL}, so disabled lines cost nothing to format. String values longer than
+ * {@code maxValueChars} are truncated, and large collections should be passed through {@link #summarise} so a
+ * single line never grows to megabytes.
+ */
+public class StructuredLogger {
+
+    static final String LOG_LEVEL_VAR_NAME = "AWS_LAMBDA_LOG_LEVEL";
+    private static final String MAX_VALUE_CHARS_VAR_NAME = "LOG_MAX_VALUE_CHARS";
+    private static final int DEFAULT_MAX_VALUE_CHARS = 2048;
+
+    private static final LogLevel ENVIRONMENT_LEVEL = levelFromEnvironment();
+    private static final int ENVIRONMENT_MAX_VALUE_CHARS = getEnvOrDefault(MAX_VALUE_CHARS_VAR_NAME, DEFAULT_MAX_VALUE_CHARS);
+
+    private final LambdaLogger logger;
+    private final LogLevel minLevel;
+    private final int maxValueChars;
+
+    public StructuredLogger(LambdaLogger logger, LogLevel minLevel, int maxValueChars) {
+        this.logger = logger;
+        this.minLevel = minLevel;
+        this.maxValueChars = maxValueChars;
+    }
+
+    /**
+     * @return a logger using the log level configured for the function, or INFO when none is.
+     */
+    public static StructuredLogger of(LambdaLogger logger) {
+        return new StructuredLogger(logger, ENVIRONMENT_LEVEL, ENVIRONMENT_MAX_VALUE_CHARS);
+    }
+
+    public boolean isEnabled(LogLevel level) {
+        return level.ordinal() >= minLevel.ordinal();
+    }
+
+    public void debug(Supplier<String> message) {
+        log(LogLevel.DEBUG, message, null);
+    }
+
+    public void info(Supplier<String> message) {
+        log(LogLevel.INFO, message, null);
+    }
+
+    public void warn(Supplier<String> message) {
+        log(LogLevel.WARN, message, null);
+    }
+
+    public void error(Supplier<String> message) {
+        log(LogLevel.ERROR, message, null);
+    }
+
+    public void log(LogLevel level, Supplier<String> message) {
+        log(level, message, null);
+    }
+
+    /**
+     * @param fields extra properties of the JSON line. Numbers and booleans are written as is, anything else as a
+     *               string.
+     */
+    public void log(LogLevel level, Supplier<String> message, Supplier<Map<String, ?>> fields) {
+        if (!isEnabled(level)) return;
+
+        StringBuilder line = new StringBuilder(128)
+                .append("{\"level\":\"").append(level.name()).append("\",\"message\":");
+        appendString(line, message.get());
+
+        if (fields != null) {
+            for (Map.Entry<String, ?> field : fields.get().entrySet()) {
+                line.append(',');
+                appendString(line, field.getKey());
+                line.append(':');
+                Object value = field.getValue();
+                if (value instanceof Number || value instanceof Boolean) {
+                    line.append(value);
+                } else {
+                    appendString(line, String.valueOf(value));
+                }
+            }
+        }
+
+        logger.log(line.append('}').toString(), level);
+    }
+
+    /**
+     * @return the value cut down to {@code maxChars}, noting how much was left out.
+     */
+    public static String truncate(String value, int maxChars) {
+        if (value == null || value.length() <= maxChars) return value;
+
+        return value.substring(0, maxChars) + "... (" + (value.length() - maxChars) + " more chars)";
+    }
+
+    /**
+     * @return the first {@code maxItems} items of the collection, noting how many were left out.
+     */
+    public static String summarise(Collection<?> items, int maxItems) {
+        StringBuilder summary = new StringBuilder("[");
+        Iterator<?> iterator = items.iterator();
+        for (int i = 0; i < maxItems && iterator.hasNext(); i++) {
+            if (i > 0) summary.append(", ");
+            summary.append(iterator.next());
+        }
+        if (items.size() > maxItems) {
+            summary.append(maxItems > 0 ? ", " : "").append("... ").append(items.size() - maxItems).append(" more");
+        }
+        return summary.append(']').toString();
+    }
+
+    private void appendString(StringBuilder line, String value) {
+        appendJsonString(line, truncate(String.valueOf(value), maxValueChars));
+    }
+
+    /**
+     * Appends the value as a quoted JSON string, escaping quotes, backslashes and control characters.
+     */
+    static void appendJsonString(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': line.append("\\\""); break;
+                case '\\': line.append("\\\\"); break;
+                case '\n': line.append("\\n"); break;
+                case '\r': line.append("\\r"); break;
+                case '\t': line.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+        line.append('"');
+    }
+
+    private static LogLevel levelFromEnvironment() {
+        return Optional.ofNullable(System.getenv(LOG_LEVEL_VAR_NAME))
+                .map(level -> {
+                    try {
+                        return LogLevel.valueOf(level.toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        return LogLevel.INFO;
+                    }
+                })
+                .orElse(LogLevel.INFO);
+    }
+}
@@ -1,5 +1,7 @@
 package uk.gov.justice.digital.common;
 
+import java.util.Objects;
+
 public class TaskDetail {
 
     private final String token;
@@ -18,4 +20,18 @@ public class TaskDetail {
         return ignoreFailure;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        TaskDetail that = (TaskDetail) o;
+
+        return ignoreFailure == that.ignoreFailure && Objects.equals(token, that.token);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(token, ignoreFailure);
+    }
 }
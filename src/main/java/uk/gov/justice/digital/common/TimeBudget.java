@@ -0,0 +1,50 @@
+package uk.gov.justice.digital.common;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+import java.util.function.LongSupplier;
+
+/**
+ * The time an invocation has left, split into time to start new work and time to finish off work already started.
+ * <p>
+ * New work is only started while more than {@code reserveMillis} remain, which leaves the reserve for work in flight
+ * to complete. Waiting on that work stops {@code wrapUpMillis} before the invocation times out, so there is always
+ * time left to record progress and report back.
+ */
+public class TimeBudget {
+
+    private final LongSupplier remainingMillis;
+    private final long reserveMillis;
+    private final long wrapUpMillis;
+
+    public TimeBudget(LongSupplier remainingMillis, long reserveMillis, long wrapUpMillis) {
+        if (wrapUpMillis < 0 || reserveMillis < wrapUpMillis) {
+            throw new IllegalArgumentException("Time budget must satisfy 0 <= wrapUp <= reserve");
+        }
+        this.remainingMillis = remainingMillis;
+        this.reserveMillis = reserveMillis;
+        this.wrapUpMillis = wrapUpMillis;
+    }
+
+    public static TimeBudget of(Context context, long reserveMillis, long wrapUpMillis) {
+        return new TimeBudget(context::getRemainingTimeInMillis, reserveMillis, wrapUpMillis);
+    }
+
+    public static TimeBudget unlimited() {
+        return new TimeBudget(() -> Long.MAX_VALUE, 0, 0);
+    }
+
+    /**
+     * @return true while there is more time left than the reserve kept for finishing off work in flight.
+     */
+    public boolean allowsNewWork() {
+        return remainingMillis.getAsLong() > reserveMillis;
+    }
+
+    /**
+     * @return how long work in flight may still be waited on.
+     */
+    public long finishingMillis() {
+        return Math.max(0, remainingMillis.getAsLong() - wrapUpMillis);
+    }
+}
@@ -2,7 +2,6 @@ package uk.gov.justice.digital.common;
 
 import java.util.Collections;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.Optional;
 
 public class Utils {
@@ -13,24 +12,23 @@ public class Utils {
     public final static long DEFAULT_TOKEN_EXPIRY_DAYS = 7;
     public final static String REPLICATION_TASK_ARN_KEY = "replicationTaskArn";
     public final static String IGNORE_DMS_TASK_FAILURE_KEY = "ignoreDmsTaskFailure";
+    public final static String TASKS_KEY = "tasks";
 
-    public static Optional<String> getOptionalString(Map<String, Object> event, String key) {
-        return Optional.ofNullable(event.get(key)).map(obj -> (String) obj);
+    @SuppressWarnings({"unchecked", "unused"})
+    public static Map<String, String> getConfig(Map<String, Object> event, String key) {
+        return (Map<String, String>) event.getOrDefault(key, Collections.emptyMap());
     }
 
-    public static boolean getBoolean(Map<String, Object> event, String key) {
-        return (boolean) event.getOrDefault(key, false);
+    public static int getEnvOrDefault(String name, int defaultValue) {
+        return Optional.ofNullable(System.getenv(name)).map(Integer::parseInt).orElse(defaultValue);
     }
 
-    @SuppressWarnings({"unchecked", "unused"})
-    public static Map<String, String> getConfig(Map<String, Object> event, String key) {
-        return (Map<String, String>) event.getOrDefault(key, Collections.emptyMap());
+    public static long getEnvOrDefault(String name, long defaultValue) {
+        return Optional.ofNullable(System.getenv(name)).map(Long::parseLong).orElse(defaultValue);
     }
 
-    @SuppressWarnings({"unused"})
-    public static <T, O> T getOrThrow(Map<String, O> obj, String key, Class<T> type) {
-        return Optional.ofNullable(type.cast(obj.get(key)))
-                .orElseThrow(() -> new NoSuchElementException("Required key [" + key + "] is missing"));
+    public static double getEnvOrDefault(String name, double defaultValue) {
+        return Optional.ofNullable(System.getenv(name)).map(Double::parseDouble).orElse(defaultValue);
     }
 
     private Utils() { }
@@ -0,0 +1,162 @@
+package uk.gov.justice.digital.lambda;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static uk.gov.justice.digital.common.Utils.DEFAULT_TOKEN_EXPIRY_DAYS;
+import static uk.gov.justice.digital.common.Utils.IGNORE_DMS_TASK_FAILURE_KEY;
+import static uk.gov.justice.digital.common.Utils.REPLICATION_TASK_ARN_KEY;
+import static uk.gov.justice.digital.common.Utils.TASKS_KEY;
+import static uk.gov.justice.digital.common.Utils.TASK_TOKEN_KEY;
+import static uk.gov.justice.digital.common.Utils.TOKEN_EXPIRY_DAYS_KEY;
+import static uk.gov.justice.digital.lambda.StepFunctionDMSNotificationLambda.CLOUDWATCH_EVENT_DETAIL_KEY;
+import static uk.gov.justice.digital.lambda.StepFunctionDMSNotificationLambda.CLOUDWATCH_EVENT_ID_KEY;
+import static uk.gov.justice.digital.lambda.StepFunctionDMSNotificationLambda.CLOUDWATCH_EVENT_RESOURCES_KEY;
+
+/**
+ * A RegisterTaskToken or ProcessDMSStoppage event, bound straight from its JSON.
+ * <p>
+ * Events are validated as they are parsed so that a malformed event is rejected before any AWS call is made.
+ *
+ * @see StepFunctionDMSNotificationLambda for the events handled.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class DMSNotificationEvent {
+
+    public enum Type { REGISTER_TASK_TOKEN, REGISTER_TASK_TOKENS, PROCESS_DMS_STOPPAGE }
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectReader READER = MAPPER.readerFor(DMSNotificationEvent.class);
+
+    public final String token;
+    public final String replicationTaskArn;
+    public final boolean ignoreDmsTaskFailure;
+    public final long tokenExpiryDays;
+    public final List<TaskRegistration> tasks;
+    public final List<String> resources;
+    public final Detail detail;
+
+    @JsonCreator
+    public DMSNotificationEvent(
+            @JsonProperty(TASK_TOKEN_KEY) String token,
+            @JsonProperty(REPLICATION_TASK_ARN_KEY) String replicationTaskArn,
+            @JsonProperty(IGNORE_DMS_TASK_FAILURE_KEY) boolean ignoreDmsTaskFailure,
+            @JsonProperty(TOKEN_EXPIRY_DAYS_KEY) Long tokenExpiryDays,
+            @JsonProperty(TASKS_KEY) List<TaskRegistration> tasks,
+            @JsonProperty(CLOUDWATCH_EVENT_RESOURCES_KEY) List<String> resources,
+            @JsonProperty(CLOUDWATCH_EVENT_DETAIL_KEY) Detail detail
+    ) {
+        this.token = token;
+        this.replicationTaskArn = replicationTaskArn;
+        this.ignoreDmsTaskFailure = ignoreDmsTaskFailure;
+        this.tokenExpiryDays = tokenExpiryDays == null ? DEFAULT_TOKEN_EXPIRY_DAYS : tokenExpiryDays;
+        this.tasks = tasks == null ? Collections.emptyList() : tasks;
+        this.resources = resources == null ? Collections.emptyList() : resources;
+        this.detail = detail;
+    }
+
+    public static DMSNotificationEvent parse(InputStream json) throws IOException {
+        return READER.<DMSNotificationEvent>readValue(json).validated();
+    }
+
+    public static DMSNotificationEvent parse(String json) throws IOException {
+        return READER.<DMSNotificationEvent>readValue(json).validated();
+    }
+
+    public static DMSNotificationEvent fromMap(Map<String, Object> event) {
+        return MAPPER.convertValue(event, DMSNotificationEvent.class).validated();
+    }
+
+    public Type type() {
+        if (!tasks.isEmpty()) return Type.REGISTER_TASK_TOKENS;
+        if (token != null && !token.isEmpty()) return Type.REGISTER_TASK_TOKEN;
+        return Type.PROCESS_DMS_STOPPAGE;
+    }
+
+    /**
+     * The replication task of a RegisterTaskToken event, or the first resource of a ProcessDMSStoppage event.
+     */
+    public String taskArn() {
+        if (replicationTaskArn != null) return replicationTaskArn;
+        return resources.isEmpty() ? null : resources.get(0);
+    }
+
+    public String eventId() {
+        return detail == null ? null : detail.eventId;
+    }
+
+    DMSNotificationEvent validated() {
+        switch (type()) {
+            case REGISTER_TASK_TOKENS:
+                for (TaskRegistration task : tasks) {
+                    require(task != null && task.token != null && task.replicationTaskArn != null,
+                            "Every task must have a token and replicationTaskArn");
+                }
+                break;
+            case REGISTER_TASK_TOKEN:
+                require(taskArn() != null, "Could not find DMS task ARN. replicationTaskArn is missing");
+                break;
+            case PROCESS_DMS_STOPPAGE:
+                require(taskArn() != null, "Could not find DMS task ARN. List of resources is empty");
+                require(eventId() != null, "Required key [" + CLOUDWATCH_EVENT_ID_KEY + "] is missing");
+                break;
+        }
+        require(tokenExpiryDays > 0, "tokenExpiryDays must be positive");
+        return this;
+    }
+
+    private static void require(boolean condition, String message) {
+        if (!condition) throw new IllegalArgumentException("Invalid DMS notification event: " + message);
+    }
+
+    @Override
+    public String toString() {
+        switch (type()) {
+            case REGISTER_TASK_TOKENS:
+                return "RegisterTaskTokens{tasks=" + tasks.size() + ", tokenExpiryDays=" + tokenExpiryDays + "}";
+            case REGISTER_TASK_TOKEN:
+                return "RegisterTaskToken{replicationTaskArn=" + replicationTaskArn
+                        + ", ignoreDmsTaskFailure=" + ignoreDmsTaskFailure
+                        + ", tokenExpiryDays=" + tokenExpiryDays + "}";
+            default:
+                return "ProcessDMSStoppage{replicationTaskArn=" + taskArn() + ", eventId=" + eventId() + "}";
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Detail {
+        public final String eventId;
+
+        @JsonCreator
+        public Detail(@JsonProperty(CLOUDWATCH_EVENT_ID_KEY) String eventId) {
+            this.eventId = eventId;
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class TaskRegistration {
+        public final String token;
+        public final String replicationTaskArn;
+        public final boolean ignoreDmsTaskFailure;
+
+        @JsonCreator
+        public TaskRegistration(
+                @JsonProperty(TASK_TOKEN_KEY) String token,
+                @JsonProperty(REPLICATION_TASK_ARN_KEY) String replicationTaskArn,
+                @JsonProperty(IGNORE_DMS_TASK_FAILURE_KEY) boolean ignoreDmsTaskFailure
+        ) {
+            this.token = token;
+            this.replicationTaskArn = replicationTaskArn;
+            this.ignoreDmsTaskFailure = ignoreDmsTaskFailure;
+        }
+    }
+}
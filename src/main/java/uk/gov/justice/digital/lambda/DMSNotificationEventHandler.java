@@ -0,0 +1,127 @@
+package uk.gov.justice.digital.lambda;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.sfn.model.SendTaskFailureRequest;
+import software.amazon.awssdk.services.sfn.model.SendTaskSuccessRequest;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+import uk.gov.justice.digital.clients.AwsClientFactory;
+import uk.gov.justice.digital.clients.dynamo.DefaultDynamoDbProvider;
+import uk.gov.justice.digital.clients.dynamo.DynamoDbClient;
+import uk.gov.justice.digital.clients.stepfunctions.DefaultStepFunctionsProvider;
+import uk.gov.justice.digital.clients.stepfunctions.StepFunctionsClient;
+import uk.gov.justice.digital.common.EmfMetrics;
+import uk.gov.justice.digital.common.StructuredLogger;
+import uk.gov.justice.digital.common.TaskDetail;
+import uk.gov.justice.digital.services.StepFunctionDMSNotificationService;
+
+import java.time.Clock;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static uk.gov.justice.digital.common.Utils.REPLICATION_TASK_ARN_KEY;
+import static uk.gov.justice.digital.lambda.StepFunctionDMSNotificationLambda.DYNAMO_DB_TABLE;
+
+/**
+ * Handles a single RegisterTaskToken or ProcessDMSStoppage event, shared by the direct and SQS fronted lambdas.
+ * <p>
+ * Closing the handler closes the SDK clients it was built with by {@link #withDefaultClients()}.
+ *
+ * @see StepFunctionDMSNotificationLambda for the events handled.
+ */
+public class DMSNotificationEventHandler implements SdkAutoCloseable {
+
+    static final Class<?>[] HOT_PATH_CLASSES = {
+            DMSNotificationEvent.class,
+            DMSNotificationEvent.Detail.class,
+            DMSNotificationEvent.TaskRegistration.class,
+            AttributeValue.class,
+            PutItemRequest.class,
+            BatchWriteItemRequest.class,
+            BatchWriteItemResponse.class,
+            DeleteItemRequest.class,
+            DeleteItemResponse.class,
+            SendTaskSuccessRequest.class,
+            SendTaskFailureRequest.class
+    };
+
+    private static final String DEFAULT_METRICS_NAMESPACE = "DigitalPrisonReporting/DMSNotification";
+
+    private final StepFunctionDMSNotificationService service;
+    private final SdkAutoCloseable clients;
+
+    public DMSNotificationEventHandler(StepFunctionDMSNotificationService service) {
+        this(service, () -> {});
+    }
+
+    private DMSNotificationEventHandler(StepFunctionDMSNotificationService service, SdkAutoCloseable clients) {
+        this.service = service;
+        this.clients = clients;
+    }
+
+    static DMSNotificationEventHandler withDefaultClients() {
+        AwsClientFactory clientFactory = AwsClientFactory.fromEnvironment();
+        DynamoDbClient dynamoDbClient = new DynamoDbClient(new DefaultDynamoDbProvider(clientFactory));
+        StepFunctionsClient stepFunctionsClient = new StepFunctionsClient(new DefaultStepFunctionsProvider(clientFactory));
+        Clock clock = Clock.systemUTC();
+        return new DMSNotificationEventHandler(
+                new StepFunctionDMSNotificationService(
+                        dynamoDbClient,
+                        stepFunctionsClient,
+                        clock,
+                        EmfMetrics.forFunction(DEFAULT_METRICS_NAMESPACE, clock)
+                ),
+                clientFactory
+        );
+    }
+
+    @Override
+    public void close() {
+        clients.close();
+    }
+
+    /**
+     * Writes the metrics of every event handled since the last flush, to be called once at the end of an invocation.
+     */
+    public void flushMetrics(LambdaLogger logger) {
+        service.flushMetrics(logger);
+    }
+
+    public void handle(Map<String, Object> event, LambdaLogger logger) {
+        handle(DMSNotificationEvent.fromMap(event), logger);
+    }
+
+    public void handle(DMSNotificationEvent event, LambdaLogger logger) {
+        var log = StructuredLogger.of(logger);
+        log.debug(() -> "Event received: " + event);
+
+        switch (event.type()) {
+            case REGISTER_TASK_TOKENS:
+                Map<String, TaskDetail> taskDetails = new LinkedHashMap<>();
+                for (DMSNotificationEvent.TaskRegistration task : event.tasks) {
+                    taskDetails.put(task.replicationTaskArn, new TaskDetail(task.token, task.ignoreDmsTaskFailure));
+                }
+                log.info(() -> String.format("Saving tokens of %d tasks to Dynamo table", taskDetails.size()));
+                service.registerTaskDetails(taskDetails, DYNAMO_DB_TABLE, event.tokenExpiryDays);
+                break;
+            case REGISTER_TASK_TOKEN:
+                log.info(() -> String.format("Saving token of DMS task %s to Dynamo table", event.taskArn()));
+                service.registerTaskDetails(
+                        event.token,
+                        event.taskArn(),
+                        event.ignoreDmsTaskFailure,
+                        DYNAMO_DB_TABLE,
+                        event.tokenExpiryDays
+                );
+                break;
+            case PROCESS_DMS_STOPPAGE:
+                service.processStopEvent(logger, DYNAMO_DB_TABLE, REPLICATION_TASK_ARN_KEY, event.taskArn(), event.eventId());
+                break;
+        }
+    }
+}
@@ -3,60 +3,297 @@ package uk.gov.justice.digital.lambda;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
-import com.amazonaws.services.lambda.runtime.logging.LogLevel;
+import org.crac.Core;
+import org.crac.Resource;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.glue.GlueClient;
+import software.amazon.awssdk.services.glue.model.GetTablesRequest;
+import software.amazon.awssdk.services.glue.model.GetTablesResponse;
+import software.amazon.awssdk.services.redshiftdata.RedshiftDataAsyncClient;
 import software.amazon.awssdk.services.redshiftdata.RedshiftDataClient;
+import software.amazon.awssdk.services.redshiftdata.model.BatchExecuteStatementRequest;
+import software.amazon.awssdk.services.redshiftdata.model.BatchExecuteStatementResponse;
+import software.amazon.awssdk.services.redshiftdata.model.DescribeStatementRequest;
+import software.amazon.awssdk.services.redshiftdata.model.DescribeStatementResponse;
+import software.amazon.awssdk.services.redshiftdata.model.ExecuteStatementRequest;
+import software.amazon.awssdk.services.redshiftdata.model.ExecuteStatementResponse;
+import software.amazon.awssdk.services.redshiftdata.model.GetStatementResultRequest;
+import software.amazon.awssdk.services.redshiftdata.model.GetStatementResultResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import uk.gov.justice.digital.clients.AwsClientFactory;
+import uk.gov.justice.digital.clients.ExpiryStateStore;
+import uk.gov.justice.digital.clients.ExternalTableDiscovery;
+import uk.gov.justice.digital.clients.dynamo.DefaultDynamoDbProvider;
+import uk.gov.justice.digital.clients.dynamo.DynamoDbClient;
+import uk.gov.justice.digital.clients.dynamo.DynamoDbExpiryStateStore;
+import uk.gov.justice.digital.clients.glue.GlueTableDiscovery;
 import uk.gov.justice.digital.clients.redshift.ExternalTableQueryExecutor;
+import uk.gov.justice.digital.clients.redshift.RedshiftTableDiscovery;
+import uk.gov.justice.digital.clients.redshift.StatementStatusPoller;
+import uk.gov.justice.digital.clients.s3.DynamoDbS3MetadataCache;
 import uk.gov.justice.digital.clients.s3.S3Client;
+import uk.gov.justice.digital.clients.s3.S3MetadataCache;
+import uk.gov.justice.digital.clients.s3.S3MetadataScanner;
+import uk.gov.justice.digital.common.Backoff;
+import uk.gov.justice.digital.common.EmfMetrics;
+import uk.gov.justice.digital.common.Priming;
+import uk.gov.justice.digital.common.StructuredLogger;
+import uk.gov.justice.digital.common.TimeBudget;
+import uk.gov.justice.digital.services.ExpiryCheckpoint;
 import uk.gov.justice.digital.services.RedShiftTableExpiryService;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
+
+import static uk.gov.justice.digital.common.Utils.getEnvOrDefault;
 
 /**
  * Lambda function to remove RedShift external tables that are past their expiry time.
+ * <p>
+ * A run stops taking on tables once the invocation is down to its last {@value #DEFAULT_TIME_RESERVE_MILLIS} ms, or
+ * the {@code TIME_RESERVE_MILLIS} configured, and reports back whether it completed:
+ *
+ * <pre>
+ *  {
+ *     "complete": false,
+ *     "continuationToken": "eyJydW5TdGFydGVkU2Vjb25kcyI6...",
+ *     "removalsRequested": 1200,
+ *     "tablesSkipped": 3,
+ *     "removalsSucceeded": true
+ *  }
+ * </pre>
+ * <p>Invoking the function again with the token, as a Step Functions loop would, resumes the run:
+ *
+ * <pre>
+ *  {
+ *     "continuationToken": "eyJydW5TdGFydGVkU2Vjb25kcyI6..."
+ *  }
+ * </pre>
+ * <p>Any other event starts a new run. A run that is never resumed loses nothing but its checkpoint, as the next run
+ * lists whatever tables are still left.
+ * <p>
+ * Registered as a CRaC resource so that, with SnapStart enabled, the hot path is loaded before the snapshot is
+ * taken, the SDK clients are closed so no connection is captured in it, and they are built again once it is restored.
  */
 @SuppressWarnings("unused")
-public class RedShiftTableExpiryLambda implements RequestHandler<Map<String, Object>, Void> {
+public class RedShiftTableExpiryLambda implements RequestHandler<Map<String, Object>, Map<String, Object>>, Resource {
+    static final String CONTINUATION_TOKEN_KEY = "continuationToken";
+    static final String COMPLETE_KEY = "complete";
+    static final String REMOVALS_REQUESTED_KEY = "removalsRequested";
+    static final String TABLES_SKIPPED_KEY = "tablesSkipped";
+    static final String REMOVALS_SUCCEEDED_KEY = "removalsSucceeded";
+
     private static final String CLUSTER_ID_VAR_NAME = "CLUSTER_ID";
     private static final String DB_NAME_VAR_NAME = "DB_NAME";
     private static final String CREDENTIAL_SECRET_ARN_VAR_NAME = "CREDENTIAL_SECRET_ARN";
     private static final String EXPIRY_SECONDS_VAR_NAME = "EXPIRY_SECONDS";
+    private static final String POLL_INITIAL_DELAY_MILLIS_VAR_NAME = "POLL_INITIAL_DELAY_MILLIS";
+    private static final String POLL_MAX_DELAY_MILLIS_VAR_NAME = "POLL_MAX_DELAY_MILLIS";
+    private static final String POLL_BACKOFF_MULTIPLIER_VAR_NAME = "POLL_BACKOFF_MULTIPLIER";
+    private static final String POLL_JITTER_VAR_NAME = "POLL_JITTER";
+    private static final String S3_SCAN_CONCURRENCY_VAR_NAME = "S3_SCAN_CONCURRENCY";
+    private static final String S3_SLOW_DOWN_MAX_RETRIES_VAR_NAME = "S3_SLOW_DOWN_MAX_RETRIES";
+    private static final String S3_LIST_MAX_KEYS_VAR_NAME = "S3_LIST_MAX_KEYS";
+    private static final String S3_METADATA_CACHE_TABLE_VAR_NAME = "S3_METADATA_CACHE_TABLE";
+    private static final String S3_METADATA_CACHE_TTL_DAYS_VAR_NAME = "S3_METADATA_CACHE_TTL_DAYS";
+    private static final String S3_METADATA_CACHE_REVALIDATE_HOURS_VAR_NAME = "S3_METADATA_CACHE_REVALIDATE_HOURS";
+    // Glue database behind the reports external schema. When set, tables are discovered from Glue instead of Redshift
+    private static final String GLUE_DATABASE_VAR_NAME = "GLUE_DATABASE";
+    // DynamoDB table holding the watermark and pending expiries. When set, runs only evaluate tables changed since
+    // the last completed run, along with every invalid table, and need its dueShard-dropAt-index to find due tables
+    private static final String EXPIRY_STATE_TABLE_VAR_NAME = "EXPIRY_STATE_TABLE";
+    // Time kept back for removals already requested to finish once no new tables are taken on
+    private static final String TIME_RESERVE_MILLIS_VAR_NAME = "TIME_RESERVE_MILLIS";
+
+    private static final long DEFAULT_POLL_INITIAL_DELAY_MILLIS = 250;
+    private static final long DEFAULT_POLL_MAX_DELAY_MILLIS = 5000;
+    private static final double DEFAULT_POLL_BACKOFF_MULTIPLIER = 2.0;
+    private static final double DEFAULT_POLL_JITTER = 0.5;
+    private static final int DEFAULT_S3_SCAN_CONCURRENCY = 16;
+    private static final int DEFAULT_S3_SLOW_DOWN_MAX_RETRIES = 5;
+    private static final long S3_SLOW_DOWN_INITIAL_DELAY_MILLIS = 200;
+    private static final long S3_SLOW_DOWN_MAX_DELAY_MILLIS = 10000;
+    private static final long DEFAULT_S3_METADATA_CACHE_TTL_DAYS = 7;
+    private static final long DEFAULT_S3_METADATA_CACHE_REVALIDATE_HOURS = 24;
+    private static final long DEFAULT_TIME_RESERVE_MILLIS = 60000;
+    // Kept back from waiting on removals to report progress before the invocation times out
+    private static final long WRAP_UP_MILLIS = 5000;
+    private static final String DEFAULT_METRICS_NAMESPACE = "DigitalPrisonReporting/RedShiftTableExpiry";
 
-    private final RedShiftTableExpiryService service;
+    private static final Class<?>[] HOT_PATH_CLASSES = {
+            ExecuteStatementRequest.class,
+            ExecuteStatementResponse.class,
+            DescribeStatementRequest.class,
+            DescribeStatementResponse.class,
+            GetStatementResultRequest.class,
+            GetStatementResultResponse.class,
+            BatchExecuteStatementRequest.class,
+            BatchExecuteStatementResponse.class,
+            ListObjectsV2Request.class,
+            ListObjectsV2Response.class,
+            HeadObjectRequest.class,
+            HeadObjectResponse.class,
+            GetTablesRequest.class,
+            GetTablesResponse.class
+    };
+
+    private volatile AwsClientFactory clientFactory;
+    private volatile RedShiftTableExpiryService service;
+    private final long timeReserveMillis;
 
     @SuppressWarnings("unused")
     public RedShiftTableExpiryLambda() {
+        this.clientFactory = AwsClientFactory.fromEnvironment();
+        this.service = buildService(clientFactory);
+        this.timeReserveMillis = getEnvOrDefault(TIME_RESERVE_MILLIS_VAR_NAME, DEFAULT_TIME_RESERVE_MILLIS);
+        Core.getGlobalContext().register(this);
+    }
+
+    public RedShiftTableExpiryLambda(RedShiftTableExpiryService service) {
+        this(service, DEFAULT_TIME_RESERVE_MILLIS);
+    }
+
+    public RedShiftTableExpiryLambda(RedShiftTableExpiryService service, long timeReserveMillis) {
+        this.service = service;
+        this.timeReserveMillis = timeReserveMillis;
+    }
+
+    @Override
+    public Map<String, Object> handleRequest(Map<String, Object> event, Context context) {
+
+        LambdaLogger logger = context.getLogger();
+        StructuredLogger log = StructuredLogger.of(logger);
+
+        var resumeFrom = Optional.ofNullable(event)
+                .map(e -> e.get(CONTINUATION_TOKEN_KEY))
+                .map(Object::toString)
+                .map(ExpiryCheckpoint::fromToken)
+                .orElse(null);
+        log.info(() -> resumeFrom == null ? "Started expired table removal" : "Resumed expired table removal");
+
+        var budget = TimeBudget.of(context, timeReserveMillis, Math.min(WRAP_UP_MILLIS, timeReserveMillis));
+        var run = this.service.removeExpiredExternalTables(resumeFrom, budget, logger);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put(COMPLETE_KEY, run.isComplete());
+        result.put(REMOVALS_REQUESTED_KEY, run.removalsRequested);
+        result.put(TABLES_SKIPPED_KEY, run.tablesSkipped);
+        result.put(REMOVALS_SUCCEEDED_KEY, run.removalsSucceeded);
+        run.checkpoint().ifPresent(checkpoint -> result.put(CONTINUATION_TOKEN_KEY, checkpoint.toToken()));
+
+        log.info(() -> run.isComplete() ? "Finished expired table removal" : "Paused expired table removal to resume later");
+        return result;
+    }
+
+    /**
+     * Loads the request and response classes used on every invocation so a snapshot already holds them, then closes
+     * the SDK clients, their connections and the worker threads so none of them is captured in the snapshot.
+     */
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        Priming.preload(HOT_PATH_CLASSES);
+        if (clientFactory != null) clientFactory.close();
+    }
+
+    /**
+     * Builds the SDK clients closed before the snapshot was taken, so credentials are resolved afresh. A service
+     * given to the constructor is kept, as its clients were not built here.
+     */
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        if (clientFactory == null) return;
+        var restored = AwsClientFactory.fromEnvironment();
+        this.service = buildService(restored);
+        this.clientFactory = restored;
+    }
+
+    private static RedShiftTableExpiryService buildService(AwsClientFactory clientFactory) {
         var clusterId = System.getenv(CLUSTER_ID_VAR_NAME);
         var databaseName = System.getenv(DB_NAME_VAR_NAME);
         var secretArn = System.getenv(CREDENTIAL_SECRET_ARN_VAR_NAME);
         var expirySeconds =  Integer.parseInt(System.getenv(EXPIRY_SECONDS_VAR_NAME));
 
-        var dataClient = RedshiftDataClient.builder()
+        var metrics = EmfMetrics.forFunction(DEFAULT_METRICS_NAMESPACE, Clock.systemUTC());
+
+        var dataClient = clientFactory.manage(RedshiftDataClient.builder()
                 .region(Region.EU_WEST_2)
-                .build();
+                .httpClient(clientFactory.syncHttpClient())
+                .overrideConfiguration(clientFactory.overrideConfiguration())
+                .build());
+        var asyncDataClient = clientFactory.manage(RedshiftDataAsyncClient.builder()
+                .region(Region.EU_WEST_2)
+                .httpClient(clientFactory.asyncHttpClient())
+                .overrideConfiguration(clientFactory.overrideConfiguration())
+                .build());
+        var pollBackoff = new Backoff(
+                getEnvOrDefault(POLL_INITIAL_DELAY_MILLIS_VAR_NAME, DEFAULT_POLL_INITIAL_DELAY_MILLIS),
+                getEnvOrDefault(POLL_MAX_DELAY_MILLIS_VAR_NAME, DEFAULT_POLL_MAX_DELAY_MILLIS),
+                getEnvOrDefault(POLL_BACKOFF_MULTIPLIER_VAR_NAME, DEFAULT_POLL_BACKOFF_MULTIPLIER),
+                getEnvOrDefault(POLL_JITTER_VAR_NAME, DEFAULT_POLL_JITTER)
+        );
         var queryExecutor = new ExternalTableQueryExecutor(
                 dataClient,
+                asyncDataClient,
+                clientFactory.manage(new StatementStatusPoller(asyncDataClient, pollBackoff, metrics)),
                 clusterId,
                 databaseName,
-                secretArn
+                secretArn,
+                metrics
         );
 
-        this.service = new RedShiftTableExpiryService(
-                new S3Client(),
-                queryExecutor,
-                expirySeconds
-        );
-    }
-
-    @Override
-    public Void handleRequest(Map<String, Object> event, Context context) {
+        var discovery = Optional.ofNullable(System.getenv(GLUE_DATABASE_VAR_NAME))
+                .<ExternalTableDiscovery>map(glueDatabase -> new GlueTableDiscovery(
+                        clientFactory.manage(GlueClient.builder()
+                                .region(Region.EU_WEST_2)
+                                .httpClient(clientFactory.syncHttpClient())
+                                .overrideConfiguration(clientFactory.overrideConfiguration())
+                                .build()),
+                        glueDatabase
+                ))
+                .orElseGet(() -> new RedshiftTableDiscovery(queryExecutor));
 
-        LambdaLogger logger = context.getLogger();
-        logger.log("Started expired table removal", LogLevel.INFO);
+        var s3Client = new S3Client(
+                clientFactory,
+                getEnvOrDefault(S3_LIST_MAX_KEYS_VAR_NAME, S3Client.DEFAULT_MAX_KEYS)
+        );
+        var s3MetadataCache = Optional.ofNullable(System.getenv(S3_METADATA_CACHE_TABLE_VAR_NAME))
+                .<S3MetadataCache>map(cacheTable -> new DynamoDbS3MetadataCache(
+                        new DefaultDynamoDbProvider(clientFactory),
+                        cacheTable,
+                        Duration.ofDays(getEnvOrDefault(S3_METADATA_CACHE_TTL_DAYS_VAR_NAME, DEFAULT_S3_METADATA_CACHE_TTL_DAYS))
+                ))
+                .orElseGet(S3MetadataCache::disabled);
+        var s3Scanner = clientFactory.manage(new S3MetadataScanner(
+                s3Client,
+                getEnvOrDefault(S3_SCAN_CONCURRENCY_VAR_NAME, DEFAULT_S3_SCAN_CONCURRENCY),
+                new Backoff(S3_SLOW_DOWN_INITIAL_DELAY_MILLIS, S3_SLOW_DOWN_MAX_DELAY_MILLIS, 2.0, 0.5),
+                getEnvOrDefault(S3_SLOW_DOWN_MAX_RETRIES_VAR_NAME, DEFAULT_S3_SLOW_DOWN_MAX_RETRIES),
+                s3MetadataCache,
+                metrics,
+                Duration.ofHours(getEnvOrDefault(S3_METADATA_CACHE_REVALIDATE_HOURS_VAR_NAME, DEFAULT_S3_METADATA_CACHE_REVALIDATE_HOURS)),
+                Clock.systemUTC()
+        ));
 
-        this.service.removeExpiredExternalTables(logger);
+        var stateStore = Optional.ofNullable(System.getenv(EXPIRY_STATE_TABLE_VAR_NAME))
+                .<ExpiryStateStore>map(stateTable -> new DynamoDbExpiryStateStore(
+                        new DynamoDbClient(new DefaultDynamoDbProvider(clientFactory)),
+                        stateTable
+                ))
+                .orElseGet(ExpiryStateStore::disabled);
 
-        logger.log("Finished expired table removal", LogLevel.INFO);
-        return null;
+        return new RedShiftTableExpiryService(
+                s3Scanner,
+                discovery,
+                stateStore,
+                queryExecutor,
+                expirySeconds,
+                metrics
+        );
     }
 }
@@ -3,27 +3,17 @@ package uk.gov.justice.digital.lambda;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
-import com.amazonaws.services.lambda.runtime.logging.LogLevel;
-import uk.gov.justice.digital.clients.dynamo.DefaultDynamoDbProvider;
+import org.crac.Core;
+import org.crac.Resource;
 import uk.gov.justice.digital.clients.dynamo.DynamoDbClient;
-import uk.gov.justice.digital.clients.stepfunctions.DefaultStepFunctionsProvider;
 import uk.gov.justice.digital.clients.stepfunctions.StepFunctionsClient;
+import uk.gov.justice.digital.common.Priming;
+import uk.gov.justice.digital.common.StructuredLogger;
 import uk.gov.justice.digital.services.StepFunctionDMSNotificationService;
 
 import java.time.Clock;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.Map;
 
-import static uk.gov.justice.digital.common.Utils.TASK_TOKEN_KEY;
-import static uk.gov.justice.digital.common.Utils.REPLICATION_TASK_ARN_KEY;
-import static uk.gov.justice.digital.common.Utils.IGNORE_DMS_TASK_FAILURE_KEY;
-import static uk.gov.justice.digital.common.Utils.TOKEN_EXPIRY_DAYS_KEY;
-import static uk.gov.justice.digital.common.Utils.DEFAULT_TOKEN_EXPIRY_DAYS;
-import static uk.gov.justice.digital.common.Utils.getOptionalString;
-import static uk.gov.justice.digital.common.Utils.getOrThrow;
-import static uk.gov.justice.digital.common.Utils.getBoolean;
-
 /**
  * Lambda function to notify AWS step function of DMS load completion.
  * <p>The function runs in two modes (RegisterTaskToken, or ProcessDMSStoppage) depending on the input event received.
@@ -41,6 +31,18 @@ import static uk.gov.justice.digital.common.Utils.getBoolean;
  *  }
  * </pre>
  * <p>When received, the Lambda saves the token and the value of ignoreDmsTaskFailure to dynamoDB using the replicationTaskArn value as the key.
+ * <p>A step function starting many DMS tasks can register all of their tokens in one event, which are saved with
+ * batched writes:
+ *
+ * <pre>
+ *  {
+ *     "tasks": [
+ *         { "token": "task-token-1", "replicationTaskArn": "DMS replication task ARN 1", "ignoreDmsTaskFailure": false },
+ *         { "token": "task-token-2", "replicationTaskArn": "DMS replication task ARN 2" }
+ *     ],
+ *     "tokenExpiryDays": "5"
+ *  }
+ * </pre>
  * <li>ProcessDMSStoppage mode:
  * <p>This mode is invoked by the resulting cloudwatch event after the DMS load completes. The sample request is:
  *
@@ -53,14 +55,18 @@ import static uk.gov.justice.digital.common.Utils.getBoolean;
  *  }
  * </pre>
  * <p>
- * This causes the Lambda to retrieve the taskToken and the value of ignoreDmsTaskFailure from dynamoDB,
- * send a notification to AWS the step function that the DMS load has completed,
- * and finally deletes the taskToken from dynamoDB.
+ * This causes the Lambda to claim the taskToken and the value of ignoreDmsTaskFailure from dynamoDB with a conditional
+ * put, which replaces the token with a claimed marker so a duplicate event finds it already claimed and is ignored,
+ * then send a notification to AWS the step function that the DMS load has completed.
+ * If the notification fails the token is restored, so a redelivered event can notify the step function again.
  * If ignoreDmsTaskFailure = true, then a success notification is sent irrespective of the eventId.
  * If ignoreDmsTaskFailure = false and an eventId DMS-EVENT-0078 (DMS task failed) is received, then a failed notification is sent.
  * </ul>
+ * <p>
+ * Registered as a CRaC resource so that, with SnapStart enabled, the hot path is loaded before the snapshot is
+ * taken, the SDK clients are closed so no connection is captured in it, and they are built again once it is restored.
  */
-public class StepFunctionDMSNotificationLambda implements RequestHandler<Map<String, Object>, Void> {
+public class StepFunctionDMSNotificationLambda implements RequestHandler<Map<String, Object>, Void>, Resource {
 
     final static String DYNAMO_DB_TABLE = "dpr-step-function-tokens";
 
@@ -68,14 +74,12 @@ public class StepFunctionDMSNotificationLambda implements RequestHandler<Map<Str
     public final static String CLOUDWATCH_EVENT_DETAIL_KEY = "detail";
     public final static String CLOUDWATCH_EVENT_ID_KEY = "eventId";
 
-    private final StepFunctionDMSNotificationService service;
+    private volatile DMSNotificationEventHandler eventHandler;
 
     @SuppressWarnings("unused")
     public StepFunctionDMSNotificationLambda() {
-        DynamoDbClient dynamoDbClient = new DynamoDbClient(new DefaultDynamoDbProvider());
-        StepFunctionsClient stepFunctionsClient = new StepFunctionsClient(new DefaultStepFunctionsProvider());
-        Clock clock = Clock.systemUTC();
-        this.service = new StepFunctionDMSNotificationService(dynamoDbClient, stepFunctionsClient, clock);
+        this.eventHandler = DMSNotificationEventHandler.withDefaultClients();
+        Core.getGlobalContext().register(this);
     }
 
     public StepFunctionDMSNotificationLambda(
@@ -83,54 +87,41 @@ public class StepFunctionDMSNotificationLambda implements RequestHandler<Map<Str
             StepFunctionsClient stepFunctionsClient,
             Clock clock
     ) {
-        this.service = new StepFunctionDMSNotificationService(dynamoDbClient, stepFunctionsClient, clock);
+        this.eventHandler = new DMSNotificationEventHandler(
+                new StepFunctionDMSNotificationService(dynamoDbClient, stepFunctionsClient, clock)
+        );
     }
 
     @Override
     public Void handleRequest(Map<String, Object> event, Context context) {
 
         LambdaLogger logger = context.getLogger();
-        // Optional task token. Present for a DMS start action and will be saved in DynamoDB.
-        // When absent, means the Lambda should stop the step-function using the saved token in DynamoDB.
-        final String inputToken = getOptionalString(event, TASK_TOKEN_KEY).orElse("");
-        final String taskArn = getOptionalString(event, REPLICATION_TASK_ARN_KEY)
-                .orElseGet(() -> getCloudWatchEventTaskArn(event));
-        final boolean ignoreDmsTaskFailure = getBoolean(event, IGNORE_DMS_TASK_FAILURE_KEY);
-        logger.log("Event received: " + event, LogLevel.DEBUG);
-        // Optional number of days after which the token should be considered to have expired and will be deleted via TTL.
-        // Only used for the start action when saving the token in DynamoDB.
-        // When absent, defaults to DEFAULT_TOKEN_EXPIRY_DAYS.
-        final Long tokenExpiryDays = getOptionalString(event, TOKEN_EXPIRY_DAYS_KEY)
-                .map(Long::parseLong)
-                .orElse(DEFAULT_TOKEN_EXPIRY_DAYS);
-
-        if (inputToken.isEmpty()) {
-            final String eventId = getStoppageEventId(event);
-            service.processStopEvent(logger, DYNAMO_DB_TABLE, REPLICATION_TASK_ARN_KEY, taskArn, eventId);
-        } else {
-            logger.log(String.format("Saving token %s to Dynamo table", inputToken), LogLevel.INFO);
-            service.registerTaskDetails(inputToken, taskArn, ignoreDmsTaskFailure, DYNAMO_DB_TABLE, tokenExpiryDays);
+        try {
+            eventHandler.handle(event, logger);
+        } finally {
+            eventHandler.flushMetrics(logger);
         }
 
-        logger.log("Done", LogLevel.INFO);
+        StructuredLogger.of(logger).info(() -> "Done");
 
         return null;
     }
 
-    @SuppressWarnings("unchecked")
-    private String getCloudWatchEventTaskArn(Map<String, Object> event) {
-        ArrayList<String> resources = getOrThrow(event, CLOUDWATCH_EVENT_RESOURCES_KEY, ArrayList.class);
-        if (resources.isEmpty()) {
-            throw new RuntimeException("Could not find DMS task ARN. List of resources is empty");
-        } else {
-            return resources.get(0);
-        }
+    /**
+     * Loads the request and response classes used on every invocation so a snapshot already holds them, then closes
+     * the SDK clients so none of their connections is captured in the snapshot.
+     */
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        Priming.preload(DMSNotificationEventHandler.HOT_PATH_CLASSES);
+        eventHandler.close();
     }
 
-    @SuppressWarnings("unchecked")
-    private String getStoppageEventId(Map<String, Object> event) {
-        LinkedHashMap<String, Object> eventDetail = getOrThrow(event, CLOUDWATCH_EVENT_DETAIL_KEY, LinkedHashMap.class);
-        return getOrThrow(eventDetail, CLOUDWATCH_EVENT_ID_KEY, String.class);
+    /**
+     * Builds the SDK clients closed before the snapshot was taken, so credentials are resolved afresh.
+     */
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        this.eventHandler = DMSNotificationEventHandler.withDefaultClients();
     }
-
 }
@@ -0,0 +1,117 @@
+package uk.gov.justice.digital.lambda;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.lambda.runtime.logging.LogLevel;
+import org.crac.Core;
+import org.crac.Resource;
+import uk.gov.justice.digital.common.Priming;
+import uk.gov.justice.digital.common.StructuredLogger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+import static uk.gov.justice.digital.common.Utils.getEnvOrDefault;
+
+/**
+ * SQS fronted variant of {@link StepFunctionDMSNotificationLambda} for bursts of DMS events.
+ * <p>
+ * Each message body holds one RegisterTaskToken or ProcessDMSStoppage event as JSON. The messages of a batch are
+ * handled concurrently, and only the ones that failed are reported back in {@code batchItemFailures} so SQS
+ * redelivers just those. The event source mapping must have {@code ReportBatchItemFailures} enabled.
+ */
+public class StepFunctionDMSNotificationSqsLambda implements RequestHandler<SQSEvent, SQSBatchResponse>, Resource {
+
+    private static final String CONCURRENCY_VAR_NAME = "SQS_BATCH_CONCURRENCY";
+    private static final int DEFAULT_CONCURRENCY = 10;
+
+    private final ExecutorService executor;
+    private volatile DMSNotificationEventHandler eventHandler;
+
+    @SuppressWarnings("unused")
+    public StepFunctionDMSNotificationSqsLambda() {
+        this(DMSNotificationEventHandler.withDefaultClients(), getEnvOrDefault(CONCURRENCY_VAR_NAME, DEFAULT_CONCURRENCY));
+        Core.getGlobalContext().register(this);
+    }
+
+    public StepFunctionDMSNotificationSqsLambda(DMSNotificationEventHandler eventHandler, int concurrency) {
+        this.eventHandler = eventHandler;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "dms-notification-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public SQSBatchResponse handleRequest(SQSEvent event, Context context) {
+        LambdaLogger logger = context.getLogger();
+        StructuredLogger log = StructuredLogger.of(logger);
+
+        Map<String, CompletableFuture<Void>> results = new LinkedHashMap<>();
+        for (SQSEvent.SQSMessage message : event.getRecords()) {
+            results.put(
+                    message.getMessageId(),
+                    CompletableFuture.runAsync(() -> eventHandler.handle(parse(message), logger), executor)
+            );
+        }
+
+        List<SQSBatchResponse.BatchItemFailure> failures = new ArrayList<>();
+        results.forEach((messageId, result) -> {
+            try {
+                result.join();
+            } catch (CompletionException e) {
+                log.error(() -> format("Failed to process message %s: %s", messageId, e.getCause()));
+                failures.add(new SQSBatchResponse.BatchItemFailure(messageId));
+            }
+        });
+
+        log.log(
+                failures.isEmpty() ? LogLevel.INFO : LogLevel.WARN,
+                () -> format("Processed %d messages, %d failed", results.size(), failures.size())
+        );
+        eventHandler.flushMetrics(logger);
+        return new SQSBatchResponse(failures);
+    }
+
+    /**
+     * Loads the request and response classes used on every invocation so a snapshot already holds them, then closes
+     * the SDK clients so none of their connections is captured in the snapshot.
+     */
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        Priming.preload(DMSNotificationEventHandler.HOT_PATH_CLASSES);
+        eventHandler.close();
+    }
+
+    /**
+     * Builds the SDK clients closed before the snapshot was taken, so credentials are resolved afresh.
+     */
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        this.eventHandler = DMSNotificationEventHandler.withDefaultClients();
+    }
+
+    private static DMSNotificationEvent parse(SQSEvent.SQSMessage message) {
+        try {
+            return DMSNotificationEvent.parse(message.getBody());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package uk.gov.justice.digital.lambda;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import org.crac.Core;
+import org.crac.Resource;
+import uk.gov.justice.digital.common.Priming;
+import uk.gov.justice.digital.common.StructuredLogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stream based variant of {@link StepFunctionDMSNotificationLambda} handling the same events.
+ * <p>
+ * The event is bound from the raw input straight into a {@link DMSNotificationEvent}, skipping the intermediate
+ * {@code Map} the runtime would otherwise build, and is validated before any AWS call is made.
+ */
+public class StepFunctionDMSNotificationStreamLambda implements RequestStreamHandler, Resource {
+
+    private volatile DMSNotificationEventHandler eventHandler;
+
+    @SuppressWarnings("unused")
+    public StepFunctionDMSNotificationStreamLambda() {
+        this.eventHandler = DMSNotificationEventHandler.withDefaultClients();
+        Core.getGlobalContext().register(this);
+    }
+
+    public StepFunctionDMSNotificationStreamLambda(DMSNotificationEventHandler eventHandler) {
+        this.eventHandler = eventHandler;
+    }
+
+    @Override
+    public void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
+        LambdaLogger logger = context.getLogger();
+        try {
+            eventHandler.handle(DMSNotificationEvent.parse(input), logger);
+        } finally {
+            eventHandler.flushMetrics(logger);
+        }
+
+        StructuredLogger.of(logger).info(() -> "Done");
+    }
+
+    /**
+     * Loads the request and response classes used on every invocation so a snapshot already holds them, then closes
+     * the SDK clients so none of their connections is captured in the snapshot.
+     */
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        Priming.preload(DMSNotificationEventHandler.HOT_PATH_CLASSES);
+        eventHandler.close();
+    }
+
+    /**
+     * Builds the SDK clients closed before the snapshot was taken, so credentials are resolved afresh.
+     */
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        this.eventHandler = DMSNotificationEventHandler.withDefaultClients();
+    }
+}
@@ -0,0 +1,68 @@
+package uk.gov.justice.digital.services;
+
+import uk.gov.justice.digital.ExternalTable;
+import uk.gov.justice.digital.TableS3MetaData;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Splits one listing of tables into the expired ones, the invalid ones and the ones to keep, in a single pass.
+ * <p>
+ * The expired and invalid tables come out of one stream in listing order, to be dispatched one at a time as they
+ * are read, so nothing is held back for a later reader. Tables to keep are remembered with their last DDL time once
+ * read.
+ */
+class ClassifiedTables {
+
+    private final Stream<ExternalTable> tables;
+    private final long cutoffSeconds;
+    private final Map<String, Long> kept = new HashMap<>();
+
+    /**
+     * @param cutoffSeconds tables last defined before this time are expired.
+     */
+    ClassifiedTables(Stream<ExternalTable> tables, long cutoffSeconds) {
+        this.tables = tables;
+        this.cutoffSeconds = cutoffSeconds;
+    }
+
+    /**
+     * @return the expired and invalid tables, read from the listing as the stream is consumed. Can only be consumed
+     * once.
+     */
+    Stream<ExternalTable> candidates() {
+        return tables.filter(table -> {
+            if (isInvalid(table) || table.lastDdlTime < cutoffSeconds) return true;
+            kept.put(table.tableName, table.lastDdlTime);
+            return false;
+        });
+    }
+
+    /**
+     * @return the last DDL time of every table to keep read so far, keyed by table name.
+     */
+    Map<String, Long> keptTables() {
+        return Collections.unmodifiableMap(new HashMap<>(kept));
+    }
+
+    boolean isKept(String tableName) {
+        return kept.containsKey(tableName);
+    }
+
+    static boolean isInvalid(ExternalTable table) {
+        return table.lastDdlTime == null;
+    }
+
+    /**
+     * @return the creation time of an expired table, taken from its last DDL time, or empty for an invalid table
+     * whose data in S3 has to be looked at instead.
+     */
+    static Optional<TableS3MetaData> knownMetaData(ExternalTable table) {
+        if (isInvalid(table)) return Optional.empty();
+        return Optional.of(new TableS3MetaData(table.tableName, table.s3Location, table.lastDdlTime * 1000));
+    }
+}
@@ -0,0 +1,87 @@
+package uk.gov.justice.digital.services;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toCollection;
+
+/**
+ * The progress of an expiry run that ran out of time, handed back as a continuation token so that the next
+ * invocation picks the run up where it stopped.
+ * <p>
+ * Dropped tables disappear from the listing, so the tables left to drop are simply listed again. What the listing
+ * cannot show is kept here: the time the run started, so every invocation applies the same cutoff, the invalid tables
+ * already found to hold data within expiry, so their locations are not scanned again, and the removal batches still
+ * running, which are awaited before anything else.
+ * <p>
+ * The token has to fit in a Step Functions payload, limited to 256KB, so only the first {@link #MAX_CHECKED_TABLES}
+ * checked tables are kept. Any others are simply checked again by the next invocation.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ExpiryCheckpoint {
+
+    // Table names run to 127 bytes, keeping the checked tables of a token under 90KB once encoded
+    static final int MAX_CHECKED_TABLES = 500;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public final long runStartedSeconds;
+    public final long changedSinceSeconds;
+    public final Set<String> checkedTables;
+    public final List<String> pendingBatchIds;
+    public final boolean removalsFailed;
+
+    /**
+     * @param changedSinceSeconds only tables changed since this time are listed, or every table for zero.
+     * @param checkedTables       of which only the first {@link #MAX_CHECKED_TABLES} are kept.
+     * @param removalsFailed      whether a removal failed earlier in the run, in which case the watermark is kept once
+     *                            the run completes.
+     */
+    @JsonCreator
+    public ExpiryCheckpoint(
+            @JsonProperty("runStartedSeconds") long runStartedSeconds,
+            @JsonProperty("changedSinceSeconds") long changedSinceSeconds,
+            @JsonProperty("checkedTables") Set<String> checkedTables,
+            @JsonProperty("pendingBatchIds") List<String> pendingBatchIds,
+            @JsonProperty("removalsFailed") boolean removalsFailed
+    ) {
+        this.runStartedSeconds = runStartedSeconds;
+        this.changedSinceSeconds = changedSinceSeconds;
+        this.checkedTables = checkedTables == null
+                ? Collections.emptySet()
+                : checkedTables.stream().limit(MAX_CHECKED_TABLES).collect(toCollection(LinkedHashSet::new));
+        this.pendingBatchIds = pendingBatchIds == null ? Collections.emptyList() : List.copyOf(pendingBatchIds);
+        this.removalsFailed = removalsFailed;
+    }
+
+    static ExpiryCheckpoint start(long runStartedSeconds, long changedSinceSeconds) {
+        return new ExpiryCheckpoint(runStartedSeconds, changedSinceSeconds, null, null, false);
+    }
+
+    public static ExpiryCheckpoint fromToken(String token) {
+        try {
+            return MAPPER.readValue(Base64.getUrlDecoder().decode(token), ExpiryCheckpoint.class);
+        } catch (IllegalArgumentException | IOException e) {
+            throw new IllegalArgumentException("Invalid continuation token: " + e.getMessage(), e);
+        }
+    }
+
+    public String toToken() {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(MAPPER.writeValueAsString(this).getBytes(UTF_8));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not write continuation token", e);
+        }
+    }
+}
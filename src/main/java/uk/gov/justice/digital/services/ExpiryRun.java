@@ -0,0 +1,36 @@
+package uk.gov.justice.digital.services;
+
+import java.util.Optional;
+
+/**
+ * What a single invocation of an expiry run did, and the checkpoint to resume from if the run is not yet complete.
+ */
+public class ExpiryRun {
+
+    public final int removalsRequested;
+    public final int tablesSkipped;
+    public final boolean removalsSucceeded;
+    private final ExpiryCheckpoint checkpoint;
+
+    /**
+     * @param removalsRequested tables whose removal was requested by this invocation, whether or not it has completed
+     *                          yet. Whether the removals awaited succeeded is given by {@code removalsSucceeded}.
+     * @param tablesSkipped     invalid tables found to hold data still within expiry.
+     * @param removalsSucceeded false if any removal awaited by this invocation did not complete successfully.
+     * @param checkpoint        where to resume the run from, or null once the run is complete.
+     */
+    ExpiryRun(int removalsRequested, int tablesSkipped, boolean removalsSucceeded, ExpiryCheckpoint checkpoint) {
+        this.removalsRequested = removalsRequested;
+        this.tablesSkipped = tablesSkipped;
+        this.removalsSucceeded = removalsSucceeded;
+        this.checkpoint = checkpoint;
+    }
+
+    public boolean isComplete() {
+        return checkpoint == null;
+    }
+
+    public Optional<ExpiryCheckpoint> checkpoint() {
+        return Optional.ofNullable(checkpoint);
+    }
+}
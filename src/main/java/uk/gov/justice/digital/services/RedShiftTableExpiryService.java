@@ -1,93 +1,352 @@
 package uk.gov.justice.digital.services;
 
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
-import com.amazonaws.services.lambda.runtime.logging.LogLevel;
 import software.amazon.awssdk.services.redshiftdata.model.*;
+import uk.gov.justice.digital.ExternalTable;
 import uk.gov.justice.digital.TableS3MetaData;
+import uk.gov.justice.digital.clients.ExpiryStateStore;
+import uk.gov.justice.digital.clients.ExternalTableDiscovery;
 import uk.gov.justice.digital.clients.redshift.ExternalTableQueryExecutor;
-import uk.gov.justice.digital.clients.s3.S3Client;
+import uk.gov.justice.digital.clients.redshift.RedshiftTableDiscovery;
+import uk.gov.justice.digital.clients.s3.S3MetadataScanner;
+import uk.gov.justice.digital.common.EmfMetrics;
+import uk.gov.justice.digital.common.StructuredLogger;
+import uk.gov.justice.digital.common.TimeBudget;
 
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import static java.lang.String.format;
-import static java.lang.String.join;
 import static java.util.stream.Collectors.toList;
 
 public class RedShiftTableExpiryService {
 
+    static final String REMOVALS_REQUESTED_METRIC = "TableRemovalsRequested";
+    static final String TABLES_SKIPPED_METRIC = "TablesSkipped";
+    static final String TABLES_DUE_METRIC = "TablesDue";
+
+    // Catalogue changes made while the last run was discovering may not have been visible to it
+    static final long WATERMARK_OVERLAP_SECONDS = 300;
+
     private final int expirySeconds;
-    private final S3Client s3Client;
+    private final S3MetadataScanner s3Scanner;
+    private final ExternalTableDiscovery discovery;
+    private final ExpiryStateStore stateStore;
     private final ExternalTableQueryExecutor queryExecutor;
+    private final EmfMetrics metrics;
 
     public RedShiftTableExpiryService(
-            S3Client s3Client,
+            S3MetadataScanner s3Scanner,
             ExternalTableQueryExecutor queryExecutor,
             int expirySeconds
     ) {
+        this(s3Scanner, queryExecutor, expirySeconds, EmfMetrics.disabled());
+    }
+
+    /**
+     * @param metrics shared with the scanner and query executor, and flushed as a single record at the end of each
+     *                removal run.
+     */
+    public RedShiftTableExpiryService(
+            S3MetadataScanner s3Scanner,
+            ExternalTableQueryExecutor queryExecutor,
+            int expirySeconds,
+            EmfMetrics metrics
+    ) {
+        this(s3Scanner, new RedshiftTableDiscovery(queryExecutor), queryExecutor, expirySeconds, metrics);
+    }
+
+    /**
+     * @param discovery lists the tables to classify, which are then dropped through the query executor.
+     */
+    public RedShiftTableExpiryService(
+            S3MetadataScanner s3Scanner,
+            ExternalTableDiscovery discovery,
+            ExternalTableQueryExecutor queryExecutor,
+            int expirySeconds,
+            EmfMetrics metrics
+    ) {
+        this(s3Scanner, discovery, ExpiryStateStore.disabled(), queryExecutor, expirySeconds, metrics);
+    }
+
+    /**
+     * @param stateStore when enabled, runs only evaluate the tables changed since the last completed run, and drop
+     *                   the tables it holds once they are due, rather than evaluating every table each time. Invalid
+     *                   tables are still listed and checked by every run.
+     */
+    public RedShiftTableExpiryService(
+            S3MetadataScanner s3Scanner,
+            ExternalTableDiscovery discovery,
+            ExpiryStateStore stateStore,
+            ExternalTableQueryExecutor queryExecutor,
+            int expirySeconds,
+            EmfMetrics metrics
+    ) {
+        this.discovery = discovery;
+        this.stateStore = stateStore;
         this.queryExecutor = queryExecutor;
         this.expirySeconds = expirySeconds;
-        this.s3Client = s3Client;
+        this.s3Scanner = s3Scanner;
+        this.metrics = metrics;
     }
 
-    public void removeExpiredExternalTables(LambdaLogger logger) {
-        try {
-            logger.log("Requesting expired table names", LogLevel.INFO);
-            ExecuteStatementResponse expiredTablesResponse = queryExecutor.startExpiredTablesQuery(expirySeconds);
+    public ExpiryRun removeExpiredExternalTables(LambdaLogger logger) {
+        return removeExpiredExternalTables(null, TimeBudget.unlimited(), logger);
+    }
 
-            logger.log("Requesting invalid table names", LogLevel.INFO);
-            ExecuteStatementResponse invalidTablesResponse = queryExecutor.startInvalidTablesQuery();
+    /**
+     * Lists the tables once and classifies them as they are read: expired tables are dropped, invalid tables are
+     * dropped if their data in S3 has expired, and the rest are kept.
+     * <p>
+     * With the state store enabled only the tables changed since the watermark are listed. The expiry time of each
+     * table kept is held, and held tables now due are dropped too. The watermark only moves on once every drop
+     * succeeded, so anything left undone is evaluated again by the next run.
+     * <p>
+     * No new table is taken on once the budget is down to its reserve. Removals already requested are then awaited
+     * for as long as the budget allows, and a run cut short is returned with a checkpoint to resume it from. Any
+     * failure is logged with the progress made and rethrown.
+     *
+     * @param resumeFrom the checkpoint of a run that was cut short, or null to start a new run.
+     */
+    public ExpiryRun removeExpiredExternalTables(ExpiryCheckpoint resumeFrom, TimeBudget budget, LambdaLogger logger) {
+        var log = StructuredLogger.of(logger);
+        AtomicInteger requestedCount = new AtomicInteger();
+        AtomicInteger skippedCount = new AtomicInteger();
+        try {
+            var checkpoint = resumeFrom == null ? startRun(log) : resumeFrom;
+            if (resumeFrom != null) {
+                log.info(() -> format(
+                        "Resuming run started at %d with %d removal batches still running",
+                        checkpoint.runStartedSeconds,
+                        checkpoint.pendingBatchIds.size()
+                ));
+            }
 
-            var expiredTableNames = queryExecutor.getExpiredExternalTableNames(expiredTablesResponse, logger);
-            logger.log(format("Found %d expired tables to remove", expiredTableNames.size()), LogLevel.INFO);
+            Set<String> checkedTables = new LinkedHashSet<>(checkpoint.checkedTables);
+            List<String> batchIds = new ArrayList<>(checkpoint.pendingBatchIds);
+            Set<String> removedTables = new HashSet<>();
+            Set<String> heldTables = new HashSet<>();
+            Map<String, Long> keptTables = Map.of();
+            AtomicInteger dueCount = new AtomicInteger();
 
-            List<ExecuteStatementResponse> finalResponses = new ArrayList<>();
+            AtomicBoolean cutShort = new AtomicBoolean(!budget.allowsNewWork());
+            Predicate<Object> withinBudget = ignored -> {
+                if (budget.allowsNewWork()) return true;
+                cutShort.set(true);
+                return false;
+            };
 
-            if (!expiredTableNames.isEmpty()) {
-                finalResponses.addAll(queryExecutor.removeExternalTables(expiredTableNames, logger));
-                logger.log(
-                        format("Removed %d expired tables:\n%s", expiredTableNames.size(), join("\n", expiredTableNames)),
-                        LogLevel.INFO
+            if (!cutShort.get()) {
+                var tables = new ClassifiedTables(
+                        discovery.tablesChangedSince(checkpoint.changedSinceSeconds, logger),
+                        checkpoint.runStartedSeconds - expirySeconds
                 );
+
+                // Only read once the listing is exhausted, so a held table that has been redefined since is kept
+                var dueTableNames = Stream.of(checkpoint.runStartedSeconds)
+                        .flatMap(now -> stateStore.dueTables(now).stream())
+                        .peek(heldTables::add)
+                        .filter(tableName -> !tables.isKept(tableName) && !removedTables.contains(tableName))
+                        .takeWhile(withinBudget)
+                        .peek(tableName -> dueCount.incrementAndGet());
+
+                batchIds.addAll(removeTables(
+                        tables.candidates()
+                                .filter(table -> !ClassifiedTables.isInvalid(table) || !checkedTables.contains(table.tableName))
+                                .takeWhile(withinBudget),
+                        dueTableNames,
+                        checkpoint.runStartedSeconds,
+                        checkedTables,
+                        removedTables,
+                        requestedCount,
+                        skippedCount,
+                        logger
+                ));
+                keptTables = tables.keptTables();
             }
 
-            finalResponses.addAll(processInvalidTables(invalidTablesResponse, logger));
+            Map<String, CompletableFuture<Boolean>> removals = new LinkedHashMap<>();
+            Map<String, String> resubmittedAs = new ConcurrentHashMap<>();
+            batchIds.forEach(batchId -> removals.put(batchId, queryExecutor.requestCompletes(batchId, logger, resubmittedAs::put)));
+            awaitWithin(removals.values(), budget.finishingMillis());
 
-            finalResponses.forEach(r -> queryExecutor.requestCompletesSuccessfully(r.id(), logger));
-        } catch (Exception e) {
-            logger.log(format("Failed to remove tables: %s", e.getMessage()), LogLevel.ERROR);
-        }
-    }
+            // A batch resubmitted after a failure is awaited in its place, but the failed statement stays undone
+            Map<String, String> resubmitted = Map.copyOf(resubmittedAs);
+            List<String> stillRunning = removals.entrySet().stream()
+                    .filter(removal -> !removal.getValue().isDone())
+                    .map(removal -> latestBatchId(removal.getKey(), resubmitted))
+                    .collect(toList());
+            // A removal that completed exceptionally counts as failed, so the progress made is still handed on
+            boolean removalsSucceeded = resubmitted.isEmpty() && removals.values().stream()
+                    .filter(CompletableFuture::isDone)
+                    .allMatch(removal -> removal.handle((succeeded, e) -> e == null && succeeded).join());
+            if (!removalsSucceeded) {
+                log.error(() -> "One or more table removal queries did not complete successfully");
+            }
+
+            boolean complete = !cutShort.get() && stillRunning.isEmpty();
+            boolean runSucceeded = removalsSucceeded && !checkpoint.removalsFailed;
 
-    private Collection<ExecuteStatementResponse> processInvalidTables(ExecuteStatementResponse invalidTablesResponse, LambdaLogger logger) {
-        var invalidTables = queryExecutor.getInvalidTables(invalidTablesResponse, logger).stream()
-                        .map(t -> new TableS3MetaData(t.tableName, t.s3Location, s3Client.getEarliestObjectCreatedDate(t.s3Location)))
-                                .collect(toList());
+            if (stateStore.isEnabled()) {
+                Map<String, Long> pendingExpiries = new HashMap<>();
+                keptTables.forEach((tableName, lastDdlTime) -> pendingExpiries.put(tableName, lastDdlTime + expirySeconds));
 
-        List<ExecuteStatementResponse> responses = new ArrayList<>();
+                metrics.increment(TABLES_DUE_METRIC, dueCount.get());
+                log.info(() -> format("Holding %d tables still to expire, dropped %d held tables now due", pendingExpiries.size(), dueCount.get()));
 
-        var removeTables = invalidTables.stream()
-                .filter(t -> t.createdEpochDate == null
-                        || (t.createdEpochDate + (expirySeconds * 1000L)) <= Instant.now().toEpochMilli())
-                .map(t -> t.tableName).collect(toList());
-        if (!removeTables.isEmpty()) {
-            responses.addAll(queryExecutor.removeExternalTables(removeTables, logger));
+                // Only the held tables have anything to forget, and a held table that expired is always due
+                boolean removalsConfirmed = removalsSucceeded && stillRunning.isEmpty();
+                List<String> heldTablesRemoved = removedTables.stream().filter(heldTables::contains).collect(toList());
+                stateStore.update(pendingExpiries, removalsConfirmed ? heldTablesRemoved : List.of());
+                if (complete && runSucceeded) {
+                    stateStore.saveWatermark(checkpoint.runStartedSeconds);
+                } else if (complete) {
+                    log.warn(() -> "Keeping the previous watermark so the next run evaluates these tables again");
+                }
+            }
 
-            logger.log(
-                    format("Removed %d invalid tables:\n%s", removeTables.size(), join("\n", removeTables)),
-                    LogLevel.INFO
+            if (complete) {
+                return new ExpiryRun(requestedCount.get(), skippedCount.get(), removalsSucceeded, null);
+            }
+
+            log.warn(() -> format(
+                    "Out of time with %d ms left, handing on %d removal batches still running",
+                    budget.finishingMillis(),
+                    stillRunning.size()
+            ));
+            var next = new ExpiryCheckpoint(
+                    checkpoint.runStartedSeconds,
+                    checkpoint.changedSinceSeconds,
+                    checkedTables,
+                    stillRunning,
+                    !runSucceeded
             );
+            return new ExpiryRun(requestedCount.get(), skippedCount.get(), removalsSucceeded, next);
+        } catch (RuntimeException e) {
+            log.error(() -> format(
+                    "Failed to remove tables after requesting removal of %d tables: %s",
+                    requestedCount.get(),
+                    e.getMessage()
+            ));
+            throw e;
+        } finally {
+            metrics.flush(logger);
         }
+    }
+
+    private ExpiryCheckpoint startRun(StructuredLogger log) {
+        long runStartedSeconds = Instant.now().getEpochSecond();
+
+        OptionalLong watermark = stateStore.watermark();
+        long changedSinceSeconds = watermark.isPresent() ? watermark.getAsLong() - WATERMARK_OVERLAP_SECONDS : 0;
+        if (stateStore.isEnabled()) {
+            log.info(() -> watermark.isPresent()
+                    ? format("Evaluating tables changed since %d", changedSinceSeconds)
+                    : "No watermark found, evaluating every table");
+        }
+        return ExpiryCheckpoint.start(runStartedSeconds, changedSinceSeconds);
+    }
+
+    /**
+     * Drops the expired tables as they are read, looks up the data in S3 of the invalid tables read alongside them
+     * and drops those whose data has expired, then drops the due tables, all through one stream of removals.
+     *
+     * @param runStartedSeconds tables created before this time less the expiry time have expired.
+     * @param checkedTables     collects the invalid tables found to hold data still within expiry.
+     * @param removedTables     collects the tables whose removal was requested.
+     * @return the ids of the removal batches requested.
+     */
+    private List<String> removeTables(
+            Stream<ExternalTable> candidates,
+            Stream<String> dueTableNames,
+            long runStartedSeconds,
+            Set<String> checkedTables,
+            Set<String> removedTables,
+            AtomicInteger requestedCount,
+            AtomicInteger skippedCount,
+            LambdaLogger logger
+    ) {
+        AtomicInteger expiredCount = new AtomicInteger();
+        AtomicInteger invalidCount = new AtomicInteger();
+        AtomicInteger removeCount = new AtomicInteger();
+        AtomicInteger keepCount = new AtomicInteger();
+
+        var countedCandidates = candidates.peek(t -> (ClassifiedTables.isInvalid(t) ? invalidCount : expiredCount).incrementAndGet());
 
-        logger.log(
-                format(
-                        "Ignored %d invalid tables that are still within expiry time.",
-                        invalidTables.size() - removeTables.size()),
-                LogLevel.INFO
-        );
+        long cutoffMillis = (runStartedSeconds - expirySeconds) * 1000L;
+        Predicate<TableS3MetaData> hasExpired = t -> t.createdEpochDate == null || t.createdEpochDate <= cutoffMillis;
 
-        return responses;
+        var expiredTableNames = s3Scanner.scan(countedCandidates, ClassifiedTables::knownMetaData, cutoffMillis, logger)
+                .peek(t -> {
+                    if (!hasExpired.test(t)) {
+                        checkedTables.add(t.tableName);
+                        keepCount.incrementAndGet();
+                    }
+                })
+                .filter(hasExpired)
+                .map(t -> t.tableName);
+
+        var removeTables = Stream.concat(expiredTableNames, dueTableNames)
+                .peek(tableName -> {
+                    removedTables.add(tableName);
+                    removeCount.incrementAndGet();
+                });
+
+        var responses = queryExecutor.removeExternalTables(removeTables, logger);
+
+        metrics.increment(REMOVALS_REQUESTED_METRIC, removeCount.get());
+        metrics.increment(TABLES_SKIPPED_METRIC, keepCount.get());
+        requestedCount.addAndGet(removeCount.get());
+        skippedCount.addAndGet(keepCount.get());
+
+        var log = StructuredLogger.of(logger);
+        log.info(() -> format("Requested removal of %d expired tables", expiredCount.get()));
+        log.info(() -> format("Requested removal of %d invalid tables", invalidCount.get() - keepCount.get()));
+        log.info(() -> format("Ignored %d invalid tables that are still within expiry time.", keepCount.get()));
+
+        return responses.stream().map(BatchExecuteStatementResponse::id).collect(toList());
+    }
+
+    /**
+     * @return the id of the batch last resubmitted in place of the given one, or the given id if it was not.
+     */
+    private static String latestBatchId(String batchId, Map<String, String> resubmittedAs) {
+        String latest = batchId;
+        while (resubmittedAs.containsKey(latest)) {
+            latest = resubmittedAs.get(latest);
+        }
+        return latest;
+    }
+
+    /**
+     * Waits for the removals to complete, giving up on those still running once the time is up.
+     */
+    private static void awaitWithin(Collection<CompletableFuture<Boolean>> removals, long timeoutMillis) {
+        try {
+            CompletableFuture.allOf(removals.toArray(new CompletableFuture[0])).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // Removals still running are handed on, and a failed removal is reported once they are checked
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for table removals", e);
+        }
     }
 }
@@ -1,60 +1,141 @@
 package uk.gov.justice.digital.services;
 
-import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.lambda.runtime.logging.LogLevel;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import uk.gov.justice.digital.clients.dynamo.DynamoDbClient;
 import uk.gov.justice.digital.clients.stepfunctions.StepFunctionsClient;
+import uk.gov.justice.digital.clients.stepfunctions.TerminalNotificationException;
+import uk.gov.justice.digital.common.EmfMetrics;
+import uk.gov.justice.digital.common.StructuredLogger;
 import uk.gov.justice.digital.common.TaskDetail;
 
 import java.time.Clock;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Map;
 import java.util.Optional;
 
 public class StepFunctionDMSNotificationService {
 
+    static final String REGISTERED_METRIC = "TasksRegistered";
+    static final String REGISTER_LATENCY_METRIC = "RegisterLatency";
+    static final String CLAIM_LATENCY_METRIC = "ClaimTokenLatency";
+    static final String NOTIFY_LATENCY_METRIC = "NotifyLatency";
+    static final String SUCCESS_NOTIFIED_METRIC = "SuccessNotified";
+    static final String FAILURE_NOTIFIED_METRIC = "FailureNotified";
+    static final String FAILURE_IGNORED_METRIC = "FailureIgnored";
+    static final String TOKEN_MISSING_METRIC = "TokenMissing";
+    static final String TOKEN_ALREADY_CLAIMED_METRIC = "TokenAlreadyClaimed";
+    static final String TOKEN_DISCARDED_METRIC = "TokenDiscarded";
+    static final String TOKEN_RESTORED_METRIC = "TokenRestored";
+    static final String TOKEN_AGE_METRIC = "TokenAge";
+
     private final DynamoDbClient dynamoDbClient;
     private final StepFunctionsClient stepFunctionsClient;
     private final Clock clock;
+    private final EmfMetrics metrics;
 
     public final static String DMS_TASK_FAILURE_EVENT_ID = "DMS-EVENT-0078";
     public final static String DMS_TASK_SUCCESS_EVENT_ID = "DMS-EVENT-0079";
 
+    private static final int LOGGED_TOKEN_CHARS = 16;
+    // Outlasts redelivery of a stop event, after which a duplicate is treated as having no token registered
+    private static final long CLAIMED_MARKER_RETENTION_DAYS = 7;
+
     public StepFunctionDMSNotificationService(
             DynamoDbClient dynamoDbClient,
             StepFunctionsClient stepFunctionsClient,
             Clock clock
+    ) {
+        this(dynamoDbClient, stepFunctionsClient, clock, EmfMetrics.disabled());
+    }
+
+    /**
+     * @param metrics records the latency of each stage and the outcome of each event. {@link #flushMetrics} writes
+     *                them out, once per invocation however many events it handled.
+     */
+    public StepFunctionDMSNotificationService(
+            DynamoDbClient dynamoDbClient,
+            StepFunctionsClient stepFunctionsClient,
+            Clock clock,
+            EmfMetrics metrics
     ) {
         this.dynamoDbClient = dynamoDbClient;
         this.stepFunctionsClient = stepFunctionsClient;
         this.clock = clock;
+        this.metrics = metrics;
     }
 
+    /**
+     * Claims the task token with a single conditional put of a claimed marker before notifying the step function, so
+     * duplicate deliveries of the same stop event find the marker and are ignored. A stop event for a task with no
+     * token registered fails, so that it is retried in case the registration is still on its way. The token is put
+     * back if the notification fails so that the event can be retried, unless step functions rejected the token
+     * outright.
+     * <p>
+     * Once notified, the time since the token was registered is recorded as {@value #TOKEN_AGE_METRIC}, which is
+     * how long the step function was kept waiting on the DMS task.
+     */
     public void processStopEvent(LambdaLogger logger, String dynamoTable, String taskKey, String taskArn, String eventId) {
-        Map<String, AttributeValue> itemKey = Map.of(taskKey, new AttributeValue(taskArn));
-        logger.log("Getting details from Dynamo table", LogLevel.INFO);
-        Optional<TaskDetail> optionalTaskDetail = dynamoDbClient.retrieveTaskDetail(dynamoTable, itemKey);
+        Map<String, AttributeValue> itemKey = Map.of(taskKey, AttributeValue.builder().s(taskArn).build());
+        var log = StructuredLogger.of(logger);
+        log.info(() -> "Claiming token from Dynamo table");
+        var claimTimer = metrics.startTimer(CLAIM_LATENCY_METRIC);
+        LocalDateTime now = LocalDateTime.now(clock);
+        DynamoDbClient.TokenClaim claim = dynamoDbClient.claimTaskToken(
+                dynamoTable,
+                itemKey,
+                now.format(DateTimeFormatter.ISO_DATE_TIME),
+                now.plusDays(CLAIMED_MARKER_RETENTION_DAYS).toEpochSecond(ZoneOffset.UTC)
+        );
+        claimTimer.stop();
+
+        if (claim.alreadyClaimed()) {
+            metrics.increment(TOKEN_ALREADY_CLAIMED_METRIC);
+            log.warn(() -> String.format("Token of DMS task %s has already been claimed, ignoring duplicate event", taskArn));
+            return;
+        }
 
-        optionalTaskDetail.ifPresentOrElse(taskDetail -> {
+        Optional<Map<String, AttributeValue>> claimedItem = claim.claimedItem();
+        if (claimedItem.isEmpty()) {
+            metrics.increment(TOKEN_MISSING_METRIC);
+            throw new RuntimeException("No Task details found in Dynamo table for " + taskArn);
+        }
+
+        TaskDetail taskDetail = DynamoDbClient.toTaskDetail(claimedItem.get())
+                .orElseThrow(() -> new RuntimeException("No Task details found in Dynamo table for " + taskArn));
+
+        try {
             if (eventId.equalsIgnoreCase(DMS_TASK_FAILURE_EVENT_ID)) {
                 if (taskDetail.ignoreFailure()) {
-                    logger.log(String.format("Ignoring failure %s for DMS task %s", DMS_TASK_FAILURE_EVENT_ID, taskArn), LogLevel.INFO);
-                    processSuccessfulStopEvent(logger, taskDetail);
+                    log.info(() -> String.format("Ignoring failure %s for DMS task %s", DMS_TASK_FAILURE_EVENT_ID, taskArn));
+                    metrics.increment(FAILURE_IGNORED_METRIC);
+                    processSuccessfulStopEvent(log, taskDetail);
                 } else {
                     String errorMessage = String.format("Failing function due to failure %s for DMS task %s", DMS_TASK_FAILURE_EVENT_ID, taskArn);
-                    logger.log(errorMessage, LogLevel.ERROR);
-                    processFailedStopEvent(logger, taskDetail, errorMessage);
+                    log.error(() -> errorMessage);
+                    processFailedStopEvent(log, taskDetail, errorMessage);
                 }
             } else {
-                processSuccessfulStopEvent(logger, taskDetail);
+                processSuccessfulStopEvent(log, taskDetail);
             }
-        }, () -> { throw new RuntimeException("No Task details found in Dynamo table for " + taskArn); });
-
-        logger.log("Deleting retrieved token from Dynamo table", LogLevel.INFO);
-        dynamoDbClient.deleteToken(dynamoTable, itemKey);
+            recordTokenAge(claimedItem.get());
+        } catch (TerminalNotificationException e) {
+            metrics.increment(TOKEN_DISCARDED_METRIC);
+            log.error(() -> String.format("Discarding token of DMS task %s: %s", taskArn, e.getCause()));
+        } catch (RuntimeException e) {
+            metrics.increment(TOKEN_RESTORED_METRIC);
+            log.error(() -> String.format("Restoring token of DMS task %s after failing to notify step functions", taskArn));
+            try {
+                dynamoDbClient.restoreTaskToken(dynamoTable, claimedItem.get());
+            } catch (RuntimeException restoreError) {
+                e.addSuppressed(restoreError);
+            }
+            throw e;
+        }
     }
 
     public void registerTaskDetails(String inputToken, String taskArn, boolean ignoreTaskFailure, String table, Long tokenExpiryDays) {
@@ -62,18 +143,71 @@ public class StepFunctionDMSNotificationService {
         String createdAt = now.format(DateTimeFormatter.ISO_DATE_TIME);
         long expireAt = now.plusDays(tokenExpiryDays).toEpochSecond(ZoneOffset.UTC);
 
+        var timer = metrics.startTimer(REGISTER_LATENCY_METRIC);
         dynamoDbClient.saveTaskDetails(table, taskArn, inputToken, ignoreTaskFailure, expireAt, createdAt);
+        timer.stop();
+        metrics.increment(REGISTERED_METRIC);
+    }
+
+    /**
+     * Registers the task details of many replication tasks at once, keyed by replication task ARN.
+     */
+    public void registerTaskDetails(Map<String, TaskDetail> taskDetails, String table, Long tokenExpiryDays) {
+        LocalDateTime now = LocalDateTime.now(clock);
+        String createdAt = now.format(DateTimeFormatter.ISO_DATE_TIME);
+        long expireAt = now.plusDays(tokenExpiryDays).toEpochSecond(ZoneOffset.UTC);
+
+        var timer = metrics.startTimer(REGISTER_LATENCY_METRIC);
+        dynamoDbClient.saveTaskDetails(table, taskDetails, expireAt, createdAt);
+        timer.stop();
+        metrics.increment(REGISTERED_METRIC, taskDetails.size());
     }
 
-    private void processSuccessfulStopEvent(LambdaLogger logger, TaskDetail taskDetail) {
+    /**
+     * Writes the metrics recorded since the last flush as a single record.
+     */
+    public void flushMetrics(LambdaLogger logger) {
+        metrics.flush(logger);
+    }
+
+    private void processSuccessfulStopEvent(StructuredLogger log, TaskDetail taskDetail) {
         String taskToken = taskDetail.getToken();
-        logger.log(String.format("Notifying step functions of success using token %s", taskToken), LogLevel.INFO);
+        log.log(LogLevel.INFO, () -> "Notifying step functions of success", () -> Map.of("token", abbreviate(taskToken)));
+        var timer = metrics.startTimer(NOTIFY_LATENCY_METRIC);
         stepFunctionsClient.notifyStepFunctionSuccess(taskToken);
+        timer.stop();
+        metrics.increment(SUCCESS_NOTIFIED_METRIC);
     }
 
-    private void processFailedStopEvent(LambdaLogger logger, TaskDetail taskDetail, String error) {
+    private void processFailedStopEvent(StructuredLogger log, TaskDetail taskDetail, String error) {
         String taskToken = taskDetail.getToken();
-        logger.log(String.format("Notifying step functions of failure using token %s", taskToken), LogLevel.INFO);
+        log.log(LogLevel.INFO, () -> "Notifying step functions of failure", () -> Map.of("token", abbreviate(taskToken)));
+        var timer = metrics.startTimer(NOTIFY_LATENCY_METRIC);
         stepFunctionsClient.notifyStepFunctionFailure(taskToken, error);
+        timer.stop();
+        metrics.increment(FAILURE_NOTIFIED_METRIC);
+    }
+
+    /**
+     * The registration time is stored as a local date time in UTC, see {@link #registerTaskDetails}.
+     */
+    private void recordTokenAge(Map<String, AttributeValue> item) {
+        Optional.ofNullable(item.get(DynamoDbClient.CREATED_AT_KEY))
+                .map(AttributeValue::s)
+                .ifPresent(createdAt -> {
+                    try {
+                        long createdMillis = LocalDateTime.parse(createdAt).toInstant(ZoneOffset.UTC).toEpochMilli();
+                        metrics.recordMillis(TOKEN_AGE_METRIC, clock.millis() - createdMillis);
+                    } catch (DateTimeParseException e) {
+                        // Written by something other than this service, so the age is unknown
+                    }
+                });
+    }
+
+    /**
+     * Task tokens run to hundreds of characters, the start is enough to tell them apart in the logs.
+     */
+    private static String abbreviate(String taskToken) {
+        return StructuredLogger.truncate(taskToken, LOGGED_TOKEN_CHARS);
     }
 }
@@ -0,0 +1,58 @@
+package uk.gov.justice.digital.clients;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AwsClientFactoryTest {
+
+    private final AwsClientFactory underTest = new AwsClientFactory(
+            10,
+            Duration.ofMillis(100),
+            Duration.ofMillis(200),
+            Duration.ofMillis(300),
+            Duration.ofMillis(400)
+    );
+
+    @Test
+    public void syncHttpClient_shouldBeSharedBetweenClients() {
+        assertSame(underTest.syncHttpClient(), underTest.syncHttpClient());
+    }
+
+    @Test
+    public void overrideConfiguration_shouldApplyApiCallTimeout() {
+        assertEquals(Duration.ofMillis(400), underTest.overrideConfiguration().apiCallTimeout().orElseThrow());
+    }
+
+    @Test
+    public void close_shouldCloseEveryManagedResourceMostRecentFirst() {
+        List<String> closed = new ArrayList<>();
+        underTest.manage(() -> closed.add("first"));
+        underTest.manage(() -> {
+            closed.add("second");
+            throw new IllegalStateException("Failed to close");
+        });
+        underTest.manage(() -> closed.add("third"));
+
+        var failure = assertThrows(IllegalStateException.class, underTest::close);
+
+        assertEquals("Failed to close", failure.getMessage());
+        assertEquals(List.of("third", "second", "first"), closed);
+    }
+
+    @Test
+    public void close_shouldLetNewHttpClientsBeBuiltAfterwards() {
+        var before = underTest.syncHttpClient();
+
+        underTest.close();
+
+        assertNotSame(before, underTest.syncHttpClient());
+    }
+}
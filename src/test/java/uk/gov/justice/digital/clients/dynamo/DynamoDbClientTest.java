@@ -0,0 +1,166 @@
+package uk.gov.justice.digital.clients.dynamo;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+import uk.gov.justice.digital.common.Backoff;
+import uk.gov.justice.digital.common.TaskDetail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static uk.gov.justice.digital.common.Utils.IGNORE_DMS_TASK_FAILURE_KEY;
+import static uk.gov.justice.digital.common.Utils.REPLICATION_TASK_ARN_KEY;
+import static uk.gov.justice.digital.common.Utils.TASK_TOKEN_KEY;
+
+@ExtendWith(MockitoExtension.class)
+class DynamoDbClientTest {
+
+    private static final String TABLE = "dynamo-table";
+    private static final Backoff NO_DELAY = new Backoff(0, 0, 1, 0);
+
+    @Mock
+    DynamoDbProvider provider;
+    @Mock
+    DynamoDbAsyncClient dynamoDb;
+
+    @Captor
+    ArgumentCaptor<BatchWriteItemRequest> writeRequestCaptor;
+
+    DynamoDbClient target;
+
+    @BeforeEach
+    void setUp() {
+        when(provider.buildClient()).thenReturn(dynamoDb);
+        target = new DynamoDbClient(provider, NO_DELAY, 2);
+    }
+
+    @Test
+    void saveTaskDetails_shouldSplitWritesIntoBatchesOfTwentyFive() {
+        Map<String, TaskDetail> taskDetails = IntStream.range(0, 30).boxed()
+                .collect(Collectors.toMap(i -> "ARN_" + i, i -> new TaskDetail("TOKEN_" + i, false)));
+
+        when(dynamoDb.batchWriteItem(writeRequestCaptor.capture()))
+                .thenReturn(completedFuture(BatchWriteItemResponse.builder().build()));
+
+        target.saveTaskDetails(TABLE, taskDetails, 100L, "CREATED_AT");
+
+        assertEquals(
+                List.of(25, 5),
+                writeRequestCaptor.getAllValues().stream()
+                        .map(request -> request.requestItems().get(TABLE).size())
+                        .collect(Collectors.toList())
+        );
+    }
+
+    @Test
+    void saveTaskDetails_shouldResubmitUnprocessedItems() {
+        when(dynamoDb.batchWriteItem(writeRequestCaptor.capture())).thenAnswer(invocation -> {
+            List<WriteRequest> writes = invocation.<BatchWriteItemRequest>getArgument(0).requestItems().get(TABLE);
+            var unprocessed = writes.size() > 1 ? Map.of(TABLE, writes.subList(1, writes.size())) : Map.<String, List<WriteRequest>>of();
+            return completedFuture(BatchWriteItemResponse.builder().unprocessedItems(unprocessed).build());
+        });
+
+        target.saveTaskDetails(
+                TABLE,
+                Map.of("ARN_1", new TaskDetail("TOKEN_1", false), "ARN_2", new TaskDetail("TOKEN_2", true)),
+                100L,
+                "CREATED_AT"
+        );
+
+        assertEquals(
+                List.of(2, 1),
+                writeRequestCaptor.getAllValues().stream()
+                        .map(request -> request.requestItems().get(TABLE).size())
+                        .collect(Collectors.toList())
+        );
+    }
+
+    @Test
+    void saveTaskDetails_shouldFailOnceRetriesAreExhausted() {
+        when(dynamoDb.batchWriteItem(any(BatchWriteItemRequest.class))).thenAnswer(invocation -> {
+            var request = invocation.<BatchWriteItemRequest>getArgument(0);
+            return completedFuture(BatchWriteItemResponse.builder().unprocessedItems(request.requestItems()).build());
+        });
+
+        assertThrows(
+                RuntimeException.class,
+                () -> target.saveTaskDetails(TABLE, Map.of("ARN_1", new TaskDetail("TOKEN_1", false)), 100L, "CREATED_AT")
+        );
+
+        verify(dynamoDb, times(3)).batchWriteItem(any(BatchWriteItemRequest.class));
+    }
+
+    @Test
+    void claimTaskToken_shouldReplaceTokenWithClaimedMarker() {
+        var claimCaptor = ArgumentCaptor.forClass(PutItemRequest.class);
+        when(dynamoDb.putItem(claimCaptor.capture()))
+                .thenReturn(completedFuture(PutItemResponse.builder().attributes(item("ARN_1", "TOKEN_1", false)).build()));
+
+        var claim = target.claimTaskToken(TABLE, key("ARN_1"), "CLAIMED_AT", 100L);
+
+        assertEquals(Optional.of(item("ARN_1", "TOKEN_1", false)), claim.claimedItem());
+        assertFalse(claim.alreadyClaimed());
+        assertEquals(
+                Map.of(
+                        REPLICATION_TASK_ARN_KEY, AttributeValue.builder().s("ARN_1").build(),
+                        DynamoDbClient.CLAIMED_AT_KEY, AttributeValue.builder().s("CLAIMED_AT").build(),
+                        DynamoDbClient.EXPIRE_AT_KEY, AttributeValue.builder().n("100").build()
+                ),
+                claimCaptor.getValue().item()
+        );
+        assertEquals("attribute_exists(#token)", claimCaptor.getValue().conditionExpression());
+    }
+
+    @Test
+    void claimTaskToken_shouldTellTokenAlreadyClaimedFromOneNeverRegistered() {
+        var claimedMarker = Map.of(
+                REPLICATION_TASK_ARN_KEY, AttributeValue.builder().s("ARN_1").build(),
+                DynamoDbClient.CLAIMED_AT_KEY, AttributeValue.builder().s("CLAIMED_AT").build()
+        );
+        when(dynamoDb.putItem(any(PutItemRequest.class))).thenReturn(
+                failedFuture(ConditionalCheckFailedException.builder().item(claimedMarker).build()),
+                failedFuture(ConditionalCheckFailedException.builder().build())
+        );
+
+        var duplicate = target.claimTaskToken(TABLE, key("ARN_1"), "CLAIMED_AT", 100L);
+        var unregistered = target.claimTaskToken(TABLE, key("ARN_1"), "CLAIMED_AT", 100L);
+
+        assertTrue(duplicate.alreadyClaimed());
+        assertEquals(Optional.empty(), duplicate.claimedItem());
+        assertFalse(unregistered.alreadyClaimed());
+        assertEquals(Optional.empty(), unregistered.claimedItem());
+    }
+
+    private static Map<String, AttributeValue> key(String taskArn) {
+        return Map.of(REPLICATION_TASK_ARN_KEY, AttributeValue.builder().s(taskArn).build());
+    }
+
+    private static Map<String, AttributeValue> item(String taskArn, String token, boolean ignoreFailure) {
+        return Map.of(
+                REPLICATION_TASK_ARN_KEY, AttributeValue.builder().s(taskArn).build(),
+                TASK_TOKEN_KEY, AttributeValue.builder().s(token).build(),
+                IGNORE_DMS_TASK_FAILURE_KEY, AttributeValue.builder().bool(ignoreFailure).build()
+        );
+    }
+}
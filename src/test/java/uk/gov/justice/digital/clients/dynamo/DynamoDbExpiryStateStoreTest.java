@@ -0,0 +1,126 @@
+package uk.gov.justice.digital.clients.dynamo;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.stream.IntStream;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static uk.gov.justice.digital.clients.dynamo.DynamoDbExpiryStateStore.*;
+
+@ExtendWith(MockitoExtension.class)
+class DynamoDbExpiryStateStoreTest {
+
+    private static final String STATE_TABLE = "expiry-state";
+
+    @Mock
+    DynamoDbAsyncClient dynamoDb;
+
+    DynamoDbExpiryStateStore underTest;
+
+    @BeforeEach
+    void setUp() {
+        underTest = new DynamoDbExpiryStateStore(new DynamoDbClient(() -> dynamoDb), STATE_TABLE);
+    }
+
+    @Test
+    void watermarkShouldBeReadFromItsOwnItem() {
+        when(dynamoDb.getItem(GetItemRequest.builder().tableName(STATE_TABLE).key(Map.of(TABLE_NAME_KEY, s(WATERMARK_TABLE_NAME))).build()))
+                .thenReturn(completedFuture(GetItemResponse.builder()
+                        .item(Map.of(TABLE_NAME_KEY, s(WATERMARK_TABLE_NAME), WATERMARK_KEY, n(1000)))
+                        .build()));
+
+        assertEquals(OptionalLong.of(1000), underTest.watermark());
+    }
+
+    @Test
+    void watermarkShouldBeEmptyBeforeTheFirstRun() {
+        when(dynamoDb.getItem(any(GetItemRequest.class))).thenReturn(completedFuture(GetItemResponse.builder().build()));
+
+        assertEquals(OptionalLong.empty(), underTest.watermark());
+    }
+
+    @Test
+    void dueTablesShouldQueryEveryShardForItemsDueByNow() {
+        when(dynamoDb.query(any(QueryRequest.class))).thenAnswer(invocation -> {
+            QueryRequest request = invocation.getArgument(0);
+            String shard = request.expressionAttributeValues().get(":shard").n();
+            return completedFuture(QueryResponse.builder().items(Map.of(TABLE_NAME_KEY, s("TABLE_" + shard))).build());
+        });
+
+        var dueTables = underTest.dueTables(500);
+
+        assertEquals(IntStream.range(0, DUE_SHARDS).mapToObj(shard -> "TABLE_" + shard).collect(toList()), dueTables);
+        var queryCaptor = ArgumentCaptor.forClass(QueryRequest.class);
+        verify(dynamoDb, times(DUE_SHARDS)).query(queryCaptor.capture());
+        queryCaptor.getAllValues().forEach(request -> {
+            assertEquals(DUE_INDEX_NAME, request.indexName());
+            assertEquals("#dueShard = :shard AND #dropAt <= :now", request.keyConditionExpression());
+            assertEquals(n(500), request.expressionAttributeValues().get(":now"));
+        });
+    }
+
+    @Test
+    void dueTablesShouldFollowEveryQueryPage() {
+        var lastKey = Map.of(TABLE_NAME_KEY, s("TABLE_1"));
+        when(dynamoDb.query(any(QueryRequest.class))).thenReturn(
+                completedFuture(QueryResponse.builder().items(Map.of(TABLE_NAME_KEY, s("TABLE_1"))).lastEvaluatedKey(lastKey).build()),
+                completedFuture(QueryResponse.builder().items(Map.of(TABLE_NAME_KEY, s("TABLE_2"))).build()),
+                completedFuture(QueryResponse.builder().build())
+        );
+
+        assertEquals(List.of("TABLE_1", "TABLE_2"), underTest.dueTables(500));
+
+        var queryCaptor = ArgumentCaptor.forClass(QueryRequest.class);
+        verify(dynamoDb, times(DUE_SHARDS + 1)).query(queryCaptor.capture());
+        assertEquals(lastKey, queryCaptor.getAllValues().get(1).exclusiveStartKey());
+    }
+
+    @Test
+    void updateShouldPutExpiriesAndDeleteRemovedTables() {
+        when(dynamoDb.batchWriteItem(any(BatchWriteItemRequest.class)))
+                .thenReturn(completedFuture(BatchWriteItemResponse.builder().unprocessedItems(Map.of()).build()));
+
+        underTest.update(Map.of("PENDING", 2000L), List.of("DROPPED", "PENDING"));
+
+        var writeCaptor = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+        verify(dynamoDb).batchWriteItem(writeCaptor.capture());
+        List<WriteRequest> writes = writeCaptor.getValue().requestItems().get(STATE_TABLE);
+        assertEquals(2, writes.size());
+        assertEquals(
+                Map.of(TABLE_NAME_KEY, s("PENDING"), DROP_AT_KEY, n(2000), DUE_SHARD_KEY, n(dueShard("PENDING"))),
+                writes.get(0).putRequest().item()
+        );
+        assertEquals(Map.of(TABLE_NAME_KEY, s("DROPPED")), writes.get(1).deleteRequest().key());
+    }
+
+    private static AttributeValue s(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+
+    private static AttributeValue n(long value) {
+        return AttributeValue.builder().n(String.valueOf(value)).build();
+    }
+}
@@ -0,0 +1,124 @@
+package uk.gov.justice.digital.clients.glue;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.glue.GlueClient;
+import software.amazon.awssdk.services.glue.model.GetTablesRequest;
+import software.amazon.awssdk.services.glue.model.GetTablesResponse;
+import software.amazon.awssdk.services.glue.model.StorageDescriptor;
+import software.amazon.awssdk.services.glue.model.Table;
+import uk.gov.justice.digital.ExternalTable;
+
+import java.util.List;
+import java.util.Map;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static uk.gov.justice.digital.clients.glue.GlueTableDiscovery.LAST_DDL_TIME_PARAMETER;
+
+@ExtendWith(MockitoExtension.class)
+class GlueTableDiscoveryTest {
+
+    private static final String DATABASE = "DATABASE";
+
+    @Mock
+    GlueClient glueClient;
+    @Mock
+    LambdaLogger mockLambdaLogger;
+
+    GlueTableDiscovery underTest;
+
+    @BeforeEach
+    void setUp() {
+        underTest = new GlueTableDiscovery(glueClient, DATABASE);
+    }
+
+    @Test
+    void shouldListTablesAcrossPages() {
+        var firstPage = GetTablesResponse.builder()
+                .tableList(
+                        table("expired", 1000L, "s3://bucket/expired"),
+                        table("invalid", null, "s3://bucket/invalid")
+                )
+                .nextToken("NEXT")
+                .build();
+        var secondPage = GetTablesResponse.builder()
+                .tableList(table("recent", 3000L, "s3://bucket/recent"))
+                .build();
+        when(glueClient.getTables(any(GetTablesRequest.class))).thenReturn(firstPage, secondPage);
+
+        var tables = underTest.tablesChangedSince(0, mockLambdaLogger).collect(toList());
+
+        assertEquals(
+                List.of(
+                        new ExternalTable("expired", "s3://bucket/expired", 1000L),
+                        new ExternalTable("invalid", "s3://bucket/invalid", null),
+                        new ExternalTable("recent", "s3://bucket/recent", 3000L)
+                ),
+                tables
+        );
+        verify(glueClient).getTables(GetTablesRequest.builder().databaseName(DATABASE).maxResults(GlueTableDiscovery.PAGE_SIZE).build());
+        verify(glueClient).getTables(GetTablesRequest.builder().databaseName(DATABASE).maxResults(GlueTableDiscovery.PAGE_SIZE).nextToken("NEXT").build());
+    }
+
+    @Test
+    void shouldOnlyListTablesChangedSinceAlongWithInvalidTables() {
+        var page = GetTablesResponse.builder()
+                .tableList(
+                        table("unchanged", 1999L, "s3://bucket/unchanged"),
+                        table("changed", 2000L, "s3://bucket/changed"),
+                        table("invalid", null, "s3://bucket/invalid")
+                )
+                .build();
+        when(glueClient.getTables(any(GetTablesRequest.class))).thenReturn(page);
+
+        var tableNames = underTest.tablesChangedSince(2000L, mockLambdaLogger).map(t -> t.tableName).collect(toList());
+
+        assertEquals(List.of("changed", "invalid"), tableNames);
+    }
+
+    @Test
+    void shouldOnlyFetchPagesAsTablesAreConsumed() {
+        var firstPage = GetTablesResponse.builder()
+                .tableList(table("invalid", null, "s3://bucket/invalid"))
+                .nextToken("NEXT")
+                .build();
+        when(glueClient.getTables(any(GetTablesRequest.class))).thenReturn(firstPage);
+
+        var tables = underTest.tablesChangedSince(0, mockLambdaLogger).limit(1).collect(toList());
+
+        assertEquals(List.of(new ExternalTable("invalid", "s3://bucket/invalid", null)), tables);
+        verify(glueClient, times(1)).getTables(any(GetTablesRequest.class));
+    }
+
+    @Test
+    void shouldIgnoreTablesWithUnreadableDdlTime() {
+        var page = GetTablesResponse.builder()
+                .tableList(
+                        Table.builder()
+                                .name("unreadable")
+                                .parameters(Map.of(LAST_DDL_TIME_PARAMETER, "yesterday"))
+                                .storageDescriptor(StorageDescriptor.builder().location("s3://bucket/unreadable").build())
+                                .build(),
+                        Table.builder().name("no_location").build()
+                )
+                .build();
+        when(glueClient.getTables(any(GetTablesRequest.class))).thenReturn(page);
+
+        assertEquals(List.of(), underTest.tablesChangedSince(0, mockLambdaLogger).collect(toList()));
+    }
+
+    private static Table table(String name, Long lastDdlTime, String location) {
+        return Table.builder()
+                .name(name)
+                .parameters(lastDdlTime == null ? Map.of() : Map.of(LAST_DDL_TIME_PARAMETER, String.valueOf(lastDdlTime)))
+                .storageDescriptor(StorageDescriptor.builder().location(location).build())
+                .build();
+    }
+}
@@ -4,16 +4,34 @@ import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.redshiftdata.RedshiftDataAsyncClient;
 import software.amazon.awssdk.services.redshiftdata.RedshiftDataClient;
 import software.amazon.awssdk.services.redshiftdata.model.*;
+import uk.gov.justice.digital.ExternalTable;
+import uk.gov.justice.digital.common.Backoff;
+import uk.gov.justice.digital.common.EmfMetrics;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 import static java.util.Arrays.asList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.stream.Collectors.toList;
 import static java.util.Collections.singletonList;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
+import static uk.gov.justice.digital.clients.redshift.ExternalTableQueryExecutor.MAX_BATCH_SQL_BYTES;
+import static uk.gov.justice.digital.clients.redshift.ExternalTableQueryExecutor.MAX_BATCH_STATEMENTS;
 
 @ExtendWith(MockitoExtension.class)
 class ExternalTableQueryExecutorTest {
@@ -25,94 +43,206 @@ class ExternalTableQueryExecutorTest {
     @Mock
     RedshiftDataClient dataClient;
     @Mock
+    RedshiftDataAsyncClient asyncDataClient;
+    @Mock
     LambdaLogger mockLambdaLogger;
+    @Captor
+    ArgumentCaptor<BatchExecuteStatementRequest> batchRequestCaptor;
 
     ExternalTableQueryExecutor target;
 
     @BeforeEach
     void setUp() {
-        target = new ExternalTableQueryExecutor(dataClient, CLUSTER_ID, DB_NAME, SECRET_ARN);
+        var poller = new StatementStatusPoller(asyncDataClient, new Backoff(0, 0, 1, 0));
+        target = new ExternalTableQueryExecutor(dataClient, asyncDataClient, poller, CLUSTER_ID, DB_NAME, SECRET_ARN);
     }
 
     @Test
     void removeExternalTables() {
         String tableName = "TABLE_NAME";
         String removeTableId = "REMOVE_TABLE_ID";
-        var removeTablesResponse = ExecuteStatementResponse.builder().id(removeTableId).build();
+        var removeTablesResponse = BatchExecuteStatementResponse.builder().id(removeTableId).build();
 
-        when(dataClient.executeStatement((ExecuteStatementRequest) any()))
-                .thenReturn(removeTablesResponse);
+        when(asyncDataClient.batchExecuteStatement((BatchExecuteStatementRequest) any()))
+                .thenReturn(completedFuture(removeTablesResponse));
 
-        var responses = target.removeExternalTables(singletonList(tableName), mockLambdaLogger);
+        var responses = target.removeExternalTables(Stream.of(tableName), mockLambdaLogger);
 
         assertEquals(responses.size(), 1);
         assertEquals(responses.get(0), removeTablesResponse);
+        verify(asyncDataClient).batchExecuteStatement(
+                BatchExecuteStatementRequest.builder()
+                        .clusterIdentifier(CLUSTER_ID)
+                        .database(DB_NAME)
+                        .secretArn(SECRET_ARN)
+                        .sqls("DROP TABLE IF EXISTS reports.TABLE_NAME;")
+                        .build()
+        );
+    }
+
+    @Test
+    void removeExternalTables_largeQuantity_shouldBatchByStatementLimit() {
+        var tableNames = Collections.nCopies(MAX_BATCH_STATEMENTS * 2 + 1, "TABLE_NAME");
+
+        when(asyncDataClient.batchExecuteStatement((BatchExecuteStatementRequest) any()))
+                .thenReturn(completedFuture(BatchExecuteStatementResponse.builder().id("REMOVE_TABLE_ID").build()));
+
+        var responses = target.removeExternalTables(tableNames.stream(), mockLambdaLogger);
+
+        verify(asyncDataClient, times(3)).batchExecuteStatement(batchRequestCaptor.capture());
+        assertEquals(3, responses.size());
+        assertEquals(
+                asList(MAX_BATCH_STATEMENTS, MAX_BATCH_STATEMENTS, 1),
+                batchRequestCaptor.getAllValues().stream().map(r -> r.sqls().size()).collect(toList())
+        );
+    }
+
+    @Test
+    void removeExternalTables_longTableNames_shouldBatchByPayloadLimit() {
+        var longTableName = "T".repeat(MAX_BATCH_SQL_BYTES / 4);
+        var tableNames = Collections.nCopies(4, longTableName);
+
+        when(asyncDataClient.batchExecuteStatement((BatchExecuteStatementRequest) any()))
+                .thenReturn(completedFuture(BatchExecuteStatementResponse.builder().id("REMOVE_TABLE_ID").build()));
+
+        target.removeExternalTables(tableNames.stream(), mockLambdaLogger);
+
+        verify(asyncDataClient, times(2)).batchExecuteStatement(batchRequestCaptor.capture());
+        batchRequestCaptor.getAllValues().forEach(request ->
+                assertTrue(request.sqls().stream().mapToInt(String::length).sum() <= MAX_BATCH_SQL_BYTES)
+        );
     }
 
     @Test
-    void getInvalidTables() {
+    void requestCompletes_failedBatch_shouldResubmitRemainingStatementsAndReportTheirBatch() {
+        String batchId = "BATCH_ID";
+        String retryId = "RETRY_ID";
+        var failedBatch = DescribeStatementResponse.builder()
+                .id(batchId)
+                .status(StatusString.FAILED)
+                .subStatements(
+                        SubStatementData.builder().queryString("DROP TABLE IF EXISTS reports.good_1;").status(StatementStatusString.ABORTED).build(),
+                        SubStatementData.builder().queryString("DROP TABLE IF EXISTS reports.bad;").status(StatementStatusString.FAILED).error("boom").build(),
+                        SubStatementData.builder().queryString("DROP TABLE IF EXISTS reports.good_2;").status(StatementStatusString.ABORTED).build()
+                )
+                .build();
+        var retriedBatch = DescribeStatementResponse.builder()
+                .id(retryId)
+                .status(StatusString.FINISHED)
+                .subStatements(
+                        SubStatementData.builder().queryString("DROP TABLE IF EXISTS reports.good_1;").status(StatementStatusString.FINISHED).build(),
+                        SubStatementData.builder().queryString("DROP TABLE IF EXISTS reports.good_2;").status(StatementStatusString.FINISHED).build()
+                )
+                .build();
+
+        when(asyncDataClient.describeStatement(DescribeStatementRequest.builder().id(batchId).build()))
+                .thenReturn(completedFuture(failedBatch));
+        when(asyncDataClient.describeStatement(DescribeStatementRequest.builder().id(retryId).build()))
+                .thenReturn(completedFuture(retriedBatch));
+        when(asyncDataClient.batchExecuteStatement((BatchExecuteStatementRequest) any()))
+                .thenReturn(completedFuture(BatchExecuteStatementResponse.builder().id(retryId).build()));
+
+        Map<String, String> resubmitted = new HashMap<>();
+        var success = target.requestCompletes(batchId, mockLambdaLogger, resubmitted::put).join();
+
+        assertFalse(success);
+        assertEquals(Map.of(batchId, retryId), resubmitted);
+        verify(asyncDataClient).batchExecuteStatement(batchRequestCaptor.capture());
+        assertEquals(
+                asList("DROP TABLE IF EXISTS reports.good_1;", "DROP TABLE IF EXISTS reports.good_2;"),
+                batchRequestCaptor.getValue().sqls()
+        );
+    }
+
+    @Test
+    void getExternalTables() {
         String getTablesId = "GET_TABLES_ID";
-        String tableName = "TABLE_NAME";
-        String tableLocation = "TABLE_LOCATION";
-        var nameField = Field.builder().stringValue(tableName).build();
-        var locationField = Field.builder().stringValue(tableLocation).build();
-        var records = singletonList(asList(nameField, locationField));
+        var records = asList(
+                asList(
+                        Field.builder().stringValue("VALID").build(),
+                        Field.builder().stringValue("VALID_LOCATION").build(),
+                        Field.builder().longValue(1000L).build()
+                ),
+                asList(
+                        Field.builder().stringValue("INVALID").build(),
+                        Field.builder().stringValue("INVALID_LOCATION").build(),
+                        Field.builder().isNull(true).build()
+                )
+        );
         var statementResponse = ExecuteStatementResponse.builder().id(getTablesId).build();
 
-        when(dataClient.describeStatement(DescribeStatementRequest.builder().id(getTablesId).build()))
-                .thenReturn(DescribeStatementResponse.builder().status(StatusString.STARTED).build())
-                .thenReturn(DescribeStatementResponse.builder().status(StatusString.FINISHED).build());
+        when(asyncDataClient.describeStatement(DescribeStatementRequest.builder().id(getTablesId).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.STARTED).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.FINISHED).build()));
         when(dataClient.getStatementResult((GetStatementResultRequest) any()))
                 .thenReturn(GetStatementResultResponse.builder().records(records).build());
 
-        var invalidTables = target.getInvalidTables(statementResponse, mockLambdaLogger);
+        var tables = target.getExternalTables(statementResponse, mockLambdaLogger).collect(toList());
 
-        verify(dataClient, times(2))
+        verify(asyncDataClient, times(2))
                 .describeStatement(DescribeStatementRequest.builder().id(getTablesId).build());
         verify(dataClient)
                 .getStatementResult(GetStatementResultRequest.builder().id(getTablesId).build());
 
-        assertEquals(invalidTables.size(), 1);
-        assertEquals(invalidTables.get(0).tableName, tableName);
-        assertEquals(invalidTables.get(0).s3Location, tableLocation);
+        assertEquals(
+                asList(new ExternalTable("VALID", "VALID_LOCATION", 1000L), new ExternalTable("INVALID", "INVALID_LOCATION", null)),
+                tables
+        );
     }
 
     @Test
-    void getExpiredExternalTableNames() {
+    void getExternalTables_failedQuery_shouldThrow() {
         String getTablesId = "GET_TABLES_ID";
-        String tableName = "TABLE_NAME";
-        var nameField = Field.builder().stringValue(tableName).build();
-        var records = singletonList(singletonList(nameField));
         var statementResponse = ExecuteStatementResponse.builder().id(getTablesId).build();
 
-        when(dataClient.describeStatement(DescribeStatementRequest.builder().id(getTablesId).build()))
-                .thenReturn(DescribeStatementResponse.builder().status(StatusString.STARTED).build())
-                .thenReturn(DescribeStatementResponse.builder().status(StatusString.FINISHED).build());
-        when(dataClient.getStatementResult((GetStatementResultRequest) any()))
-                .thenReturn(GetStatementResultResponse.builder().records(records).build());
+        when(asyncDataClient.describeStatement(DescribeStatementRequest.builder().id(getTablesId).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.FAILED).build()));
 
-        var invalidTables = target.getExpiredExternalTableNames(statementResponse, mockLambdaLogger);
+        assertThrows(IllegalStateException.class, () -> target.getExternalTables(statementResponse, mockLambdaLogger));
+        verifyNoInteractions(dataClient);
+    }
 
-        verify(dataClient, times(2))
-                .describeStatement(DescribeStatementRequest.builder().id(getTablesId).build());
-        verify(dataClient)
-                .getStatementResult(GetStatementResultRequest.builder().id(getTablesId).build());
+    @Test
+    void getExternalTables_multiplePages_shouldFetchPagesLazily() {
+        String getTablesId = "GET_TABLES_ID";
+        String nextToken = "NEXT_TOKEN";
+        var firstPage = GetStatementResultResponse.builder()
+                .records(singletonList(tableRecord("FIRST")))
+                .nextToken(nextToken)
+                .build();
+        var secondPage = GetStatementResultResponse.builder()
+                .records(singletonList(tableRecord("SECOND")))
+                .build();
+        var statementResponse = ExecuteStatementResponse.builder().id(getTablesId).build();
+
+        when(asyncDataClient.describeStatement(DescribeStatementRequest.builder().id(getTablesId).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.FINISHED).build()));
+        when(dataClient.getStatementResult(GetStatementResultRequest.builder().id(getTablesId).build()))
+                .thenReturn(firstPage);
+        when(dataClient.getStatementResult(GetStatementResultRequest.builder().id(getTablesId).nextToken(nextToken).build()))
+                .thenReturn(secondPage);
+
+        var tables = target.getExternalTables(statementResponse, mockLambdaLogger).iterator();
+
+        assertEquals("FIRST", tables.next().tableName);
+        verify(dataClient, never())
+                .getStatementResult(GetStatementResultRequest.builder().id(getTablesId).nextToken(nextToken).build());
 
-        assertEquals(invalidTables.size(), 1);
-        assertEquals(invalidTables.get(0), tableName);
+        assertEquals("SECOND", tables.next().tableName);
+        assertFalse(tables.hasNext());
     }
 
     @Test
     void requestCompletesSuccessfully_successful() {
         String responseId = "RESPONSE_ID";
 
-        when(dataClient.describeStatement(DescribeStatementRequest.builder().id(responseId).build()))
-                .thenReturn(DescribeStatementResponse.builder().status(StatusString.STARTED).build())
-                .thenReturn(DescribeStatementResponse.builder().status(StatusString.FINISHED).build());
+        when(asyncDataClient.describeStatement(DescribeStatementRequest.builder().id(responseId).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.STARTED).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.FINISHED).build()));
 
         var success = target.requestCompletesSuccessfully(responseId, mockLambdaLogger);
 
-        verify(dataClient, times(2))
+        verify(asyncDataClient, times(2))
                 .describeStatement(DescribeStatementRequest.builder().id(responseId).build());
 
         assertTrue(success);
@@ -122,42 +252,106 @@ class ExternalTableQueryExecutorTest {
     void requestCompletesSuccessfully_fails() {
         String responseId = "RESPONSE_ID";
 
-        when(dataClient.describeStatement(DescribeStatementRequest.builder().id(responseId).build()))
-                .thenReturn(DescribeStatementResponse.builder().status(StatusString.STARTED).build())
-                .thenReturn(DescribeStatementResponse.builder().status(StatusString.FAILED).build());
+        when(asyncDataClient.describeStatement(DescribeStatementRequest.builder().id(responseId).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.STARTED).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.FAILED).build()));
 
         var success = target.requestCompletesSuccessfully(responseId, mockLambdaLogger);
 
-        verify(dataClient, times(2))
+        verify(asyncDataClient, times(2))
                 .describeStatement(DescribeStatementRequest.builder().id(responseId).build());
 
         assertFalse(success);
     }
 
     @Test
-    void startExpiredTablesQuery() {
-        String responseId = "RESPONSE_ID";
-        int expirySeconds = 20;
-        var response = ExecuteStatementResponse.builder().id(responseId).build();
+    void requestsCompleteSuccessfully_allSuccessful() {
+        String firstId = "FIRST_ID";
+        String secondId = "SECOND_ID";
 
-        when(dataClient.executeStatement((ExecuteStatementRequest) any()))
-                .thenReturn(response);
+        when(asyncDataClient.describeStatement(DescribeStatementRequest.builder().id(firstId).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.FINISHED).build()));
+        when(asyncDataClient.describeStatement(DescribeStatementRequest.builder().id(secondId).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.STARTED).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.FINISHED).build()));
+
+        assertTrue(target.requestsCompleteSuccessfully(asList(firstId, secondId), mockLambdaLogger));
+    }
+
+    @Test
+    void requestsCompleteSuccessfully_oneFails() {
+        String firstId = "FIRST_ID";
+        String secondId = "SECOND_ID";
 
-        var actualResponse = target.startExpiredTablesQuery(expirySeconds);
+        when(asyncDataClient.describeStatement(DescribeStatementRequest.builder().id(firstId).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.FINISHED).build()));
+        when(asyncDataClient.describeStatement(DescribeStatementRequest.builder().id(secondId).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.ABORTED).build()));
 
-        assertEquals(actualResponse, response);
+        assertFalse(target.requestsCompleteSuccessfully(asList(firstId, secondId), mockLambdaLogger));
     }
 
     @Test
-    void startInvalidTablesQuery() {
-        String responseId = "RESPONSE_ID";
-        var response = ExecuteStatementResponse.builder().id(responseId).build();
+    void removeExternalTables_shouldRecordBatchCountAndRunTime() {
+        var metrics = new EmfMetrics("NAMESPACE", Map.of(), Clock.systemUTC());
+        var poller = new StatementStatusPoller(asyncDataClient, new Backoff(0, 0, 1, 0));
+        target = new ExternalTableQueryExecutor(dataClient, asyncDataClient, poller, CLUSTER_ID, DB_NAME, SECRET_ARN, metrics);
+        var created = Instant.parse("2024-01-01T00:00:00Z");
+
+        when(asyncDataClient.batchExecuteStatement((BatchExecuteStatementRequest) any()))
+                .thenReturn(completedFuture(BatchExecuteStatementResponse.builder().id("BATCH_ID").build()));
+        when(asyncDataClient.describeStatement((DescribeStatementRequest) any()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder()
+                        .id("BATCH_ID")
+                        .status(StatusString.FINISHED)
+                        .createdAt(created)
+                        .updatedAt(created.plusMillis(1500))
+                        .build()));
+
+        target.removeExternalTables(Stream.of("TABLE_NAME"), mockLambdaLogger);
+        assertTrue(target.requestsCompleteSuccessfully(singletonList("BATCH_ID"), mockLambdaLogger));
+        metrics.flush(mockLambdaLogger);
+
+        var recordCaptor = ArgumentCaptor.forClass(String.class);
+        verify(mockLambdaLogger).log(recordCaptor.capture());
+        assertTrue(recordCaptor.getValue().contains("\"DropBatches\":1"));
+        assertTrue(recordCaptor.getValue().contains("\"DropBatchLatency\":{\"Values\":[1500],\"Counts\":[1]}"));
+    }
+
+    @Test
+    void startExternalTablesQuery_shouldListEveryTable() {
+        var response = ExecuteStatementResponse.builder().id("RESPONSE_ID").build();
 
         when(dataClient.executeStatement((ExecuteStatementRequest) any()))
                 .thenReturn(response);
 
-        var actualResponse = target.startInvalidTablesQuery();
+        var actualResponse = target.startExternalTablesQuery(0);
+
+        var requestCaptor = ArgumentCaptor.forClass(ExecuteStatementRequest.class);
+        verify(dataClient).executeStatement(requestCaptor.capture());
+        assertEquals(response, actualResponse);
+        assertTrue(requestCaptor.getValue().sql().contains("SVV_EXTERNAL_TABLES"));
+        assertFalse(requestCaptor.getValue().sql().contains(">="));
+    }
+
+    @Test
+    void startExternalTablesQuery_withChangedSince_shouldOnlyListChangedAndInvalidTables() {
+        when(dataClient.executeStatement((ExecuteStatementRequest) any()))
+                .thenReturn(ExecuteStatementResponse.builder().id("RESPONSE_ID").build());
+
+        target.startExternalTablesQuery(1700000000L);
+
+        var requestCaptor = ArgumentCaptor.forClass(ExecuteStatementRequest.class);
+        verify(dataClient).executeStatement(requestCaptor.capture());
+        assertTrue(requestCaptor.getValue().sql().contains("IS NULL"));
+        assertTrue(requestCaptor.getValue().sql().contains(">= 1700000000"));
+    }
 
-        assertEquals(actualResponse, response);
+    private static List<Field> tableRecord(String tableName) {
+        return asList(
+                Field.builder().stringValue(tableName).build(),
+                Field.builder().stringValue(tableName + "_LOCATION").build(),
+                Field.builder().longValue(1000L).build()
+        );
     }
-}
\ No newline at end of file
+}
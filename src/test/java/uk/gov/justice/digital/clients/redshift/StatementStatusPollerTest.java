@@ -0,0 +1,81 @@
+package uk.gov.justice.digital.clients.redshift;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.redshiftdata.RedshiftDataAsyncClient;
+import software.amazon.awssdk.services.redshiftdata.model.*;
+import uk.gov.justice.digital.common.Backoff;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StatementStatusPollerTest {
+
+    @Mock
+    RedshiftDataAsyncClient asyncDataClient;
+
+    StatementStatusPoller target;
+
+    @BeforeEach
+    void setUp() {
+        target = new StatementStatusPoller(asyncDataClient, new Backoff(0, 0, 1, 0));
+    }
+
+    @Test
+    void awaitCompletion_pollsUntilFinished() {
+        String statementId = "STATEMENT_ID";
+        var request = DescribeStatementRequest.builder().id(statementId).build();
+
+        when(asyncDataClient.describeStatement(request))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.SUBMITTED).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.STARTED).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.FINISHED).build()));
+
+        var response = target.awaitCompletion(statementId).join();
+
+        assertEquals(StatusString.FINISHED, response.status());
+        verify(asyncDataClient, times(3)).describeStatement(request);
+    }
+
+    @Test
+    void awaitCompletion_tracksManyStatementsIndependently() {
+        String fastId = "FAST_ID";
+        String slowId = "SLOW_ID";
+
+        when(asyncDataClient.describeStatement(DescribeStatementRequest.builder().id(fastId).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.FAILED).build()));
+        when(asyncDataClient.describeStatement(DescribeStatementRequest.builder().id(slowId).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.STARTED).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.STARTED).build()))
+                .thenReturn(completedFuture(DescribeStatementResponse.builder().status(StatusString.FINISHED).build()));
+
+        var fast = target.awaitCompletion(fastId);
+        var slow = target.awaitCompletion(slowId);
+
+        assertEquals(StatusString.FAILED, fast.join().status());
+        assertEquals(StatusString.FINISHED, slow.join().status());
+        verify(asyncDataClient, times(1)).describeStatement(DescribeStatementRequest.builder().id(fastId).build());
+        verify(asyncDataClient, times(3)).describeStatement(DescribeStatementRequest.builder().id(slowId).build());
+    }
+
+    @Test
+    void awaitCompletion_propagatesDescribeFailures() {
+        String statementId = "STATEMENT_ID";
+        var error = ResourceNotFoundException.builder().message("Unknown statement").build();
+
+        when(asyncDataClient.describeStatement(DescribeStatementRequest.builder().id(statementId).build()))
+                .thenReturn(CompletableFuture.failedFuture(error));
+
+        var thrown = assertThrows(CompletionException.class, () -> target.awaitCompletion(statementId).join());
+
+        assertEquals(error, thrown.getCause());
+    }
+}
@@ -0,0 +1,118 @@
+package uk.gov.justice.digital.clients.s3;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import uk.gov.justice.digital.TableS3Location;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static uk.gov.justice.digital.clients.dynamo.DynamoDbClient.EXPIRE_AT_KEY;
+import static uk.gov.justice.digital.clients.s3.DynamoDbS3MetadataCache.*;
+import static uk.gov.justice.digital.services.test.Fixture.fixedClock;
+
+@ExtendWith(MockitoExtension.class)
+class DynamoDbS3MetadataCacheTest {
+
+    private static final String CACHE_TABLE = "s3-metadata-cache";
+    private static final Duration TTL = Duration.ofDays(7);
+    private static final TableS3Location TABLE = new TableS3Location("TABLE", "s3://bucket/reports/table");
+    private static final EarliestObject EARLIEST_OBJECT = new EarliestObject("reports/table/part-0", "\"etag\"", 100L);
+
+    @Mock
+    DynamoDbAsyncClient dynamoDb;
+
+    private DynamoDbS3MetadataCache underTest;
+
+    @BeforeEach
+    public void setup() {
+        underTest = new DynamoDbS3MetadataCache(() -> dynamoDb, CACHE_TABLE, TTL, fixedClock);
+    }
+
+    @Test
+    public void put_shouldStoreItemWithExpiry() {
+        when(dynamoDb.putItem(any(PutItemRequest.class))).thenReturn(completedFuture(PutItemResponse.builder().build()));
+
+        underTest.put(TABLE, EARLIEST_OBJECT);
+
+        long expireAt = Instant.now(fixedClock).plus(TTL).getEpochSecond();
+        verify(dynamoDb).putItem(PutItemRequest.builder().tableName(CACHE_TABLE).item(Map.of(
+                S3_LOCATION_KEY, AttributeValue.builder().s(TABLE.s3Location).build(),
+                TABLE_NAME_KEY, AttributeValue.builder().s(TABLE.tableName).build(),
+                EARLIEST_OBJECT_KEY_KEY, AttributeValue.builder().s(EARLIEST_OBJECT.key).build(),
+                EARLIEST_OBJECT_ETAG_KEY, AttributeValue.builder().s(EARLIEST_OBJECT.eTag).build(),
+                EARLIEST_OBJECT_CREATED_KEY, AttributeValue.builder().n("100").build(),
+                CACHED_AT_KEY, AttributeValue.builder().n(String.valueOf(fixedClock.millis())).build(),
+                EXPIRE_AT_KEY, AttributeValue.builder().n(String.valueOf(expireAt)).build()
+        )));
+    }
+
+    @Test
+    public void get_shouldReturnUnexpiredItem() {
+        long expireAt = Instant.now(fixedClock).getEpochSecond() + 1;
+        when(dynamoDb.getItem(any(GetItemRequest.class))).thenReturn(completedFuture(GetItemResponse.builder().item(item(expireAt)).build()));
+
+        assertEquals(Optional.of(EARLIEST_OBJECT), underTest.get(TABLE));
+
+        verify(dynamoDb).getItem(GetItemRequest.builder()
+                .tableName(CACHE_TABLE)
+                .key(Map.of(S3_LOCATION_KEY, AttributeValue.builder().s(TABLE.s3Location).build()))
+                .build());
+    }
+
+    @Test
+    public void get_shouldReturnWhenTheItemWasCached() {
+        long expireAt = Instant.now(fixedClock).getEpochSecond() + 1;
+        var item = new HashMap<>(item(expireAt));
+        item.put(CACHED_AT_KEY, AttributeValue.builder().n("200").build());
+        when(dynamoDb.getItem(any(GetItemRequest.class))).thenReturn(completedFuture(GetItemResponse.builder().item(item).build()));
+
+        assertEquals(
+                Optional.of(new EarliestObject(EARLIEST_OBJECT.key, EARLIEST_OBJECT.eTag, EARLIEST_OBJECT.createdEpochMillis, 200L)),
+                underTest.get(TABLE)
+        );
+    }
+
+    @Test
+    public void get_shouldIgnoreItemAwaitingTtlDeletion() {
+        long expireAt = Instant.now(fixedClock).getEpochSecond();
+        when(dynamoDb.getItem(any(GetItemRequest.class))).thenReturn(completedFuture(GetItemResponse.builder().item(item(expireAt)).build()));
+
+        assertEquals(Optional.empty(), underTest.get(TABLE));
+    }
+
+    @Test
+    public void get_shouldReturnEmptyWhenNoItem() {
+        when(dynamoDb.getItem(any(GetItemRequest.class))).thenReturn(completedFuture(GetItemResponse.builder().build()));
+
+        assertEquals(Optional.empty(), underTest.get(TABLE));
+    }
+
+    private static Map<String, AttributeValue> item(long expireAt) {
+        return Map.of(
+                S3_LOCATION_KEY, AttributeValue.builder().s(TABLE.s3Location).build(),
+                TABLE_NAME_KEY, AttributeValue.builder().s(TABLE.tableName).build(),
+                EARLIEST_OBJECT_KEY_KEY, AttributeValue.builder().s(EARLIEST_OBJECT.key).build(),
+                EARLIEST_OBJECT_ETAG_KEY, AttributeValue.builder().s(EARLIEST_OBJECT.eTag).build(),
+                EARLIEST_OBJECT_CREATED_KEY, AttributeValue.builder().n("100").build(),
+                EXPIRE_AT_KEY, AttributeValue.builder().n(String.valueOf(expireAt)).build()
+        );
+    }
+}
@@ -0,0 +1,58 @@
+package uk.gov.justice.digital.clients.s3;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.gov.justice.digital.TableS3Location;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static uk.gov.justice.digital.services.test.Fixture.fixedClock;
+import static uk.gov.justice.digital.services.test.Fixture.utcZoneId;
+
+class FileS3MetadataCacheTest {
+
+    private static final Duration TTL = Duration.ofDays(1);
+    private static final TableS3Location TABLE = new TableS3Location("TABLE", "s3://bucket/reports/table");
+    private static final EarliestObject EARLIEST_OBJECT = new EarliestObject("reports/table/part-0", "\"etag\"", 100L);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void get_shouldReturnEntrySavedByAnotherInstance() {
+        var file = tempDir.resolve("cache.properties");
+
+        new FileS3MetadataCache(file, TTL, fixedClock).put(TABLE, EARLIEST_OBJECT);
+
+        assertEquals(
+                Optional.of(new EarliestObject(EARLIEST_OBJECT.key, EARLIEST_OBJECT.eTag, EARLIEST_OBJECT.createdEpochMillis, fixedClock.millis())),
+                new FileS3MetadataCache(file, TTL, fixedClock).get(TABLE)
+        );
+    }
+
+    @Test
+    void get_shouldIgnoreEntryPastItsTimeToLive() {
+        var file = tempDir.resolve("cache.properties");
+        new FileS3MetadataCache(file, TTL, fixedClock).put(TABLE, EARLIEST_OBJECT);
+
+        var later = Clock.fixed(Instant.now(fixedClock).plus(TTL), utcZoneId);
+
+        assertEquals(Optional.empty(), new FileS3MetadataCache(file, TTL, later).get(TABLE));
+    }
+
+    @Test
+    void invalidate_shouldRemoveEntry() {
+        var file = tempDir.resolve("cache.properties");
+        var cache = new FileS3MetadataCache(file, TTL, fixedClock);
+        cache.put(TABLE, EARLIEST_OBJECT);
+
+        cache.invalidate(TABLE);
+
+        assertEquals(Optional.empty(), new FileS3MetadataCache(file, TTL, fixedClock).get(TABLE));
+    }
+}
@@ -0,0 +1,160 @@
+package uk.gov.justice.digital.clients.s3;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class S3ClientTest {
+
+    private static final String FOLDER_LOCATION = "s3://bucket/reports/table";
+
+    @Mock
+    S3AsyncClient s3;
+
+    @Captor
+    ArgumentCaptor<ListObjectsV2Request> listRequestCaptor;
+
+    S3Client target;
+
+    @BeforeEach
+    void setUp() {
+        target = new S3Client(s3);
+    }
+
+    @Test
+    void getEarliestObjectCreatedDate_shouldReturnNullForEmptyFolder() {
+        when(s3.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(completedFuture(page(false, null)));
+
+        assertNull(target.getEarliestObjectCreatedDate(FOLDER_LOCATION));
+    }
+
+    @Test
+    void getEarliestObjectCreatedDate_shouldFindMinimumAcrossAllPages() {
+        when(s3.listObjectsV2(listRequestCaptor.capture())).thenReturn(
+                completedFuture(page(true, "TOKEN", 300L, 200L)),
+                completedFuture(page(false, null, 100L, 400L))
+        );
+
+        assertEquals(100L, target.getEarliestObjectCreatedDate(FOLDER_LOCATION));
+
+        var requests = listRequestCaptor.getAllValues();
+        assertEquals("bucket", requests.get(0).bucket());
+        assertEquals("reports/table/", requests.get(0).prefix());
+        assertEquals(
+                Arrays.asList(null, "TOKEN"),
+                requests.stream().map(ListObjectsV2Request::continuationToken).collect(Collectors.toList())
+        );
+    }
+
+    @Test
+    void hasObjectOlderThan_shouldStopListingOnceCutoffIsReached() {
+        when(s3.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(completedFuture(page(true, "TOKEN", 300L, 50L)));
+
+        assertEquals(new ObjectAgeCheck(50L, "KEY_50", "ETAG_50", true, 1), target.hasObjectOlderThan(FOLDER_LOCATION, 100L));
+
+        verify(s3, times(1)).listObjectsV2(any(ListObjectsV2Request.class));
+    }
+
+    @Test
+    void hasObjectOlderThan_shouldListEveryPageWhenNothingIsOlderThanCutoff() {
+        target = new S3Client(s3, 2);
+
+        when(s3.listObjectsV2(listRequestCaptor.capture())).thenReturn(
+                completedFuture(page(true, "TOKEN", 300L, 200L)),
+                completedFuture(page(false, null, 150L))
+        );
+
+        assertEquals(new ObjectAgeCheck(150L, "KEY_150", "ETAG_150", false, 2), target.hasObjectOlderThan(FOLDER_LOCATION, 100L));
+
+        assertEquals(
+                List.of(2, 2),
+                listRequestCaptor.getAllValues().stream().map(ListObjectsV2Request::maxKeys).collect(Collectors.toList())
+        );
+    }
+
+    @Test
+    void hasObjectOlderThan_shouldListLocationsHoldingCharactersNotAllowedInAUri() {
+        when(s3.listObjectsV2(listRequestCaptor.capture())).thenReturn(completedFuture(page(false, null)));
+
+        target.hasObjectOlderThan("s3://bucket/reports/prison name=HMP A+B/100%[done]", 0L);
+
+        assertEquals("bucket", listRequestCaptor.getValue().bucket());
+        assertEquals("reports/prison name=HMP A+B/100%[done]/", listRequestCaptor.getValue().prefix());
+    }
+
+    @Test
+    void parse_shouldFindBucketAndKeyOfEveryLocationStyle() {
+        for (String location : List.of(
+                "s3://bucket/reports/my table",
+                "s3a://bucket/reports/my table",
+                "https://bucket.s3.eu-west-2.amazonaws.com/reports/my table",
+                "https://s3.eu-west-2.amazonaws.com/bucket/reports/my table"
+        )) {
+            var parsed = S3Client.parse(location);
+            assertEquals(Optional.of("bucket"), parsed.bucket(), location);
+            assertEquals(Optional.of("reports/my table"), parsed.key(), location);
+        }
+    }
+
+    @Test
+    void parse_shouldRejectLocationWithoutScheme() {
+        assertThrows(IllegalArgumentException.class, () -> S3Client.parse("bucket/reports/table"));
+    }
+
+    @Test
+    void getETag_shouldReturnETagOfObject() {
+        var headRequest = HeadObjectRequest.builder().bucket("bucket").key("reports/table/part-0").build();
+        when(s3.headObject(headRequest)).thenReturn(completedFuture(HeadObjectResponse.builder().eTag("ETAG").build()));
+
+        assertEquals(Optional.of("ETAG"), target.getETag(FOLDER_LOCATION, "reports/table/part-0"));
+    }
+
+    @Test
+    void getETag_shouldReturnEmptyWhenObjectNoLongerExists() {
+        var notFound = NoSuchKeyException.builder().statusCode(404).build();
+        when(s3.headObject(any(HeadObjectRequest.class))).thenReturn(failedFuture(notFound));
+
+        assertEquals(Optional.empty(), target.getETag(FOLDER_LOCATION, "reports/table/part-0"));
+    }
+
+    private static ListObjectsV2Response page(boolean truncated, String nextToken, long... lastModified) {
+        var objects = Arrays.stream(lastModified)
+                .mapToObj(modified -> S3Object.builder()
+                        .key("KEY_" + modified)
+                        .eTag("ETAG_" + modified)
+                        .lastModified(Instant.ofEpochMilli(modified))
+                        .build())
+                .collect(Collectors.toList());
+
+        return ListObjectsV2Response.builder()
+                .isTruncated(truncated)
+                .nextContinuationToken(nextToken)
+                .contents(objects)
+                .build();
+    }
+}
@@ -0,0 +1,215 @@
+package uk.gov.justice.digital.clients.s3;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import uk.gov.justice.digital.TableS3Location;
+import uk.gov.justice.digital.TableS3MetaData;
+import uk.gov.justice.digital.common.Backoff;
+import uk.gov.justice.digital.common.EmfMetrics;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class S3MetadataScannerTest {
+
+    private static final Backoff NO_DELAY = new Backoff(0, 0, 1, 0);
+    private static final long CUTOFF = 0L;
+
+    @Mock
+    S3Client s3Client;
+    @Mock
+    LambdaLogger logger;
+    @Mock
+    S3MetadataCache cache;
+
+    @Test
+    void scan_shouldReturnMetadataForEveryTable() {
+        var target = new S3MetadataScanner(s3Client, 4, NO_DELAY, 0);
+
+        when(s3Client.hasObjectOlderThan(eq("LOCATION_1"), anyLong())).thenReturn(new ObjectAgeCheck(1L, false, 1));
+        when(s3Client.hasObjectOlderThan(eq("LOCATION_2"), anyLong())).thenReturn(new ObjectAgeCheck(null, false, 1));
+
+        Set<TableS3MetaData> results = target.scan(Stream.of(
+                new TableS3Location("TABLE_1", "LOCATION_1"),
+                new TableS3Location("TABLE_2", "LOCATION_2")
+        ), CUTOFF, logger).collect(toSet());
+
+        assertEquals(
+                Set.of(new TableS3MetaData("TABLE_1", "LOCATION_1", 1L), new TableS3MetaData("TABLE_2", "LOCATION_2", null)),
+                results
+        );
+    }
+
+    @Test
+    void scan_shouldNotExceedConcurrencyLimit() {
+        int concurrency = 3;
+        var target = new S3MetadataScanner(s3Client, concurrency, NO_DELAY, 0);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+
+        when(s3Client.hasObjectOlderThan(anyString(), anyLong())).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(5);
+            inFlight.decrementAndGet();
+            return new ObjectAgeCheck(1L, false, 1);
+        });
+
+        long scanned = target.scan(
+                IntStream.range(0, 30).mapToObj(i -> new TableS3Location("TABLE_" + i, "LOCATION_" + i)),
+                CUTOFF,
+                logger
+        ).count();
+
+        assertEquals(30, scanned);
+        assertTrue(maxInFlight.get() <= concurrency);
+    }
+
+    @Test
+    void scan_shouldRetryWhenThrottled() {
+        var target = new S3MetadataScanner(s3Client, 1, NO_DELAY, 2);
+        var slowDown = s3Exception(503, "SlowDown");
+
+        when(s3Client.hasObjectOlderThan(eq("LOCATION"), anyLong()))
+                .thenThrow(slowDown)
+                .thenThrow(slowDown)
+                .thenReturn(new ObjectAgeCheck(1L, false, 1));
+
+        var results = target.scan(Stream.of(new TableS3Location("TABLE", "LOCATION")), CUTOFF, logger).collect(toSet());
+
+        assertEquals(Set.of(new TableS3MetaData("TABLE", "LOCATION", 1L)), results);
+        verify(s3Client, times(3)).hasObjectOlderThan(eq("LOCATION"), anyLong());
+    }
+
+    @Test
+    void scan_shouldPropagateOtherErrors() {
+        var target = new S3MetadataScanner(s3Client, 1, NO_DELAY, 2);
+        var accessDenied = s3Exception(403, "AccessDenied");
+
+        when(s3Client.hasObjectOlderThan(eq("LOCATION"), anyLong())).thenThrow(accessDenied);
+
+        var results = target.scan(Stream.of(new TableS3Location("TABLE", "LOCATION")), CUTOFF, logger);
+
+        assertThrows(S3Exception.class, () -> results.collect(toSet()));
+        verify(s3Client, times(1)).hasObjectOlderThan(eq("LOCATION"), anyLong());
+    }
+
+    @Test
+    void scan_shouldTrustCachedEarliestObjectYoungerThanCutoffWithoutCallingS3() {
+        var target = new S3MetadataScanner(s3Client, 1, NO_DELAY, 0, cache);
+        var table = new TableS3Location("TABLE", "LOCATION");
+
+        when(cache.get(table)).thenReturn(Optional.of(new EarliestObject("KEY", "ETAG", CUTOFF + 1, System.currentTimeMillis())));
+
+        var results = target.scan(Stream.of(table), CUTOFF, logger).collect(toSet());
+
+        assertEquals(Set.of(new TableS3MetaData("TABLE", "LOCATION", CUTOFF + 1)), results);
+        verifyNoInteractions(s3Client);
+    }
+
+    @Test
+    void scan_shouldListAgainWhenYoungCachedEarliestObjectIsDueForRevalidationAndGone() {
+        var now = Instant.parse("2024-06-01T12:00:00Z");
+        var target = new S3MetadataScanner(
+                s3Client, 1, NO_DELAY, 0, cache, EmfMetrics.disabled(), Duration.ofDays(1), Clock.fixed(now, ZoneOffset.UTC)
+        );
+        var table = new TableS3Location("TABLE", "LOCATION");
+        long cachedAt = now.minus(Duration.ofDays(2)).toEpochMilli();
+
+        when(cache.get(table)).thenReturn(Optional.of(new EarliestObject("KEY", "ETAG", CUTOFF + 1, cachedAt)));
+        when(s3Client.getETag("LOCATION", "KEY")).thenReturn(Optional.empty());
+        when(s3Client.hasObjectOlderThan("LOCATION", CUTOFF)).thenReturn(new ObjectAgeCheck(null, false, 1));
+
+        var results = target.scan(Stream.of(table), CUTOFF, logger).collect(toSet());
+
+        assertEquals(Set.of(new TableS3MetaData("TABLE", "LOCATION", null)), results);
+        verify(cache).invalidate(table);
+    }
+
+    @Test
+    void scan_shouldRefreshYoungCachedEarliestObjectOnceRevalidated() {
+        var now = Instant.parse("2024-06-01T12:00:00Z");
+        var target = new S3MetadataScanner(
+                s3Client, 1, NO_DELAY, 0, cache, EmfMetrics.disabled(), Duration.ofDays(1), Clock.fixed(now, ZoneOffset.UTC)
+        );
+        var table = new TableS3Location("TABLE", "LOCATION");
+
+        when(cache.get(table)).thenReturn(Optional.of(new EarliestObject("KEY", "ETAG", CUTOFF + 1)));
+        when(s3Client.getETag("LOCATION", "KEY")).thenReturn(Optional.of("ETAG"));
+
+        var results = target.scan(Stream.of(table), CUTOFF, logger).collect(toSet());
+
+        assertEquals(Set.of(new TableS3MetaData("TABLE", "LOCATION", CUTOFF + 1)), results);
+        verify(cache).put(table, new EarliestObject("KEY", "ETAG", CUTOFF + 1));
+        verify(s3Client, never()).hasObjectOlderThan(anyString(), anyLong());
+    }
+
+    @Test
+    void scan_shouldListWhenTheCacheCannotBeRead() {
+        var target = new S3MetadataScanner(s3Client, 1, NO_DELAY, 0, cache);
+        var table = new TableS3Location("TABLE", "LOCATION");
+
+        when(cache.get(table)).thenThrow(new IllegalStateException("Cache unavailable"));
+        doThrow(new IllegalStateException("Cache unavailable")).when(cache).put(any(), any());
+        when(s3Client.hasObjectOlderThan("LOCATION", CUTOFF))
+                .thenReturn(new ObjectAgeCheck(CUTOFF + 5, "KEY", "ETAG", false, 1));
+
+        var results = target.scan(Stream.of(table), CUTOFF, logger).collect(toSet());
+
+        assertEquals(Set.of(new TableS3MetaData("TABLE", "LOCATION", CUTOFF + 5)), results);
+    }
+
+    @Test
+    void scan_shouldRevalidateCachedEarliestObjectOlderThanCutoffByETag() {
+        var target = new S3MetadataScanner(s3Client, 1, NO_DELAY, 0, cache);
+        var table = new TableS3Location("TABLE", "LOCATION");
+
+        when(cache.get(table)).thenReturn(Optional.of(new EarliestObject("KEY", "ETAG", CUTOFF)));
+        when(s3Client.getETag("LOCATION", "KEY")).thenReturn(Optional.of("ETAG"));
+
+        var results = target.scan(Stream.of(table), CUTOFF, logger).collect(toSet());
+
+        assertEquals(Set.of(new TableS3MetaData("TABLE", "LOCATION", CUTOFF)), results);
+        verify(s3Client, never()).hasObjectOlderThan(anyString(), anyLong());
+    }
+
+    @Test
+    void scan_shouldListAgainAndRefreshCacheWhenEarliestObjectHasChanged() {
+        var target = new S3MetadataScanner(s3Client, 1, NO_DELAY, 0, cache);
+        var table = new TableS3Location("TABLE", "LOCATION");
+
+        when(cache.get(table)).thenReturn(Optional.of(new EarliestObject("KEY", "ETAG", CUTOFF)));
+        when(s3Client.getETag("LOCATION", "KEY")).thenReturn(Optional.empty());
+        when(s3Client.hasObjectOlderThan("LOCATION", CUTOFF))
+                .thenReturn(new ObjectAgeCheck(CUTOFF + 5, "OTHER_KEY", "OTHER_ETAG", false, 1));
+
+        var results = target.scan(Stream.of(table), CUTOFF, logger).collect(toSet());
+
+        assertEquals(Set.of(new TableS3MetaData("TABLE", "LOCATION", CUTOFF + 5)), results);
+        verify(cache).put(table, new EarliestObject("OTHER_KEY", "OTHER_ETAG", CUTOFF + 5));
+    }
+
+    private static S3Exception s3Exception(int statusCode, String errorCode) {
+        return S3Exception.builder()
+                .statusCode(statusCode)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode(errorCode).build())
+                .build();
+    }
+}
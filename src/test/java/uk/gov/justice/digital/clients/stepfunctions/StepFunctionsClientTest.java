@@ -0,0 +1,111 @@
+package uk.gov.justice.digital.clients.stepfunctions;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.sfn.SfnAsyncClient;
+import software.amazon.awssdk.services.sfn.model.SendTaskFailureRequest;
+import software.amazon.awssdk.services.sfn.model.SendTaskFailureResponse;
+import software.amazon.awssdk.services.sfn.model.SendTaskSuccessRequest;
+import software.amazon.awssdk.services.sfn.model.SendTaskSuccessResponse;
+import software.amazon.awssdk.services.sfn.model.SfnException;
+import software.amazon.awssdk.services.sfn.model.TaskTimedOutException;
+import uk.gov.justice.digital.common.Backoff;
+import uk.gov.justice.digital.common.RetryBudget;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StepFunctionsClientTest {
+
+    private static final Backoff NO_DELAY = new Backoff(0, 0, 1, 0);
+    private static final String TOKEN = "token";
+
+    @Mock
+    StepFunctionsProvider provider;
+    @Mock
+    SfnAsyncClient stepFunctions;
+
+    @BeforeEach
+    void setUp() {
+        when(provider.buildClient()).thenReturn(stepFunctions);
+    }
+
+    @Test
+    void notifyStepFunctionSuccess_shouldRetryThrottledCalls() {
+        var target = new StepFunctionsClient(provider, NO_DELAY, 3, new RetryBudget(10, 1, 1));
+
+        when(stepFunctions.sendTaskSuccess(any(SendTaskSuccessRequest.class))).thenReturn(
+                failedFuture(sfnException(400, "ThrottlingException")),
+                failedFuture(sfnException(500, "InternalFailure")),
+                completedFuture(SendTaskSuccessResponse.builder().build())
+        );
+
+        target.notifyStepFunctionSuccess(TOKEN);
+
+        verify(stepFunctions, times(3)).sendTaskSuccess(any(SendTaskSuccessRequest.class));
+    }
+
+    @Test
+    void notifyStepFunctionSuccess_shouldStopRetryingOnceBudgetIsSpent() {
+        var target = new StepFunctionsClient(provider, NO_DELAY, 3, new RetryBudget(1, 1, 1));
+        var throttled = sfnException(400, "ThrottlingException");
+
+        when(stepFunctions.sendTaskSuccess(any(SendTaskSuccessRequest.class))).thenReturn(failedFuture(throttled));
+
+        assertSame(throttled, assertThrows(SfnException.class, () -> target.notifyStepFunctionSuccess(TOKEN)));
+        verify(stepFunctions, times(2)).sendTaskSuccess(any(SendTaskSuccessRequest.class));
+    }
+
+    @Test
+    void notifyStepFunctionFailure_shouldNotRetryTerminalErrors() {
+        var target = new StepFunctionsClient(provider, NO_DELAY, 3, new RetryBudget(10, 1, 1));
+        var timedOut = TaskTimedOutException.builder().statusCode(400).message("timed out").build();
+
+        when(stepFunctions.sendTaskFailure(any(SendTaskFailureRequest.class))).thenReturn(failedFuture(timedOut));
+
+        var thrown = assertThrows(TerminalNotificationException.class, () -> target.notifyStepFunctionFailure(TOKEN, "error"));
+        assertSame(timedOut, thrown.getCause());
+        verify(stepFunctions, times(1)).sendTaskFailure(any(SendTaskFailureRequest.class));
+    }
+
+    @Test
+    void notifyStepFunctionFailure_shouldNotRetryOtherClientErrors() {
+        var target = new StepFunctionsClient(provider, NO_DELAY, 3, new RetryBudget(10, 1, 1));
+
+        when(stepFunctions.sendTaskFailure(any(SendTaskFailureRequest.class)))
+                .thenReturn(failedFuture(sfnException(403, "AccessDeniedException")));
+
+        assertThrows(SfnException.class, () -> target.notifyStepFunctionFailure(TOKEN, "error"));
+        verify(stepFunctions, times(1)).sendTaskFailure(any(SendTaskFailureRequest.class));
+    }
+
+    @Test
+    void notifyStepFunctionSuccessAsync_shouldNotBlockCaller() {
+        var target = new StepFunctionsClient(provider, NO_DELAY, 0, new RetryBudget(10, 1, 1));
+
+        when(stepFunctions.sendTaskSuccess(any(SendTaskSuccessRequest.class)))
+                .thenReturn(completedFuture(SendTaskSuccessResponse.builder().build()));
+        when(stepFunctions.sendTaskFailure(any(SendTaskFailureRequest.class)))
+                .thenReturn(completedFuture(SendTaskFailureResponse.builder().build()));
+
+        var success = target.notifyStepFunctionSuccessAsync(TOKEN);
+        var failure = target.notifyStepFunctionFailureAsync(TOKEN, "error");
+
+        assertDoesNotThrow(() -> success.thenCombine(failure, (a, b) -> null).join());
+    }
+
+    private static SfnException sfnException(int statusCode, String errorCode) {
+        return SfnException.builder()
+                .statusCode(statusCode)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode(errorCode).build())
+                .build();
+    }
+}
@@ -0,0 +1,97 @@
+package uk.gov.justice.digital.common;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class EmfMetricsTest {
+
+    private static final Clock CLOCK = Clock.fixed(Instant.ofEpochMilli(1000), ZoneOffset.UTC);
+
+    @Test
+    void drain_shouldWriteCountersAndSamplesAsOneRecord() {
+        var metrics = new EmfMetrics("NAMESPACE", Map.of("FunctionName", "FUNCTION"), CLOCK);
+
+        metrics.increment("Dropped", 2);
+        metrics.increment("Dropped");
+        metrics.recordMillis("Latency", 5);
+        metrics.recordMillis("Latency", 7);
+        metrics.recordMillis("Latency", 5);
+
+        assertEquals(
+                List.of("{\"_aws\":{\"Timestamp\":1000,\"CloudWatchMetrics\":[{\"Namespace\":\"NAMESPACE\"," +
+                        "\"Dimensions\":[[\"FunctionName\"]]," +
+                        "\"Metrics\":[{\"Name\":\"Dropped\",\"Unit\":\"Count\"},{\"Name\":\"Latency\",\"Unit\":\"Milliseconds\"}]}]}," +
+                        "\"FunctionName\":\"FUNCTION\",\"Dropped\":3,\"Latency\":{\"Values\":[5,7],\"Counts\":[2,1]}}"),
+                metrics.drain()
+        );
+    }
+
+    @Test
+    void drain_shouldStartAfreshOnceFlushed() {
+        var metrics = new EmfMetrics("NAMESPACE", Map.of(), CLOCK);
+
+        metrics.increment("Dropped");
+        assertEquals(1, metrics.drain().size());
+
+        assertEquals(List.of(), metrics.drain());
+    }
+
+    @Test
+    void drain_shouldSplitSamplesWithMoreDistinctValuesThanEmfAllowsAcrossRecords() {
+        var metrics = new EmfMetrics("NAMESPACE", Map.of(), CLOCK);
+        int distinctValues = EmfMetrics.MAX_VALUES * 2 + 1;
+
+        metrics.increment("Dropped");
+        for (int repeat = 0; repeat < 3; repeat++) {
+            for (int i = 0; i < distinctValues; i++) metrics.recordMillis("Latency", i);
+        }
+
+        List<String> records = metrics.drain();
+
+        assertEquals(3, records.size());
+        assertTrue(records.get(0).contains("\"Dropped\":1"));
+        assertFalse(records.get(1).contains("Dropped"));
+        int values = 0;
+        long samples = 0;
+        for (String record : records) {
+            String counts = record.substring(record.indexOf("\"Counts\":[") + "\"Counts\":[".length(), record.lastIndexOf(']'));
+            for (String count : counts.split(",")) {
+                assertEquals(3, Long.parseLong(count));
+                values++;
+                samples += Long.parseLong(count);
+            }
+        }
+        assertEquals(distinctValues, values);
+        assertEquals(distinctValues * 3L, samples);
+    }
+
+    @Test
+    void startTimer_shouldRecordElapsedMillis() {
+        var clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(100L, 350L, 400L);
+        var metrics = new EmfMetrics("NAMESPACE", Map.of(), clock);
+
+        assertEquals(250, metrics.startTimer("Latency").stop());
+        assertTrue(metrics.drain().get(0).endsWith("\"Latency\":{\"Values\":[250],\"Counts\":[1]}}"));
+    }
+
+    @Test
+    void flush_shouldWriteNothingWhenDisabled() {
+        var logger = mock(LambdaLogger.class);
+        var metrics = EmfMetrics.disabled();
+
+        metrics.increment("Dropped");
+        metrics.flush(logger);
+
+        verifyNoInteractions(logger);
+    }
+}
@@ -0,0 +1,29 @@
+package uk.gov.justice.digital.common;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetryBudgetTest {
+
+    @Test
+    void tryAcquireRetry_shouldRefuseOnceTokensAreSpent() {
+        var budget = new RetryBudget(10, 5, 1);
+
+        assertTrue(budget.tryAcquireRetry());
+        assertTrue(budget.tryAcquireRetry());
+        assertFalse(budget.tryAcquireRetry());
+    }
+
+    @Test
+    void recordSuccess_shouldRefillUpToCapacity() {
+        var budget = new RetryBudget(10, 5, 3);
+
+        budget.tryAcquireRetry();
+        budget.recordSuccess();
+        assertEquals(8, budget.availableTokens());
+
+        budget.recordSuccess();
+        assertEquals(10, budget.availableTokens());
+    }
+}
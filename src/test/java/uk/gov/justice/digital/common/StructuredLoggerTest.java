@@ -0,0 +1,63 @@
+package uk.gov.justice.digital.common;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.logging.LogLevel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StructuredLoggerTest {
+
+    @Mock
+    LambdaLogger logger;
+
+    @Test
+    void log_shouldNotBuildMessagesBelowTheMinimumLevel() {
+        var target = new StructuredLogger(logger, LogLevel.INFO, 100);
+        Supplier<String> message = () -> fail("Message should not have been built");
+
+        target.debug(message);
+
+        verifyNoInteractions(logger);
+    }
+
+    @Test
+    void log_shouldWriteMessageAndFieldsAsJson() {
+        var target = new StructuredLogger(logger, LogLevel.INFO, 100);
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("count", 3);
+        fields.put("table", "a \"quoted\"\nname");
+
+        target.log(LogLevel.WARN, () -> "Dropped tables", () -> fields);
+
+        verify(logger).log(
+                "{\"level\":\"WARN\",\"message\":\"Dropped tables\",\"count\":3,\"table\":\"a \\\"quoted\\\"\\nname\"}",
+                LogLevel.WARN
+        );
+    }
+
+    @Test
+    void log_shouldTruncateLongValues() {
+        var target = new StructuredLogger(logger, LogLevel.INFO, 5);
+
+        target.info(() -> "0123456789");
+
+        verify(logger).log("{\"level\":\"INFO\",\"message\":\"01234... (5 more chars)\"}", LogLevel.INFO);
+    }
+
+    @Test
+    void summarise_shouldListOnlyTheFirstItems() {
+        assertEquals("[a, b, ... 2 more]", StructuredLogger.summarise(List.of("a", "b", "c", "d"), 2));
+        assertEquals("[a, b]", StructuredLogger.summarise(List.of("a", "b"), 2));
+    }
+}
@@ -0,0 +1,37 @@
+package uk.gov.justice.digital.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimeBudgetTest {
+
+    @Test
+    void allowsNewWork_shouldRefuseOnceOnlyTheReserveIsLeft() {
+        var remainingMillis = new AtomicLong(1500);
+        var budget = new TimeBudget(remainingMillis::get, 1000, 100);
+
+        assertTrue(budget.allowsNewWork());
+
+        remainingMillis.set(1000);
+        assertFalse(budget.allowsNewWork());
+    }
+
+    @Test
+    void finishingMillis_shouldKeepBackTheWrapUpTime() {
+        var remainingMillis = new AtomicLong(1500);
+        var budget = new TimeBudget(remainingMillis::get, 1000, 100);
+
+        assertEquals(1400, budget.finishingMillis());
+
+        remainingMillis.set(50);
+        assertEquals(0, budget.finishingMillis());
+    }
+
+    @Test
+    void shouldRejectWrapUpLongerThanTheReserve() {
+        assertThrows(IllegalArgumentException.class, () -> new TimeBudget(() -> 0, 100, 1000));
+    }
+}
@@ -0,0 +1,57 @@
+package uk.gov.justice.digital.lambda;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static uk.gov.justice.digital.common.Utils.DEFAULT_TOKEN_EXPIRY_DAYS;
+
+class DMSNotificationEventTest {
+
+    @Test
+    void parse_shouldBindRegisterTaskTokenEvent() throws Exception {
+        var event = DMSNotificationEvent.parse(
+                "{\"token\": \"TOKEN\", \"replicationTaskArn\": \"ARN\", \"ignoreDmsTaskFailure\": true, \"tokenExpiryDays\": \"5\"}"
+        );
+
+        assertEquals(DMSNotificationEvent.Type.REGISTER_TASK_TOKEN, event.type());
+        assertEquals("TOKEN", event.token);
+        assertEquals("ARN", event.taskArn());
+        assertTrue(event.ignoreDmsTaskFailure);
+        assertEquals(5L, event.tokenExpiryDays);
+    }
+
+    @Test
+    void parse_shouldBindStoppageEventAndIgnoreUnknownFields() throws Exception {
+        var event = DMSNotificationEvent.parse(
+                "{\"version\": \"0\", \"resources\": [\"ARN\"], \"detail\": {\"eventId\": \"DMS-EVENT-0079\", \"type\": \"x\"}}"
+        );
+
+        assertEquals(DMSNotificationEvent.Type.PROCESS_DMS_STOPPAGE, event.type());
+        assertEquals("ARN", event.taskArn());
+        assertEquals("DMS-EVENT-0079", event.eventId());
+        assertEquals(DEFAULT_TOKEN_EXPIRY_DAYS, event.tokenExpiryDays);
+    }
+
+    @Test
+    void parse_shouldRejectStoppageEventWithoutResources() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> DMSNotificationEvent.parse("{\"resources\": [], \"detail\": {\"eventId\": \"DMS-EVENT-0079\"}}")
+        );
+    }
+
+    @Test
+    void parse_shouldRejectStoppageEventWithoutEventId() {
+        assertThrows(IllegalArgumentException.class, () -> DMSNotificationEvent.parse("{\"resources\": [\"ARN\"]}"));
+    }
+
+    @Test
+    void fromMap_shouldRejectTaskRegistrationWithoutToken() {
+        Map<String, Object> event = Map.of("tasks", List.of(Map.of("replicationTaskArn", "ARN")));
+
+        assertThrows(IllegalArgumentException.class, () -> DMSNotificationEvent.fromMap(event));
+    }
+}
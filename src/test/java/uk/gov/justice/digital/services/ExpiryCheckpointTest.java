@@ -0,0 +1,45 @@
+package uk.gov.justice.digital.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toCollection;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpiryCheckpointTest {
+
+    @Test
+    void fromToken_shouldRestoreTheCheckpointTheTokenWasMadeFrom() {
+        var checkpoint = new ExpiryCheckpoint(1000, 700, Set.of("CHECKED"), List.of("BATCH_1", "BATCH_2"), true);
+
+        var restored = ExpiryCheckpoint.fromToken(checkpoint.toToken());
+
+        assertEquals(1000, restored.runStartedSeconds);
+        assertEquals(700, restored.changedSinceSeconds);
+        assertEquals(Set.of("CHECKED"), restored.checkedTables);
+        assertEquals(List.of("BATCH_1", "BATCH_2"), restored.pendingBatchIds);
+        assertTrue(restored.removalsFailed);
+    }
+
+    @Test
+    void checkedTables_shouldOnlyKeepTheFirstTablesUpToTheLimit() {
+        var checkedTables = IntStream.range(0, ExpiryCheckpoint.MAX_CHECKED_TABLES + 10)
+                .mapToObj(i -> "CHECKED_" + i)
+                .collect(toCollection(LinkedHashSet::new));
+
+        var checkpoint = new ExpiryCheckpoint(1000, 700, checkedTables, List.of(), false);
+
+        assertEquals(ExpiryCheckpoint.MAX_CHECKED_TABLES, checkpoint.checkedTables.size());
+        assertTrue(checkpoint.checkedTables.contains("CHECKED_0"));
+        assertFalse(checkpoint.checkedTables.contains("CHECKED_" + ExpiryCheckpoint.MAX_CHECKED_TABLES));
+    }
+
+    @Test
+    void fromToken_shouldRejectATokenItDidNotMake() {
+        assertThrows(IllegalArgumentException.class, () -> ExpiryCheckpoint.fromToken("not a token"));
+    }
+}
@@ -5,18 +5,42 @@ import com.amazonaws.services.lambda.runtime.logging.LogLevel;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import software.amazon.awssdk.services.redshiftdata.model.*;
-import uk.gov.justice.digital.TableS3Location;
+import uk.gov.justice.digital.ExternalTable;
+import uk.gov.justice.digital.clients.ExpiryStateStore;
+import uk.gov.justice.digital.clients.ExternalTableDiscovery;
 import uk.gov.justice.digital.clients.redshift.ExternalTableQueryExecutor;
+import uk.gov.justice.digital.clients.s3.ObjectAgeCheck;
 import uk.gov.justice.digital.clients.s3.S3Client;
+import uk.gov.justice.digital.clients.s3.S3MetadataScanner;
+import uk.gov.justice.digital.common.Backoff;
+import uk.gov.justice.digital.common.EmfMetrics;
+import uk.gov.justice.digital.common.TimeBudget;
 
+import java.time.Clock;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
-
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
@@ -25,6 +49,8 @@ import static org.mockito.Mockito.*;
 class RedShiftTableExpiryServiceTest {
 
     private static final int TABLE_EXPIRY_SECONDS = 10000;
+    private static final String GET_TABLES_ID = "GET_TABLES_ID";
+    private static final String REMOVE_TABLE_ID = "REMOVE_TABLE_ID";
 
     @Mock
     ExternalTableQueryExecutor queryExecutor;
@@ -32,161 +58,357 @@ class RedShiftTableExpiryServiceTest {
     S3Client s3Client;
     @Mock
     LambdaLogger mockLambdaLogger;
+    @Mock
+    ExternalTableDiscovery discovery;
+    @Mock
+    ExpiryStateStore stateStore;
+
+    private final List<List<String>> removedTables = new ArrayList<>();
 
     private RedShiftTableExpiryService underTest;
 
     @BeforeEach
     public void setup() {
-        underTest = new RedShiftTableExpiryService(s3Client, queryExecutor, TABLE_EXPIRY_SECONDS);
+        removedTables.clear();
+        var s3Scanner = new S3MetadataScanner(s3Client, 2, new Backoff(0, 0, 1, 0), 0);
+        underTest = new RedShiftTableExpiryService(s3Scanner, queryExecutor, TABLE_EXPIRY_SECONDS);
+
+        doNothing().when(mockLambdaLogger).log(anyString(), eq(LogLevel.INFO));
+        lenient().doNothing().when(mockLambdaLogger).log(anyString(), eq(LogLevel.DEBUG));
+
+        lenient().when(queryExecutor.startExternalTablesQuery(anyLong()))
+                .thenReturn(ExecuteStatementResponse.builder().id(GET_TABLES_ID).build());
+        when(queryExecutor.removeExternalTables(any(), any())).thenAnswer(invocation -> {
+            Stream<String> tableNames = invocation.getArgument(0);
+            removedTables.add(tableNames.collect(toList()));
+            return singletonList(BatchExecuteStatementResponse.builder().id(REMOVE_TABLE_ID + removedTables.size()).build());
+        });
+        when(queryExecutor.requestCompletes(any(), any(), any()))
+                .thenReturn(completedFuture(true));
     }
 
     @Test
     public void removeExpiredExternalTables_success_shouldCompleteSuccessfully() {
-        String getExpiredTablesId = "GET_EXPIRED_TABLES_ID";
-        String getInvalidTablesId = "GET_INVALID_TABLES_ID";
-        String removeTableId = "REMOVE_TABLE_ID";
         String expiredTableName = "TABLE_NAME";
 
-        doNothing().when(mockLambdaLogger).log(anyString(), eq(LogLevel.INFO));
-
-        when(queryExecutor.startExpiredTablesQuery(anyInt()))
-                .thenReturn(ExecuteStatementResponse.builder().id(getExpiredTablesId).build());
-        when(queryExecutor.startInvalidTablesQuery())
-                .thenReturn(ExecuteStatementResponse.builder().id(getInvalidTablesId).build());
-        when(queryExecutor.getExpiredExternalTableNames(any(), any()))
-                .thenReturn(singletonList(expiredTableName));
-        when(queryExecutor.removeExternalTables(any(), any()))
-                .thenReturn(singletonList(ExecuteStatementResponse.builder().id(removeTableId).build()));
-        when(queryExecutor.getInvalidTables(any(), any()))
-                .thenReturn(emptyList());
+        when(queryExecutor.getExternalTables(any(), any()))
+                .thenReturn(Stream.of(expired(expiredTableName)));
 
         underTest.removeExpiredExternalTables(mockLambdaLogger);
 
-        verify(queryExecutor).startExpiredTablesQuery(TABLE_EXPIRY_SECONDS);
-        verify(queryExecutor).startInvalidTablesQuery();
-        verify(queryExecutor).getExpiredExternalTableNames(ExecuteStatementResponse.builder().id(getExpiredTablesId).build(), mockLambdaLogger);
-        verify(queryExecutor).removeExternalTables(singletonList(expiredTableName), mockLambdaLogger);
-        verify(queryExecutor).getInvalidTables(ExecuteStatementResponse.builder().id(getInvalidTablesId).build(), mockLambdaLogger);
+        verify(queryExecutor).startExternalTablesQuery(0);
+        verify(queryExecutor).getExternalTables(ExecuteStatementResponse.builder().id(GET_TABLES_ID).build(), mockLambdaLogger);
+        verify(queryExecutor).requestCompletes(eq(REMOVE_TABLE_ID + 1), eq(mockLambdaLogger), any());
+        assertEquals(singletonList(singletonList(expiredTableName)), removedTables);
     }
 
     @Test
     public void removeExpiredExternalTables_largeQuantity_shouldBatchSuccessfully() {
-        String getExpiredTablesId = "GET_EXPIRED_TABLES_ID";
-        String getInvalidTablesId = "GET_INVALID_TABLES_ID";
-        String removeTableId = "REMOVE_TABLE_ID";
         String expiredTableName = "TABLE_NAME";
 
-        doNothing().when(mockLambdaLogger).log(anyString(), eq(LogLevel.INFO));
+        when(queryExecutor.getExternalTables(any(), any()))
+                .thenReturn(Collections.nCopies(501, expired(expiredTableName)).stream());
 
-        when(queryExecutor.startExpiredTablesQuery(anyInt()))
-                .thenReturn(ExecuteStatementResponse.builder().id(getExpiredTablesId).build());
-        when(queryExecutor.startInvalidTablesQuery())
-                .thenReturn(ExecuteStatementResponse.builder().id(getInvalidTablesId).build());
-        when(queryExecutor.getExpiredExternalTableNames(any(), any()))
-                .thenReturn(Collections.nCopies(501, expiredTableName));
-        when(queryExecutor.removeExternalTables(any(), any()))
-                .thenReturn(singletonList(ExecuteStatementResponse.builder().id(removeTableId).build()));
-        when(queryExecutor.getInvalidTables(any(), any()))
-                .thenReturn(emptyList());
+        underTest.removeExpiredExternalTables(mockLambdaLogger);
+
+        verify(queryExecutor).startExternalTablesQuery(0);
+        verify(queryExecutor).getExternalTables(ExecuteStatementResponse.builder().id(GET_TABLES_ID).build(), mockLambdaLogger);
+        assertEquals(singletonList(Collections.nCopies(501, expiredTableName)), removedTables);
+    }
+
+    @Test
+    public void removeExpiredExternalTables_shouldClassifyOneListingOfTables() {
+        long now = Instant.now().getEpochSecond();
+
+        when(queryExecutor.getExternalTables(any(), any())).thenReturn(Stream.of(
+                new ExternalTable("INVALID", "INVALID_LOCATION", null),
+                expired("EXPIRED_1"),
+                new ExternalTable("RECENT", "RECENT_LOCATION", now - TABLE_EXPIRY_SECONDS + 100),
+                expired("EXPIRED_2")
+        ));
+        when(s3Client.hasObjectOlderThan(anyString(), anyLong()))
+                .thenReturn(new ObjectAgeCheck(null, false, 1));
 
         underTest.removeExpiredExternalTables(mockLambdaLogger);
 
-        verify(queryExecutor).startExpiredTablesQuery(TABLE_EXPIRY_SECONDS);
-        verify(queryExecutor).startInvalidTablesQuery();
-        verify(queryExecutor).getExpiredExternalTableNames(ExecuteStatementResponse.builder().id(getExpiredTablesId).build(), mockLambdaLogger);
-        verify(queryExecutor).removeExternalTables(Collections.nCopies(501, expiredTableName), mockLambdaLogger);
-        verify(queryExecutor).getInvalidTables(ExecuteStatementResponse.builder().id(getInvalidTablesId).build(), mockLambdaLogger);
+        verify(queryExecutor, times(1)).startExternalTablesQuery(anyLong());
+        verify(s3Client).hasObjectOlderThan(eq("INVALID_LOCATION"), anyLong());
+        assertEquals(1, removedTables.size());
+        assertEquals(Set.of("EXPIRED_1", "EXPIRED_2", "INVALID"), Set.copyOf(removedTables.get(0)));
     }
 
     @Test
     public void removeExpiredExternalTables_invalidTablesWithNoData_shouldBeRemoved() {
-        String getExpiredTablesId = "GET_EXPIRED_TABLES_ID";
-        String getInvalidTablesId = "GET_INVALID_TABLES_ID";
         String invalidTableName = "TABLE_NAME";
         String invalidTableLocation = "TABLE_LOCATION";
 
-        doNothing().when(mockLambdaLogger).log(anyString(), eq(LogLevel.INFO));
-
-        when(queryExecutor.startExpiredTablesQuery(anyInt()))
-                .thenReturn(ExecuteStatementResponse.builder().id(getExpiredTablesId).build());
-        when(queryExecutor.startInvalidTablesQuery())
-                .thenReturn(ExecuteStatementResponse.builder().id(getInvalidTablesId).build());
-        when(queryExecutor.getExpiredExternalTableNames(any(), any()))
-                .thenReturn(emptyList());
-        when(queryExecutor.getInvalidTables(any(), any()))
-                .thenReturn(singletonList(new TableS3Location(invalidTableName, invalidTableLocation)));
-        when(s3Client.getEarliestObjectCreatedDate(any()))
-                .thenReturn(null);
+        when(queryExecutor.getExternalTables(any(), any()))
+                .thenReturn(Stream.of(new ExternalTable(invalidTableName, invalidTableLocation, null)));
+        when(s3Client.hasObjectOlderThan(anyString(), anyLong()))
+                .thenReturn(new ObjectAgeCheck(null, false, 1));
 
         underTest.removeExpiredExternalTables(mockLambdaLogger);
 
-        verify(queryExecutor).startExpiredTablesQuery(TABLE_EXPIRY_SECONDS);
-        verify(queryExecutor).startInvalidTablesQuery();
-        verify(queryExecutor).getExpiredExternalTableNames(ExecuteStatementResponse.builder().id(getExpiredTablesId).build(), mockLambdaLogger);
-        verify(queryExecutor).getInvalidTables(ExecuteStatementResponse.builder().id(getInvalidTablesId).build(), mockLambdaLogger);
-        verify(queryExecutor).removeExternalTables(singletonList(invalidTableName), mockLambdaLogger);
-        verify(s3Client).getEarliestObjectCreatedDate(invalidTableLocation);
+        verify(queryExecutor).startExternalTablesQuery(0);
+        verify(queryExecutor).getExternalTables(ExecuteStatementResponse.builder().id(GET_TABLES_ID).build(), mockLambdaLogger);
+        verify(s3Client).hasObjectOlderThan(eq(invalidTableLocation), anyLong());
+        assertEquals(singletonList(singletonList(invalidTableName)), removedTables);
     }
 
     @Test
     public void removeExpiredExternalTables_invalidTablesWithExpiredCreationDate_shouldBeRemoved() {
-        String getExpiredTablesId = "GET_EXPIRED_TABLES_ID";
-        String getInvalidTablesId = "GET_INVALID_TABLES_ID";
         String invalidTableName = "TABLE_NAME";
         String invalidTableLocation = "TABLE_LOCATION";
         long created = Instant.now().toEpochMilli() - ((TABLE_EXPIRY_SECONDS + 1) * 1000);
 
-        doNothing().when(mockLambdaLogger).log(anyString(), eq(LogLevel.INFO));
-
-        when(queryExecutor.startExpiredTablesQuery(anyInt()))
-                .thenReturn(ExecuteStatementResponse.builder().id(getExpiredTablesId).build());
-        when(queryExecutor.startInvalidTablesQuery())
-                .thenReturn(ExecuteStatementResponse.builder().id(getInvalidTablesId).build());
-        when(queryExecutor.getExpiredExternalTableNames(any(), any()))
-                .thenReturn(emptyList());
-        when(queryExecutor.getInvalidTables(any(), any()))
-                .thenReturn(singletonList(new TableS3Location(invalidTableName, invalidTableLocation)));
-        when(s3Client.getEarliestObjectCreatedDate(any()))
-                .thenReturn(created);
+        when(queryExecutor.getExternalTables(any(), any()))
+                .thenReturn(Stream.of(new ExternalTable(invalidTableName, invalidTableLocation, null)));
+        when(s3Client.hasObjectOlderThan(anyString(), anyLong()))
+                .thenReturn(new ObjectAgeCheck(created, true, 1));
 
         underTest.removeExpiredExternalTables(mockLambdaLogger);
 
-        verify(queryExecutor).startExpiredTablesQuery(TABLE_EXPIRY_SECONDS);
-        verify(queryExecutor).startInvalidTablesQuery();
-        verify(queryExecutor).getExpiredExternalTableNames(ExecuteStatementResponse.builder().id(getExpiredTablesId).build(), mockLambdaLogger);
-        verify(queryExecutor).getInvalidTables(ExecuteStatementResponse.builder().id(getInvalidTablesId).build(), mockLambdaLogger);
-        verify(queryExecutor).removeExternalTables(singletonList(invalidTableName), mockLambdaLogger);
-        verify(s3Client).getEarliestObjectCreatedDate(invalidTableLocation);
+        verify(queryExecutor).startExternalTablesQuery(0);
+        verify(queryExecutor).getExternalTables(ExecuteStatementResponse.builder().id(GET_TABLES_ID).build(), mockLambdaLogger);
+        verify(s3Client).hasObjectOlderThan(eq(invalidTableLocation), anyLong());
+        assertEquals(singletonList(singletonList(invalidTableName)), removedTables);
     }
 
     @Test
     public void removeExpiredExternalTables_invalidTablesWithValidCreationDate_areNotDeleted() {
-        String getExpiredTablesId = "GET_EXPIRED_TABLES_ID";
-        String getInvalidTablesId = "GET_INVALID_TABLES_ID";
         String invalidTableName = "TABLE_NAME";
         String invalidTableLocation = "TABLE_LOCATION";
         long created = Instant.now().minusSeconds(TABLE_EXPIRY_SECONDS - 200).toEpochMilli();
 
-        doNothing().when(mockLambdaLogger).log(anyString(), eq(LogLevel.INFO));
+        when(queryExecutor.getExternalTables(any(), any()))
+                .thenReturn(Stream.of(new ExternalTable(invalidTableName, invalidTableLocation, null)));
+        when(s3Client.hasObjectOlderThan(anyString(), anyLong()))
+                .thenReturn(new ObjectAgeCheck(created, false, 1));
+
+        underTest.removeExpiredExternalTables(mockLambdaLogger);
+
+        verify(queryExecutor).startExternalTablesQuery(0);
+        verify(queryExecutor).getExternalTables(ExecuteStatementResponse.builder().id(GET_TABLES_ID).build(), mockLambdaLogger);
+        verify(s3Client).hasObjectOlderThan(eq(invalidTableLocation), anyLong());
+        assertEquals(singletonList(emptyList()), removedTables);
+    }
+
+    @Test
+    public void removeExpiredExternalTables_shouldFlushOneMetricsRecordPerRun() {
+        var s3Scanner = new S3MetadataScanner(s3Client, 2, new Backoff(0, 0, 1, 0), 0);
+        var metrics = new EmfMetrics("NAMESPACE", Map.of(), Clock.systemUTC());
+        underTest = new RedShiftTableExpiryService(s3Scanner, queryExecutor, TABLE_EXPIRY_SECONDS, metrics);
+        long created = Instant.now().minusSeconds(TABLE_EXPIRY_SECONDS - 200).toEpochMilli();
+
+        when(queryExecutor.getExternalTables(any(), any()))
+                .thenReturn(Stream.of(expired("EXPIRED_1"), expired("EXPIRED_2"), new ExternalTable("INVALID", "INVALID_LOCATION", null)));
+        when(s3Client.hasObjectOlderThan(anyString(), anyLong()))
+                .thenReturn(new ObjectAgeCheck(created, false, 1));
+
+        underTest.removeExpiredExternalTables(mockLambdaLogger);
+
+        var recordCaptor = ArgumentCaptor.forClass(String.class);
+        verify(mockLambdaLogger, times(1)).log(recordCaptor.capture());
+        assertTrue(recordCaptor.getValue().contains("\"TableRemovalsRequested\":2"));
+        assertTrue(recordCaptor.getValue().contains("\"TablesSkipped\":1"));
+    }
+
+    @Test
+    public void removeExpiredExternalTables_withStateStore_shouldDropChangedAndDueTablesAndHoldTheRest() {
+        long now = Instant.now().getEpochSecond();
+        long recentDdlTime = now - TABLE_EXPIRY_SECONDS + 100;
+        useStateStore(OptionalLong.empty(), List.of(
+                expired("EXPIRED"),
+                new ExternalTable("REDEFINED", "REDEFINED_LOCATION", recentDdlTime)
+        ));
+        when(stateStore.dueTables(anyLong())).thenReturn(List.of("DUE", "REDEFINED", "EXPIRED"));
+
+        underTest.removeExpiredExternalTables(mockLambdaLogger);
+
+        verify(discovery).tablesChangedSince(0, mockLambdaLogger);
+        assertEquals(singletonList(asList("EXPIRED", "DUE")), removedTables);
+        verify(stateStore).update(
+                eq(Map.of("REDEFINED", recentDdlTime + TABLE_EXPIRY_SECONDS)),
+                argThat(removed -> Set.copyOf(removed).equals(Set.of("EXPIRED", "DUE")))
+        );
+        verify(stateStore).saveWatermark(longThat(watermark -> Math.abs(watermark - now) <= 1));
+    }
+
+    @Test
+    public void removeExpiredExternalTables_withStateStore_shouldOnlyForgetRemovedTablesThatWereHeld() {
+        useStateStore(OptionalLong.empty(), List.of(expired("NEVER_HELD")));
+        when(stateStore.dueTables(anyLong())).thenReturn(List.of("DUE"));
+
+        underTest.removeExpiredExternalTables(mockLambdaLogger);
+
+        assertEquals(singletonList(asList("NEVER_HELD", "DUE")), removedTables);
+        verify(stateStore).update(Map.of(), List.of("DUE"));
+    }
+
+    @Test
+    public void removeExpiredExternalTables_withStateStore_shouldKeepWatermarkWhenRemovalFails() {
+        long watermark = Instant.now().getEpochSecond() - 3600;
+        useStateStore(OptionalLong.of(watermark), List.of());
+        when(stateStore.dueTables(anyLong())).thenReturn(List.of("DUE"));
+        when(queryExecutor.requestCompletes(any(), any(), any())).thenReturn(completedFuture(false));
+        doNothing().when(mockLambdaLogger).log(anyString(), eq(LogLevel.WARN));
+        doNothing().when(mockLambdaLogger).log(anyString(), eq(LogLevel.ERROR));
+
+        underTest.removeExpiredExternalTables(mockLambdaLogger);
+
+        verify(discovery).tablesChangedSince(watermark - RedShiftTableExpiryService.WATERMARK_OVERLAP_SECONDS, mockLambdaLogger);
+        assertEquals(singletonList(singletonList("DUE")), removedTables);
+        verify(stateStore).update(Map.of(), List.of());
+        verify(stateStore, never()).saveWatermark(anyLong());
+    }
+
+    @Test
+    public void removeExpiredExternalTables_outOfTime_shouldStopTakingTablesAndReturnCheckpoint() {
+        doNothing().when(mockLambdaLogger).log(anyString(), eq(LogLevel.WARN));
+        when(queryExecutor.getExternalTables(any(), any())).thenReturn(Stream.of(
+                expired("EXPIRED_1"),
+                expired("EXPIRED_2"),
+                expired("EXPIRED_3"),
+                new ExternalTable("INVALID", "INVALID_LOCATION", null)
+        ));
+        // Enough time to start the run and take on two tables before only the reserve is left
+        var remainingMillis = new AtomicLong(1003);
+        var budget = new TimeBudget(remainingMillis::getAndDecrement, 1000, 0);
+
+        var run = underTest.removeExpiredExternalTables(null, budget, mockLambdaLogger);
+
+        assertFalse(run.isComplete());
+        assertEquals(2, run.removalsRequested);
+        assertEquals(singletonList(asList("EXPIRED_1", "EXPIRED_2")), removedTables);
+        verifyNoInteractions(s3Client);
+
+        var checkpoint = ExpiryCheckpoint.fromToken(run.checkpoint().orElseThrow().toToken());
+        assertEquals(0, checkpoint.changedSinceSeconds);
+        assertEquals(List.of(), checkpoint.pendingBatchIds);
+        assertFalse(checkpoint.removalsFailed);
+    }
+
+    @Test
+    public void removeExpiredExternalTables_removalStillRunning_shouldHandOnItsBatch() {
+        doNothing().when(mockLambdaLogger).log(anyString(), eq(LogLevel.WARN));
+        when(queryExecutor.getExternalTables(any(), any())).thenReturn(Stream.of(expired("EXPIRED")));
+        when(queryExecutor.requestCompletes(eq(REMOVE_TABLE_ID + 1), any(), any())).thenReturn(new CompletableFuture<>());
+
+        var run = underTest.removeExpiredExternalTables(null, new TimeBudget(() -> 2000, 1000, 1990), mockLambdaLogger);
+
+        assertFalse(run.isComplete());
+        assertEquals(List.of(REMOVE_TABLE_ID + 1), run.checkpoint().orElseThrow().pendingBatchIds);
+    }
 
-        when(queryExecutor.startExpiredTablesQuery(anyInt()))
-                .thenReturn(ExecuteStatementResponse.builder().id(getExpiredTablesId).build());
-        when(queryExecutor.startInvalidTablesQuery())
-                .thenReturn(ExecuteStatementResponse.builder().id(getInvalidTablesId).build());
-        when(queryExecutor.getExpiredExternalTableNames(any(), any()))
-                .thenReturn(emptyList());
-        when(queryExecutor.getInvalidTables(any(), any()))
-                .thenReturn(singletonList(new TableS3Location(invalidTableName, invalidTableLocation)));
-        when(s3Client.getEarliestObjectCreatedDate(any()))
-                .thenReturn(created);
+    @Test
+    public void removeExpiredExternalTables_resubmittedBatchStillRunning_shouldHandOnTheResubmittedBatch() {
+        doNothing().when(mockLambdaLogger).log(anyString(), eq(LogLevel.WARN));
+        doNothing().when(mockLambdaLogger).log(anyString(), eq(LogLevel.ERROR));
+        when(queryExecutor.getExternalTables(any(), any())).thenReturn(Stream.of(expired("EXPIRED")));
+        when(queryExecutor.requestCompletes(eq(REMOVE_TABLE_ID + 1), any(), any())).thenAnswer(invocation -> {
+            BiConsumer<String, String> onResubmitted = invocation.getArgument(2);
+            onResubmitted.accept(REMOVE_TABLE_ID + 1, "RETRY_1");
+            onResubmitted.accept("RETRY_1", "RETRY_2");
+            return new CompletableFuture<>();
+        });
+
+        var run = underTest.removeExpiredExternalTables(null, new TimeBudget(() -> 2000, 1000, 1990), mockLambdaLogger);
+
+        assertFalse(run.isComplete());
+        var checkpoint = run.checkpoint().orElseThrow();
+        assertEquals(List.of("RETRY_2"), checkpoint.pendingBatchIds);
+        assertTrue(checkpoint.removalsFailed);
+    }
+
+    @Test
+    public void removeExpiredExternalTables_removalFailedWithError_shouldStillHandOnProgress() {
+        doNothing().when(mockLambdaLogger).log(anyString(), eq(LogLevel.WARN));
+        doNothing().when(mockLambdaLogger).log(anyString(), eq(LogLevel.ERROR));
+        when(queryExecutor.getExternalTables(any(), any())).thenReturn(Stream.of(
+                expired("EXPIRED_1"),
+                expired("EXPIRED_2"),
+                expired("EXPIRED_3")
+        ));
+        when(queryExecutor.requestCompletes(eq(REMOVE_TABLE_ID + 1), any(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("Statement failed")));
+        // Enough time to start the run and take on two tables before only the reserve is left
+        var remainingMillis = new AtomicLong(1003);
+        var budget = new TimeBudget(remainingMillis::getAndDecrement, 1000, 0);
+
+        var run = underTest.removeExpiredExternalTables(null, budget, mockLambdaLogger);
+
+        assertFalse(run.isComplete());
+        assertFalse(run.removalsSucceeded);
+        var checkpoint = run.checkpoint().orElseThrow();
+        assertEquals(List.of(), checkpoint.pendingBatchIds);
+        assertTrue(checkpoint.removalsFailed);
+    }
+
+    @Test
+    public void removeExpiredExternalTables_mostlyInvalidListing_shouldLookUpTablesAsTheListingIsRead() {
+        int listingSize = 10_000;
+        var invalidRead = new AtomicInteger();
+        var lookedUp = new AtomicInteger();
+        var maxReadAhead = new AtomicInteger();
+
+        when(queryExecutor.getExternalTables(any(), any())).thenReturn(IntStream.range(0, listingSize)
+                .mapToObj(i -> i % 100 == 0
+                        ? expired("EXPIRED_" + i)
+                        : new ExternalTable("INVALID_" + i, "INVALID_LOCATION_" + i, null))
+                .peek(table -> {
+                    if (table.lastDdlTime == null) invalidRead.incrementAndGet();
+                }));
+        when(s3Client.hasObjectOlderThan(anyString(), anyLong())).thenAnswer(invocation -> {
+            maxReadAhead.accumulateAndGet(invalidRead.get() - lookedUp.incrementAndGet(), Math::max);
+            return new ObjectAgeCheck(null, false, 1);
+        });
 
         underTest.removeExpiredExternalTables(mockLambdaLogger);
 
-        verify(queryExecutor).startExpiredTablesQuery(TABLE_EXPIRY_SECONDS);
-        verify(queryExecutor).startInvalidTablesQuery();
-        verify(queryExecutor).getExpiredExternalTableNames(ExecuteStatementResponse.builder().id(getExpiredTablesId).build(), mockLambdaLogger);
-        verify(queryExecutor).getInvalidTables(ExecuteStatementResponse.builder().id(getInvalidTablesId).build(), mockLambdaLogger);
-        verify(queryExecutor, times(0)).removeExternalTables(any(), any());
-        verify(s3Client).getEarliestObjectCreatedDate(invalidTableLocation);
+        assertEquals(1, removedTables.size());
+        assertEquals(listingSize, removedTables.get(0).size());
+        // No more invalid tables are read than the scanner has lookups in flight
+        assertTrue(maxReadAhead.get() <= 2, "Read " + maxReadAhead.get() + " invalid tables ahead of their lookups");
+    }
+
+    @Test
+    public void removeExpiredExternalTables_resumed_shouldAwaitPendingBatchesAndSkipCheckedTables() {
+        long runStarted = Instant.now().getEpochSecond() - 60;
+        var resumeFrom = new ExpiryCheckpoint(runStarted, 0, Set.of("CHECKED"), List.of("PENDING_ID"), false);
+
+        when(queryExecutor.getExternalTables(any(), any())).thenReturn(Stream.of(
+                new ExternalTable("CHECKED", "CHECKED_LOCATION", null),
+                new ExternalTable("UNCHECKED", "UNCHECKED_LOCATION", null)
+        ));
+        when(s3Client.hasObjectOlderThan(anyString(), anyLong()))
+                .thenReturn(new ObjectAgeCheck(null, false, 1));
+
+        var run = underTest.removeExpiredExternalTables(resumeFrom, TimeBudget.unlimited(), mockLambdaLogger);
+
+        assertTrue(run.isComplete());
+        verify(queryExecutor).requestCompletes(eq("PENDING_ID"), eq(mockLambdaLogger), any());
+        verify(s3Client, never()).hasObjectOlderThan(eq("CHECKED_LOCATION"), anyLong());
+        assertEquals(singletonList(singletonList("UNCHECKED")), removedTables);
+    }
+
+    @Test
+    public void removeExpiredExternalTables_failure_shouldBeRethrown() {
+        doNothing().when(mockLambdaLogger).log(anyString(), eq(LogLevel.ERROR));
+        when(queryExecutor.getExternalTables(any(), any())).thenThrow(new IllegalStateException("Query failed"));
+
+        assertThrows(IllegalStateException.class, () -> underTest.removeExpiredExternalTables(mockLambdaLogger));
+    }
+
+    private void useStateStore(OptionalLong watermark, List<ExternalTable> changedTables) {
+        var s3Scanner = new S3MetadataScanner(s3Client, 2, new Backoff(0, 0, 1, 0), 0);
+        underTest = new RedShiftTableExpiryService(s3Scanner, discovery, stateStore, queryExecutor, TABLE_EXPIRY_SECONDS, EmfMetrics.disabled());
+
+        when(stateStore.isEnabled()).thenReturn(true);
+        when(stateStore.watermark()).thenReturn(watermark);
+        when(discovery.tablesChangedSince(anyLong(), any())).thenReturn(changedTables.stream());
+    }
+
+    private static ExternalTable expired(String tableName) {
+        return new ExternalTable(tableName, tableName + "_LOCATION", Instant.now().getEpochSecond() - TABLE_EXPIRY_SECONDS - 1);
     }
 }
@@ -4,27 +4,40 @@ import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import uk.gov.justice.digital.clients.dynamo.DynamoDbClient;
+import uk.gov.justice.digital.clients.dynamo.DynamoDbClient.TokenClaim;
 import uk.gov.justice.digital.clients.stepfunctions.StepFunctionsClient;
+import uk.gov.justice.digital.clients.stepfunctions.TerminalNotificationException;
+import uk.gov.justice.digital.common.EmfMetrics;
 import uk.gov.justice.digital.common.TaskDetail;
 
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
-import java.util.Optional;
+import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyNoInteractions;
+import static uk.gov.justice.digital.common.Utils.IGNORE_DMS_TASK_FAILURE_KEY;
+import static uk.gov.justice.digital.common.Utils.TASK_TOKEN_KEY;
 import static uk.gov.justice.digital.services.StepFunctionDMSNotificationService.DMS_TASK_FAILURE_EVENT_ID;
 import static uk.gov.justice.digital.services.StepFunctionDMSNotificationService.DMS_TASK_SUCCESS_EVENT_ID;
 import static uk.gov.justice.digital.services.test.Fixture.fixedClock;
@@ -54,55 +67,147 @@ class StepFunctionDMSNotificationServiceTest {
     }
 
     @Test
-    public void processStopEventShouldNotifyStepFunctionOfSuccessAndDeleteTokenWhenGivenSuccessEventId() {
+    public void processStopEventShouldNotifyStepFunctionOfSuccessUsingClaimedTokenWhenGivenSuccessEventId() {
         doNothing().when(mockLambdaLogger).log(anyString(), any());
-        when(mockDynamoDbClient.retrieveTaskDetail(eq(TABLE), any())).thenReturn(Optional.of(new TaskDetail(TOKEN, false)));
+        when(mockDynamoDbClient.claimTaskToken(eq(TABLE), any(), anyString(), anyLong())).thenReturn(TokenClaim.claimed(tokenItem(false)));
 
         undertest.processStopEvent(mockLambdaLogger, TABLE, "task-key", TASK_ARN, DMS_TASK_SUCCESS_EVENT_ID);
 
         verify(mockStepFunctionsClient, times(1)).notifyStepFunctionSuccess(eq(TOKEN));
-        verify(mockDynamoDbClient, times(1)).deleteToken(eq(TABLE), any());
+        verify(mockDynamoDbClient, never()).restoreTaskToken(anyString(), any());
         verifyNoMoreInteractions(mockStepFunctionsClient);
     }
 
     @Test
-    public void processStopEventShouldNotifyStepFunctionOfFailureAndDeleteTokenWhenGivenFailedEventIdAndIgnoreFailureIsFalse() {
+    public void processStopEventShouldNotifyStepFunctionOfFailureUsingClaimedTokenWhenGivenFailedEventIdAndIgnoreFailureIsFalse() {
         boolean ignoreFailure = false;
         doNothing().when(mockLambdaLogger).log(anyString(), any());
-        when(mockDynamoDbClient.retrieveTaskDetail(eq(TABLE), any())).thenReturn(Optional.of(new TaskDetail(TOKEN, ignoreFailure)));
+        when(mockDynamoDbClient.claimTaskToken(eq(TABLE), any(), anyString(), anyLong())).thenReturn(TokenClaim.claimed(tokenItem(ignoreFailure)));
 
         undertest.processStopEvent(mockLambdaLogger, TABLE, "task-key", TASK_ARN, DMS_TASK_FAILURE_EVENT_ID);
 
         verify(mockStepFunctionsClient, times(1)).notifyStepFunctionFailure(eq(TOKEN), anyString());
-        verify(mockDynamoDbClient, times(1)).deleteToken(eq(TABLE), any());
+        verify(mockDynamoDbClient, never()).restoreTaskToken(anyString(), any());
         verifyNoMoreInteractions(mockStepFunctionsClient);
     }
 
     @Test
-    public void processStopEventShouldNotifyStepFunctionOfSuccessAndDeleteTokenWhenGivenFailedEventIdAndIgnoreFailureIsTrue() {
+    public void processStopEventShouldNotifyStepFunctionOfSuccessUsingClaimedTokenWhenGivenFailedEventIdAndIgnoreFailureIsTrue() {
         boolean ignoreFailure = true;
         doNothing().when(mockLambdaLogger).log(anyString(), any());
-        when(mockDynamoDbClient.retrieveTaskDetail(eq(TABLE), any())).thenReturn(Optional.of(new TaskDetail(TOKEN, ignoreFailure)));
+        when(mockDynamoDbClient.claimTaskToken(eq(TABLE), any(), anyString(), anyLong())).thenReturn(TokenClaim.claimed(tokenItem(ignoreFailure)));
 
         undertest.processStopEvent(mockLambdaLogger, TABLE, "task-key", TASK_ARN, DMS_TASK_FAILURE_EVENT_ID);
 
         verify(mockStepFunctionsClient, times(1)).notifyStepFunctionSuccess(eq(TOKEN));
-        verify(mockDynamoDbClient, times(1)).deleteToken(eq(TABLE), any());
+        verify(mockDynamoDbClient, never()).restoreTaskToken(anyString(), any());
         verifyNoMoreInteractions(mockStepFunctionsClient);
     }
 
     @Test
-    public void processStopEventShouldNotNotifyStepFunctionsWhenTokenIsNotPresent() {
+    public void processStopEventShouldIgnoreDuplicateEventWhenTokenHasAlreadyBeenClaimed() {
         doNothing().when(mockLambdaLogger).log(anyString(), any());
-        when(mockDynamoDbClient.retrieveTaskDetail(eq(TABLE), any())).thenReturn(Optional.empty());
+        when(mockDynamoDbClient.claimTaskToken(eq(TABLE), any(), anyString(), anyLong())).thenReturn(TokenClaim.ALREADY_CLAIMED);
 
-        assertThrows(Exception.class, () -> undertest.processStopEvent(mockLambdaLogger, TABLE, "task-key", TASK_ARN, DMS_TASK_SUCCESS_EVENT_ID));
+        undertest.processStopEvent(mockLambdaLogger, TABLE, "task-key", TASK_ARN, DMS_TASK_SUCCESS_EVENT_ID);
 
-        verify(mockDynamoDbClient, times(1)).retrieveTaskDetail(eq(TABLE), any());
+        verify(mockDynamoDbClient, times(1)).claimTaskToken(eq(TABLE), any(), anyString(), anyLong());
         verifyNoInteractions(mockStepFunctionsClient);
         verifyNoMoreInteractions(mockDynamoDbClient);
     }
 
+    @Test
+    public void processStopEventShouldFailWhenThereIsNoTaskTokenInDynamoDb() {
+        doNothing().when(mockLambdaLogger).log(anyString(), any());
+        when(mockDynamoDbClient.claimTaskToken(eq(TABLE), any(), anyString(), anyLong())).thenReturn(TokenClaim.NOT_REGISTERED);
+
+        assertThrows(RuntimeException.class, () -> undertest.processStopEvent(mockLambdaLogger, TABLE, "task-key", TASK_ARN, DMS_TASK_SUCCESS_EVENT_ID));
+
+        verifyNoInteractions(mockStepFunctionsClient);
+        verify(mockDynamoDbClient, never()).restoreTaskToken(anyString(), any());
+    }
+
+    @Test
+    public void processStopEventShouldKeepClaimedMarkerForAWeek() {
+        doNothing().when(mockLambdaLogger).log(anyString(), any());
+        when(mockDynamoDbClient.claimTaskToken(eq(TABLE), any(), anyString(), anyLong())).thenReturn(TokenClaim.claimed(tokenItem(false)));
+
+        undertest.processStopEvent(mockLambdaLogger, TABLE, "task-key", TASK_ARN, DMS_TASK_SUCCESS_EVENT_ID);
+
+        verify(mockDynamoDbClient).claimTaskToken(
+                TABLE,
+                Map.of("task-key", AttributeValue.builder().s(TASK_ARN).build()),
+                fixedDateTime.format(DateTimeFormatter.ISO_DATE_TIME),
+                fixedDateTime.plusDays(7).toEpochSecond(ZoneOffset.UTC)
+        );
+    }
+
+    @Test
+    public void processStopEventShouldRestoreClaimedTokenWhenNotifyingStepFunctionFails() {
+        doNothing().when(mockLambdaLogger).log(anyString(), any());
+        when(mockDynamoDbClient.claimTaskToken(eq(TABLE), any(), anyString(), anyLong())).thenReturn(TokenClaim.claimed(tokenItem(false)));
+        doThrow(new RuntimeException("step functions unavailable")).when(mockStepFunctionsClient).notifyStepFunctionSuccess(TOKEN);
+
+        assertThrows(RuntimeException.class, () -> undertest.processStopEvent(mockLambdaLogger, TABLE, "task-key", TASK_ARN, DMS_TASK_SUCCESS_EVENT_ID));
+
+        verify(mockDynamoDbClient, times(1)).restoreTaskToken(TABLE, tokenItem(false));
+    }
+
+    @Test
+    public void processStopEventShouldRethrowNotifyFailureWithRestoreFailureSuppressed() {
+        doNothing().when(mockLambdaLogger).log(anyString(), any());
+        when(mockDynamoDbClient.claimTaskToken(eq(TABLE), any(), anyString(), anyLong())).thenReturn(TokenClaim.claimed(tokenItem(false)));
+        RuntimeException notifyError = new RuntimeException("step functions unavailable");
+        RuntimeException restoreError = new RuntimeException("dynamo unavailable");
+        doThrow(notifyError).when(mockStepFunctionsClient).notifyStepFunctionSuccess(TOKEN);
+        doThrow(restoreError).when(mockDynamoDbClient).restoreTaskToken(TABLE, tokenItem(false));
+
+        RuntimeException thrown = assertThrows(RuntimeException.class, () -> undertest.processStopEvent(mockLambdaLogger, TABLE, "task-key", TASK_ARN, DMS_TASK_SUCCESS_EVENT_ID));
+
+        assertSame(notifyError, thrown);
+        assertArrayEquals(new Throwable[]{restoreError}, thrown.getSuppressed());
+    }
+
+    @Test
+    public void processStopEventShouldDiscardClaimedTokenWhenStepFunctionRejectsIt() {
+        doNothing().when(mockLambdaLogger).log(anyString(), any());
+        when(mockDynamoDbClient.claimTaskToken(eq(TABLE), any(), anyString(), anyLong())).thenReturn(TokenClaim.claimed(tokenItem(false)));
+        doThrow(new TerminalNotificationException("task timed out", new RuntimeException()))
+                .when(mockStepFunctionsClient).notifyStepFunctionSuccess(TOKEN);
+
+        undertest.processStopEvent(mockLambdaLogger, TABLE, "task-key", TASK_ARN, DMS_TASK_SUCCESS_EVENT_ID);
+
+        verify(mockDynamoDbClient, never()).restoreTaskToken(anyString(), any());
+    }
+
+    @Test
+    public void processStopEventShouldRecordOutcomeAndTokenAgeMetrics() {
+        undertest = new StepFunctionDMSNotificationService(
+                mockDynamoDbClient,
+                mockStepFunctionsClient,
+                fixedClock,
+                new EmfMetrics("NAMESPACE", Map.of(), fixedClock)
+        );
+        var item = Map.of(
+                TASK_TOKEN_KEY, AttributeValue.builder().s(TOKEN).build(),
+                IGNORE_DMS_TASK_FAILURE_KEY, AttributeValue.builder().bool(true).build(),
+                DynamoDbClient.CREATED_AT_KEY, AttributeValue.builder()
+                        .s(fixedDateTime.minusMinutes(5).format(DateTimeFormatter.ISO_DATE_TIME))
+                        .build()
+        );
+        doNothing().when(mockLambdaLogger).log(anyString(), any());
+        when(mockDynamoDbClient.claimTaskToken(eq(TABLE), any(), anyString(), anyLong())).thenReturn(TokenClaim.claimed(item));
+
+        undertest.processStopEvent(mockLambdaLogger, TABLE, "task-key", TASK_ARN, DMS_TASK_FAILURE_EVENT_ID);
+        undertest.flushMetrics(mockLambdaLogger);
+
+        var recordCaptor = ArgumentCaptor.forClass(String.class);
+        verify(mockLambdaLogger).log(recordCaptor.capture());
+        assertTrue(recordCaptor.getValue().contains("\"FailureIgnored\":1"));
+        assertTrue(recordCaptor.getValue().contains("\"SuccessNotified\":1"));
+        assertTrue(recordCaptor.getValue().contains("\"TokenAge\":{\"Values\":[300000],\"Counts\":[1]}"));
+    }
+
     @Test
     public void registerTaskDetailsShouldSaveTaskDetails() {
         boolean ignoreTaskFailure = false;
@@ -120,4 +225,29 @@ class StepFunctionDMSNotificationServiceTest {
                 );
     }
 
-}
\ No newline at end of file
+    @Test
+    public void registerTaskDetailsShouldSaveTaskDetailsOfManyTasksInOneCall() {
+        Map<String, TaskDetail> taskDetails = Map.of(
+                TASK_ARN, new TaskDetail(TOKEN, false),
+                "other-task-arn", new TaskDetail("other-token", true)
+        );
+
+        undertest.registerTaskDetails(taskDetails, TABLE, TOKEN_EXPIRY_DAYS);
+
+        verify(mockDynamoDbClient, times(1))
+                .saveTaskDetails(
+                        TABLE,
+                        taskDetails,
+                        fixedDateTime.plusDays(TOKEN_EXPIRY_DAYS).toEpochSecond(ZoneOffset.UTC),
+                        fixedDateTime.format(DateTimeFormatter.ISO_DATE_TIME)
+                );
+    }
+
+
+    private static Map<String, AttributeValue> tokenItem(boolean ignoreFailure) {
+        return Map.of(
+                TASK_TOKEN_KEY, AttributeValue.builder().s(TOKEN).build(),
+                IGNORE_DMS_TASK_FAILURE_KEY, AttributeValue.builder().bool(ignoreFailure).build()
+        );
+    }
+}